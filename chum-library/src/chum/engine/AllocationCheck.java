@@ -0,0 +1,278 @@
+package chum.engine;
+
+import android.os.Debug;
+
+
+/**
+   Checks that a tree runs frames without allocating memory, using a
+   HeadlessGameController -- so the garbage collector has nothing to do
+   during game play.
+
+   run() steps the controller through some warm-up frames, then measures
+   the bytes allocated in each of the frames that follow.  Since a headless
+   controller updates, renders and draws each frame in the calling thread,
+   the allocations of both the game thread and render thread work are
+   counted.  If any frame allocates, a few more frames are run with a
+   GameTree.Probe installed, to find which nodes (and RenderPrimitives)
+   are allocating; report() lists them.  Sites that allocate only once in
+   a while may not show up.
+
+   The counts come from the Meter, which by default uses the per-thread
+   allocation counting in android.os.Debug.  It can be replaced, e.g. with
+   one based on the JVM's ThreadMXBean when running off-device.
+*/
+public class AllocationCheck implements GameTree.Probe {
+
+    /**
+       Source for the number of bytes the calling thread has allocated
+    */
+    public interface Meter {
+        /** Start counting */
+        void start();
+
+        /** Stop counting */
+        void stop();
+
+        /** @return the number of bytes allocated by the calling thread so far */
+        long allocated();
+    }
+
+
+    /** Meter using android.os.Debug's allocation counting */
+    public static final Meter DEBUG_METER = new Meter() {
+            public void start() {
+                Debug.startAllocCounting();
+            }
+
+            public void stop() {
+                Debug.stopAllocCounting();
+            }
+
+            public long allocated() {
+                return Debug.getThreadAllocSize();
+            }
+        };
+
+
+    /** The controller being checked */
+    protected final HeadlessGameController controller;
+
+    /** The source of the allocation counts */
+    public Meter meter = DEBUG_METER;
+
+    /** Number of frames to probe, if any frames allocate */
+    public int diagnoseFrames = 10;
+
+    /**
+       Number of measured frames allowed to allocate -- the VM can allocate
+       on its own now and then (e.g. when it first links a method), which
+       isn't the tree's doing and doesn't recur
+    */
+    public int toleratedFrames;
+
+    /** Number of frames measured */
+    public int framesChecked;
+
+    /** Number of the measured frames that allocated anything */
+    public int allocatingFrames;
+
+    /** Total bytes allocated in the measured frames */
+    public long totalBytes;
+
+    /** The most bytes allocated in any one frame */
+    public long maxFrameBytes;
+
+    /** Where allocations were found by the probe, and how much */
+    protected Object[] sites = new Object[16];
+    protected int[] sitePasses = new int[16];
+    protected long[] siteBytes = new long[16];
+    protected int[] siteCalls = new int[16];
+    protected int numSites;
+
+    /** Bytes allocated in the probed frames, in total and by the sites */
+    protected long diagnosedBytes;
+    protected long probedBytes;
+
+    /**
+       For each open span, the count when it began, and the bytes allocated
+       in the spans nested in it -- so each site is charged only for its own
+    */
+    protected long[] begun = new long[64];
+    protected long[] nested = new long[64];
+    protected int depth;
+
+
+    public AllocationCheck(HeadlessGameController controller) {
+        this.controller = controller;
+    }
+
+
+    /**
+       Run some frames to warm up, then count the allocations in the
+       frames after that
+
+       @return the total bytes allocated in the measured frames
+     */
+    public long run(int warmup, int frames) {
+        controller.step(warmup);
+
+        meter.start();
+        try {
+            for(int i=0; i<frames; ++i) {
+                long before = meter.allocated();
+                controller.step(1);
+                long bytes = meter.allocated() - before;
+
+                framesChecked++;
+                if ( bytes > 0 ) {
+                    allocatingFrames++;
+                    totalBytes += bytes;
+                    if ( bytes > maxFrameBytes ) maxFrameBytes = bytes;
+                }
+            }
+
+            if ( totalBytes > 0 ) diagnose();
+        } finally {
+            meter.stop();
+        }
+        return totalBytes;
+    }
+
+
+    /**
+       Run some frames with the probe installed, to find the allocating
+       sites
+     */
+    protected void diagnose() {
+        GameTree tree = controller.tree;
+        GameTree.Probe old = tree.probe;
+        tree.probe = this;
+        try {
+            for(int i=0; i<diagnoseFrames; ++i) {
+                long before = meter.allocated();
+                controller.step(1);
+                diagnosedBytes += meter.allocated() - before;
+            }
+        } finally {
+            tree.probe = old;
+        }
+    }
+
+
+    public void begin(Object site, int pass) {
+        if ( depth == begun.length ) {
+            long[] newBegun = new long[depth*2];
+            System.arraycopy(begun,0,newBegun,0,depth);
+            begun = newBegun;
+            long[] newNested = new long[depth*2];
+            System.arraycopy(nested,0,newNested,0,depth);
+            nested = newNested;
+        }
+        nested[depth] = 0;
+        begun[depth++] = meter.allocated();
+    }
+
+
+    public void end(Object site, int pass) {
+        if ( depth == 0 ) return;
+        long total = meter.allocated() - begun[--depth];
+        if ( depth > 0 ) nested[depth-1] += total;
+
+        long bytes = total - nested[depth];
+        if ( bytes <= 0 ) return;
+
+        int i = 0;
+        while ( i < numSites && (sites[i] != site || sitePasses[i] != pass) ) i++;
+        if ( i == numSites ) {
+            if ( numSites == sites.length ) grow();
+            sites[i] = site;
+            sitePasses[i] = pass;
+            numSites++;
+        }
+        siteBytes[i] += bytes;
+        siteCalls[i]++;
+        probedBytes += bytes;
+    }
+
+
+    protected void grow() {
+        int length = sites.length * 2;
+
+        Object[] newSites = new Object[length];
+        System.arraycopy(sites,0,newSites,0,numSites);
+        sites = newSites;
+
+        int[] newPasses = new int[length];
+        System.arraycopy(sitePasses,0,newPasses,0,numSites);
+        sitePasses = newPasses;
+
+        long[] newBytes = new long[length];
+        System.arraycopy(siteBytes,0,newBytes,0,numSites);
+        siteBytes = newBytes;
+
+        int[] newCalls = new int[length];
+        System.arraycopy(siteCalls,0,newCalls,0,numSites);
+        siteCalls = newCalls;
+    }
+
+
+    /** @return whether no more than toleratedFrames frames allocated */
+    public boolean passed() {
+        return allocatingFrames <= toleratedFrames;
+    }
+
+
+    /** @return the number of allocating sites found by the probe */
+    public int numSites() {
+        return numSites;
+    }
+
+
+    /**
+       Describe the allocations that were found, with the allocating sites
+       listed by the most bytes first
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%d bytes allocated in %d of %d frames (max %d in a frame)",
+                                totalBytes, allocatingFrames, framesChecked, maxFrameBytes));
+        if ( totalBytes == 0 ) return sb.toString();
+
+        boolean[] listed = new boolean[numSites];
+        for(int n=0; n<numSites; ++n) {
+            int most = -1;
+            for(int i=0; i<numSites; ++i) {
+                if ( listed[i] ) continue;
+                if ( most < 0 || siteBytes[i] > siteBytes[most] ) most = i;
+            }
+            listed[most] = true;
+            sb.append(String.format("\n  %-6s %s: %d bytes in %d calls",
+                                    passName(sitePasses[most]), siteName(sites[most]),
+                                    siteBytes[most], siteCalls[most]));
+        }
+
+        long outside = diagnosedBytes - probedBytes;
+        if ( outside > 0 )
+            sb.append(String.format("\n  %d bytes outside the tree (events, timers, etc)",outside));
+        return sb.toString();
+    }
+
+
+    protected static String passName(int pass) {
+        switch(pass) {
+        case UPDATE: return "update";
+        case RENDER: return "render";
+        case EVENT: return "event";
+        default: return "draw";
+        }
+    }
+
+
+    protected static String siteName(Object site) {
+        String name = site.getClass().getName();
+        if ( site instanceof GameNode && ((GameNode)site).name != null )
+            name += " '" + ((GameNode)site).name + "'";
+        return name;
+    }
+
+}
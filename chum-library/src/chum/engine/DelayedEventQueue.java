@@ -0,0 +1,176 @@
+package chum.engine;
+
+
+/**
+   GameEvents waiting to be posted at a later game time (GameController's
+   totalElapsed), kept in a binary heap ordered by due time.  Events due at
+   the same time are posted in the order they were added.
+
+   GameController posts the events that are due at the start of each update,
+   in the game thread, just before the event queue is dispatched -- so a
+   delayed event is dispatched in the first update at or after its due time.
+   Since it runs on game time, time spent paused doesn't count toward the
+   delay.
+*/
+public class DelayedEventQueue {
+
+    /** The game time each event is due */
+    protected long[] due = new long[16];
+
+    /** The order each event was added, for breaking ties */
+    protected long[] order = new long[16];
+
+    /** The node each event is posted from */
+    protected GameNode[] nodes = new GameNode[16];
+
+    protected GameEvent[] events = new GameEvent[16];
+
+    /** Whether each event propagates up (or else down) */
+    protected boolean[] up = new boolean[16];
+
+    /** Number of events waiting */
+    protected int size;
+
+    /** Counter for the order events are added */
+    protected long added;
+
+
+    /**
+       Add an event to be posted from a node once the game time reaches due
+     */
+    public synchronized void post(GameNode node, GameEvent event, boolean postUp, long dueTime) {
+        if ( size == due.length ) grow();
+        int i = size++;
+        set(i,dueTime,added++,node,event,postUp);
+        siftUp(i);
+    }
+
+
+    /** @return the number of events waiting */
+    public synchronized int size() {
+        return size;
+    }
+
+
+    /** @return the due time of the next event, or Long.MAX_VALUE if none */
+    public synchronized long nextDue() {
+        return size > 0 ? due[0] : Long.MAX_VALUE;
+    }
+
+
+    /**
+       Post all the events that are due by the given game time
+
+       @return the number of events posted
+     */
+    public int postDue(long now) {
+        int count = 0;
+        while ( true ) {
+            GameNode node;
+            GameEvent event;
+            boolean postUp;
+            synchronized(this) {
+                if ( size == 0 || due[0] > now ) return count;
+                node = nodes[0];
+                event = events[0];
+                postUp = up[0];
+
+                int last = --size;
+                set(0,due[last],order[last],nodes[last],events[last],up[last]);
+                nodes[last] = null;
+                events[last] = null;
+                if ( size > 0 ) siftDown(0);
+            }
+
+            if ( postUp )
+                node.postUp(event);
+            else
+                node.postDown(event);
+            count++;
+        }
+    }
+
+
+    /**
+       Drop all the waiting events, returning them to the pool
+     */
+    public synchronized void clear() {
+        for(int i=0; i<size; ++i) {
+            events[i].recycle();
+            events[i] = null;
+            nodes[i] = null;
+        }
+        size = 0;
+    }
+
+
+    protected final void set(int i, long dueTime, long ord, GameNode node, GameEvent event, boolean postUp) {
+        due[i] = dueTime;
+        order[i] = ord;
+        nodes[i] = node;
+        events[i] = event;
+        up[i] = postUp;
+    }
+
+
+    protected final boolean before(int a, int b) {
+        return due[a] < due[b] || (due[a] == due[b] && order[a] < order[b]);
+    }
+
+
+    protected final void swap(int a, int b) {
+        long d = due[a]; due[a] = due[b]; due[b] = d;
+        long o = order[a]; order[a] = order[b]; order[b] = o;
+        GameNode n = nodes[a]; nodes[a] = nodes[b]; nodes[b] = n;
+        GameEvent e = events[a]; events[a] = events[b]; events[b] = e;
+        boolean u = up[a]; up[a] = up[b]; up[b] = u;
+    }
+
+
+    protected void siftUp(int i) {
+        while ( i > 0 ) {
+            int parent = (i-1) >> 1;
+            if ( !before(i,parent) ) return;
+            swap(i,parent);
+            i = parent;
+        }
+    }
+
+
+    protected void siftDown(int i) {
+        while ( true ) {
+            int child = 2*i + 1;
+            if ( child >= size ) return;
+            if ( child+1 < size && before(child+1,child) ) child++;
+            if ( !before(child,i) ) return;
+            swap(i,child);
+            i = child;
+        }
+    }
+
+
+    protected void grow() {
+        int length = due.length * 2;
+
+        long[] newDue = new long[length];
+        System.arraycopy(due,0,newDue,0,size);
+        due = newDue;
+
+        long[] newOrder = new long[length];
+        System.arraycopy(order,0,newOrder,0,size);
+        order = newOrder;
+
+        GameNode[] newNodes = new GameNode[length];
+        System.arraycopy(nodes,0,newNodes,0,size);
+        nodes = newNodes;
+
+        GameEvent[] newEvents = new GameEvent[length];
+        System.arraycopy(events,0,newEvents,0,size);
+        events = newEvents;
+
+        boolean[] newUp = new boolean[length];
+        System.arraycopy(up,0,newUp,0,size);
+        up = newUp;
+    }
+
+}
@@ -0,0 +1,368 @@
+package chum.engine;
+
+import chum.util.Log;
+
+import android.view.MotionEvent;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+
+/**
+   Records a play session, so it can be replayed exactly by an EventReplayer
+   driving a HeadlessGameController -- e.g. to turn a real session into a
+   repeatable benchmark.
+
+   What makes one run differ from the next is the input, the frame timing,
+   and the random numbers, so that is what gets recorded:
+   <ul>
+   <li>the seed for GameController.random, which is reset when recording starts
+   <li>the frame delta of each frame, and the step of each update of the tree
+   <li>each event posted from outside the game loop (input, UI thread
+       callbacks, other threads, ...), along with its payload (e.g. a copy of
+       the MotionEvent), the history of events merged into it while it
+       waited in the queue, and where it fell among the events dispatched
+       in that update
+   </ul>
+   Events posted by the tree itself are not recorded, since the replayed
+   tree posts them again on its own -- only their number is noted for each
+   update, as a check that the replay hasn't diverged.  GAME_INIT is not
+   recorded either, since every controller posts it when it is set up.
+
+   Event payloads are recorded if they are null, a MotionEvent, or a node in
+   the tree;  others are replayed as null.  Subclasses (and a matching
+   EventReplayer) can handle more by overriding writeObject().
+
+   The recording is a compact binary stream, written as the game runs.
+   Recording should start before the game does, so the replay can start
+   from a freshly set up tree.
+*/
+public class EventRecorder implements GameController.EventQueue.Tap {
+
+    static final int MAGIC = 0x43485243; // "CHRC"
+    static final int VERSION = 2;
+
+    // Record tags
+    static final int END = 0;
+    static final int FRAME = 1;
+    static final int TICK = 2;
+    static final int EVENT = 3;
+    static final int DISPATCHED = 4;
+    static final int RENDERED = 5;
+
+    // Event flags
+    static final int FLAG_BVAL = 1;
+    static final int FLAG_UP = 2;
+
+    // Payload kinds
+    static final int OBJECT_NULL = 0;
+    static final int OBJECT_MOTION = 1;
+    static final int OBJECT_NODE = 2;
+    static final int OBJECT_UNKNOWN = 3;
+
+
+    protected final DataOutputStream out;
+
+    /** The controller being recorded */
+    protected GameController controller;
+
+    /** The seed given to GameController.random */
+    public long seed;
+
+    /** Number of frames recorded */
+    public int frames;
+
+    /** Number of events recorded */
+    public int events;
+
+    /** Set if writing the recording failed, which stops the recording */
+    public IOException error;
+
+    /** The thread running the frames, and whether it is in one */
+    protected volatile Thread gameThread;
+    protected boolean inFrame;
+
+    /** totalElapsed as of the last update recorded */
+    protected long lastElapsed;
+
+    /** Events dispatched so far in the current update */
+    protected int dispatchedInTick;
+
+    /** Events posted from outside the game loop, waiting to be dispatched */
+    protected GameEvent[] pending = new GameEvent[16];
+    protected volatile int numPending;
+
+
+    public EventRecorder(OutputStream out) {
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+    }
+
+
+    /**
+       Start recording a controller, with a new random seed
+     */
+    public void start(GameController controller) throws IOException {
+        start(controller,System.nanoTime());
+    }
+
+
+    /**
+       Start recording a controller.  GameController.random is reset with
+       the given seed.
+     */
+    public void start(GameController controller, long seed) throws IOException {
+        this.controller = controller;
+        this.seed = seed;
+        lastElapsed = controller.totalElapsed;
+        GameController.random.setSeed(seed);
+
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeLong(seed);
+        writeVarLong(lastElapsed);
+
+        controller.events.tap = this;
+        controller.recorder = this;
+    }
+
+
+    /**
+       Stop recording, and close the stream
+     */
+    public void stop() throws IOException {
+        if ( controller != null ) {
+            if ( controller.recorder == this ) controller.recorder = null;
+            if ( controller.events.tap == this ) controller.events.tap = null;
+            controller = null;
+        }
+        if ( error != null ) throw error;
+        out.writeByte(END);
+        out.close();
+    }
+
+
+    /** Called by the controller at the start of each frame's updates */
+    void frame(long frameDelta) {
+        gameThread = Thread.currentThread();
+        inFrame = true;
+        try {
+            out.writeByte(FRAME);
+            writeVarLong(frameDelta);
+            frames++;
+        } catch(IOException e) {
+            fail(e);
+        }
+    }
+
+
+    /** Called by the controller at the start of each update of the tree */
+    void tick(long millis) {
+        long elapsed = controller.totalElapsed;
+        dispatchedInTick = 0;
+        try {
+            out.writeByte(TICK);
+            writeVarLong(elapsed - lastElapsed);
+            writeVarLong(millis);
+        } catch(IOException e) {
+            fail(e);
+        }
+        lastElapsed = elapsed;
+    }
+
+
+    /** Called by the controller once the frame's render chain is built */
+    void rendered(float alpha) {
+        inFrame = false;
+        try {
+            out.writeByte(RENDERED);
+            out.writeFloat(alpha);
+        } catch(IOException e) {
+            fail(e);
+        }
+    }
+
+
+    /**
+       Note events posted from outside the game loop.  The event itself is
+       recorded when it is dispatched, which is when its place in the
+       order of events is known.
+     */
+    public void posted(GameEvent event) {
+        if ( inFrame && Thread.currentThread() == gameThread ) return;
+        if ( event.type == GameEvent.GAME_INIT ) return;
+
+        synchronized(this) {
+            if ( numPending == pending.length ) {
+                GameEvent[] newPending = new GameEvent[numPending*2];
+                System.arraycopy(pending,0,newPending,0,numPending);
+                pending = newPending;
+            }
+            pending[numPending++] = event;
+        }
+    }
+
+
+    public void dispatching(GameEvent event) {
+        if ( numPending > 0 && takePending(event) ) {
+            try {
+                out.writeByte(EVENT);
+                writeVarInt(dispatchedInTick);
+                writeEvent(event);
+                events++;
+            } catch(IOException e) {
+                fail(e);
+            }
+        }
+        dispatchedInTick++;
+    }
+
+
+    public void dispatched() {
+        try {
+            out.writeByte(DISPATCHED);
+            writeVarInt(dispatchedInTick);
+        } catch(IOException e) {
+            fail(e);
+        }
+    }
+
+
+    /** @return whether the event was posted from outside, and take it off the list */
+    protected synchronized boolean takePending(GameEvent event) {
+        for(int i=0; i<numPending; ++i) {
+            if ( pending[i] == event ) {
+                pending[i] = pending[--numPending];
+                pending[numPending] = null;
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+       Write an event, followed by the events it superseded while it was
+       waiting in the queue (see EventQueue.post()), so the replayed
+       handler sees the same history
+     */
+    protected void writeEvent(GameEvent event) throws IOException {
+        writeEventFields(event);
+        writeVarLong(event.coalesceKey);
+        writeVarInt(event.historySize);
+        int written = 0;
+        for(GameEvent h = event.history; h != null && written < event.historySize;
+            h = h.history, ++written)
+            writeEventFields(h);
+    }
+
+
+    protected void writeEventFields(GameEvent event) throws IOException {
+        out.writeInt(event.type);
+        writeVarInt((event.ival << 1) ^ (event.ival >> 31));
+        out.writeFloat(event.fval);
+        out.writeByte((event.bval ? FLAG_BVAL : 0) | (event.up ? FLAG_UP : 0));
+        writeNode(event.origin);
+        writeObject(event.object);
+    }
+
+
+    /**
+       Write an event's object payload:  a kind byte, then whatever the
+       kind needs.  Override to record more kinds (along with
+       EventReplayer.readObject())
+     */
+    protected void writeObject(Object object) throws IOException {
+        if ( object == null ) {
+            out.writeByte(OBJECT_NULL);
+        } else if ( object instanceof MotionEvent ) {
+            MotionEvent motion = (MotionEvent)object;
+            out.writeByte(OBJECT_MOTION);
+            writeVarLong(motion.getDownTime());
+            writeVarLong(motion.getEventTime() - motion.getDownTime());
+            writeVarInt(motion.getAction());
+            out.writeFloat(motion.getX());
+            out.writeFloat(motion.getY());
+            out.writeFloat(motion.getPressure());
+            out.writeFloat(motion.getSize());
+            writeVarInt(motion.getMetaState());
+            out.writeFloat(motion.getXPrecision());
+            out.writeFloat(motion.getYPrecision());
+            writeVarInt(motion.getDeviceId());
+            writeVarInt(motion.getEdgeFlags());
+        } else if ( object instanceof GameNode ) {
+            out.writeByte(OBJECT_NODE);
+            writeNode((GameNode)object);
+        } else {
+            out.writeByte(OBJECT_UNKNOWN);
+        }
+    }
+
+
+    /**
+       Write a node as its path from the root of the tree:  the number of
+       steps, then the child index at each step.  -1 if it isn't in the tree
+     */
+    protected void writeNode(GameNode node) throws IOException {
+        int depth = 0;
+        GameNode n = node;
+        while ( n != null && n != controller.tree ) {
+            depth++;
+            n = n.parent;
+        }
+        if ( n == null ) {
+            writeVarInt(-1);
+            return;
+        }
+
+        int[] path = new int[depth];
+        n = node;
+        for(int d=depth-1; d>=0; --d, n = n.parent) {
+            path[d] = indexIn(n.parent,n);
+            if ( path[d] < 0 ) {
+                writeVarInt(-1);
+                return;
+            }
+        }
+
+        writeVarInt(depth);
+        for(int d=0; d<depth; ++d) writeVarInt(path[d]);
+    }
+
+
+    protected static int indexIn(GameNode parent, GameNode child) {
+        if ( parent == null ) return -1;
+        return parent.indexOf(child);
+    }
+
+
+    /** Write a small int in 1-5 bytes, 7 bits at a time */
+    protected void writeVarInt(int value) throws IOException {
+        while ( (value & ~0x7f) != 0 ) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+
+    protected void writeVarLong(long value) throws IOException {
+        while ( (value & ~0x7fL) != 0 ) {
+            out.writeByte((int)(value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int)value);
+    }
+
+
+    protected void fail(IOException e) {
+        Log.w("EventRecorder: recording failed: %s",e);
+        error = e;
+        if ( controller != null ) {
+            if ( controller.recorder == this ) controller.recorder = null;
+            if ( controller.events.tap == this ) controller.events.tap = null;
+        }
+    }
+
+}
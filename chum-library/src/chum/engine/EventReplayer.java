@@ -0,0 +1,333 @@
+package chum.engine;
+
+import chum.util.Histogram;
+
+import android.view.MotionEvent;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+
+/**
+   Replays a session recorded by an EventRecorder, by driving a
+   HeadlessGameController through the same frames:  each update of the
+   tree gets the recorded step and game time, the recorded events are
+   dispatched at the same point among the tree's own events, and
+   GameController.random is reset to the recorded seed.  So a tree that
+   only depends on those runs exactly as it did when it was recorded.
+
+   The controller's clock isn't used, since everything it would
+   have done is in the recording.  The tree should be set up the
+   same way as when recording started, usually fresh.
+
+   If the number of events dispatched in an update differs from the
+   recording, the replay has diverged (e.g. the tree depends on something
+   else that wasn't recorded) -- those updates are counted in mismatches.
+*/
+public class EventReplayer implements GameController.EventQueue.Tap {
+
+    protected final DataInputStream in;
+
+    /** The recorded seed for GameController.random */
+    public final long seed;
+
+    /** The recorded totalElapsed when recording started */
+    public final long startElapsed;
+
+    /** The controller being driven */
+    protected HeadlessGameController controller;
+
+    /** Number of frames replayed */
+    public int frames;
+
+    /** Number of recorded events replayed */
+    public int events;
+
+    /** Number of updates where the events dispatched didn't match the recording */
+    public int mismatches;
+
+    /** If set, the time taken for each frame replayed (nanoseconds) */
+    public Histogram frameTimes;
+
+    /** Whether the end of the recording has been reached */
+    protected boolean ended;
+
+    /** Recorded events for the current update, and where they go among the dispatched events */
+    protected GameEvent[] tickEvents = new GameEvent[16];
+    protected int[] tickIndexes = new int[16];
+    protected int numTickEvents;
+    protected int nextTickEvent;
+
+    /** Events dispatched so far in the current update, and the number recorded */
+    protected int dispatchedInTick;
+    protected int recordedInTick;
+
+
+    /**
+       Open a recording, reading its header
+     */
+    public EventReplayer(InputStream in) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(in));
+        if ( this.in.readInt() != EventRecorder.MAGIC )
+            throw new IOException("Not an event recording");
+        int version = this.in.readByte();
+        if ( version != EventRecorder.VERSION )
+            throw new IOException("Unsupported event recording version " + version);
+        seed = this.in.readLong();
+        startElapsed = readVarLong();
+    }
+
+
+    /**
+       Replay the whole recording on a controller that has been set up
+
+       @return the number of frames replayed
+     */
+    public int run(HeadlessGameController controller) throws IOException {
+        begin(controller);
+        try {
+            while ( replayFrame() ) {}
+        } finally {
+            end();
+        }
+        return frames;
+    }
+
+
+    /**
+       Start replaying on a controller that has been set up, for
+       stepping through with replayFrame().  Call end() when done.
+     */
+    public void begin(HeadlessGameController controller) {
+        this.controller = controller;
+        controller.totalElapsed = startElapsed;
+        controller.recorder = null;
+        controller.events.tap = this;
+        GameController.random.setSeed(seed);
+    }
+
+
+    /**
+       Stop replaying, and close the recording
+     */
+    public void end() throws IOException {
+        if ( controller != null && controller.events.tap == this )
+            controller.events.tap = null;
+        controller = null;
+        in.close();
+    }
+
+
+    /**
+       Replay the next frame of the recording
+
+       @return false if the end of the recording has been reached
+     */
+    public boolean replayFrame() throws IOException {
+        if ( ended ) return false;
+
+        int tag = in.readByte();
+        if ( tag == EventRecorder.END ) {
+            ended = true;
+            return false;
+        }
+        if ( tag != EventRecorder.FRAME )
+            throw new IOException("Expected a frame in the recording, got " + tag);
+
+        long start = System.nanoTime();
+        controller.lastFrameStart = controller.currentFrameStart;
+        controller.frameDelta = readVarLong();
+        controller.currentFrameStart += controller.frameDelta;
+        controller.frameCounter++;
+
+        while ( (tag = in.readByte()) == EventRecorder.TICK ) {
+            controller.totalElapsed += readVarLong();
+            long millis = readVarLong();
+            readTickEvents();
+            controller.updateTree(millis);
+            if ( dispatchedInTick != recordedInTick ) mismatches++;
+        }
+        if ( tag != EventRecorder.RENDERED )
+            throw new IOException("Expected the end of a frame in the recording, got " + tag);
+
+        controller.renderContext.alpha = in.readFloat();
+        controller.tree.render(controller.renderContext);
+        controller.renderReady();
+        controller.framesRun++;
+        frames++;
+
+        if ( frameTimes != null ) frameTimes.record(System.nanoTime() - start);
+        return true;
+    }
+
+
+    /**
+       Read the recorded events for an update, up to the number of events
+       dispatched in it
+     */
+    protected void readTickEvents() throws IOException {
+        numTickEvents = nextTickEvent = 0;
+        dispatchedInTick = 0;
+
+        int tag;
+        while ( (tag = in.readByte()) == EventRecorder.EVENT ) {
+            if ( numTickEvents == tickEvents.length ) {
+                GameEvent[] newEvents = new GameEvent[numTickEvents*2];
+                System.arraycopy(tickEvents,0,newEvents,0,numTickEvents);
+                tickEvents = newEvents;
+                int[] newIndexes = new int[numTickEvents*2];
+                System.arraycopy(tickIndexes,0,newIndexes,0,numTickEvents);
+                tickIndexes = newIndexes;
+            }
+            tickIndexes[numTickEvents] = readVarInt();
+            tickEvents[numTickEvents++] = readEvent();
+        }
+        if ( tag != EventRecorder.DISPATCHED )
+            throw new IOException("Expected the end of an update in the recording, got " + tag);
+        recordedInTick = readVarInt();
+    }
+
+
+    public void posted(GameEvent event) {
+    }
+
+
+    /**
+       Dispatch the recorded events that came before this one
+     */
+    public void dispatching(GameEvent event) {
+        deliverRecorded(false);
+        dispatchedInTick++;
+    }
+
+
+    /**
+       Dispatch the rest of the recorded events for the update
+     */
+    public void dispatched() {
+        deliverRecorded(true);
+    }
+
+
+    /**
+       Dispatch the recorded events that are due at this point in the
+       update (or all the rest of them)
+     */
+    protected void deliverRecorded(boolean all) {
+        while ( nextTickEvent < numTickEvents &&
+                (all || tickIndexes[nextTickEvent] <= dispatchedInTick) ) {
+            GameEvent event = tickEvents[nextTickEvent];
+            tickEvents[nextTickEvent++] = null;
+            controller.events.deliver(event);
+            event.recycle();
+            dispatchedInTick++;
+            events++;
+        }
+    }
+
+
+    /**
+       Read an event, along with the history of events it superseded
+     */
+    protected GameEvent readEvent() throws IOException {
+        GameEvent event = readEventFields();
+        event.coalesceKey = readVarLong();
+        event.historySize = readVarInt();
+        GameEvent last = event;
+        for(int h=0; h<event.historySize; ++h) {
+            last.history = readEventFields();
+            last = last.history;
+        }
+        return event;
+    }
+
+
+    protected GameEvent readEventFields() throws IOException {
+        GameEvent event = GameEvent.obtain(in.readInt());
+        int ival = readVarInt();
+        event.ival = (ival >>> 1) ^ -(ival & 1);
+        event.fval = in.readFloat();
+        int flags = in.readByte();
+        event.bval = (flags & EventRecorder.FLAG_BVAL) != 0;
+        event.up = (flags & EventRecorder.FLAG_UP) != 0;
+        event.origin = readNode();
+        if ( event.origin == null ) event.origin = controller.tree;
+        event.object = readObject(in.readByte());
+        return event;
+    }
+
+
+    /**
+       Read an event's object payload of the given kind.  Override to
+       replay the kinds added in an EventRecorder subclass.
+     */
+    protected Object readObject(int kind) throws IOException {
+        switch(kind) {
+        case EventRecorder.OBJECT_NULL:
+        case EventRecorder.OBJECT_UNKNOWN:
+            return null;
+        case EventRecorder.OBJECT_NODE:
+            return readNode();
+        case EventRecorder.OBJECT_MOTION:
+            long downTime = readVarLong();
+            long eventTime = downTime + readVarLong();
+            int action = readVarInt();
+            float x = in.readFloat();
+            float y = in.readFloat();
+            float pressure = in.readFloat();
+            float size = in.readFloat();
+            int metaState = readVarInt();
+            float xPrecision = in.readFloat();
+            float yPrecision = in.readFloat();
+            int deviceId = readVarInt();
+            int edgeFlags = readVarInt();
+            return MotionEvent.obtain(downTime,eventTime,action,x,y,pressure,size,
+                                      metaState,xPrecision,yPrecision,deviceId,edgeFlags);
+        default:
+            throw new IOException("Unknown event payload in the recording: " + kind);
+        }
+    }
+
+
+    /**
+       Read a node's path from the root of the tree
+       @return the node, or null if it isn't in the tree
+     */
+    protected GameNode readNode() throws IOException {
+        int depth = readVarInt();
+        if ( depth < 0 ) return null;
+
+        GameNode node = controller.tree;
+        for(int d=0; d<depth; ++d) {
+            int index = readVarInt();
+            if ( node == null ) continue;
+            node = index < node.num_children ? node.children[index] : null;
+        }
+        return node;
+    }
+
+
+    protected int readVarInt() throws IOException {
+        int value = 0;
+        for(int shift=0; shift<35; shift+=7) {
+            int b = in.readByte();
+            value |= (b & 0x7f) << shift;
+            if ( (b & 0x80) == 0 ) return value;
+        }
+        throw new IOException("Bad varint in the recording");
+    }
+
+
+    protected long readVarLong() throws IOException {
+        long value = 0;
+        for(int shift=0; shift<70; shift+=7) {
+            int b = in.readByte();
+            value |= (long)(b & 0x7f) << shift;
+            if ( (b & 0x80) == 0 ) return value;
+        }
+        throw new IOException("Bad varint in the recording");
+    }
+
+}
@@ -2,7 +2,9 @@ package chum.engine;
 
 import chum.gl.RenderContext;
 import chum.gl.render.primitive.RenderPrimitive;
+import chum.util.Histogram;
 import chum.util.Log;
+import chum.util.Pool;
 
 import android.opengl.GLSurfaceView;
 import android.os.Handler;
@@ -10,6 +12,10 @@ import android.os.SystemClock;
 import android.view.View;
 
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
@@ -21,8 +27,8 @@ import javax.microedition.khronos.opengles.GL10;
  * It is typically created by a GameActivity, but GameActivity is not explicitly
  * required.
  * 
- * TODO: can't currently use GameController without GameActivity -- need to get
- * cleaner separation
+ * To run a GameTree without an Activity or GLSurfaceView (tests, benchmarks),
+ * use HeadlessGameController.
  */
 public class GameController
     implements GLSurfaceView.Renderer
@@ -85,16 +91,85 @@ public class GameController
      */
     public long targetInterval = 16;
     
+
+    /**
+       The fixed simulation step (milliseconds).  If 0 (the default), the
+       tree is updated once per frame with the actual frame time.
+       Otherwise, elapsed time is accumulated and the tree is updated in
+       steps of exactly this size -- zero or more per frame -- so game logic
+       runs the same regardless of the frame rate.
+     */
+    public long fixedStep = 0;
+
+    /**
+       The most steps that will be run in one frame, when using a fixed
+       step.  If the game falls further behind than that, the extra time
+       is dropped, rather than running ever more steps to catch up.
+     */
+    public int maxStepsPerFrame = 5;
+
+    /** Time accumulated toward the next fixed step (milliseconds) */
+    public long accumulator;
+
+    /** Number of fixed steps run in the current frame */
+    public int frameSteps;
+
+    /** Total time dropped because of maxStepsPerFrame (milliseconds) */
+    public long droppedTime;
+
+    /**
+       Where to record how long each frame takes (in nanoseconds) to update
+       the tree, to build the rendering chain, and to draw it in the render
+       thread.  Each is skipped if null.  FPSNode sets these up.
+     */
+    public Histogram updateTimes, buildTimes, drawTimes;
+
+    /** Number of nodes culled (see Frustum) in building the last render chain */
+    public int culledNodes;
+
+    /**
+       Budget for dispatching events in each update of the tree:  the most
+       events, and the most time (nanoseconds).  0 means no limit.  Input
+       events are always dispatched;  flow and bulk events over the budget
+       wait for the next update.  See EventQueue.dispatch().
+     */
+    public int eventBudget = 0;
+    public long eventTimeBudget = 0;
+
+    /** If set, the frames and input events are being recorded for replay */
+    public EventRecorder recorder;
+    
+    
+    /**
+       Whether changes to the tree structure made once the game is running
+       (adding, removing, replacing nodes) are deferred to the start of the
+       next frame.  That allows the update pass to skip locking each node.
+       Must be set before the game starts.
+     */
+    public boolean deferStructureChanges = false;
+
+    /** Records deferred changes to the tree structure */
+    public final StructureJournal journal = new StructureJournal();
+
+    /** Timers keyed on game time (totalElapsed) -- see GameSequence */
+    public final TimerWheel timers = new TimerWheel();
+
+    /** Events waiting for a later game time -- see GameNode.postUpDelayed() */
+    public final DelayedEventQueue delayedEvents = new DelayedEventQueue();
+    
     
     /** Handler for sending messages to the main (UI) thread */
     public Handler uiHandler;
 
+    /** The source of time for frame timing and the event time budget.  Defaults to SystemClock */
+    public Clock clock = SYSTEM_CLOCK;
+
     /** Global randomizer instance available throughout the game */
     public static final Random random = new Random(android.os.SystemClock.uptimeMillis());
 
-    
-    final EventQueue events;
-    final GameThread gameThread;
+    /** Events waiting to be dispatched in the game thread -- see GameNode.postUp() */
+    public final EventQueue events;
+    GameThread gameThread;
     final RenderLock renderLock;
     final PauseLock pauseLock;
 
@@ -115,19 +190,15 @@ public class GameController
     
     /**
      * Create the pools of GameEvents, etc ahead of time so allocation
-     *  doesn't have to happen during game play
+     *  doesn't have to happen during game play.  Each pool is filled up
+     *  to its prefill size -- games can raise Pool.prefill on their own
+     *  pools (or the engine's) before the controller is created.
      */
     public void preallocateEventPools() {
-        // Allocate a bunch of GameEvents, put them back into the pool
-        GameEvent[] gameEvents = new GameEvent[32];
-        for(int i=0; i<gameEvents.length; ++i) {
-            gameEvents[i] = GameEvent.obtain();
-        }
-        for(int i=0; i<gameEvents.length; ++i) {
-            gameEvents[i].recycle();
-        }
-        
-
+        // Make sure the engine's pools exist, then fill all of them
+        GameEvent.pool.prefill();
+        GameSequence.pool.prefill();
+        Pool.prefillAll();
     }
     
     
@@ -141,6 +212,7 @@ public class GameController
         tree.postDown(GameEvent.obtain(GameEvent.GAME_INIT));
 
         Log.d("GameController.start()");
+        journal.deferring = deferStructureChanges;
         gameThread.start();
     }
     
@@ -175,11 +247,16 @@ public class GameController
      * Called each frame, from the GameThread rendering thread.
      */
     protected void update() {
-        assert(Thread.currentThread() == gameThread);
+        assert(Thread.currentThread() == gameThread || !gameThread.isAlive());
         
         //Log.d("update()");
+        if ( fixedStep > 0 ) {
+            updateFixed();
+            return;
+        }
+        
         lastFrameStart = currentFrameStart;
-        currentFrameStart = SystemClock.uptimeMillis();
+        currentFrameStart = clock.uptimeMillis();
         frameDelta = currentFrameStart - lastFrameStart;
         totalElapsed += frameDelta;
         frameCounter++;
@@ -187,21 +264,113 @@ public class GameController
         // If frames are finishing fast, sleep to save power, leave time
         // for other threads, etc
         if ( frameDelta < targetInterval ) {
-            synchronized(renderLock) {
-                try { renderLock.wait(targetInterval - frameDelta); }
-                catch(InterruptedException e) {}
-            }
+            idle(targetInterval - frameDelta);
             frameDelta = targetInterval;
         }
 
-        // Process queued events
-        int dispatched = events.dispatchAll();
+        if ( recorder != null ) recorder.frame(frameDelta);
+        long start = System.nanoTime();
+        updateTree(frameDelta);
+        long updated = System.nanoTime();
+        if ( updateTimes != null ) updateTimes.record(updated - start);
         
-        // Process the logic half of the GameTree
-        tree.update(frameDelta);
+        // Do the rendering part of the tree -- at the latest update, since
+        // there is no fraction of a step left over
+        renderContext.alpha = 1f;
+        renderContext.culled = 0;
+        tree.render(renderContext);
+        culledNodes = renderContext.culled;
+        if ( buildTimes != null ) buildTimes.record(System.nanoTime() - updated);
+        if ( recorder != null ) recorder.rendered(renderContext.alpha);
+        renderReady();
+    }
+
+
+    /**
+       Wait for a while when a frame finishes early, to save power and leave
+       time for other threads.  Wakes early if the render thread finishes
+       a frame.
+     */
+    protected void idle(long millis) {
+        synchronized(renderLock) {
+            try { renderLock.wait(millis); }
+            catch(InterruptedException e) {}
+        }
+    }
+
+
+    /**
+       Run one update of the logic half of the tree
+     */
+    protected void updateTree(long millis) {
+        if ( recorder != null ) recorder.tick(millis);
+
+        // Apply any changes to the tree made during the last step
+        journal.apply();
+
+        // Post delayed events that are now due, then process queued events
+        delayedEvents.postDue(totalElapsed);
+        events.probe = tree.probe;
+        events.clock = clock;
+        events.dispatch(eventBudget,eventTimeBudget);
+
+        // Wake up anything waiting for the current game time
+        timers.advance(totalElapsed);
         
-        // Do the rendering part of the tree 
+        // Process the logic half of the GameTree
+        tree.update(millis);
+    }
+
+
+    /**
+       Called each frame instead of the normal update, when using a fixed
+       step.  The elapsed wall-clock time goes into the accumulator, and
+       as many whole steps as are due (up to maxStepsPerFrame) are run.
+       totalElapsed advances by exactly fixedStep for each one, so timing
+       based on it is deterministic as well.  The leftover fraction of a
+       step is passed to the render pass as RenderContext.alpha.
+     */
+    protected void updateFixed() {
+        lastFrameStart = currentFrameStart;
+        currentFrameStart = clock.uptimeMillis();
+        frameDelta = currentFrameStart - lastFrameStart;
+        frameCounter++;
+
+        // If no step is due yet, sleep until one is, to save power.
+        // The time actually slept is measured, rather than assumed.
+        if ( accumulator + frameDelta < fixedStep ) {
+            idle(fixedStep - accumulator - frameDelta);
+            currentFrameStart = clock.uptimeMillis();
+            frameDelta = currentFrameStart - lastFrameStart;
+        }
+
+        if ( recorder != null ) recorder.frame(frameDelta);
+        accumulator += frameDelta;
+        frameSteps = 0;
+        long start = System.nanoTime();
+        while ( accumulator >= fixedStep ) {
+            if ( frameSteps == maxStepsPerFrame ) {
+                // Too far behind -- drop the whole steps still owed
+                long dropped = accumulator - accumulator % fixedStep;
+                droppedTime += dropped;
+                accumulator -= dropped;
+                break;
+            }
+            totalElapsed += fixedStep;
+            updateTree(fixedStep);
+            accumulator -= fixedStep;
+            frameSteps++;
+        }
+
+        long updated = System.nanoTime();
+        if ( updateTimes != null && frameSteps > 0 ) updateTimes.record(updated - start);
+
+        renderContext.alpha = (float)accumulator / fixedStep;
+        renderContext.culled = 0;
         tree.render(renderContext);
+        culledNodes = renderContext.culled;
+        if ( buildTimes != null ) buildTimes.record(System.nanoTime() - updated);
+        if ( recorder != null ) recorder.rendered(renderContext.alpha);
         renderReady();
     }
     
@@ -243,7 +412,7 @@ public class GameController
      * Return the calculated FPS
      */
     public int getFPS() {
-        long now = SystemClock.uptimeMillis();
+        long now = clock.uptimeMillis();
         long elapsed = now - fpsStart;
         if (elapsed < 3000)
             return fps;
@@ -258,58 +427,553 @@ public class GameController
 
 
     public void resetFrame() {
-        lastFrameStart = currentFrameStart = SystemClock.uptimeMillis();
+        lastFrameStart = currentFrameStart = clock.uptimeMillis();
+        accumulator = 0;
         
         frameCounter = 0;
         fpsStart = lastFrameStart;
     }
  
 
+    /**
+       Queue of GameEvents waiting to be dispatched in the game thread.
+
+       Events may be posted from any thread (UI thread input handlers,
+       delayed event runnables, game thread nodes), but are only ever
+       dispatched from the game thread -- so this is a multiple-producer,
+       single-consumer queue.  Posting never takes a lock:  producers
+       claim a slot in a fixed-size ring with a CAS on the tail index.
+       If the ring is full, events spill into an overflow list (also
+       lock-free).
+       
+       Once anything is in the overflow list, all posts go there until
+       the game thread takes the list.  When it does, it notes the ring
+       index at that moment, and dispatches the overflow events once the
+       ring has been drained up to that index.  That way events from a
+       single thread are always dispatched in the order they were posted.
+
+       An event with a coalesceKey is merged into the last event posted
+       with the same key, if that one hasn't been dispatched yet:  the
+       waiting event takes the new payload, and keeps the one it replaced
+       in its history.  So a stream of e.g. touch moves costs one slot in
+       the queue however fast it comes in, and the handler still sees
+       every sample.  The producer calls endCoalescing() to start a new
+       run, e.g. before posting an event that has to stay after the
+       ones already waiting.
+
+       Each priority class (GameEvent.PRIORITY_*) has a ring and overflow
+       list of its own, and the classes are dispatched highest first.
+       dispatch() can be given a budget -- a number of events, a time, or
+       both -- past which the flow and bulk events still waiting are left
+       for the next call.  Input is always dispatched in full (but counts
+       against the budget).  Within a class, events keep the order they
+       were posted in;  a higher class can overtake a lower one.
+     */
     public static class EventQueue {
-        public volatile GameEvent first;
-        public volatile GameEvent last;
-        
+
+        /** Default number of slots in the ring for each priority */
+        public static final int DEFAULT_CAPACITY = 256;
+
+        /** The queue for each priority, highest first */
+        final Lane[] lanes = new Lane[GameEvent.PRIORITIES];
+
+        /** Number of events that have gone to an overflow list (approximate) */
+        public volatile int overflowed;
+
+        /** For each priority, the events left waiting by the budget in the last dispatch */
+        public final int[] carriedOver = new int[GameEvent.PRIORITIES];
+
+        /** Events left waiting by the budget, added up until reset (e.g. by FPSNode) */
+        public int carried;
+
+        /** The most events waiting at the start of a dispatch, until reset (e.g. by FPSNode) */
+        public int maxDepth;
+
+        /** If set, the number of events waiting at the start of each dispatch is recorded */
+        public Histogram depths;
+
+        /** The source of time for a dispatch's time budget */
+        public Clock clock = SYSTEM_CLOCK;
+
+        /** What's left of the budget in the current dispatch */
+        private int budgetLeft;
+        private long deadline;
+        private boolean timed;
+
+        /** If set, each event dispatched is a span for the node it came from */
+        public GameTree.Probe probe;
+
+        /** If set, told about each event posted and dispatched -- see EventRecorder */
+        public volatile Tap tap;
+
+        /** The waiting events that can still be merged into, by key */
+        final AtomicReferenceArray<GameEvent> open =
+            new AtomicReferenceArray<GameEvent>(OPEN_SLOTS);
+
+        /** Number of slots for open events -- keys that collide just merge less */
+        static final int OPEN_SLOTS = 16;
+
+        /** The most superseded events kept in a history -- older ones are dropped */
+        public int maxHistory = 32;
+
+        /** Number of events merged into one already waiting (approximate) */
+        public volatile int coalesced;
+
+        /** GameEvent.coalesceState values */
+        static final int OPEN = 0;
+        static final int MERGING = 1;
+        static final int TAKEN = 2;
+
+        private static final AtomicIntegerFieldUpdater<GameEvent> coalesceState =
+            AtomicIntegerFieldUpdater.newUpdater(GameEvent.class,"coalesceState");
+
+
+        public EventQueue() {
+            this(DEFAULT_CAPACITY);
+        }
+
+
+        /**
+           Create a queue with a specific ring size.
+           @param capacity number of slots in the ring, rounded up to a power of two
+         */
+        public EventQueue(int capacity) {
+            if ( capacity < 2 )
+                throw new IllegalArgumentException("capacity must be at least 2");
+            int size = 2;
+            while ( size < capacity ) size <<= 1;
+            for(int i=0; i<lanes.length; ++i) lanes[i] = new Lane(size);
+        }
+
+
+        /**
+           Post an event to be dispatched on the next dispatchAll().
+           Safe to call from any thread.
+         */
         public void post(GameEvent event) {
-            synchronized(this) {
-                if ( last == null ) {
-                    first = last = event;
-                } else {    
-                    last.nextQueued = event;
-                    last = event;
+            event.nextQueued = null;
+            if ( event.coalesceKey != 0 && coalesce(event) ) return;
+
+            final Tap tap = this.tap;
+            if ( tap != null ) tap.posted(event);
+
+            lanes[priorityOf(event) - 1].post(event);
+        }
+
+
+        /**
+           @return the priority class to queue an event in:  its own, if
+           set, otherwise input for input events and flow for the rest
+         */
+        protected int priorityOf(GameEvent event) {
+            int priority = event.priority;
+            if ( priority >= GameEvent.PRIORITY_INPUT && priority <= GameEvent.PRIORITY_BULK )
+                return priority;
+            return event.type == GameEvent.INPUT_TOUCH ?
+                GameEvent.PRIORITY_INPUT : GameEvent.PRIORITY_FLOW;
+        }
+
+
+        /**
+           Merge an event into the waiting one with the same key, if there
+           is one.  Otherwise the event becomes the one to merge into.
+           @return true if it was merged, and is not to be queued itself
+         */
+        protected boolean coalesce(GameEvent event) {
+            final long key = event.coalesceKey;
+            final int slot = slot(key);
+            GameEvent waiting = open.get(slot);
+            if ( waiting != null && waiting.coalesceKey == key &&
+                 coalesceState.compareAndSet(waiting,OPEN,MERGING) ) {
+                // Check again, in case it was dispatched and posted again meanwhile
+                if ( waiting.coalesceKey == key ) {
+                    supersede(waiting,event);
+                    waiting.coalesceState = OPEN;
+                    coalesced++;
+                    return true;
                 }
-                event.nextQueued = null;
+                waiting.coalesceState = OPEN;
             }
+
+            event.coalesceState = OPEN;
+            open.set(slot,event);
+            return false;
         }
-        
+
+
+        /**
+           Give the waiting event the new event's payload, and keep its
+           own in the history
+         */
+        protected void supersede(GameEvent waiting, GameEvent event) {
+            int type = waiting.type; waiting.type = event.type; event.type = type;
+            Object object = waiting.object; waiting.object = event.object; event.object = object;
+            int ival = waiting.ival; waiting.ival = event.ival; event.ival = ival;
+            float fval = waiting.fval; waiting.fval = event.fval; event.fval = fval;
+            boolean bval = waiting.bval; waiting.bval = event.bval; event.bval = bval;
+            GameNode origin = waiting.origin; waiting.origin = event.origin; event.origin = origin;
+            boolean up = waiting.up; waiting.up = event.up; event.up = up;
+
+            if ( maxHistory <= 0 ) {
+                event.object = null;
+                event.recycle();
+                return;
+            }
+
+            event.coalesceKey = 0;
+            event.history = waiting.history;
+            waiting.history = event;
+            if ( ++waiting.historySize > maxHistory ) {
+                GameEvent last = waiting.history;
+                for(int i=1; i<maxHistory; ++i) last = last.history;
+                GameEvent dropped = last.history;
+                last.history = null;
+                waiting.historySize--;
+                dropped.object = null;
+                dropped.recycle();
+            }
+        }
+
+
+        /**
+           Don't merge any more events with this key into the one waiting,
+           so the next one posted is queued after everything posted so far
+         */
+        public void endCoalescing(long key) {
+            final int slot = slot(key);
+            GameEvent waiting = open.get(slot);
+            if ( waiting != null && waiting.coalesceKey == key )
+                open.compareAndSet(slot,waiting,null);
+        }
+
+
+        /**
+           Stop anything more being merged into an event, before it is
+           dispatched
+         */
+        protected void close(GameEvent event) {
+            while ( !coalesceState.compareAndSet(event,OPEN,TAKEN) ) {
+                if ( event.coalesceState == TAKEN ) break;
+                Thread.yield(); // a producer is merging into it
+            }
+            open.compareAndSet(slot(event.coalesceKey),event,null);
+        }
+
+
+        private static int slot(long key) {
+            int h = (int)(key ^ (key >>> 32)) * 0x9E3779B9;
+            return h >>> 28;
+        }
+
+
         public void dispatchEvent(GameEvent event) {
+            final Tap tap = this.tap;
+            if ( tap != null ) tap.dispatching(event);
+            deliver(event);
+        }
+
+
+        /**
+           Send an event to its origin node, to go up or down the tree from
+           there
+         */
+        public void deliver(GameEvent event) {
+            final GameTree.Probe probe = this.probe;
+            final GameNode origin = event.origin;
+            if ( probe != null ) probe.begin(origin,GameTree.Probe.EVENT);
+
             if ( event.up ) {
-                event.origin.dispatchEventUp(event);
+                origin.dispatchEventUp(event);
             } else {
                 event.lastUp = null;
-                event.origin.dispatchEventDown(event,true);
+                origin.dispatchEventDown(event,true);
             }
+
+            if ( probe != null ) probe.end(origin,GameTree.Probe.EVENT);
         }
         
 
+        /**
+           Dispatch all the events that were posted prior to this call.  Events
+           posted while dispatching (e.g. by a node's onGameEvent()) are left
+           for the next call.  Must only be called from one thread at a time.
+           
+           @return the number of events dispatched
+         */
         public int dispatchAll() {
-            GameEvent dispatching;
-            
-            synchronized(this) {
-                dispatching = first;
-                first = last = null;
-            }   
+            return dispatch(0,0);
+        }
+
+
+        /**
+           Dispatch the events that were posted prior to this call, highest
+           priority first, within a budget.  Once the budget is spent, the
+           flow and bulk events still waiting are left for the next call
+           -- though each class gets at least one event dispatched, so none
+           of them can be held back for good.  Input events are always
+           dispatched.
+
+           A time budget makes the dispatching depend on how fast the
+           nodes run, so an EventRecorder's replay is only faithful
+           without one.
+
+           @param maxEvents the most events to dispatch, or 0 for no limit
+           @param maxNanos the most time to spend, or 0 for no limit
+           @return the number of events dispatched
+         */
+        public int dispatch(int maxEvents, long maxNanos) {
+            budgetLeft = maxEvents > 0 ? maxEvents : Integer.MAX_VALUE;
+            timed = maxNanos > 0;
+            if ( timed ) deadline = clock.nanoTime() + maxNanos;
+
+            int depth = 0;
+            for(int i=0; i<lanes.length; ++i) depth += lanes[i].begin();
+            if ( depth > maxDepth ) maxDepth = depth;
+            final Histogram depths = this.depths;
+            if ( depths != null ) depths.record(depth);
 
             int count = 0;
-            while ( dispatching != null ) {
-                dispatchEvent(dispatching);
-                GameEvent dispatched = dispatching;
-                dispatching = dispatching.nextQueued;
-                dispatched.recycle();
-                count++;
+            for(int i=0; i<lanes.length; ++i) {
+                Lane lane = lanes[i];
+                count += lane.dispatch(i > 0); // input is never held back
+                int left = lane.due();
+                carriedOver[i] = left;
+                carried += left;
             }
-            
+
+            final Tap tap = this.tap;
+            if ( tap != null ) tap.dispatched();
             return count;
         }
+
+
+        /** Whether the budget for the current dispatch is used up */
+        private boolean spent() {
+            return budgetLeft <= 0 || (timed && clock.nanoTime() - deadline >= 0);
+        }
+
+
+        /** Dispatch an event taken off a lane, and recycle it */
+        private void dispatchQueued(GameEvent event) {
+            if ( event.coalesceKey != 0 ) close(event);
+            dispatchEvent(event);
+            event.recycle();
+            budgetLeft--;
+        }
+
+
+        /**
+           @return the approximate number of events waiting in the rings
+           (not counting overflow)
+         */
+        public int size() {
+            int size = 0;
+            for(int i=0; i<lanes.length; ++i) size += lanes[i].size();
+            return size;
+        }
+
+
+        /** @return the approximate number of events waiting with a priority */
+        public int size(int priority) {
+            return lanes[priority - 1].size();
+        }
+
+
+        /**
+           The queue for one priority class:  a ring, with an overflow list
+           for when it's full
+         */
+        final class Lane {
+
+            /** The ring of posted events -- null means the slot is not (yet) filled */
+            final AtomicReferenceArray<GameEvent> ring;
+
+            /** capacity - 1, for wrapping indices into the ring */
+            final int mask;
+
+            /** The next index to be claimed by a producer */
+            final AtomicLong tail = new AtomicLong();
+
+            /** The next index to be dispatched -- only written by the consumer */
+            volatile long head;
+
+            /** Events that didn't fit in the ring, most recent first */
+            final AtomicReference<GameEvent> overflow = new AtomicReference<GameEvent>();
+
+            /** Overflow events taken by the consumer, in posting order, waiting for the ring */
+            GameEvent pending;
+            int numPending;
+
+            /** Ring index that has to be reached before the pending events are dispatched */
+            long pendingAt;
+
+            /** The ring index the current dispatch goes up to */
+            long limit;
+
+            /** Events dispatched from this lane in the current dispatch */
+            int dispatched;
+
+
+            Lane(int size) {
+                ring = new AtomicReferenceArray<GameEvent>(size);
+                mask = size - 1;
+            }
+
+
+            void post(GameEvent event) {
+                if ( overflow.get() == null ) {
+                    while ( true ) {
+                        long t = tail.get();
+                        if ( t - head > mask ) break; // full
+                        if ( tail.compareAndSet(t,t+1) ) {
+                            ring.set((int)t & mask,event);
+                            return;
+                        }
+                    }
+                }
+
+                postOverflow(event);
+            }
+
+
+            /** Push an event onto the overflow list */
+            void postOverflow(GameEvent event) {
+                GameEvent top;
+                do {
+                    top = overflow.get();
+                    event.nextQueued = top;
+                } while ( !overflow.compareAndSet(top,event) );
+                overflowed++;
+            }
+
+
+            /**
+               Start a dispatch:  everything posted so far is due
+               @return the number of events due
+             */
+            int begin() {
+                dispatched = 0;
+                limit = tail.get();
+                if ( pending == null && overflow.get() != null ) {
+                    takeOverflow();
+                    limit = pendingAt;
+                }
+                return due();
+            }
+
+
+            /** @return the number of events due in this dispatch and not yet dispatched */
+            int due() {
+                return (int)Math.max(0,limit - head) + numPending;
+            }
+
+
+            /**
+               Dispatch the events due, or as many as the budget allows
+               @param budgeted whether to stop when the budget is spent
+             */
+            int dispatch(boolean budgeted) {
+                if ( pending != null ) {
+                    dispatchRing(pendingAt,budgeted);
+                    if ( head != pendingAt )
+                        return dispatched; // a producer is still filling a slot
+                
+                    while ( pending != null ) {
+                        if ( budgeted && dispatched > 0 && spent() ) return dispatched;
+                        GameEvent event = pending;
+                        pending = event.nextQueued;
+                        numPending--;
+                        dispatchQueued(event);
+                        dispatched++;
+                    }
+                }
+
+                dispatchRing(limit,budgeted);
+                return dispatched;
+            }
+
+
+            /**
+               Dispatch events from the ring, up to the given index.
+               A slot that is claimed but not filled yet means a producer is
+               in the middle of posting -- leave it (and everything after it)
+               for the next frame.
+             */
+            void dispatchRing(long upTo, boolean budgeted) {
+                long h = head;
+                while ( h < upTo ) {
+                    if ( budgeted && dispatched > 0 && spent() ) return;
+                    int slot = (int)h & mask;
+                    GameEvent event = ring.get(slot);
+                    if ( event == null )
+                        break;
+                    ring.set(slot,null);
+                    head = ++h;
+
+                    dispatchQueued(event);
+                    dispatched++;
+                }
+            }
+
+
+            /**
+               Take the overflow list, along with the ring index it has to follow.
+               The tail is checked before and after reading the list, and the list
+               is only taken if neither changed -- so every ring slot claimed before
+               an overflow post (from the same thread) is below pendingAt, and every
+               ring slot claimed after the list was taken is above it.
+             */
+            void takeOverflow() {
+                while ( true ) {
+                    long t = tail.get();
+                    GameEvent top = overflow.get();
+                    if ( tail.get() != t ) continue;
+                    if ( overflow.compareAndSet(top,null) ) {
+                        pending = reverse(top);
+                        pendingAt = t;
+                        return;
+                    }
+                }
+            }
+
+
+            /** Reverse the overflow list so it is in posting order */
+            private GameEvent reverse(GameEvent event) {
+                GameEvent reversed = null;
+                numPending = 0;
+                while ( event != null ) {
+                    GameEvent next = event.nextQueued;
+                    event.nextQueued = reversed;
+                    reversed = event;
+                    event = next;
+                    numPending++;
+                }
+                return reversed;
+            }
+
+
+            int size() {
+                return (int)(tail.get() - head);
+            }
+        }
+
+
+        /**
+           Hook for watching the events go through the queue
+         */
+        public interface Tap {
+            /**
+               Called for each event queued, in the posting thread (not for
+               ones merged into an event already waiting)
+            */
+            void posted(GameEvent event);
+
+            /** Called in the game thread before each event is dispatched */
+            void dispatching(GameEvent event);
+
+            /** Called in the game thread at the end of each dispatch() */
+            void dispatched();
+        }
     }
     
 
@@ -336,10 +1000,31 @@ public class GameController
         }
 
         // Now render the chain completely
-        while( rendering != null ) {
-            rendering.render(renderContext,gl10);
-            rendering = rendering.nextNode;
+        draw(rendering,gl10);
+    }
+
+
+    /**
+       Render each primitive in a rendering chain
+     */
+    protected void draw(RenderPrimitive rendering, GL10 gl10) {
+        if ( rendering == null ) return;
+        final long start = System.nanoTime();
+        final GameTree.Probe probe = tree.probe;
+        if ( probe != null ) {
+            while( rendering != null ) {
+                probe.begin(rendering,GameTree.Probe.DRAW);
+                rendering.render(renderContext,gl10);
+                probe.end(rendering,GameTree.Probe.DRAW);
+                rendering = rendering.nextNode;
+            }
+        } else {
+            while( rendering != null ) {
+                rendering.render(renderContext,gl10);
+                rendering = rendering.nextNode;
+            }
         }
+        if ( drawTimes != null ) drawTimes.record(System.nanoTime() - start);
     }
  
  
@@ -384,6 +1069,51 @@ public class GameController
     }
 
 
+    /**
+       Source of the current time, for frame timing
+     */
+    public interface Clock {
+        /** @return the current time in milliseconds, from some fixed start */
+        public long uptimeMillis();
+
+        /** @return the current time in nanoseconds, for timing short intervals */
+        public long nanoTime();
+    }
+
+
+    /** The default clock, using android.os.SystemClock */
+    public static final Clock SYSTEM_CLOCK = new Clock() {
+            public long uptimeMillis() {
+                return SystemClock.uptimeMillis();
+            }
+
+            public long nanoTime() {
+                return System.nanoTime();
+            }
+        };
+
+
+    /**
+       A clock that only moves when advanced explicitly -- for running
+       a game tree deterministically, e.g. in tests
+     */
+    public static class ManualClock implements Clock {
+        public long now;
+
+        public long uptimeMillis() {
+            return now;
+        }
+
+        public long nanoTime() {
+            return now * 1000000L;
+        }
+
+        public void advance(long millis) {
+            now += millis;
+        }
+    }
+
+
     protected class RenderLock {
         public RenderPrimitive renderHead;
     }
@@ -397,7 +1127,8 @@ public class GameController
        update() does the heavy-lifting.
      */
     protected class GameThread extends Thread {
-        boolean done = false;
+        /** Set (from any thread) to end the loop after the current frame */
+        volatile boolean done = false;
 
         GameThread() {
             super();
@@ -1,5 +1,7 @@
 package chum.engine;
 
+import chum.util.Pool;
+
 
 /**
    Describes an event in the game play.  
@@ -36,6 +38,33 @@ public final class GameEvent
     /** Reference to next event in the queue */
     GameEvent nextQueued = null;
 
+    /**
+       Key for merging with an event of the same key that is still waiting
+       in the queue -- see EventQueue.post().  0 (the default) means the
+       event is never merged.
+    */
+    public long coalesceKey;
+
+    /**
+       The events this one superseded while it was waiting in the queue,
+       most recent first, linked through their own history field.  Each
+       holds the payload that was replaced.
+    */
+    public GameEvent history;
+
+    /** The number of events in the history */
+    public int historySize;
+
+    /** Whether the event can still be merged into -- see EventQueue */
+    volatile int coalesceState;
+
+    /**
+       The priority class to queue the event in (PRIORITY_*) -- see
+       EventQueue.dispatch().  0 (the default) means by type:  input for
+       input events, flow for the rest.
+    */
+    public int priority;
+
 
     /** Create a new event.  This is not public, because the public use
         of the class is intended to be through obtain() */
@@ -43,11 +72,13 @@ public final class GameEvent
     }
 
 
-    // first_avail / next_avail keep track of the pool of available
-    // GameEvent instances for obtain() / recycle()
-    private static GameEvent first_avail = null;
-    private GameEvent next_avail = null;
-    private static Object sync = new Object();
+    /** The pool of available GameEvent instances for obtain() / recycle() */
+    public static final Pool<GameEvent> pool = new Pool<GameEvent>("GameEvent",32) {
+            @Override
+            protected GameEvent newInstance() {
+                return new GameEvent();
+            }
+        };
 
 
 
@@ -57,15 +88,7 @@ public final class GameEvent
        as needed
     */
     public static GameEvent obtain() {
-        synchronized(sync) {
-            if ( first_avail == null ) {
-                first_avail = new GameEvent();
-            }
-            GameEvent ev = first_avail;
-            first_avail = first_avail.next_avail;
-            ev.next_avail = null;
-            return ev;
-        }
+        return pool.obtain();
     }
 
     /**
@@ -133,16 +156,36 @@ public final class GameEvent
     }
 
 
+    /**
+       The bit for an event type in an interest mask (see
+       GameNode.handlesEvents()).  Types are hashed into 64 bits, so
+       unrelated types can share a bit -- which just means a subtree is
+       searched when it didn't need to be.
+    */
+    public static long interestBit(int type) {
+        return 1L << ((type * 0x9E3779B9) >>> 26);
+    }
+
+
     /**
        Return a GameEvent instance to the pool so it can be reused later.
        Using obtain() / recycle() reduces the number of objects that have to
        be allocated, reducing the overhead of garbage collection.
     */
     public void recycle() {
-        synchronized(sync) {
-            this.next_avail = first_avail;
-            first_avail = this;
+        GameEvent h = history;
+        history = null;
+        historySize = 0;
+        coalesceKey = 0;
+        priority = PRIORITY_DEFAULT;
+        while ( h != null ) {
+            GameEvent next = h.history;
+            h.history = null;
+            h.coalesceKey = 0;
+            pool.recycle(h);
+            h = next;
         }
+        pool.recycle(this);
     }
 
 
@@ -151,18 +194,14 @@ public final class GameEvent
        GameEvent objects that can be reused throughout the running of a GameActivity
     */
     public static void allocate(int num) {
-        for (int i=0; i<num; ++i) {
-            GameEvent ev = new GameEvent();
-            ev.next_avail = first_avail;
-            first_avail = ev;
-        }
+        pool.prefill(num);
     }
 
 
 
     /**
-       Helper class for posting delayed events.  The delayed posting is done
-       via a handler, which requires a Runnable
+       Helper class for posting events from a Runnable, e.g. via a Handler.
+       (GameNode.postUpDelayed() etc. use GameController.delayedEvents instead)
     */
     public static class Delayed implements Runnable {
 
@@ -184,32 +223,27 @@ public final class GameEvent
         }
 
 
-        private static Delayed first_avail;
-        private Delayed next_avail;
-        private static Object sync = new Object();
+        public static final Pool<Delayed> pool = new Pool<Delayed>("GameEvent.Delayed") {
+                @Override
+                protected Delayed newInstance() {
+                    return new Delayed();
+                }
+            };
 
 
         public static Delayed obtain(GameNode node, GameEvent event, boolean postUp) {
-            synchronized(sync) {
-                if ( first_avail == null ) {
-                    first_avail = new Delayed();
-                }
-                Delayed d = first_avail;
-                first_avail = d.next_avail;
-                
-                d.node = node;
-                d.event = event;
-                d.postUp = postUp;
-                return d;
-            }
+            Delayed d = pool.obtain();
+            d.node = node;
+            d.event = event;
+            d.postUp = postUp;
+            return d;
         }
 
         
         private void recycle() {
-            synchronized(sync) {
-                this.next_avail = first_avail;
-                first_avail = this;
-            }
+            node = null;
+            event = null;
+            pool.recycle(this);
         }
 
     }
@@ -236,5 +270,13 @@ public final class GameEvent
 
     // Input events
     public static final int INPUT_TOUCH =     0x7fff020;
+
+
+    // Priority classes, highest first
+    public static final int PRIORITY_DEFAULT = 0;
+    public static final int PRIORITY_INPUT =   1; // always dispatched in the next update
+    public static final int PRIORITY_FLOW =    2; // game flow, e.g. triggers, sequences
+    public static final int PRIORITY_BULK =    3; // background work that can wait
+    public static final int PRIORITIES =       3;
     
 }
\ No newline at end of file
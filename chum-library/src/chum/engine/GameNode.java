@@ -24,15 +24,81 @@ public class GameNode {
     /** The parent node in the game graph */
     public GameNode parent;
 
-    /** The set of child nodes */
+    /**
+       The set of child nodes.  While they are being updated, a child
+       removed meanwhile leaves a null in its place -- see holes
+    */
     public GameNode[] children;
 
     /** The number of child nodes */
     public int num_children;
+
+    /** The position of this node in its parent's children, or -1 (see indexOf()) */
+    public int childIndex = -1;
+
+    /**
+       Whether the order of the children doesn't matter.  If so, removing a
+       child moves the last child into its place, instead of shifting down
+       all the ones after it.
+    */
+    public boolean unordered;
+
+    /**
+       Number of removed children still left as nulls in the children
+       array, until compactChildren().  Only while the children are being
+       updated (a child removed then leaves a hole, so the update loop isn't
+       disturbed and the rest aren't shifted down each time), or in the
+       middle of removeNodes() or a StructureJournal being applied (before
+       any callbacks run).
+    */
+    protected int holes;
+
+    /** Set while the children are being updated -- see holes */
+    protected int iterating;
     
-    /** The name of the node, for finding nodes in the tree to link them together */
+    /**
+       The name of the node, for finding nodes in the tree to link them together.
+       Use setName() to change it, so the node can be found with findNode()
+    */
     public String name;
 
+    /** Index of the named nodes in this tree -- only kept by the root node */
+    protected NameIndex nameIndex;
+
+    /**
+       Number of frames in a row this node (including everything below it)
+       can report no change from update() before it goes to sleep.
+       0 (the default) means the node never goes to sleep.
+    */
+    public int sleepAfter = 0;
+
+    /** Whether the node is asleep -- if so, it and its children aren't updated */
+    public volatile boolean sleeping;
+
+    /** Number of frames in a row with no change */
+    protected int idleFrames;
+
+    /** Timer that wakes the node, for sleepFor() */
+    private TimerWheel.Timer waker;
+
+    /** Which of the traversal methods the class overrides, for Traversal (-1 until checked) */
+    byte traversalOverrides = -1;
+
+    /** Interest mask for every event type */
+    public static final long ALL_EVENTS = -1L;
+
+    /** The event types this node handles, as GameEvent.interestBit()s, if declared */
+    protected long eventInterest;
+
+    /** Whether the node has declared the event types it handles */
+    protected boolean interestDeclared;
+
+    /** The event types handled anywhere in this subtree -- kept by Traversal */
+    long subtreeInterest;
+
+    /** Whether subtreeInterest needs working out again (if so, so do the parent's) */
+    volatile boolean interestDirty = true;
+
 
     /** Create a new node, not initially in the tree */
     public GameNode() {
@@ -54,10 +120,31 @@ public class GameNode {
        @return The node
     */
     public GameNode setName(String n) {
-        name = n;
+        if ( n == null ? name == null : n.equals(name) ) return this;
+
+        GameNode root = getRoot();
+        synchronized(root) {
+            if ( name != null && root.nameIndex != null )
+                root.nameIndex.remove(this,name);
+            name = n;
+            if ( name != null ) {
+                if ( root.nameIndex == null ) root.nameIndex = new NameIndex();
+                root.nameIndex.add(this);
+            }
+        }
         return this;
     }
 
+
+    /**
+       @return the root of the tree this node is in (possibly itself)
+    */
+    public GameNode getRoot() {
+        GameNode root = this;
+        while ( root.parent != null ) root = root.parent;
+        return root;
+    }
+
     
     public String getName() {
         if ( name != null ) return name;
@@ -74,7 +161,9 @@ public class GameNode {
        @return The node
      */
     public GameNode addNode(GameNode n) {
-        return insertNode(n,num_children);
+        // Position past the end always means 'last', even if the change is
+        // deferred and other children are added or removed in the meantime
+        return insertNode(n,Integer.MAX_VALUE);
     }
     
     
@@ -86,56 +175,173 @@ public class GameNode {
         if ( n == null )
             throw new IllegalArgumentException("node can't be null");
 
+        if ( isDeferringStructure() )
+            gameController.journal.insert(this,n,position);
+        else
+            _insertNode(n,position);
+        return this;
+    }
+
+
+    protected void _insertNode(GameNode n,int position) {
         if ( n.parent != null )
-            n.parent.removeNode(n);
+            n.parent._removeNode(n);
 
         synchronized(this) {
+            if ( holes > 0 ) compactChildren();
             if ( position < 0 ) position = 0;
             if ( position > num_children ) position = num_children;
             
-            if ( children == null ) children = new GameNode[2];
-            if ( num_children == children.length ) {
-                GameNode[] new_children = new GameNode[children.length*2];
-                for( int i=0; i<num_children; ++i )
-                    new_children[i] = children[i];
-                children = new_children;
+            ensureCapacity(num_children+1);
+            if ( position < num_children ) {
+                System.arraycopy(children,position,children,position+1,num_children-position);
+                for ( int i=num_children; i > position; --i ) children[i].childIndex = i;
             }
-        
-            for ( int i=num_children; i > position; --i ) children[i] = children[i-1];
             children[position] = n;
+            n.childIndex = position;
             num_children++;
 
             _added(n);
         }
 
+        structureChanged();
+    }
+
+
+    /**
+       Add several nodes to the end of this node's list of child nodes.
+       The children array grows at most once, and the nodes are put through
+       _added() (onSetup() and onAdded()) after they are all in place.
+
+       @return The node
+     */
+    public GameNode addNodes(GameNode... nodes) {
+        for(int i=0; i<nodes.length; ++i)
+            if ( nodes[i] == null )
+                throw new IllegalArgumentException("node can't be null");
+
+        if ( isDeferringStructure() ) {
+            for(int i=0; i<nodes.length; ++i)
+                gameController.journal.insert(this,nodes[i],Integer.MAX_VALUE);
+        } else {
+            _addNodes(nodes,nodes.length);
+        }
         return this;
     }
 
+
+    protected void _addNodes(GameNode[] nodes, int count) {
+        for(int i=0; i<count; ++i) {
+            GameNode n = nodes[i];
+            if ( n.parent != null ) n.parent._removeNode(n);
+        }
+
+        synchronized(this) {
+            // Appending doesn't disturb holes left during an update
+            if ( holes > 0 && iterating == 0 ) compactChildren();
+            ensureCapacity(num_children+count);
+            final int first = num_children;
+            for(int i=0; i<count; ++i) {
+                GameNode n = nodes[i];
+                if ( n.parent == this ) continue; // listed twice
+                children[num_children] = n;
+                n.childIndex = num_children++;
+                n.parent = this;
+            }
+
+            // Each node (once, however many times it was listed) gets the
+            // same treatment as in a single add -- including any _added()
+            // override
+            final int last = num_children;
+            for(int i=first; i<last; ++i)
+                _added(children[i]);
+        }
+
+        structureChanged();
+    }
+
+
+    /**
+       Make sure the children array has room for a number of children, so
+       adding them won't need to grow it again
+     */
+    public void ensureCapacity(int capacity) {
+        if ( children == null ) {
+            children = new GameNode[Math.max(2,capacity)];
+        } else if ( capacity > children.length ) {
+            GameNode[] new_children = new GameNode[Math.max(children.length*2,capacity)];
+            System.arraycopy(children,0,new_children,0,num_children);
+            children = new_children;
+        }
+    }
+
+
+    /**
+       @return the position of a child in this node's children, or -1
+       if it isn't one
+     */
+    public int indexOf(GameNode child) {
+        int i = child.childIndex;
+        if ( i >= 0 && i < num_children && children[i] == child ) return i;
+
+        // Someone has been changing the children array directly
+        for(i=0; i<num_children; ++i)
+            if ( children[i] == child ) return i;
+        return -1;
+    }
+
     
     /**
        Insert a node into the tree by making it a child of this node, and reparenting all of this
        node's children to the new node
      */
     public GameNode spliceIn(GameNode insertNode) {
-        while ( num_children > 0 ) {
-            insertNode.addNode(children[0]);
-        }
-        this.addNode(insertNode);
+        if ( isDeferringStructure() )
+            gameController.journal.spliceIn(this,insertNode);
+        else
+            _spliceIn(insertNode);
         return this;
     }
 
+
+    protected void _spliceIn(GameNode insertNode) {
+        GameNode[] moving = takeChildren();
+        insertNode._addNodes(moving,moving.length);
+        this._insertNode(insertNode,num_children);
+    }
+
     
     /**
        Remove a node from the tree after moving all of its children to the parent
      */
     public GameNode spliceOut() {
+        if ( isDeferringStructure() )
+            gameController.journal.spliceOut(this);
+        else
+            _spliceOut();
+        return this;
+    }
+
+
+    protected void _spliceOut() {
         GameNode oldParent = parent;
-        remove();
-        while ( num_children > 0 ) {
-            oldParent.addNode(children[0]);
+        if ( oldParent == null ) return;
+        oldParent._removeNode(this);
+        GameNode[] moving = takeChildren();
+        oldParent._addNodes(moving,moving.length);
+    }
+
+
+    /** Remove all of the children, to be moved somewhere else */
+    private GameNode[] takeChildren() {
+        GameNode[] taken;
+        synchronized(this) {
+            if ( holes > 0 ) compactChildren();
+            taken = new GameNode[num_children];
+            if ( num_children > 0 ) System.arraycopy(children,0,taken,0,num_children);
         }
-        
-        return this;
+        _removeNodes(taken,taken.length);
+        return taken;
     }
 
     
@@ -149,25 +355,156 @@ public class GameNode {
         if ( n == null )
             throw new IllegalArgumentException("node can't be null");
 
+        if ( isDeferringStructure() )
+            gameController.journal.remove(this,n);
+        else
+            _removeNode(n);
+        return this;
+    }
+
+
+    protected void _removeNode(GameNode n) {
         if ( n.parent == this ) {
             synchronized(this) {
-                for ( int i=num_children-1; i>=0; --i ) {
-                    if ( children[i].equals(n) ) {
-                        for ( int j=i+1; j<num_children; ++i, ++j )
-                            children[i] = children[j];
+                if ( iterating > 0 ) {
+                    // In the middle of updating the children -- leave a
+                    // hole, compacted once the update loop is done
+                    int i = indexOf(n);
+                    if ( i >= 0 ) {
+                        children[i] = null;
+                        holes++;
+                    }
+                } else {
+                    if ( holes > 0 ) compactChildren();
+                    int i = indexOf(n);
+                    if ( i >= 0 ) {
+                        int last = num_children-1;
+                        if ( unordered ) {
+                            if ( i < last ) {
+                                children[i] = children[last];
+                                children[i].childIndex = i;
+                            }
+                        } else if ( i < last ) {
+                            System.arraycopy(children,i+1,children,i,last-i);
+                            for ( int j=i; j<last; ++j ) children[j].childIndex = j;
+                        }
+                        children[last] = null;
                         num_children--;
-                        break;
                     }
                 }
-                n.parent = null;
-                n.onRemoved(this);
+                _removed(n);
+            }
+            structureChanged();
+        }
+    }
+
+
+    /**
+       Take a child out of the children array, leaving a null in its place
+       (unless the children are unordered) until compactChildren() -- so
+       removing many children from a long list doesn't shift the rest down
+       each time.  The node isn't told yet:  follow up with _removedLater()
+       once the holes are compacted, so the callbacks never see them.
+
+       @return whether a hole was left
+    */
+    protected boolean _detachLater(GameNode n) {
+        if ( n.parent != this ) return false;
+        boolean hole = false;
+        synchronized(this) {
+            // Swapping the last child in would disturb an update loop
+            boolean swap = unordered && iterating == 0;
+            if ( swap && holes > 0 ) compactChildren();
+            int i = indexOf(n);
+            if ( i >= 0 ) {
+                if ( swap ) {
+                    int last = num_children-1;
+                    if ( i < last ) {
+                        children[i] = children[last];
+                        children[i].childIndex = i;
+                    }
+                    children[last] = null;
+                    num_children--;
+                } else {
+                    children[i] = null;
+                    holes++;
+                    hole = true;
+                }
+                n.childIndex = -1; // detached, but not told yet
             }
         }
+        return hole;
+    }
 
+
+    /**
+       Finish removing a child taken out with _detachLater():  run the
+       callbacks, and note the change in structure
+    */
+    protected void _removedLater(GameNode n) {
+        if ( n.parent != this || n.childIndex >= 0 ) return;
+        synchronized(this) {
+            _removed(n);
+        }
+        structureChanged();
+    }
+
+
+    /**
+       Squeeze out the holes left by removing children, keeping the order
+       of the remaining children
+    */
+    protected void compactChildren() {
+        synchronized(this) {
+            int j = 0;
+            for(int i=0; i<num_children; ++i) {
+                GameNode child = children[i];
+                if ( child == null ) continue;
+                if ( i != j ) {
+                    children[j] = child;
+                    child.childIndex = j;
+                }
+                j++;
+            }
+            for(int i=j; i<num_children; ++i) children[i] = null;
+            num_children = j;
+            holes = 0;
+        }
+    }
+
+
+    /**
+       Remove several nodes from this node's list of child nodes.  The
+       rest of the children are shifted down just once.
+
+       @return The node
+    */
+    public GameNode removeNodes(GameNode... nodes) {
+        for(int i=0; i<nodes.length; ++i)
+            if ( nodes[i] == null )
+                throw new IllegalArgumentException("node can't be null");
+
+        if ( isDeferringStructure() ) {
+            for(int i=0; i<nodes.length; ++i)
+                gameController.journal.remove(this,nodes[i]);
+        } else {
+            _removeNodes(nodes,nodes.length);
+        }
         return this;
     }
 
 
+    protected void _removeNodes(GameNode[] nodes, int count) {
+        synchronized(this) {
+            for(int i=0; i<count; ++i)
+                _detachLater(nodes[i]);
+            if ( holes > 0 && iterating == 0 ) compactChildren();
+            for(int i=0; i<count; ++i)
+                _removedLater(nodes[i]);
+        }
+    }
+
+
     /**
        Replace a node in this node's list of child nodes with another node
 
@@ -181,20 +518,38 @@ public class GameNode {
         if ( newNode == null )
             throw new IllegalArgumentException("newNode can't be null");
 
+        if ( isDeferringStructure() )
+            gameController.journal.replace(this,oldNode,newNode);
+        else
+            _replaceNode(oldNode,newNode);
+        return this;
+    }
+
+
+    protected void _replaceNode(GameNode oldNode,GameNode newNode) {
         if ( oldNode.parent == this ) {
             synchronized(this) {
-                for ( int i=num_children-1; i>=0; --i ) {
-                    if ( children[i].equals(oldNode) ) {
-                        _removed(oldNode);
-                        children[i] = newNode;
-                        _added(newNode);
-                        break;
-                    }
+                if ( holes > 0 ) compactChildren();
+                int i = indexOf(oldNode);
+                if ( i >= 0 ) {
+                    _removed(oldNode);
+                    children[i] = newNode;
+                    newNode.childIndex = i;
+                    _added(newNode);
                 }
             }
+            structureChanged();
         }
+    }
 
-        return this;
+
+    /**
+       Whether changes to the children of this node are currently being
+       recorded in the StructureJournal, to be applied at the next frame
+       boundary, rather than being made immediately.
+    */
+    public boolean isDeferringStructure() {
+        return gameController != null && gameController.journal.deferring;
     }
 
 
@@ -211,6 +566,9 @@ public class GameNode {
 
     protected void _added(GameNode n) {
         n.parent = this;
+        indexNames(n);
+        invalidateInterest();
+        wake();
     
         // Need to also call onSetup() on the node, and
         // any of its children, if onSetup() was previously
@@ -237,11 +595,58 @@ public class GameNode {
 
     protected void _removed(GameNode n) {
         n.parent = null;
+        n.childIndex = -1;
+        if ( n.holes > 0 ) n.compactChildren();
+        unindexNames(n);
+        invalidateInterest();
         //n.gameController = null;
         n.onRemoved(this);
     }
 
 
+    /**
+       Merge the name index of a newly added subtree into this tree's
+    */
+    protected void indexNames(GameNode n) {
+        if ( n.nameIndex == null ) return;
+        GameNode root = getRoot();
+        if ( root.nameIndex == null ) root.nameIndex = n.nameIndex;
+        else root.nameIndex.addAll(n.nameIndex);
+        n.nameIndex = null;
+    }
+
+
+    /**
+       Move the named nodes of a removed subtree out of this tree's name
+       index, into the subtree's own
+    */
+    protected void unindexNames(GameNode n) {
+        GameNode root = getRoot();
+        if ( root.nameIndex != null )
+            n.nameIndex = root.nameIndex.split(n);
+    }
+
+
+    /**
+       Tell this node and each node above it (up to the root) that the
+       children of this node have changed -- see onStructureChanged().
+       Goes up the tree in a loop, so a deep tree doesn't recurse.
+    */
+    public void structureChanged() {
+        for(GameNode n = this; n != null; n = n.parent)
+            n.onStructureChanged();
+    }
+
+
+    /**
+       Called whenever the children of this node, or of any node below it,
+       change, e.g. so a GameTree can throw away its cached traversal order.
+       structureChanged() calls it on each node up to the root, so an
+       override doesn't need to pass it on.
+    */
+    public void onStructureChanged() {}
+
+
     /** Called when the node is added into the tree */
     public void onAdded(GameNode newParent) {}
 
@@ -253,19 +658,17 @@ public class GameNode {
     /**
        Find a node with a given name.
 
-       This will search the entire tree for a matching node, starting with the
-       called node -- so it can be expensive.  It should not be done frequently.
+       The nearest matching node is returned:  first the nodes below this one
+       are searched, then this node's parent and the nodes below it, and so
+       on up the tree.  Named nodes are kept in an index, so this doesn't
+       actually search the tree, and can be used during the game (e.g. to
+       find nodes after spawning them), not just in onSetup().
 
        The name can be a hierarchical name, with name parts separated by '.'.  For example,
        
          find("foo.bar");
 
        would search for a node named "bar" contained in a node named "foo"
-
-       The primary intended purpose of this method is to find related nodes
-       during the onSetup() call, once all the tree has been constructed, to
-       associated related nodes (e.g. the visible rendering node corresponding
-       to a model / logic node)
     */
     public GameNode findNode(String name) {
         return findNode(name,null);
@@ -276,51 +679,36 @@ public class GameNode {
         if ( this == skipNode ) return null;
         if ( name.equals(this.name) ) return this;
 
-        String[] parts = name.split("\\.",2);
-
-        // First go down the tree
-        for( int i=0; i<num_children; ++i ) {
-            GameNode child = children[i];
-            if ( child == skipNode ) continue;
-            GameNode found = child.findNodeDown(parts[0],child);
-            if ( found != null ) {
-                if ( parts.length > 1 ) return found.findNodeDown(parts[1],child);
-                else return found;
-            }
-        }
-
-        // Then go up the tree, down parallel branches
-        if ( parent != null ) {
-            GameNode found = parent.findNode(parts[0],this);
-            if ( found != null ) {
-                if ( parts.length > 1 ) return found.findNodeDown(parts[1],this);
-                else return found;
-            }
-        }
+        NameIndex index = getRoot().nameIndex;
+        if ( index == null ) return null;
 
+        int dot = name.indexOf('.');
+        int end = dot < 0 ? name.length() : dot;
 
-        return null;
+        // The first part is searched for below this node, then up the tree
+        GameNode found = index.nearest(this,skipNode,name,0,end);
+        if ( found == null || dot < 0 ) return found;
+        return found.findNodeDown(index,name,dot+1);
     }
 
 
     /**
-       Special findNode() helper method that only searches down the
-       hierarchy -- preventing cycles of searching up/dn/up/dn
+       Resolve the rest of a hierarchical name, only searching down from
+       this node
     */
-    protected GameNode findNodeDown(String name,GameNode skipNode) {
-        if ( name.equals(this.name) ) return this;
-
-        String[] parts = name.split("\\.",2);
-
-        for( int i=0; i<num_children; ++i ) {
-            GameNode found = children[i].findNodeDown(parts[0],skipNode);
-            if ( found != null ) {
-                if ( parts.length > 1 ) return found.findNodeDown(parts[1],skipNode);
-                else return found;
-            }
+    protected GameNode findNodeDown(NameIndex index,String name,int start) {
+        GameNode node = this;
+        while ( true ) {
+            if ( NameIndex.matches(node.name,name,start,name.length()) ) return node;
+
+            int dot = name.indexOf('.',start);
+            int end = dot < 0 ? name.length() : dot;
+
+            GameNode found = index.firstBelow(node,name,start,end);
+            if ( found == null || dot < 0 ) return found;
+            node = found;
+            start = dot+1;
         }
-
-        return null;
     }
 
 
@@ -390,16 +778,120 @@ public class GameNode {
         boolean updated = false;
         if ( updatePrefix(millis) ) updated = true;
 
-        synchronized(this) {
-            for(int i=0; i<num_children; ++i) {
-                GameNode child = children[i];
-                if ( child.update(millis) ) updated = true;
+        // If structure changes are deferred to the frame boundary, the
+        // children can't change during the update, so no need to lock
+        if ( isDeferringStructure() ) {
+            if ( updateChildrenOnce(millis) ) updated = true;
+        } else {
+            synchronized(this) {
+                if ( updateChildrenOnce(millis) ) updated = true;
             }
         }
 
         if ( updatePostfix(millis) ) updated = true;
         return updated;
     }
+
+
+    /**
+       Update this node, unless it is asleep.  This is what a parent calls
+       for each child, instead of update() directly.
+
+       If sleepAfter is set, and the node reports no change for that many
+       frames in a row, the node goes to sleep:  it (and everything below
+       it) is skipped until it is woken up again.  It wakes up when
+       wake() is called on it or anything below it, which happens when
+       an event is posted from there or consumed there, or a node is
+       added there.  A GameSequence that is running reports a change every
+       frame, so it keeps its subtree awake.
+    */
+    public final boolean updateIfAwake(long millis) {
+        if ( sleeping ) return false;
+
+        boolean updated = update(millis);
+        if ( sleepAfter > 0 ) {
+            if ( updated ) idleFrames = 0;
+            else if ( ++idleFrames >= sleepAfter ) sleep();
+        }
+        return updated;
+    }
+
+
+    /**
+       Put this node (and everything below it) to sleep, until woken up
+    */
+    public void sleep() {
+        sleeping = true;
+        idleFrames = 0;
+    }
+
+
+    /**
+       Put this node to sleep, and wake it up again after a delay
+       (milliseconds of game time) at the latest
+    */
+    public void sleepFor(long delay) {
+        sleep();
+        if ( waker == null ) {
+            waker = new TimerWheel.Timer() {
+                    @Override
+                    public void onTimer(long now) {
+                        wake();
+                    }
+                };
+        }
+        gameController.timers.schedule(waker,gameController.totalElapsed + delay);
+    }
+
+
+    /**
+       Wake this node up, along with any sleeping nodes above it, so it
+       is updated again starting with the next frame
+    */
+    public void wake() {
+        for(GameNode n = this; n != null; n = n.parent) {
+            n.idleFrames = 0;
+            n.sleeping = false;
+        }
+    }
+
+
+    /**
+       Update the children, with any removed meanwhile left as holes until
+       it's done
+     */
+    private boolean updateChildrenOnce(long millis) {
+        iterating++;
+        try {
+            return updateChildren(millis);
+        } finally {
+            endIterating();
+        }
+    }
+
+
+    /**
+       Called after the children have been updated, to compact any holes
+       left by children removed meanwhile
+    */
+    protected void endIterating() {
+        if ( --iterating == 0 && holes > 0 ) compactChildren();
+    }
+
+
+    /**
+       Update each of the child nodes.  A child removed meanwhile leaves a
+       null in the children array until the update is done.
+       @return true if something changed with any of the children
+    */
+    protected boolean updateChildren(long millis) {
+        boolean updated = false;
+        for(int i=0; i<num_children; ++i) {
+            GameNode child = children[i];
+            if ( child != null && child.updateIfAwake(millis) ) updated = true;
+        }
+        return updated;
+    }
     
 
     /**
@@ -429,27 +921,19 @@ public class GameNode {
 
     
     /**
-       Execute some task in the context of every node, recursively.
+       Execute some task in the context of every node below this one (and
+       this one).  This doesn't recurse -- see Traversal.
 
        @param run The task to execute
        @param depthFirst If true, will visit the children first
     */
     public void visit(Visitor visitor, boolean depthFirst) {
-        if ( depthFirst ) {
-            for( int i=0; i<num_children; ++i )
-                children[i].visit(visitor,true);
-            visitor.run(this);
-        } else {
-            visitor.run(this);
-            for( int i=0; i<num_children; ++i )
-                children[i].visit(visitor,false);
-        }
+        Traversal.get().visit(this,visitor,depthFirst);
     }
 
 
     /**
-       A generic bit of code to execute on a node and each of its children,
-       recursively.
+       A generic bit of code to execute on a node and each of its children.
     */
     public static interface Visitor {
         public abstract void run(GameNode node);
@@ -464,6 +948,7 @@ public class GameNode {
        on the next call to dispatchEvents(), which happens during update()
     */
     public void postUp(GameEvent event) {
+        wake();
         event.origin = this;
         event.up = true;
         gameController.events.post(event);
@@ -478,6 +963,7 @@ public class GameNode {
        on the next call to dispatchEvents(), which happens during update()
     */
     public void postDown(GameEvent event) {
+        wake();
         event.origin = this;        
         event.up = false;
         gameController.events.post(event);
@@ -485,20 +971,22 @@ public class GameNode {
 
 
     /**
-       Post an event to propagate up after a certain delay
+       Post an event to propagate up after a certain delay (milliseconds of
+       game time, so time spent paused doesn't count)
     */
     public void postUpDelayed(GameEvent event,long delay) {
-        GameEvent.Delayed delayed = GameEvent.Delayed.obtain(this,event,true);
-        gameController.uiHandler.postDelayed(delayed,delay);
+        gameController.delayedEvents.post(this,event,true,
+                                          gameController.totalElapsed + delay);
     }
 
 
     /**
-       Post an event to propagate down after a certain delay
+       Post an event to propagate down after a certain delay (milliseconds of
+       game time, so time spent paused doesn't count)
     */
     public void postDownDelayed(GameEvent event,long delay) {
-        GameEvent.Delayed delayed = GameEvent.Delayed.obtain(this,event,false);
-        gameController.uiHandler.postDelayed(delayed,delay);
+        gameController.delayedEvents.post(this,event,false,
+                                          gameController.totalElapsed + delay);
     }
 
     
@@ -506,24 +994,7 @@ public class GameNode {
        Dispatch an event up the tree from this node
      */
     public boolean dispatchEventUp(GameEvent event) {
-        if ( onGameEvent(event) )
-            return true; // consumed
-        
-        // Propagate it back down on side branches
-        if ( this != event.origin )
-            if ( dispatchEventSideways(event) )
-                return true; // consumed
-
-        // Now go up the tree
-        if ( parent == null ) {
-            //Log.w("Can't dispatch an event (type=%d) up from a node not in the tree (%s)",
-            //      event.type, this);
-        } else {
-            event.lastUp = this;
-            return parent.dispatchEventUp(event);
-        }
-        
-        return false;
+        return Traversal.get().dispatchUp(this,event);
     }
 
     
@@ -541,25 +1012,79 @@ public class GameNode {
         Dispatch an event down the tree from this node
      */
     public boolean dispatchEventDown(GameEvent event,boolean doLocal) {
-        if ( doLocal && onGameEvent(event) )
-            return true; // consumed
-        
-        for(int i=0; i<num_children; ++i) {
-            GameNode child = children[i];
-            if ( child != event.lastUp )
-                if ( child.dispatchEventDown(event,true) )
-                    return true;
-        }
-        
-        return false;
+        return Traversal.get().dispatchDown(this,event,doLocal);
     }
 
 
     /**
-       Handle a GameEvent
+       Handle a GameEvent.
+
+       Events are only offered to nodes that handle their type, and only
+       sent down into subtrees that have such a node somewhere in them.  A
+       node that doesn't declare its types with handlesEvents() gets every
+       event if its class overrides this method, and none otherwise.
     */
     public boolean onGameEvent(GameEvent event) {
         return false;
     }
 
+
+    /**
+       Declare the only event types this node's onGameEvent() handles, so
+       it (and subtrees with nothing else interested) can be skipped when
+       dispatching other events.  Calling it with no types means the node
+       handles none.
+       @return The node
+    */
+    public GameNode handlesEvents(int... types) {
+        long interest = 0;
+        for(int i=0; i<types.length; ++i) interest |= GameEvent.interestBit(types[i]);
+        eventInterest = interest;
+        interestDeclared = true;
+        invalidateInterest();
+        return this;
+    }
+
+
+    /**
+       Declare that this node handles every event type
+       @return The node
+    */
+    public GameNode handlesAllEvents() {
+        eventInterest = ALL_EVENTS;
+        interestDeclared = true;
+        invalidateInterest();
+        return this;
+    }
+
+
+    /**
+       For the constructor of a class whose onGameEvent() only handles
+       certain types:  declares them, unless the node is of a subclass
+       that overrides onGameEvent() again (and so might handle others).
+    */
+    protected void handlesEventsIn(Class<? extends GameNode> cls, int... types) {
+        if ( Traversal.handlerClass(getClass()) == cls ) handlesEvents(types);
+    }
+
+
+    /**
+       @return the event types this node handles, as GameEvent.interestBit()s
+    */
+    public long getEventInterest() {
+        if ( interestDeclared ) return eventInterest;
+        return Traversal.overrides(this,Traversal.ON_GAME_EVENT) ? ALL_EVENTS : 0;
+    }
+
+
+    /**
+       Note that the event types handled in this subtree have changed, so
+       the ones for it and the nodes above it are worked out again before
+       the next dispatch.  Called when children are added or removed.
+    */
+    public void invalidateInterest() {
+        for(GameNode n = this; n != null && !n.interestDirty; n = n.parent)
+            n.interestDirty = true;
+    }
+
 }
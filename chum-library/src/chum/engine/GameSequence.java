@@ -1,5 +1,7 @@
 package chum.engine;
 
+import chum.util.Pool;
+
 import android.view.animation.Interpolator;
 
 
@@ -8,7 +10,13 @@ import android.view.animation.Interpolator;
    things like animations, game AI, etc
 
    A GameSequence itself is a {@link GameNode} in the {@link GameTree}, so it
-   automatically updates each frame.
+   automatically updates each frame.  When a sequence has nothing to do until
+   a known time (its start, next step, or end), it goes to sleep, and a timer
+   in GameController.timers wakes it up when that time comes -- so a large
+   number of waiting sequences costs nothing per frame.
+
+   Start / step / end are normally announced by posting a GameEvent up the
+   tree.  If a Listener is set, it is called directly instead.
 */
 public class GameSequence extends GameNode {
     
@@ -48,6 +56,36 @@ public class GameSequence extends GameNode {
     /** Is it a one-shot sequence? */
     public boolean oneShot = true;
 
+    /** Whether to sleep between start / step / end times */
+    public boolean useTimers = true;
+
+    /** Gets the start / step / end calls directly, instead of events */
+    public Listener listener;
+
+    /** Wakes the sequence when it's next due */
+    protected Waker waker;
+
+    /** The game time the sequence went to sleep, or -1 if not asleep */
+    protected long sleptAt = -1;
+
+    /**
+       Set when a one-shot sequence has ended and removed itself -- it goes
+       back to the pool in onRemoved(), once the removal has actually been
+       made (which may be deferred to the frame boundary)
+    */
+    protected boolean recycleWhenRemoved;
+
+
+    /**
+       Receives the start / step / end of a sequence directly, rather than
+       as GameEvents propagated through the tree
+    */
+    public interface Listener {
+        public void onSequenceStart(GameSequence seq);
+        public void onSequenceStep(GameSequence seq);
+        public void onSequenceEnd(GameSequence seq);
+    }
+
 
     /** Create a new sequence with the given duration */
     protected GameSequence(long duration) {
@@ -62,6 +100,9 @@ public class GameSequence extends GameNode {
     public void reset() {
         hold = started = ended = false;
         startTime = endTime = stepTime = elapsedTime = 0;
+        if ( waker != null ) waker.cancel();
+        sleptAt = -1;
+        sleeping = false;
         for(int i=0;i < this.num_children; ++i){
             GameNode child = this.children[i];
             if ( child instanceof GameSequence )
@@ -72,11 +113,14 @@ public class GameSequence extends GameNode {
     
     protected void resetInternal() {
         duration = 0;
+        recycleWhenRemoved = false;
         oneShot = true;
         startType = GameEvent.SEQUENCE_START;
         stepType = GameEvent.SEQUENCE_STEP;
         endType = GameEvent.SEQUENCE_END;
-        name = null;
+        useTimers = true;
+        listener = null;
+        setName(null);
     }   
 
     
@@ -106,6 +150,21 @@ public class GameSequence extends GameNode {
     }
     
     
+    /**
+       A one-shot sequence that has ended goes back to the pool now that
+       it's out of the tree -- not before, or it could be handed out again
+       while still in the tree
+    */
+    @Override
+    public void onRemoved(GameNode parent) {
+        super.onRemoved(parent);
+        if ( recycleWhenRemoved ) {
+            recycleWhenRemoved = false;
+            recycle();
+        }
+    }
+    
+    
     /**
        Set the start and end time of the sequence, using the current
        time as the start and the given duration for the end
@@ -116,6 +175,7 @@ public class GameSequence extends GameNode {
             startTime = gameController.totalElapsed;
         if ( endTime == 0 ) endTime = startTime + duration;
         hold = false;
+        wake();
     }
 
 
@@ -128,8 +188,13 @@ public class GameSequence extends GameNode {
             return false;
 
         if ( started ) {
-            elapsedTime += millis;
+            // Catch up on the time spent asleep
+            if ( sleptAt >= 0 )
+                elapsedTime += gameController.totalElapsed - sleptAt;
+            else
+                elapsedTime += millis;
         }
+        sleptAt = -1;
 
         if ( !started ) {
             if ( shouldStart() ) {
@@ -155,16 +220,66 @@ public class GameSequence extends GameNode {
         }
         else if ( ended ) {
             if ( oneShot ) {
-                parent.removeNode(this);
-                this.recycle();
+                if ( !recycleWhenRemoved ) {
+                    recycleWhenRemoved = true;
+                    parent.removeNode(this);
+                }
+                return true;
             }
         }
 
-
+        sleepUntilDue();
         return true;
     }
 
 
+    /**
+       If nothing needs to happen until the next start / step / end time,
+       go to sleep, with a timer to wake up at that time
+    */
+    protected void sleepUntilDue() {
+        if ( !useTimers || hold || ended || num_children > 0 ) return;
+        if ( needsFrames() ) return;
+
+        long due;
+        if ( !started ) {
+            due = startTime;
+        } else {
+            due = 0;
+            if ( stepTime > 0 ) due = stepTime;
+            if ( endTime > 0 && (due == 0 || endTime < due) ) due = endTime;
+        }
+
+        long now = gameController.totalElapsed;
+        if ( due <= now ) return;
+
+        if ( waker == null ) waker = new Waker();
+        gameController.timers.schedule(waker,due);
+        sleep();
+        sleptAt = now;
+    }
+
+
+    /**
+       Whether the sequence needs to be updated every frame right now,
+       rather than just at the start / step / end times
+    */
+    protected boolean needsFrames() {
+        return false;
+    }
+
+
+    /**
+       Timer that wakes the sequence up
+    */
+    protected class Waker extends TimerWheel.Timer {
+        @Override
+        public void onTimer(long now) {
+            wake();
+        }
+    }
+
+
     public boolean shouldStart() {
         return ( !hold &&
                  !started &&
@@ -192,7 +307,10 @@ public class GameSequence extends GameNode {
        GameSequence as the payload.
     */
     protected void postStart() {
-        postUp(GameEvent.obtain(startType,this));
+        if ( listener != null )
+            listener.onSequenceStart(this);
+        else
+            postUp(GameEvent.obtain(startType,this));
     }
 
 
@@ -202,7 +320,13 @@ public class GameSequence extends GameNode {
        GameSequence as the payload.
     */
     protected void postEnd() {
-        postUp(GameEvent.obtain(endType,this));
+        if ( listener != null ) {
+            listener.onSequenceEnd(this);
+            if ( parent instanceof Nested )
+                ((Nested)parent).childEnded(this);
+        }
+        else
+            postUp(GameEvent.obtain(endType,this));
     }
 
 
@@ -212,7 +336,10 @@ public class GameSequence extends GameNode {
        GameSequence as the payload.
     */
     protected void postStep() {
-        postUp(GameEvent.obtain(stepType,this));
+        if ( listener != null )
+            listener.onSequenceStep(this);
+        else
+            postUp(GameEvent.obtain(stepType,this));
     }
 
 
@@ -226,22 +353,24 @@ public class GameSequence extends GameNode {
     
     
     
-    private static GameSequence first_avail; // TODO: need synchronized() on obtain() and recycle()
-    protected GameSequence next_avail;
+    /** The pool of available instances -- each subclass has its own */
+    public static final Pool<GameSequence> pool = new Pool<GameSequence>("GameSequence") {
+            @Override
+            protected GameSequence newInstance() {
+                return new GameSequence(0);
+            }
+        };
     
     
     public static GameSequence obtain() {
-        if ( first_avail == null ) first_avail = new GameSequence(0);
-        GameSequence seq = first_avail;
-        first_avail = first_avail.next_avail;
+        GameSequence seq = pool.obtain();
         seq.resetAll();
         return seq;
     }
 
     
     public void recycle() {
-        next_avail = first_avail;
-        first_avail = this;
+        pool.recycle(this);
     }
 
     
@@ -275,12 +404,15 @@ public class GameSequence extends GameNode {
             }
         }
 
-        private static Poster first_avail;
+        public static final Pool<Poster> pool = new Pool<Poster>("GameSequence.Poster") {
+                @Override
+                protected Poster newInstance() {
+                    return new Poster(0);
+                }
+            };
         
         public static Poster obtain() {
-            if ( first_avail == null ) first_avail = new Poster(0);
-            Poster p = first_avail;
-            first_avail = (Poster)first_avail.next_avail;
+            Poster p = pool.obtain();
 
             p.postType = 0;
             p.postDelay = 0;
@@ -291,8 +423,7 @@ public class GameSequence extends GameNode {
 
         @Override
         public void recycle() {
-            next_avail = first_avail;
-            first_avail = this;
+            pool.recycle(this);
         }
         
      }
@@ -312,15 +443,19 @@ public class GameSequence extends GameNode {
             super(duration);
         }
         
-        /** Add a child Sequence */
+        /**
+           When a child Sequence is added, it takes on the oneShot setting.
+           This is done in _added() rather than addNode(), so it happens
+           when the child is actually attached (which may be deferred
+           to the frame boundary)
+         */
         @Override
-        public GameNode addNode(GameNode child) {
-            GameNode node = super.addNode(child);
+        protected void _added(GameNode child) {
+            super._added(child);
             if ( child instanceof GameSequence ) {
                 GameSequence seq = (GameSequence)child;
                 seq.oneShot = this.oneShot;
             }
-            return node;
         }
 
 
@@ -359,6 +494,15 @@ public class GameSequence extends GameNode {
         }
         
         
+        /**
+           Called when a child sequence ends.  Normally that's found out from
+           the child's end event, but a child with a Listener calls this
+           directly instead.
+         */
+        protected void childEnded(GameSequence seq) {
+        }
+
+        
         // Don't end until all the child sequences indicate they are done
         @Override
         public boolean shouldEnd() {
@@ -402,13 +546,12 @@ public class GameSequence extends GameNode {
            Whenever a new sequence is added to the chain, set it to hold.
          */
         @Override
-        public GameNode addNode(GameNode n) {
-            super.addNode(n);
+        protected void _added(GameNode n) {
+            super._added(n);
             if ( n instanceof GameSequence ) {
                 GameSequence seq = (GameSequence)n;
                 seq.hold();
             }
-            return this;
         }
 
  
@@ -450,7 +593,7 @@ public class GameSequence extends GameNode {
                 GameSequence seq = (GameSequence)event.origin;
                 if ( event.type == seq.endType &&
                         seq.parent == this ) {
-                    startNext();
+                    childEnded(seq);
                     return true;
                 }
             }
@@ -458,12 +601,21 @@ public class GameSequence extends GameNode {
         }
 
 
-        private static Series first_avail;
+        @Override
+        protected void childEnded(GameSequence seq) {
+            startNext();
+        }
+
+
+        public static final Pool<Series> pool = new Pool<Series>("GameSequence.Series") {
+                @Override
+                protected Series newInstance() {
+                    return new Series(0);
+                }
+            };
         
         public static Series obtain() {
-            if ( first_avail == null ) first_avail = new Series(0);
-            Series seq = first_avail;
-            first_avail = (Series)first_avail.next_avail;
+            Series seq = pool.obtain();
             seq.resetAll();
             return seq;
         }
@@ -471,8 +623,7 @@ public class GameSequence extends GameNode {
     
         @Override
         public void recycle() {
-            next_avail = first_avail;
-            first_avail = this;
+            pool.recycle(this);
         }
     }
 
@@ -496,14 +647,13 @@ public class GameSequence extends GameNode {
 
         // Whenever a new sequence is added to the list, set it to hold.
         @Override
-        public GameNode addNode(GameNode n) {
-            super.addNode(n);
+        protected void _added(GameNode n) {
+            super._added(n);
             if ( n instanceof GameSequence ) {
                 GameSequence seq = (GameSequence)n;
                 if ( started ) seq.start();
                 else seq.hold();
             }
-            return this;
         }
 
 
@@ -534,8 +684,7 @@ public class GameSequence extends GameNode {
                 GameSequence seq = (GameSequence)event.origin;
                 if ( event.type == seq.endType &&
                      seq.parent == this ) {
-                    if ( seq.endTime > endTime )
-                        endTime = seq.endTime;
+                    childEnded(seq);
                     return true;
                 }
             }
@@ -543,12 +692,22 @@ public class GameSequence extends GameNode {
         }
 
 
-        private static Parallel first_avail;
+        @Override
+        protected void childEnded(GameSequence seq) {
+            if ( seq.endTime > endTime )
+                endTime = seq.endTime;
+        }
+
+
+        public static final Pool<Parallel> pool = new Pool<Parallel>("GameSequence.Parallel") {
+                @Override
+                protected Parallel newInstance() {
+                    return new Parallel();
+                }
+            };
         
         public static Parallel obtain() {
-            if ( first_avail == null ) first_avail = new Parallel();
-            Parallel seq = first_avail;
-            first_avail = (Parallel)first_avail.next_avail;
+            Parallel seq = pool.obtain();
             seq.resetAll();
             return seq;
         }
@@ -556,8 +715,7 @@ public class GameSequence extends GameNode {
     
         @Override
         public void recycle() {
-            next_avail = first_avail;
-            first_avail = this;
+            pool.recycle(this);
         }
     }
 
@@ -592,6 +750,13 @@ public class GameSequence extends GameNode {
         }
 
         
+        /** Progress is updated every frame while running */
+        @Override
+        protected boolean needsFrames() {
+            return started;
+        }
+
+
         protected void updateProgress() {
             if ( duration == 0 ) return;
 
@@ -605,12 +770,15 @@ public class GameSequence extends GameNode {
         }
         
 
-        private static Interpolated first_avail;
+        public static final Pool<Interpolated> pool = new Pool<Interpolated>("GameSequence.Interpolated") {
+                @Override
+                protected Interpolated newInstance() {
+                    return new Interpolated(0,null);
+                }
+            };
         
         public static Interpolated obtain() {
-            if ( first_avail == null ) first_avail = new Interpolated(0,null);
-            Interpolated seq = first_avail;
-            first_avail = (Interpolated)first_avail.next_avail;
+            Interpolated seq = pool.obtain();
             seq.resetAll();
             return seq;
         }
@@ -618,8 +786,7 @@ public class GameSequence extends GameNode {
     
         @Override
         public void recycle() {
-            next_avail = first_avail;
-            first_avail = this;
+            pool.recycle(this);
         }
         
     }
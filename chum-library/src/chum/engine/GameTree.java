@@ -1,6 +1,12 @@
 package chum.engine;
 
+import chum.f.M4;
+import chum.gl.Interpolated;
 import chum.gl.RenderContext;
+import chum.gl.RenderNode;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
 
 
 /**
@@ -13,15 +19,365 @@ import chum.gl.RenderContext;
    will be used to render the scene.  The RenderPrimitive chain is built separate from
    the processing of the GameNodes so that the actual rendering can happen in
    a separate thread.
+
+   Rather than recursing through the nodes every frame, the GameTree keeps a
+   flattened, pre-order list of the nodes, where each node appears twice:  once
+   when it is entered (for updatePrefix() / renderPrefix()), and once when it is
+   exited (for updatePostfix() / renderPostfix()).  update() and render() just
+   loop over that list.  The list is only rebuilt when the structure of the
+   tree changes.
+
+   Nodes that override update() or render() themselves are still called as
+   usual, and their subtree is skipped in the flattened pass -- the node is
+   responsible for its own children, same as in the recursive traversal.
  */
 public class GameTree extends GameNode {
     
+    /** Whether update() and render() use the flattened traversal order */
+    public boolean flatten = true;
+
+    /**
+       If set, told about each node's part of the update / render passes.
+       Volatile, since it is usually set from another thread, and read once
+       at the start of each pass.
+    */
+    public volatile Probe probe;
+
+    /** The nodes in traversal order -- each node has an enter and an exit entry */
+    protected GameNode[] order = new GameNode[32];
+
+    /** For each enter entry, the index of the matching exit entry.  -1 for exit entries */
+    protected int[] exits = new int[32];
+
+    /** For each enter entry, how the node is handled in update() */
+    protected byte[] updateKinds = new byte[32];
+
+    /** For each enter entry, how the node is handled in render() */
+    protected byte[] renderKinds = new byte[32];
+
+    /** The number of entries in order[] */
+    protected int orderLength;
+
+    /** Whether the order needs to be rebuilt before the next pass */
+    protected volatile boolean orderDirty = true;
+
+    /**
+       The RenderNodes in the tree with a transform of their own (see
+       RenderNode.getTransform()), checked before each render pass so bounds
+       computed with an old transform aren't used for culling
+    */
+    protected RenderNode[] transformNodes = new RenderNode[16];
+    protected int numTransformNodes;
+
+    /** The Interpolated nodes in the tree, snapshot at the end of each update */
+    protected Interpolated[] interpolatedNodes = new Interpolated[16];
+    protected int numInterpolatedNodes;
+
+    /**
+       Diagnostic hook around the pieces of work in a frame, e.g. for profiling
+       or checking which nodes allocate memory.
+
+       In the update and render passes, a node's span starts before its
+       prefix and ends after its postfix (or around its own update() /
+       render(), for nodes that handle their children) -- so the spans of
+       its children are nested inside it.  Each event dispatched from the
+       queue is a span for the node it was posted from, and each
+       RenderPrimitive drawn is a span of its own.  Only the flattened
+       traversal is probed.
+    */
+    public interface Probe {
+        static final int UPDATE = 0;
+        static final int RENDER = 1;
+        static final int DRAW = 2;
+        static final int EVENT = 3;
+
+        /** Called at the start of a span for a node or RenderPrimitive */
+        void begin(Object site, int pass);
+
+        /** Called at the end of a span for a node or RenderPrimitive */
+        void end(Object site, int pass);
+    }
+
+
+    /** Visit the node's prefix, its children, then its postfix */
+    protected static final byte TRAVERSE = 0;
+
+    /** Call the node's own update() / render(), which handles its children */
+    protected static final byte CALL = 1;
+
+    /** Skip the node and its children entirely */
+    protected static final byte SKIP = 2;
+
+
     /**
        Create a new GameTree
     */
     public GameTree() {
         super();
     }
+
+
+    /**
+       Any change in the structure of the tree invalidates the traversal order
+    */
+    @Override
+    public void onStructureChanged() {
+        orderDirty = true;
+        super.onStructureChanged();
+    }
+
+
+    /**
+       Rebuild the flattened traversal order from the current tree structure.
+       This normally happens automatically at the start of update() / render()
+       after the tree changes.
+    */
+    public void buildOrder() {
+        // Clear the flag first, so that changes made while building
+        // (from another thread) cause another rebuild
+        orderDirty = false;
+        
+        orderLength = 0;
+        numTransformNodes = 0;
+        numInterpolatedNodes = 0;
+        orderBuilder.depth = 0;
+        synchronized(this) {
+            for(int i=0; i<num_children; ++i)
+                Traversal.get().walk(children[i],orderBuilder,true);
+        }
+
+        // Don't hold on to nodes that are no longer in the tree
+        for(int i=orderLength; i<order.length && order[i] != null; ++i)
+            order[i] = null;
+        for(int i=numTransformNodes; i<transformNodes.length && transformNodes[i] != null; ++i)
+            transformNodes[i] = null;
+        for(int i=numInterpolatedNodes; i<interpolatedNodes.length && interpolatedNodes[i] != null; ++i)
+            interpolatedNodes[i] = null;
+    }
+
+
+    /**
+       Appends each node's enter and exit entries.  The open enter entries
+       are kept in a stack of their own, to be matched up with the exits.
+    */
+    private final OrderBuilder orderBuilder = new OrderBuilder();
+
+    private class OrderBuilder implements Traversal.Walker {
+        int[] open = new int[32];
+        int depth;
+
+        public boolean enter(GameNode node) {
+            int enter = reserveOrder();
+            order[enter] = node;
+            updateKinds[enter] = updateKind(node.getClass());
+            renderKinds[enter] = renderKind(node.getClass());
+            if ( node instanceof RenderNode && transforms(node.getClass()) ) {
+                if ( numTransformNodes == transformNodes.length ) {
+                    RenderNode[] newNodes = new RenderNode[numTransformNodes * 2];
+                    System.arraycopy(transformNodes,0,newNodes,0,numTransformNodes);
+                    transformNodes = newNodes;
+                }
+                transformNodes[numTransformNodes++] = (RenderNode)node;
+            }
+            if ( node instanceof Interpolated ) {
+                if ( numInterpolatedNodes == interpolatedNodes.length ) {
+                    Interpolated[] newNodes = new Interpolated[numInterpolatedNodes * 2];
+                    System.arraycopy(interpolatedNodes,0,newNodes,0,numInterpolatedNodes);
+                    interpolatedNodes = newNodes;
+                }
+                interpolatedNodes[numInterpolatedNodes++] = (Interpolated)node;
+            }
+
+            if ( depth == open.length ) {
+                int[] newOpen = new int[depth * 2];
+                System.arraycopy(open,0,newOpen,0,depth);
+                open = newOpen;
+            }
+            open[depth++] = enter;
+            return true;
+        }
+
+        public void exit(GameNode node) {
+            int enter = open[--depth];
+            int exit = reserveOrder();
+            order[exit] = node;
+            exits[enter] = exit;
+            exits[exit] = -1;
+        }
+    }
+
+
+    private int reserveOrder() {
+        if ( orderLength == order.length ) {
+            int size = order.length * 2;
+
+            GameNode[] newOrder = new GameNode[size];
+            System.arraycopy(order,0,newOrder,0,orderLength);
+            order = newOrder;
+
+            int[] newExits = new int[size];
+            System.arraycopy(exits,0,newExits,0,orderLength);
+            exits = newExits;
+
+            byte[] newKinds = new byte[size];
+            System.arraycopy(updateKinds,0,newKinds,0,orderLength);
+            updateKinds = newKinds;
+
+            newKinds = new byte[size];
+            System.arraycopy(renderKinds,0,newKinds,0,orderLength);
+            renderKinds = newKinds;
+        }
+        return orderLength++;
+    }
+
+
+    private static final HashMap<Class<?>,Byte> updateKindCache = new HashMap<Class<?>,Byte>();
+    private static final HashMap<Class<?>,Byte> renderKindCache = new HashMap<Class<?>,Byte>();
+    private static final HashMap<Class<?>,Boolean> transformsCache = new HashMap<Class<?>,Boolean>();
+
+
+    /**
+       Nodes using the standard GameNode.update() can be traversed in the flattened
+       order, others have to have their own update() called -- including ones
+       that only override updateChildren(), which the flattened order would
+       otherwise bypass
+    */
+    protected static byte updateKind(Class<?> cls) {
+        synchronized(updateKindCache) {
+            Byte kind = updateKindCache.get(cls);
+            if ( kind == null ) {
+                Class<?> declaring = declaringClass(cls,"update",Long.TYPE);
+                kind = declaring == GameNode.class &&
+                    !Traversal.declaredBelow(cls,"updateChildren",Long.TYPE) ? TRAVERSE : CALL;
+                updateKindCache.put(cls,kind);
+            }
+            return kind;
+        }
+    }
+
+
+    /**
+       Nodes using the default (empty) GameNode.render() are skipped along with their
+       children.  Nodes using the standard RenderNode.render() are traversed in the
+       flattened order, and anything else has its own render() called.
+    */
+    protected static byte renderKind(Class<?> cls) {
+        synchronized(renderKindCache) {
+            Byte kind = renderKindCache.get(cls);
+            if ( kind == null ) {
+                Class<?> declaring = declaringClass(cls,"render",RenderContext.class);
+                if ( declaring == GameNode.class ) kind = SKIP;
+                else if ( declaring == RenderNode.class ) kind = TRAVERSE;
+                else kind = CALL;
+                renderKindCache.put(cls,kind);
+            }
+            return kind;
+        }
+    }
+
+
+    /**
+       @return whether a RenderNode class has a transform of its own -- it
+       overrides getTransform()
+    */
+    protected static boolean transforms(Class<?> cls) {
+        synchronized(transformsCache) {
+            Boolean transforms = transformsCache.get(cls);
+            if ( transforms == null ) {
+                transforms = Boolean.FALSE;
+                for(Class<?> c = cls; c != RenderNode.class && c != null; c = c.getSuperclass()) {
+                    try {
+                        c.getDeclaredMethod("getTransform",M4.class);
+                        transforms = Boolean.TRUE;
+                        break;
+                    } catch(NoSuchMethodException e) {}
+                }
+                transformsCache.put(cls,transforms);
+            }
+            return transforms;
+        }
+    }
+
+
+    /**
+       @return whether the node (or its children) can add anything to the
+       render chain -- false for nodes that use the default (empty)
+       GameNode.render()
+     */
+    public static boolean renders(GameNode node) {
+        return renderKind(node.getClass()) != SKIP;
+    }
+
+
+    private static Class<?> declaringClass(Class<?> cls, String name, Class<?> param) {
+        try {
+            Method method = cls.getMethod(name,param);
+            return method.getDeclaringClass();
+        } catch(NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+
+    /**
+       Update all the nodes in the tree, by looping over the flattened traversal order.
+
+       Nodes added during the update pass are first updated on the next frame.
+       Nodes removed during the update pass are not updated if they haven't
+       been reached yet.
+    */
+    @Override
+    public boolean update(long millis) {
+        if ( orderDirty ) buildOrder();
+        if ( !flatten ) {
+            boolean updated = super.update(millis);
+            snapshotInterpolated();
+            return updated;
+        }
+
+        boolean updated = false;
+        if ( updatePrefix(millis) ) updated = true;
+
+        final GameNode[] order = this.order;
+        final int[] exits = this.exits;
+        final byte[] kinds = this.updateKinds;
+        final Probe probe = this.probe;
+        for(int i=0, n=orderLength; i<n; ++i) {
+            GameNode node = order[i];
+            int exit = exits[i];
+
+            if ( exit < 0 ) {
+                node.endIterating();
+                if ( node.updatePostfix(millis) ) updated = true;
+                if ( probe != null ) probe.end(node,Probe.UPDATE);
+                continue;
+            }
+
+            if ( node.parent == null ) {
+                i = exit; // removed since the order was built
+                continue;
+            }
+
+            if ( probe != null ) probe.begin(node,Probe.UPDATE);
+
+            // Nodes that can sleep track their own subtree
+            if ( kinds[i] == CALL || node.sleepAfter > 0 || node.sleeping ) {
+                if ( node.updateIfAwake(millis) ) updated = true;
+                if ( probe != null ) probe.end(node,Probe.UPDATE);
+                i = exit;
+                continue;
+            }
+
+            if ( node.updatePrefix(millis) ) updated = true;
+
+            // Children removed until the exit leave holes -- see GameNode.holes
+            node.iterating++;
+        }
+
+        if ( updatePostfix(millis) ) updated = true;
+        snapshotInterpolated();
+        return updated;
+    }
     
 
     /**
@@ -124,20 +480,88 @@ public class GameTree extends GameNode {
     */
     @Override
     public boolean dispatchEventUp(GameEvent event) {
-        if (gameController.activity.onGameEvent(event))
+        // No activity when running headless
+        GameActivity activity = gameController.activity;
+        if (activity != null && activity.onGameEvent(event))
             return true;
         return dispatchEventDown(event,false);
     }
     
 
     /**
-       In the render phase, all nodes in the tree will have render() called
+       In the render phase, all nodes in the tree will have render() called.
+       As with update(), this loops over the flattened traversal order.
      */
     @Override
     public void render(RenderContext renderContext) {
-        for(int i=0; i<num_children; ++i) {
-            GameNode child = children[i];
-            child.render(renderContext);
+        if ( orderDirty ) buildOrder();
+        checkTransforms();
+
+        if ( !flatten ) {
+            for(int i=0; i<num_children; ++i) {
+                GameNode child = children[i];
+                child.render(renderContext);
+            }
+            return;
+        }
+
+        final GameNode[] order = this.order;
+        final int[] exits = this.exits;
+        final byte[] kinds = this.renderKinds;
+        final Probe probe = this.probe;
+        for(int i=0, n=orderLength; i<n; ++i) {
+            GameNode node = order[i];
+            int exit = exits[i];
+
+            if ( exit < 0 ) {
+                // Only traversed RenderNodes get here -- others jump past their exit
+                ((RenderNode)node).exitRender(renderContext);
+                if ( probe != null ) probe.end(node,Probe.RENDER);
+                continue;
+            }
+
+            switch(kinds[i]) {
+            case SKIP:
+                i = exit;
+                break;
+            case CALL:
+                if ( probe != null ) probe.begin(node,Probe.RENDER);
+                node.render(renderContext);
+                if ( probe != null ) probe.end(node,Probe.RENDER);
+                i = exit;
+                break;
+            default:
+                RenderNode rnode = (RenderNode)node;
+                if ( probe != null ) probe.begin(node,Probe.RENDER);
+                if ( !rnode.enterRender(renderContext) ) {
+                    if ( probe != null ) probe.end(node,Probe.RENDER);
+                    i = exit;
+                }
+                break;
+            }
         }
     }
+
+
+    /**
+       Before culling, notice any transform that has changed since the
+       bounds were computed -- whichever node changed it, and whether or not
+       the node has been updated (e.g. it's asleep)
+    */
+    protected void checkTransforms() {
+        final RenderNode[] nodes = transformNodes;
+        for(int i=0, n=numTransformNodes; i<n; ++i)
+            nodes[i].checkTransform();
+    }
+
+
+    /**
+       At the end of an update, note the state of the Interpolated nodes,
+       once every node has had its chance to change it
+    */
+    protected void snapshotInterpolated() {
+        final Interpolated[] nodes = interpolatedNodes;
+        for(int i=0, n=numInterpolatedNodes; i<n; ++i)
+            nodes[i].snapshot();
+    }
 }
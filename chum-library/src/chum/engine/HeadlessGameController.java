@@ -0,0 +1,140 @@
+package chum.engine;
+
+import chum.gl.RenderContext;
+import chum.gl.render.primitive.RenderPrimitive;
+
+import javax.microedition.khronos.opengles.GL10;
+
+
+/**
+   A GameController that runs a GameTree without a GameActivity or
+   GLSurfaceView -- for tests, benchmarks, soak tests, etc.
+
+   The tree is set up against the given GL10 implementation (e.g. a mock),
+   and then driven either manually, one frame at a time with step(), or
+   from the normal GameThread with start() / stop().  Each frame updates
+   the tree, builds the render chain, and (if renderFrames is set) runs the
+   chain immediately in the same thread.
+
+   By default a ManualClock is used, advanced by frameMillis for each
+   step(), so runs are deterministic and as fast as the tree allows.
+*/
+public class HeadlessGameController extends GameController {
+
+    /** Amount the ManualClock is advanced for each step() */
+    public long frameMillis;
+
+    /** Whether to run the render chain built each frame */
+    public boolean renderFrames = true;
+
+    /** Number of frames run */
+    public long framesRun;
+
+
+    /**
+       Create a headless controller for the tree, rendering into the
+       given GL10 implementation.  Call setup() before running any frames.
+     */
+    public HeadlessGameController(GameTree tree, GL10 gl10, int width, int height) {
+        super(null);
+        this.tree = tree;
+        this.width = width;
+        this.height = height;
+        frameMillis = targetInterval;
+        clock = new ManualClock();
+        renderContext = new RenderContext(null,gl10,null);
+        renderContext.width = width;
+        renderContext.height = height;
+    }
+
+
+    /**
+       Set up the tree, the same way the GLSurfaceView callbacks do for
+       a GameActivity.  Must be called from the thread that will be used
+       for step()
+     */
+    public HeadlessGameController setup() {
+        renderThread = Thread.currentThread();
+        tree.doSetup(this);
+        tree.doSurfaceCreated(renderContext);
+        tree.doSurfaceChanged(width,height);
+        tree.postDown(GameEvent.obtain(GameEvent.GAME_INIT));
+        journal.deferring = deferStructureChanges;
+        resetFrame();
+        surfaceReady = true;
+        return this;
+    }
+
+
+    /**
+       Run a number of frames in the calling thread.  If using a
+       ManualClock, it is advanced by frameMillis before each frame.
+     */
+    public void step(int frames) {
+        for(int i=0; i<frames; ++i) {
+            if ( clock instanceof ManualClock )
+                ((ManualClock)clock).advance(frameMillis);
+            update();
+        }
+    }
+
+
+    /**
+       Run frames continuously in the GameThread, until stop().  Can be
+       started again after stop(), in a new thread.
+     */
+    public void start() {
+        if ( gameThread.isAlive() ) return;
+        if ( gameThread.done ) gameThread = new GameThread();
+        gameThread.start();
+    }
+
+
+    /**
+       Stop the GameThread, and wait for it to finish
+     */
+    public void stop() {
+        gameThread.done = true;
+        try { gameThread.join(); }
+        catch(InterruptedException e) {}
+    }
+
+
+    @Override
+    protected void update() {
+        super.update();
+        framesRun++;
+    }
+
+
+    /**
+       With a ManualClock, idling just moves the clock forward
+     */
+    @Override
+    protected void idle(long millis) {
+        if ( clock instanceof ManualClock )
+            ((ManualClock)clock).advance(millis);
+        else
+            super.idle(millis);
+    }
+
+
+    /**
+       Run the render chain right away, instead of handing it off to a
+       render thread
+     */
+    @Override
+    protected void renderReady() {
+        RenderPrimitive rendering = null;
+        if ( renderContext.renderTail != null ) {
+            renderContext.renderTail.nextNode = null;
+            rendering = renderContext.renderHead;
+            renderContext.renderHead = renderContext.renderTail = null;
+            renderContext.phase = !renderContext.phase;
+        }
+
+        if ( !renderFrames ) return;
+        draw(rendering,renderContext.gl10);
+    }
+
+}
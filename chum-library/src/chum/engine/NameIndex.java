@@ -0,0 +1,323 @@
+package chum.engine;
+
+
+/**
+   Index of the named nodes in a tree, so GameNode.findNode() doesn't have
+   to search the whole tree.
+
+   Each index is kept by the root node of a tree, and holds every named node
+   under it.  GameNode keeps it up to date as nodes are named (setName()),
+   added and removed.  When a subtree is added to a tree, its index is merged
+   into the tree's; when a subtree is removed, its named nodes are moved to
+   a new index kept by the subtree's root.
+
+   Lookups work on a region of a string (one part of a hierarchical name
+   such as "foo.bar"), so nothing is allocated.  Among several nodes with
+   the same name, the one chosen is the one the original recursive search
+   would have found first:  the one sharing the deepest common ancestor with
+   the node doing the search, then the earliest in the tree order.
+*/
+class NameIndex {
+
+    /** Open-addressed hash table of names */
+    protected String[] keys = new String[16];
+
+    /** The nodes with each name */
+    protected GameNode[][] nodes = new GameNode[16][];
+
+    /** Number of nodes with each name */
+    protected int[] counts = new int[16];
+
+    /** Number of names in the table */
+    protected int size;
+
+    /** Number of nodes in the index */
+    protected int total;
+
+
+    /**
+       The same as String.hashCode() of the substring
+     */
+    static int hash(String s, int start, int end) {
+        int h = 0;
+        for(int i=start; i<end; ++i) h = 31*h + s.charAt(i);
+        return h;
+    }
+
+
+    static boolean matches(String name, String s, int start, int end) {
+        return name != null && name.length() == end - start &&
+            name.regionMatches(0,s,start,end-start);
+    }
+
+
+    /**
+       @return the slot for the name -- either holding the name, or empty
+     */
+    protected int slot(String s, int start, int end) {
+        int mask = keys.length - 1;
+        int i = hash(s,start,end) & mask;
+        while ( keys[i] != null ) {
+            if ( matches(keys[i],s,start,end) ) return i;
+            i = (i+1) & mask;
+        }
+        return i;
+    }
+
+
+    public synchronized void add(GameNode node) {
+        String name = node.name;
+        int i = slot(name,0,name.length());
+        if ( keys[i] == null ) {
+            if ( (size+1) * 2 > keys.length ) {
+                rehash();
+                i = slot(name,0,name.length());
+            }
+            keys[i] = name;
+            nodes[i] = new GameNode[2];
+            size++;
+        }
+
+        GameNode[] list = nodes[i];
+        if ( counts[i] == list.length ) {
+            GameNode[] newList = new GameNode[list.length*2];
+            System.arraycopy(list,0,newList,0,counts[i]);
+            nodes[i] = list = newList;
+        }
+        list[counts[i]++] = node;
+        total++;
+    }
+
+
+    public synchronized void remove(GameNode node, String name) {
+        int i = slot(name,0,name.length());
+        if ( keys[i] == null ) return;
+
+        GameNode[] list = nodes[i];
+        int count = counts[i];
+        for(int j=0; j<count; ++j) {
+            if ( list[j] == node ) {
+                list[j] = list[count-1];
+                list[count-1] = null;
+                counts[i]--;
+                total--;
+                return;
+            }
+        }
+    }
+
+
+    /**
+       Grow the table, dropping names that no longer have any nodes
+     */
+    protected void rehash() {
+        String[] oldKeys = keys;
+        GameNode[][] oldNodes = nodes;
+        int[] oldCounts = counts;
+
+        int live = 0;
+        for(int i=0; i<oldKeys.length; ++i)
+            if ( oldKeys[i] != null && oldCounts[i] > 0 ) live++;
+        int length = oldKeys.length;
+        while ( (live+1) * 2 > length ) length *= 2;
+        if ( length == oldKeys.length && live == size ) length *= 2;
+
+        keys = new String[length];
+        nodes = new GameNode[length][];
+        counts = new int[length];
+        size = 0;
+        for(int i=0; i<oldKeys.length; ++i) {
+            if ( oldKeys[i] == null || oldCounts[i] == 0 ) continue;
+            int j = slot(oldKeys[i],0,oldKeys[i].length());
+            keys[j] = oldKeys[i];
+            nodes[j] = oldNodes[i];
+            counts[j] = oldCounts[i];
+            size++;
+        }
+    }
+
+
+    /**
+       Add everything from another index (when a subtree is added to the tree)
+     */
+    public synchronized void addAll(NameIndex other) {
+        for(int i=0; i<other.keys.length; ++i) {
+            for(int j=0; j<other.counts[i]; ++j)
+                add(other.nodes[i][j]);
+        }
+    }
+
+
+    /**
+       Move the named nodes in a subtree out of this index (when the subtree
+       is removed from the tree)
+
+       @return a new index for the subtree, or null if it has no named nodes
+     */
+    public synchronized NameIndex split(GameNode top) {
+        if ( total == 0 ) return null;
+        splitter.into = null;
+        Traversal.get().walk(top,splitter,false);
+        NameIndex into = splitter.into;
+        splitter.into = null;
+        return into;
+    }
+
+
+    /** Moves each named node it walks over into a new index */
+    private final class Splitter implements Traversal.Walker {
+        NameIndex into;
+
+        public boolean enter(GameNode node) {
+            if ( node.name != null ) {
+                remove(node,node.name);
+                if ( into == null ) into = new NameIndex();
+                into.add(node);
+            }
+            return true;
+        }
+
+        public void exit(GameNode node) {}
+    }
+    private final Splitter splitter = new Splitter();
+
+
+    /** The ancestors of the node being searched from, by depth -- reused */
+    private GameNode[] path = new GameNode[16];
+
+
+    /**
+       Find the named node nearest to a node -- see GameNode.findNode().
+       The node itself is not a candidate, nor is anything under skip, if
+       skip is one of its children.
+
+       Each candidate is climbed only until it meets the searching node's
+       ancestors, or until it is clear it can't share as deep an ancestor
+       as the best so far -- so candidates far away in the tree cost little
+       once a near one has been found.  Ties are usually settled by the
+       child indexes where their branches part.
+     */
+    public synchronized GameNode nearest(GameNode from, GameNode skip,
+                                         String s, int start, int end) {
+        int i = slot(s,start,end);
+        if ( keys[i] == null ) return null;
+
+        if ( skip != null && skip.parent != from ) skip = null;
+        int fromDepth = depth(from);
+        if ( path.length <= fromDepth ) path = new GameNode[(fromDepth+1) * 2];
+        GameNode n = from;
+        for(int d=fromDepth; d>=0; --d, n = n.parent) path[d] = n;
+
+        GameNode[] list = nodes[i];
+        GameNode best = null;
+        GameNode bestBranch = null;
+        int bestDepth = -1;
+        for(int j=0; j<counts[i]; ++j) {
+            GameNode c = list[j];
+            if ( c == from ) continue;
+
+            // Climb to the common ancestor, noting the child of it that c
+            // is under (null if c is the ancestor)
+            GameNode a = c;
+            GameNode branch = null;
+            int da = depth(c);
+            while ( da > fromDepth ) {
+                branch = a;
+                a = a.parent;
+                da--;
+            }
+            while ( da >= 0 && da >= bestDepth && a != path[da] ) {
+                branch = a;
+                a = a.parent;
+                da--;
+            }
+            if ( da < 0 || da < bestDepth ) continue;
+            if ( skip != null && branch == skip ) continue;
+
+            if ( da > bestDepth || precedes(c,branch,best,bestBranch,a) ) {
+                best = c;
+                bestBranch = branch;
+                bestDepth = da;
+            }
+        }
+        for(int d=0; d<=fromDepth; ++d) path[d] = null;
+        return best;
+    }
+
+
+    /**
+       @return true if a comes before b in tree order, given that both are
+       under the common ancestor, via the given children of it (null for
+       the ancestor itself)
+     */
+    static boolean precedes(GameNode a, GameNode branchA, GameNode b, GameNode branchB,
+                            GameNode ancestor) {
+        if ( branchA == null ) return true;
+        if ( branchB == null ) return false;
+        if ( branchA != branchB ) {
+            int ia = ancestor.indexOf(branchA);
+            int ib = ancestor.indexOf(branchB);
+            return ia >= 0 && (ib < 0 || ia < ib);
+        }
+        return precedes(a,b);
+    }
+
+
+    /**
+       Find the first named node (in tree order) below a node, not including
+       the node itself
+     */
+    public synchronized GameNode firstBelow(GameNode top, String s, int start, int end) {
+        int i = slot(s,start,end);
+        if ( keys[i] == null ) return null;
+
+        GameNode[] list = nodes[i];
+        GameNode best = null;
+        for(int j=0; j<counts[i]; ++j) {
+            GameNode c = list[j];
+            if ( c == top ) continue;
+            GameNode a = c.parent;
+            while ( a != null && a != top ) a = a.parent;
+            if ( a == null ) continue;
+            if ( best == null || precedes(c,best) ) best = c;
+        }
+        return best;
+    }
+
+
+    static int depth(GameNode node) {
+        int depth = 0;
+        for(GameNode n = node.parent; n != null; n = n.parent) depth++;
+        return depth;
+    }
+
+
+    /**
+       @return true if a comes before b in a pre-order traversal of the tree
+     */
+    static boolean precedes(GameNode a, GameNode b) {
+        if ( a == b ) return false;
+        int da = depth(a);
+        int db = depth(b);
+        while ( da > db ) {
+            a = a.parent;
+            da--;
+            if ( a == b ) return false; // b is an ancestor of a
+        }
+        while ( db > da ) {
+            b = b.parent;
+            db--;
+            if ( b == a ) return true; // a is an ancestor of b
+        }
+        while ( a.parent != b.parent ) {
+            a = a.parent;
+            b = b.parent;
+        }
+        GameNode parent = a.parent;
+        if ( parent == null ) return false;
+        int ia = parent.indexOf(a);
+        int ib = parent.indexOf(b);
+        return ia >= 0 && (ib < 0 || ia < ib);
+    }
+
+}
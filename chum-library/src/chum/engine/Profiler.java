@@ -0,0 +1,212 @@
+package chum.engine;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+
+/**
+   Opt-in frame profiler.  While started, it times each node's update and
+   render (with its children's spans nested inside), each event dispatched
+   (as a span for the node that posted it), and each RenderPrimitive drawn
+   in the render thread.
+
+   The spans go into preallocated ring buffers -- one for the game thread
+   and one for the render thread -- so profiling doesn't allocate, and only
+   the most recent spans are kept.  writeTrace() dumps them in the Chrome
+   trace-event JSON format, which can be loaded into chrome://tracing or
+   Perfetto.
+
+   When not started, the only cost is the GameTree checking that it has
+   no probe.
+*/
+public class Profiler implements GameTree.Probe {
+
+    /** Default number of spans kept for each thread */
+    public static final int DEFAULT_CAPACITY = 16384;
+
+    /** Spans from the game thread: updates, renders and events */
+    protected final Ring game;
+
+    /** Spans from the render thread: primitives drawn */
+    protected final Ring draw;
+
+    /** The tree being profiled */
+    protected GameTree tree;
+
+
+    public Profiler() {
+        this(DEFAULT_CAPACITY);
+    }
+
+
+    /**
+       Create a profiler that keeps the given number of spans for each thread
+     */
+    public Profiler(int capacity) {
+        game = new Ring(capacity);
+        draw = new Ring(capacity);
+    }
+
+
+    /**
+       Start profiling a tree, clearing any spans from before.  Takes
+       effect at the start of the next pass through the tree.
+     */
+    public void start(GameTree tree) {
+        clear();
+        this.tree = tree;
+        tree.probe = this;
+    }
+
+
+    /** Stop profiling, keeping the spans for writeTrace() */
+    public void stop() {
+        if ( tree != null && tree.probe == this ) tree.probe = null;
+        tree = null;
+    }
+
+
+    /** Drop all the spans recorded */
+    public void clear() {
+        game.clear();
+        draw.clear();
+    }
+
+
+    /** @return the number of spans kept */
+    public int size() {
+        return game.size() + draw.size();
+    }
+
+
+    public void begin(Object site, int pass) {
+        (pass == DRAW ? draw : game).begin();
+    }
+
+
+    public void end(Object site, int pass) {
+        (pass == DRAW ? draw : game).end(site,pass);
+    }
+
+
+    /**
+       A ring of spans recorded by one thread, in the order they ended,
+       plus the stack of spans that are still open
+     */
+    protected static class Ring {
+        final Object[] sites;
+        final byte[] passes;
+        final long[] starts;
+        final long[] ends;
+
+        /** Number of spans ever recorded -- the newest is at (count-1) % capacity */
+        long count;
+
+        long[] open = new long[64];
+        int depth;
+
+        Ring(int capacity) {
+            sites = new Object[capacity];
+            passes = new byte[capacity];
+            starts = new long[capacity];
+            ends = new long[capacity];
+        }
+
+        void begin() {
+            if ( depth == open.length ) {
+                long[] newOpen = new long[depth*2];
+                System.arraycopy(open,0,newOpen,0,depth);
+                open = newOpen;
+            }
+            open[depth++] = System.nanoTime();
+        }
+
+        void end(Object site, int pass) {
+            long now = System.nanoTime();
+            if ( depth == 0 ) return;
+            int i = (int)(count % sites.length);
+            sites[i] = site;
+            passes[i] = (byte)pass;
+            starts[i] = open[--depth];
+            ends[i] = now;
+            count++;
+        }
+
+        int size() {
+            return (int)Math.min(count,sites.length);
+        }
+
+        /** @return the index of the i'th oldest span kept */
+        int index(int i) {
+            return (int)((count - size() + i) % sites.length);
+        }
+
+        /**
+           @return the earliest start of the spans kept -- not necessarily
+           the oldest one's, since a span is kept when it ends, after the
+           ones nested in it
+         */
+        long earliestStart() {
+            long earliest = Long.MAX_VALUE;
+            for(int n=0, size=size(); n<size; ++n)
+                earliest = Math.min(earliest,starts[index(n)]);
+            return earliest;
+        }
+
+        void clear() {
+            for(int i=0; i<sites.length; ++i) sites[i] = null;
+            count = 0;
+            depth = 0;
+        }
+    }
+
+
+    /**
+       Write the spans as a Chrome trace-event JSON document.  Call after
+       stop(), or the newest spans may be torn.
+     */
+    public void writeTrace(Writer out) throws IOException {
+        long base = Math.min(game.earliestStart(),draw.earliestStart());
+
+        out.write("{\"traceEvents\":[\n");
+        out.write("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":1,\"args\":{\"name\":\"game\"}},\n");
+        out.write("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":2,\"args\":{\"name\":\"render\"}}");
+        writeSpans(out,game,1,base);
+        writeSpans(out,draw,2,base);
+        out.write("\n],\"displayTimeUnit\":\"ms\"}\n");
+        out.flush();
+    }
+
+
+    protected void writeSpans(Writer out, Ring ring, int tid, long base) throws IOException {
+        for(int n=0, size=ring.size(); n<size; ++n) {
+            int i = ring.index(n);
+            out.write(String.format(Locale.US,",\n{\"name\":\"%s\",\"cat\":\"%s\",\"ph\":\"X\",\"ts\":%.3f,\"dur\":%.3f,\"pid\":1,\"tid\":%d}",
+                                    escape(siteName(ring.sites[i])),
+                                    AllocationCheck.passName(ring.passes[i]),
+                                    (ring.starts[i] - base) / 1000.0,
+                                    (ring.ends[i] - ring.starts[i]) / 1000.0,
+                                    tid));
+        }
+    }
+
+
+    /** Spans are named for the node (and its name, if any) or primitive class */
+    protected static String siteName(Object site) {
+        return AllocationCheck.siteName(site);
+    }
+
+
+    protected static String escape(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for(int i=0; i<s.length(); ++i) {
+            char ch = s.charAt(i);
+            if ( ch == '"' || ch == '\\' ) sb.append('\\').append(ch);
+            else if ( ch < ' ' ) sb.append(String.format("\\u%04x",(int)ch));
+            else sb.append(ch);
+        }
+        return sb.toString();
+    }
+
+}
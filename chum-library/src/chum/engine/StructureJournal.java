@@ -0,0 +1,219 @@
+package chum.engine;
+
+
+/**
+   StructureJournal records changes to the structure of the GameTree (adding,
+   removing, replacing nodes) so they can be applied all at once, at a frame
+   boundary, in the game thread.
+
+   While changes are deferred, nothing else modifies the children of a node
+   during a frame, so the per-frame update pass doesn't need to lock each node.
+   The onAdded() / onRemoved() / onSetup() callbacks still fire, in the order
+   the changes were made, when the journal is applied.  Changes made from those
+   callbacks are recorded as well, and applied in the same pass.
+
+   Deferring is turned on by GameController when the game thread starts, if
+   GameController.deferStructureChanges is set.  Changes made while the tree is
+   being built and set up are always applied immediately.
+*/
+public class StructureJournal {
+
+    /** Whether changes are being recorded (rather than applied immediately) */
+    public volatile boolean deferring;
+
+    /** Changes being recorded */
+    protected Entries recording = new Entries();
+
+    /** Changes being applied */
+    protected Entries applying = new Entries();
+
+    /** Nodes with children removed in the current run of removals, to be compacted */
+    protected GameNode[] compacting = new GameNode[16];
+    protected int numCompacting;
+
+
+    static final byte INSERT = 1;
+    static final byte REMOVE = 2;
+    static final byte REPLACE = 3;
+    static final byte SPLICE_IN = 4;
+    static final byte SPLICE_OUT = 5;
+
+
+    /** Record GameNode.insertNode() */
+    public void insert(GameNode parent, GameNode node, int position) {
+        record(INSERT,parent,node,null,position);
+    }
+
+
+    /** Record GameNode.removeNode() */
+    public void remove(GameNode parent, GameNode node) {
+        record(REMOVE,parent,node,null,0);
+    }
+
+
+    /** Record GameNode.replaceNode() */
+    public void replace(GameNode parent, GameNode oldNode, GameNode newNode) {
+        record(REPLACE,parent,oldNode,newNode,0);
+    }
+
+
+    /** Record GameNode.spliceIn() */
+    public void spliceIn(GameNode node, GameNode insertNode) {
+        record(SPLICE_IN,node,insertNode,null,0);
+    }
+
+
+    /** Record GameNode.spliceOut() */
+    public void spliceOut(GameNode node) {
+        record(SPLICE_OUT,node,null,null,0);
+    }
+
+
+    protected void record(byte op, GameNode target, GameNode node, GameNode other, int position) {
+        synchronized(this) {
+            recording.add(op,target,node,other,position);
+        }
+    }
+
+
+    /**
+       @return the number of changes waiting to be applied
+     */
+    public int size() {
+        synchronized(this) {
+            return recording.size;
+        }
+    }
+
+
+    /**
+       Apply all the recorded changes, in the order they were made.
+       Called from GameController.update(), in the game thread.
+
+       @return the number of changes applied
+     */
+    public int apply() {
+        int count = 0;
+        while ( true ) {
+            synchronized(this) {
+                if ( recording.size == 0 )
+                    return count;
+                Entries entries = applying;
+                applying = recording;
+                recording = entries;
+            }
+
+            Entries entries = applying;
+            for(int i=0; i<entries.size; ++i) {
+                GameNode target = entries.targets[i];
+                GameNode node = entries.nodes[i];
+                switch(entries.ops[i]) {
+                case INSERT:
+                    target._insertNode(node,entries.positions[i]);
+                    break;
+                case REMOVE:
+                    // A run of removals is taken out first, leaving holes,
+                    // so the rest of the children are only shifted down
+                    // once -- and compacted before any of the callbacks
+                    // run, so they never see the holes
+                    int end = i;
+                    for(; end<entries.size && entries.ops[end] == REMOVE; ++end) {
+                        GameNode t = entries.targets[end];
+                        if ( t._detachLater(entries.nodes[end]) && t.holes == 1 )
+                            addCompacting(t);
+                    }
+                    compact();
+                    for(int j=i; j<end; ++j)
+                        entries.targets[j]._removedLater(entries.nodes[j]);
+                    i = end - 1;
+                    break;
+                case REPLACE:
+                    target._replaceNode(node,entries.others[i]);
+                    break;
+                case SPLICE_IN:
+                    target._spliceIn(node);
+                    break;
+                case SPLICE_OUT:
+                    target._spliceOut();
+                    break;
+                }
+            }
+            count += entries.size;
+            entries.clear();
+        }
+    }
+
+
+    private void addCompacting(GameNode node) {
+        if ( numCompacting == compacting.length ) {
+            GameNode[] newCompacting = new GameNode[numCompacting * 2];
+            System.arraycopy(compacting,0,newCompacting,0,numCompacting);
+            compacting = newCompacting;
+        }
+        compacting[numCompacting++] = node;
+    }
+
+
+    private void compact() {
+        for(int i=0; i<numCompacting; ++i) {
+            GameNode node = compacting[i];
+            if ( node.holes > 0 ) node.compactChildren();
+            compacting[i] = null;
+        }
+        numCompacting = 0;
+    }
+
+
+    /**
+       The recorded changes, as parallel arrays
+     */
+    protected static class Entries {
+        byte[] ops = new byte[16];
+        GameNode[] targets = new GameNode[16];
+        GameNode[] nodes = new GameNode[16];
+        GameNode[] others = new GameNode[16];
+        int[] positions = new int[16];
+        int size;
+
+        void add(byte op, GameNode target, GameNode node, GameNode other, int position) {
+            if ( size == ops.length ) grow();
+            ops[size] = op;
+            targets[size] = target;
+            nodes[size] = node;
+            others[size] = other;
+            positions[size] = position;
+            size++;
+        }
+
+        void grow() {
+            int length = ops.length * 2;
+
+            byte[] newOps = new byte[length];
+            System.arraycopy(ops,0,newOps,0,size);
+            ops = newOps;
+
+            GameNode[] newNodes = new GameNode[length];
+            System.arraycopy(targets,0,newNodes,0,size);
+            targets = newNodes;
+
+            newNodes = new GameNode[length];
+            System.arraycopy(nodes,0,newNodes,0,size);
+            nodes = newNodes;
+
+            newNodes = new GameNode[length];
+            System.arraycopy(others,0,newNodes,0,size);
+            others = newNodes;
+
+            int[] newPositions = new int[length];
+            System.arraycopy(positions,0,newPositions,0,size);
+            positions = newPositions;
+        }
+
+        void clear() {
+            for(int i=0; i<size; ++i) {
+                targets[i] = nodes[i] = others[i] = null;
+            }
+            size = 0;
+        }
+    }
+}
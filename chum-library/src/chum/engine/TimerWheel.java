@@ -0,0 +1,298 @@
+package chum.engine;
+
+
+/**
+   A hierarchical timer wheel, keyed on game time (GameController.totalElapsed,
+   in milliseconds).  Timers are kept in slots by their due time, so advancing
+   the time only touches the timers that are actually due, no matter how many
+   are waiting.
+
+   There are 4 levels of 64 slots.  The first level has a slot per
+   millisecond, and each level above covers 64 times the span of the one
+   below.  Timers due further out go in a higher level, and are moved down
+   ("cascaded") as their time gets closer.  Timers more than 2^24 ms out
+   (about 4.6 hours) wait in an overflow list.
+
+   GameController advances it each update, before updating the tree.
+   Timers are scheduled and cancelled from nodes' update(), which may be
+   running on several threads at once (see ParallelGroupNode), so those
+   calls take the wheel's lock.  advance() takes it to find the timers that
+   are due, but fires them after letting go of it, so onTimer() can do
+   anything without holding up the other threads.  Only one thread should
+   call advance().
+*/
+public class TimerWheel {
+
+    static final int BITS = 6;
+    static final int SLOTS = 1 << BITS;
+    static final int MASK = SLOTS - 1;
+    static final int LEVELS = 4;
+
+    /** The heads of the timer lists, by level and slot */
+    protected final Timer[][] slots = new Timer[LEVELS][SLOTS];
+
+    /** Number of timers in each level */
+    protected final int[] levelCounts = new int[LEVELS];
+
+    /** Timers too far out to fit in the wheel */
+    protected Timer overflow;
+
+    /** Timers that are already due, to be fired on the next advance() */
+    protected Timer ready;
+
+    /** Timers taken off the wheel by advance(), about to be fired */
+    protected Timer firing;
+
+    /** The time the wheel has been advanced to */
+    protected long current;
+
+    /** Number of timers scheduled */
+    protected int count;
+
+
+    /**
+       Something to be done at a certain time.  Subclasses implement
+       onTimer().  A timer can be scheduled again (even from onTimer())
+       once it has fired.
+    */
+    public static abstract class Timer {
+        /** The time the timer is due */
+        public long due;
+
+        TimerWheel wheel;
+        Timer next, prev;
+        int level = -1, slot;
+
+        /** Called when the timer is due */
+        public abstract void onTimer(long now);
+
+        /** @return whether the timer is waiting to fire */
+        public boolean isScheduled() {
+            return wheel != null;
+        }
+
+        /** Cancel the timer, if it is waiting to fire */
+        public void cancel() {
+            if ( wheel != null ) wheel.cancel(this);
+        }
+    }
+
+
+    /** @return the number of timers waiting to fire */
+    public synchronized int size() {
+        return count;
+    }
+
+
+    /** @return the time the wheel has been advanced to */
+    public long now() {
+        return current;
+    }
+
+
+    /**
+       Schedule a timer to fire at the given time.  If it was already
+       scheduled, it is moved to the new time.
+     */
+    public void schedule(Timer timer, long due) {
+        TimerWheel old = timer.wheel;
+        if ( old != null && old != this ) old.cancel(timer);
+        synchronized(this) {
+            if ( timer.wheel == this ) {
+                unlink(timer);
+                count--;
+            }
+            timer.due = due;
+            timer.wheel = this;
+            count++;
+            insert(timer);
+        }
+    }
+
+
+    public synchronized void cancel(Timer timer) {
+        if ( timer.wheel != this ) return;
+        unlink(timer);
+        timer.wheel = null;
+        count--;
+    }
+
+
+    /**
+       Advance the wheel to the given time, firing every timer due by then
+     */
+    public void advance(long now) {
+        while ( true ) {
+            long at;
+            synchronized(this) {
+                if ( !takeDue(now) ) return;
+                at = current;
+            }
+
+            // Fire them one at a time, since firing one may cancel another
+            Timer t;
+            while ( (t = takeFiring()) != null ) t.onTimer(at);
+        }
+    }
+
+
+    /**
+       Move the wheel on to the next time with timers due (no further than
+       the given time), and move those timers to the firing list
+
+       @return false if there are none due by then
+     */
+    protected boolean takeDue(long now) {
+        if ( ready != null ) {
+            startFiring(ready);
+            ready = null;
+            return true;
+        }
+
+        while ( current < now ) {
+            if ( count == 0 ) {
+                current = now;
+                break;
+            }
+
+            // Skip ahead over empty levels, up to the next boundary where
+            // a level above would be cascaded
+            int lowest = 0;
+            while ( lowest < LEVELS && levelCounts[lowest] == 0 ) lowest++;
+            if ( lowest > 0 ) {
+                long skipTo = lowest < LEVELS ?
+                    current | ((1L << (BITS*lowest)) - 1) :
+                    current | ((1L << (BITS*LEVELS)) - 1);
+                if ( skipTo >= now ) {
+                    current = now;
+                    break;
+                }
+                current = skipTo;
+            }
+
+            current++;
+
+            // Cascade the higher levels that have come around
+            for(int level=1; level<LEVELS; ++level) {
+                if ( (current & ((1L << (BITS*level)) - 1)) != 0 ) break;
+                cascade(takeSlot(level,(int)((current >>> (BITS*level)) & MASK)));
+            }
+            if ( (current & ((1L << (BITS*LEVELS)) - 1)) == 0 ) {
+                Timer list = overflow;
+                overflow = null;
+                cascade(list);
+            }
+
+            // The current slot, then any cascaded timers that were already due
+            Timer list = takeSlot(0,(int)(current & MASK));
+            if ( ready != null ) {
+                if ( list == null ) {
+                    list = ready;
+                } else {
+                    Timer last = list;
+                    while ( last.next != null ) last = last.next;
+                    last.next = ready;
+                    ready.prev = last;
+                }
+                ready = null;
+            }
+            if ( list != null ) {
+                startFiring(list);
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /** Make a list taken off the wheel the firing list */
+    protected void startFiring(Timer list) {
+        firing = list;
+        for(Timer t = list; t != null; t = t.next) t.level = LEVELS + 2;
+    }
+
+
+    /** @return the next timer to fire, taken off the firing list, or null */
+    protected synchronized Timer takeFiring() {
+        Timer t = firing;
+        if ( t == null ) return null;
+        unlink(t);
+        t.wheel = null;
+        count--;
+        return t;
+    }
+
+
+    /** Put each timer in a list back into the wheel, at its proper level */
+    protected void cascade(Timer list) {
+        while ( list != null ) {
+            Timer next = list.next;
+            insert(list);
+            list = next;
+        }
+    }
+
+
+    protected void insert(Timer t) {
+        long due = t.due;
+        t.prev = null;
+
+        if ( due <= current ) {
+            t.level = LEVELS;
+            t.next = ready;
+            if ( ready != null ) ready.prev = t;
+            ready = t;
+            return;
+        }
+
+        // The level is the lowest one where the due time and the current
+        // time fall in the same span of the level above
+        int level = 0;
+        while ( level < LEVELS && ((due ^ current) >>> (BITS*(level+1))) != 0 ) level++;
+
+        if ( level == LEVELS ) {
+            t.level = LEVELS + 1;
+            t.next = overflow;
+            if ( overflow != null ) overflow.prev = t;
+            overflow = t;
+            return;
+        }
+
+        int slot = (int)((due >>> (BITS*level)) & MASK);
+        t.level = level;
+        t.slot = slot;
+        t.next = slots[level][slot];
+        if ( t.next != null ) t.next.prev = t;
+        slots[level][slot] = t;
+        levelCounts[level]++;
+    }
+
+
+    protected void unlink(Timer t) {
+        if ( t.prev != null ) {
+            t.prev.next = t.next;
+        } else if ( t.level < LEVELS ) {
+            slots[t.level][t.slot] = t.next;
+        } else if ( t.level == LEVELS ) {
+            ready = t.next;
+        } else if ( t.level == LEVELS + 1 ) {
+            overflow = t.next;
+        } else {
+            firing = t.next;
+        }
+        if ( t.next != null ) t.next.prev = t.prev;
+        if ( t.level < LEVELS ) levelCounts[t.level]--;
+        t.next = t.prev = null;
+        t.level = -1;
+    }
+
+
+    /** Remove and return the whole list in a slot */
+    protected Timer takeSlot(int level, int slot) {
+        Timer list = slots[level][slot];
+        slots[level][slot] = null;
+        for(Timer t = list; t != null; t = t.next) levelCounts[level]--;
+        return list;
+    }
+
+}
@@ -0,0 +1,382 @@
+package chum.engine;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+
+
+/**
+   Walks a subtree of GameNodes without recursion, using an explicit stack
+   that is kept from one walk to the next.  This is what GameNode.visit(),
+   dispatchEventDown() and dispatchEventUp() use, so a deep tree costs a
+   few entries in an array rather than a Java stack frame per level --
+   the game thread's stack is small on some devices.
+
+   Each thread has a Traversal of its own (see get()).  A walk can start
+   another one from inside a callback (e.g. a node's onGameEvent()
+   dispatching an event directly):  the inner walk just uses the stack
+   above the outer one.
+
+   Nodes that override visit(), dispatchEventDown(), dispatchEventSideways()
+   or dispatchEventUp() have their own method called, same as in the
+   recursive version, and it takes care of their children.
+
+   Events are only offered to the nodes interested in their type (see
+   GameNode.handlesEvents()), and subtrees with no interested node are
+   skipped.  What each subtree is interested in is worked out again when
+   needed, after its children change.
+*/
+public final class Traversal {
+
+    /** The nodes on the stack */
+    protected GameNode[] nodes;
+
+    /** For each node on the stack, the next child to go into */
+    protected int[] next;
+
+    /** The number of entries on the stack */
+    protected int top;
+
+    /** The deepest the stack has been */
+    public int highWater;
+
+
+    /** The Traversal for each thread */
+    private static final ThreadLocal<Traversal> current = new ThreadLocal<Traversal>() {
+            @Override
+            protected Traversal initialValue() {
+                return new Traversal();
+            }
+        };
+
+
+    /** @return the Traversal for the calling thread */
+    public static Traversal get() {
+        return current.get();
+    }
+
+
+    public Traversal() {
+        this(64);
+    }
+
+
+    public Traversal(int capacity) {
+        nodes = new GameNode[capacity];
+        next = new int[capacity];
+    }
+
+
+    /**
+       Called on the way into and out of each node, by walk()
+    */
+    public interface Walker {
+        /**
+           Called before the node's children
+           @return false to skip the children (exit() is still called)
+        */
+        boolean enter(GameNode node);
+
+        /** Called after the node's children */
+        void exit(GameNode node);
+    }
+
+
+    /**
+       Walk a subtree, calling the walker on the way into and out of each
+       node.  Overrides of visit() are not called.
+
+       @param lock Whether to lock each node while getting its children,
+       in case they're being changed from another thread
+    */
+    public void walk(GameNode root, Walker walker, boolean lock) {
+        final int base = top;
+        try {
+            if ( walker.enter(root) ) push(root);
+            else walker.exit(root);
+
+            while ( top > base ) {
+                GameNode node = nodes[top-1];
+                int i = next[top-1]++;
+                if ( i >= node.num_children ) {
+                    nodes[--top] = null;
+                    walker.exit(node);
+                    continue;
+                }
+                GameNode child = child(node,i,lock);
+                if ( child == null ) continue;
+
+                if ( walker.enter(child) ) push(child);
+                else walker.exit(child);
+            }
+        } finally {
+            unwind(base);
+        }
+    }
+
+
+    /**
+       Run the visitor on each node in a subtree, the same as the recursive
+       GameNode.visit() did
+
+       @param depthFirst If true, visits the children first (post-order)
+     */
+    public void visit(GameNode root, GameNode.Visitor visitor, boolean depthFirst) {
+        final int base = top;
+        try {
+            if ( !depthFirst ) visitor.run(root);
+            push(root);
+
+            while ( top > base ) {
+                GameNode node = nodes[top-1];
+                int i = next[top-1]++;
+                if ( i >= node.num_children ) {
+                    nodes[--top] = null;
+                    if ( depthFirst ) visitor.run(node);
+                    continue;
+                }
+                GameNode child = node.children[i];
+                if ( child == null ) continue;
+
+                if ( overrides(child,VISIT) ) {
+                    child.visit(visitor,depthFirst);
+                    continue;
+                }
+
+                if ( !depthFirst ) visitor.run(child);
+                push(child);
+            }
+        } finally {
+            unwind(base);
+        }
+    }
+
+
+    /**
+       Dispatch an event down the tree from a node, pre-order, until a node
+       consumes it.  The branch the event came up from (event.lastUp) is
+       skipped.
+
+       @param doLocal Whether the node itself gets the event too
+       @return whether the event was consumed
+     */
+    public boolean dispatchDown(GameNode root, GameEvent event, boolean doLocal) {
+        final long bit = GameEvent.interestBit(event.type);
+        if ( doLocal && (root.getEventInterest() & bit) != 0 && root.onGameEvent(event) ) {
+            root.wake();
+            return true; // consumed
+        }
+
+        final int base = top;
+        try {
+            push(root);
+            while ( top > base ) {
+                GameNode node = nodes[top-1];
+                int i = next[top-1]++;
+                if ( i >= node.num_children ) {
+                    nodes[--top] = null;
+                    continue;
+                }
+                GameNode child = node.children[i];
+                if ( child == null || child == event.lastUp ) continue;
+                if ( (interest(child) & bit) == 0 ) continue;
+
+                if ( overrides(child,DISPATCH_DOWN) ) {
+                    if ( child.dispatchEventDown(event,true) ) return true;
+                    continue;
+                }
+
+                if ( (child.getEventInterest() & bit) != 0 && child.onGameEvent(event) ) {
+                    child.wake();
+                    return true; // consumed
+                }
+                push(child);
+            }
+            return false;
+        } finally {
+            unwind(base);
+        }
+    }
+
+
+    /**
+       Dispatch an event up the tree from a node:  each node on the way up
+       gets it, and then so do the other branches below it (sideways),
+       until a node consumes it.
+
+       @return whether the event was consumed
+     */
+    public boolean dispatchUp(GameNode node, GameEvent event) {
+        final long bit = GameEvent.interestBit(event.type);
+        while ( true ) {
+            if ( (node.getEventInterest() & bit) != 0 && node.onGameEvent(event) ) {
+                node.wake();
+                return true; // consumed
+            }
+
+            // Propagate it back down on side branches
+            if ( node != event.origin ) {
+                if ( overrides(node,DISPATCH_SIDEWAYS|DISPATCH_DOWN) ) {
+                    if ( node.dispatchEventSideways(event) ) return true;
+                } else if ( (interest(node) & bit) != 0 && dispatchDown(node,event,false) ) {
+                    return true;
+                }
+            }
+
+            // Now go up the tree
+            GameNode parent = node.parent;
+            if ( parent == null ) return false;
+
+            event.lastUp = node;
+            if ( overrides(parent,DISPATCH_UP) ) return parent.dispatchEventUp(event);
+            node = parent;
+        }
+    }
+
+
+    /**
+       @return the event types handled anywhere in a subtree, as
+       GameEvent.interestBit()s -- working them out again first if its
+       children have changed
+     */
+    long interest(GameNode node) {
+        if ( node.interestDirty ) walk(node,interestWalker,false);
+        return node.subtreeInterest;
+    }
+
+
+    /**
+       Works out the interest of each changed node in a subtree, from its
+       own and its children's.  Clean subtrees aren't entered.
+     */
+    private final Walker interestWalker = new Walker() {
+            public boolean enter(GameNode node) {
+                return node.interestDirty;
+            }
+
+            public void exit(GameNode node) {
+                if ( !node.interestDirty ) return;
+                // Cleared first, so a change made meanwhile (from another
+                // thread) leaves it dirty
+                node.interestDirty = false;
+                long interest = node.getEventInterest();
+                if ( overrides(node,DISPATCH_DOWN) ) interest = GameNode.ALL_EVENTS;
+                boolean dirty = false;
+                for(int i=0; i<node.num_children; ++i) {
+                    GameNode child = node.children[i];
+                    if ( child == null ) continue;
+                    interest |= child.subtreeInterest;
+                    if ( child.interestDirty ) dirty = true;
+                }
+                node.subtreeInterest = interest;
+                if ( dirty ) node.interestDirty = true;
+            }
+        };
+
+
+    /**
+       @return the child, or null if it has been removed (but not yet
+       compacted away -- see GameNode.compactChildren())
+    */
+    private static GameNode child(GameNode node, int i, boolean lock) {
+        if ( !lock ) return node.children[i];
+        synchronized(node) {
+            return i < node.num_children ? node.children[i] : null;
+        }
+    }
+
+
+    private void push(GameNode node) {
+        if ( top == nodes.length ) {
+            GameNode[] newNodes = new GameNode[top * 2];
+            System.arraycopy(nodes,0,newNodes,0,top);
+            nodes = newNodes;
+            int[] newNext = new int[top * 2];
+            System.arraycopy(next,0,newNext,0,top);
+            next = newNext;
+        }
+        nodes[top] = node;
+        next[top] = 0;
+        if ( ++top > highWater ) highWater = top;
+    }
+
+
+    /** Drop anything left above base, e.g. after an exception */
+    private void unwind(int base) {
+        while ( top > base ) nodes[--top] = null;
+    }
+
+
+    static final byte VISIT = 1;
+    static final byte DISPATCH_DOWN = 2;
+    static final byte DISPATCH_SIDEWAYS = 4;
+    static final byte DISPATCH_UP = 8;
+    static final byte ON_GAME_EVENT = 16;
+
+    private static final HashMap<Class<?>,Byte> overridesCache = new HashMap<Class<?>,Byte>();
+    private static final HashMap<Class<?>,Class<?>> handlerCache = new HashMap<Class<?>,Class<?>>();
+
+
+    /**
+       @return whether the node's class overrides any of the given methods
+       (the VISIT, DISPATCH_* flags)
+    */
+    static boolean overrides(GameNode node, int methods) {
+        byte flags = node.traversalOverrides;
+        if ( flags < 0 ) node.traversalOverrides = flags = overrides(node.getClass());
+        return (flags & methods) != 0;
+    }
+
+
+    private static byte overrides(Class<?> cls) {
+        synchronized(overridesCache) {
+            Byte flags = overridesCache.get(cls);
+            if ( flags == null ) {
+                byte f = 0;
+                if ( declaredBelow(cls,"visit",GameNode.Visitor.class,Boolean.TYPE) ) f |= VISIT;
+                if ( declaredBelow(cls,"dispatchEventDown",GameEvent.class,Boolean.TYPE) ) f |= DISPATCH_DOWN;
+                if ( declaredBelow(cls,"dispatchEventSideways",GameEvent.class) ) f |= DISPATCH_SIDEWAYS;
+                if ( declaredBelow(cls,"dispatchEventUp",GameEvent.class) ) f |= DISPATCH_UP;
+                if ( declaredBelow(cls,"onGameEvent",GameEvent.class) ) f |= ON_GAME_EVENT;
+                flags = f;
+                overridesCache.put(cls,flags);
+            }
+            return flags;
+        }
+    }
+
+
+    /**
+       @return the class whose onGameEvent() a class uses:  the nearest
+       one declaring it (GameNode if none does)
+    */
+    static Class<?> handlerClass(Class<?> cls) {
+        synchronized(handlerCache) {
+            Class<?> handler = handlerCache.get(cls);
+            if ( handler == null ) {
+                handler = GameNode.class;
+                for(Class<?> c = cls; c != GameNode.class && c != null; c = c.getSuperclass()) {
+                    try {
+                        c.getDeclaredMethod("onGameEvent",GameEvent.class);
+                        handler = c;
+                        break;
+                    } catch(NoSuchMethodException e) {}
+                }
+                handlerCache.put(cls,handler);
+            }
+            return handler;
+        }
+    }
+
+
+    /** Whether a subclass of GameNode declares the method (public or not) */
+    static boolean declaredBelow(Class<?> cls, String name, Class<?>... params) {
+        for(Class<?> c = cls; c != GameNode.class && c != null; c = c.getSuperclass()) {
+            try {
+                Method method = c.getDeclaredMethod(name,params);
+                if ( method != null ) return true;
+            } catch(NoSuchMethodException e) {}
+        }
+        return false;
+    }
+
+}
@@ -2,6 +2,7 @@ package chum.engine.common;
 
 import chum.engine.GameSequence;
 import chum.f.Vec3;
+import chum.util.Pool;
 
 import android.view.animation.Interpolator;
 import android.view.animation.LinearInterpolator;
@@ -65,20 +66,22 @@ public abstract class Animation extends GameSequence.Interpolated {
         }
         
         
-        private static Scale first_avail;
+        public static final Pool<Scale> pool = new Pool<Scale>("Animation.Scale") {
+                @Override
+                protected Scale newInstance() {
+                    return new Scale(null,0);
+                }
+            };
         
         public static Scale obtain() {
-            if ( first_avail == null ) first_avail = new Scale(null,0);
-            Scale scale = first_avail;
-            first_avail = (Scale)first_avail.next_avail;
+            Scale scale = pool.obtain();
             scale.resetAll();
             return scale;
         }
 
         @Override
         public void recycle() {
-            this.next_avail = first_avail;
-            first_avail = this;
+            pool.recycle(this);
         }
     }
         
@@ -124,20 +127,22 @@ public abstract class Animation extends GameSequence.Interpolated {
         }
         
 
-        private static Angle first_avail;
+        public static final Pool<Angle> pool = new Pool<Angle>("Animation.Angle") {
+                @Override
+                protected Angle newInstance() {
+                    return new Angle(null,0);
+                }
+            };
         
         public static Angle obtain() {
-            if ( first_avail == null ) first_avail = new Angle(null,0);
-            Angle angle = first_avail;
-            first_avail = (Angle)first_avail.next_avail;
+            Angle angle = pool.obtain();
             angle.resetAll();
             return angle;
         }
 
         @Override
         public void recycle() {
-            this.next_avail = first_avail;
-            first_avail = this;
+            pool.recycle(this);
         }
         
     }
@@ -190,20 +195,22 @@ public abstract class Animation extends GameSequence.Interpolated {
         }
         
 
-        private static Position first_avail;
+        public static final Pool<Position> pool = new Pool<Position>("Animation.Position") {
+                @Override
+                protected Position newInstance() {
+                    return new Position(null,0);
+                }
+            };
         
         public static Position obtain() {
-            if ( first_avail == null ) first_avail = new Position(null,0);
-            Position position = first_avail;
-            first_avail = (Position)first_avail.next_avail;
+            Position position = pool.obtain();
             position.resetAll();
             return position;
         }
 
         @Override
         public void recycle() {
-            this.next_avail = first_avail;
-            first_avail = this;
+            pool.recycle(this);
         }
         
         
@@ -258,20 +265,22 @@ public abstract class Animation extends GameSequence.Interpolated {
         }
         
 
-        private static Color first_avail;
+        public static final Pool<Color> pool = new Pool<Color>("Animation.Color") {
+                @Override
+                protected Color newInstance() {
+                    return new Color(null,0);
+                }
+            };
         
         public static Color obtain() {
-            if ( first_avail == null ) first_avail = new Color(null,0);
-            Color c = first_avail;
-            first_avail = (Color)first_avail.next_avail;
+            Color c = pool.obtain();
             c.resetAll();
             return c;
         }
 
         @Override
         public void recycle() {
-            this.next_avail = first_avail;
-            first_avail = this;
+            pool.recycle(this);
         }
         
     }
@@ -7,12 +7,18 @@ import chum.gl.Anchor;
 import chum.gl.Font;
 import chum.gl.Text;
 import chum.gl.Font.Glyph;
+import chum.util.Histogram;
 import chum.util.Log;
 
 
 /**
    FPSNode is a common helper node that logs the current FPS, either to the logger,
    to a TextNode, or both.
+
+   It also keeps histograms of how long each frame takes to update the tree,
+   build the rendering chain, and draw it, and reports the percentiles of
+   each for every interval -- which shows the occasional slow frame that an
+   average hides.
 */
 public class FPSNode extends GameNode {
 
@@ -42,7 +48,27 @@ public class FPSNode extends GameNode {
     
     /** Number of frames that exceed targetInterval3 */
     public int longFrames3; 
-        
+
+    /** Percentiles of the update times in the last interval */
+    public final Percentiles updateTimes = new Percentiles();
+
+    /** Percentiles of the times to build the rendering chain in the last interval */
+    public final Percentiles buildTimes = new Percentiles();
+
+    /** Percentiles of the draw times (in the render thread) in the last interval */
+    public final Percentiles drawTimes = new Percentiles();
+
+    /** The number of nodes culled from the last render (see ProjectionNode.cull) */
+    public int culledNodes;
+
+    /** The most events waiting to be dispatched at once, since the last showing */
+    public int queuedEvents;
+
+    /** The number of times events were left for the next update by the budget, since the last showing */
+    public int carriedEvents;
+
+    /** Whether to show the frame time percentiles in the text, after the FPS */
+    public boolean showPercentiles = false;
         
         
     /** Whether to log to the logger */
@@ -80,9 +106,13 @@ public class FPSNode extends GameNode {
         
         targetInterval2 = gameController.targetInterval * 2;
         targetInterval3 = gameController.targetInterval * 3;        
+
+        if ( gameController.updateTimes == null ) gameController.updateTimes = new Histogram();
+        if ( gameController.buildTimes == null ) gameController.buildTimes = new Histogram();
+        if ( gameController.drawTimes == null ) gameController.drawTimes = new Histogram();
         
         reset();
-        postUpDelayed(GameEvent.obtain(0,this),interval); // kick off the cycle
+        postUpDelayed(showEvent(),interval); // kick off the cycle
         
         if ( toLogger && loggerThread == null ) {
             loggerThread = new LoggerThread();
@@ -132,6 +162,15 @@ public class FPSNode extends GameNode {
     
     public void showFPS() {
         fps = gameController.getFPS();
+        updateTimes.take(gameController.updateTimes);
+        buildTimes.take(gameController.buildTimes);
+        drawTimes.take(gameController.drawTimes);
+        culledNodes = gameController.culledNodes;
+        queuedEvents = gameController.events.maxDepth;
+        carriedEvents = gameController.events.carried;
+        gameController.events.maxDepth = 0;
+        gameController.events.carried = 0;
+
         if ( callback != null )
             callback.run(this, fps);
 
@@ -149,6 +188,12 @@ public class FPSNode extends GameNode {
                 loggerThread.longFrames3 = longFrames3;
                 loggerThread.longestFrame = longestFrame;
                 loggerThread.shortestFrame = shortestFrame;
+                loggerThread.updateTimes.set(updateTimes);
+                loggerThread.buildTimes.set(buildTimes);
+                loggerThread.drawTimes.set(drawTimes);
+                loggerThread.culledNodes = culledNodes;
+                loggerThread.queuedEvents = queuedEvents;
+                loggerThread.carriedEvents = carriedEvents;
                 loggerThread.notify();
             }
         }
@@ -156,7 +201,15 @@ public class FPSNode extends GameNode {
         reset();
         
         // Show it again in the future
-        postUpDelayed(GameEvent.obtain(0,this),interval);
+        postUpDelayed(showEvent(),interval);
+    }
+
+
+    /** The event for showing the FPS -- it can wait behind the game's own events */
+    protected GameEvent showEvent() {
+        GameEvent event = GameEvent.obtain(0,this);
+        event.priority = GameEvent.PRIORITY_BULK;
+        return event;
     }
 
 
@@ -177,14 +230,91 @@ public class FPSNode extends GameNode {
         if ( glyphs == null ) glyphs = new Glyph[2];
         glyphs[0] = font.getGlyph((char)('0' + tens));
         glyphs[1] = font.getGlyph((char)('0' + ones));
+        int count = 2;
+
+        if ( showPercentiles ) {
+            if ( glyphs.length < MAX_TEXT ) glyphs = new Glyph[MAX_TEXT];
+            count = putPercentiles(font,count,'u',updateTimes);
+            count = putPercentiles(font,count,'b',buildTimes);
+            count = putPercentiles(font,count,'d',drawTimes);
+            if ( count > text.maxGlyphs ) count = text.maxGlyphs;
+        }
         
-        text.setGlyphs(glyphs,0,2,Anchor.SOUTHWEST);
+        text.setGlyphs(glyphs,0,count,Anchor.SOUTHWEST);
+    }
+
+
+    /** Glyphs needed for the FPS and all the percentiles */
+    protected static final int MAX_TEXT = 2 + 3 * (2 + 4 * 6);
+
+
+    /**
+       Put one phase's percentiles after the text so far, like
+       " u1.2/1.5/3.4/4.0" (milliseconds)
+     */
+    protected int putPercentiles(Font font, int count, char label, Percentiles times) {
+        glyphs[count++] = font.getGlyph(' ');
+        glyphs[count++] = font.getGlyph(label);
+        count = putMillis(font,count,times.p50);
+        glyphs[count++] = font.getGlyph('/');
+        count = putMillis(font,count,times.p90);
+        glyphs[count++] = font.getGlyph('/');
+        count = putMillis(font,count,times.p99);
+        glyphs[count++] = font.getGlyph('/');
+        return putMillis(font,count,times.max);
+    }
+
+
+    /** Put a time in nanoseconds as milliseconds to one decimal place */
+    protected int putMillis(Font font, int count, long nanos) {
+        long tenths = Math.min((nanos + 50000) / 100000, 9999);
+        long millis = tenths / 10;
+        if ( millis >= 100 ) glyphs[count++] = font.getGlyph((char)('0' + millis / 100));
+        if ( millis >= 10 ) glyphs[count++] = font.getGlyph((char)('0' + millis / 10 % 10));
+        glyphs[count++] = font.getGlyph((char)('0' + millis % 10));
+        glyphs[count++] = font.getGlyph('.');
+        glyphs[count++] = font.getGlyph((char)('0' + tenths % 10));
+        return count;
     }
 
 
     public interface Callback {
         public void run(FPSNode node, int fps);
     }
+
+
+    /**
+       The frame time percentiles (in nanoseconds) for one interval.
+       Everything recorded in the interval is moved out of the controller's
+       histogram, so the next interval starts empty.
+    */
+    public static class Percentiles {
+        public long p50, p90, p99, max;
+
+        /** Number of frames timed */
+        public long count;
+
+        /** The interval's times, once moved out of the controller's histogram */
+        protected final Histogram interval = new Histogram();
+
+        public void take(Histogram times) {
+            if ( times == null ) return;
+            times.moveTo(interval);
+            count = interval.count();
+            p50 = interval.percentile(50);
+            p90 = interval.percentile(90);
+            p99 = interval.percentile(99);
+            max = interval.max();
+        }
+
+        public void set(Percentiles other) {
+            count = other.count;
+            p50 = other.p50;
+            p90 = other.p90;
+            p99 = other.p99;
+            max = other.max;
+        }
+    }
     
     
     public class LoggerThread extends Thread {
@@ -198,10 +328,15 @@ public class FPSNode extends GameNode {
                     try { this.wait(); }
                     catch(InterruptedException e) {}
                     
-                    Log.d("FPS = %d #frames=%d #long=%d/%d/%d longest=%d shortest=%d",
+                    Log.d("FPS = %d #frames=%d #long=%d/%d/%d longest=%d shortest=%d #culled=%d #queued=%d #carried=%d",
                           fps, count,
                           longFrames, longFrames2, longFrames3,
-                          longestFrame, shortestFrame);
+                          longestFrame, shortestFrame, culledNodes,
+                          queuedEvents, carriedEvents);
+                    Log.d("Frame times (us) p50/p90/p99/max: update=%d/%d/%d/%d build=%d/%d/%d/%d draw=%d/%d/%d/%d",
+                          updateTimes.p50 / 1000, updateTimes.p90 / 1000, updateTimes.p99 / 1000, updateTimes.max / 1000,
+                          buildTimes.p50 / 1000, buildTimes.p90 / 1000, buildTimes.p99 / 1000, buildTimes.max / 1000,
+                          drawTimes.p50 / 1000, drawTimes.p90 / 1000, drawTimes.p99 / 1000, drawTimes.max / 1000);
                 }
             }
         }
@@ -210,6 +345,11 @@ public class FPSNode extends GameNode {
         int count;
         int longFrames, longFrames2, longFrames3;
         long longestFrame, shortestFrame;
+        int culledNodes;
+        int queuedEvents, carriedEvents;
+        final Percentiles updateTimes = new Percentiles();
+        final Percentiles buildTimes = new Percentiles();
+        final Percentiles drawTimes = new Percentiles();
     }
 
 }
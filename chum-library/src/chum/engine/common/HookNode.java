@@ -28,9 +28,11 @@ public class HookNode extends GameNode {
             for(int i=0; i<parent.num_children; ++i) {
                 if ( parent.children[i] == realNode ) {
                     parent.children[i] = this;
+                    this.childIndex = i;
                     break;
                 }
             }
+            parent.structureChanged();
         }
         //chum.util.Log.d("%s attached to %s", this, realNode);
     }
@@ -45,6 +47,7 @@ public class HookNode extends GameNode {
                 break;
             }
         }
+        parent.structureChanged();
         //chum.util.Log.d("%s detached from %s", this, realNode);
     }
 
@@ -81,7 +84,7 @@ public class HookNode extends GameNode {
     
     @Override
     public boolean update(long millis) {
-        return realNode.update(millis);
+        return realNode.updateIfAwake(millis);
     }
 
     
@@ -0,0 +1,246 @@
+package chum.engine.common;
+
+import chum.engine.GameNode;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+   A group node whose children are independent of each other, so they can be
+   updated in parallel.  In update(), the children are spread across a shared
+   pool of worker threads (plus the game thread itself), and all of them are
+   finished before update() returns.
+
+   The children must not touch each other's state, or any shared state that
+   isn't thread-safe.  Posting GameEvents from the children is fine -- the
+   event queue accepts posts from any thread.  Changes to the tree structure
+   are safest with GameController.deferStructureChanges turned on.
+
+   Only one ParallelGroupNode uses the pool at a time.  A group nested inside
+   another group (or one that finds the pool busy) just updates its children
+   serially.
+*/
+public class ParallelGroupNode extends GameNode {
+
+    /** Fewer children than this are just updated serially */
+    public int minParallel = 4;
+
+    /** The pool to use.  If null, the shared pool is used */
+    public UpdatePool pool;
+
+
+    public ParallelGroupNode() {
+        super();
+    }
+
+
+    /**
+       Update the children in the pool, if possible, otherwise serially
+    */
+    @Override
+    protected boolean updateChildren(long millis) {
+        UpdatePool p = pool != null ? pool : UpdatePool.shared();
+        if ( num_children >= minParallel && p.update(this,millis) )
+            return p.updated;
+        return super.updateChildren(millis);
+    }
+
+
+    /**
+       A fixed set of worker threads that update the children of one
+       ParallelGroupNode at a time.  Workers (and the calling thread) claim
+       chunks of children from a shared counter until there are none left,
+       so faster threads end up doing more of the work.
+    */
+    public static class UpdatePool {
+
+        protected final Worker[] workers;
+
+        /** Set while a group is being updated */
+        protected final AtomicBoolean busy = new AtomicBoolean();
+
+        /** Index of the next child to be claimed */
+        protected final AtomicInteger next = new AtomicInteger();
+
+        /** Number of workers still working on the current group */
+        protected final AtomicInteger active = new AtomicInteger();
+
+        /** Incremented for each group, to wake the workers */
+        protected int generation;
+
+        protected GameNode[] children;
+        protected int count;
+        protected int grain;
+        protected long millis;
+
+        /** Whether any child reported a change in the last update */
+        public volatile boolean updated;
+
+        /** The first exception thrown by a child in the last update */
+        protected volatile Throwable failure;
+
+        /** Set by shutdown() -- the workers exit, and the pool isn't used again */
+        protected volatile boolean stopped;
+
+
+        private static UpdatePool shared;
+
+
+        /**
+           The shared pool, with one worker per available processor other
+           than the one the game thread runs on
+        */
+        public static synchronized UpdatePool shared() {
+            if ( shared == null )
+                shared = new UpdatePool(Runtime.getRuntime().availableProcessors() - 1);
+            return shared;
+        }
+
+
+        public UpdatePool(int numWorkers) {
+            if ( numWorkers < 0 ) numWorkers = 0;
+            workers = new Worker[numWorkers];
+            for(int i=0; i<numWorkers; ++i) {
+                workers[i] = new Worker(i);
+                workers[i].start();
+            }
+        }
+
+
+        /**
+           Update all the children of a group node, in parallel.
+
+           @return false if the pool couldn't be used (no workers, or already
+           busy), in which case nothing was updated
+        */
+        public boolean update(GameNode group, long millis) {
+            if ( workers.length == 0 || stopped ) return false;
+            if ( Thread.currentThread() instanceof Worker ) return false;
+            if ( !busy.compareAndSet(false,true) ) return false;
+
+            try {
+                this.children = group.children;
+                this.count = group.num_children;
+                this.millis = millis;
+
+                // Chunks small enough to balance the load, but big enough
+                // to keep the claiming overhead low
+                int threads = workers.length + 1;
+                grain = count / (threads * 8);
+                if ( grain < 1 ) grain = 1;
+
+                updated = false;
+                failure = null;
+                next.set(0);
+                active.set(workers.length);
+
+                synchronized(this) {
+                    if ( stopped ) { // the workers are gone
+                        this.children = null;
+                        return false;
+                    }
+                    generation++;
+                    notifyAll();
+                }
+
+                // The calling thread does its share as well
+                work();
+
+                synchronized(this) {
+                    while ( active.get() > 0 ) {
+                        try { wait(); }
+                        catch(InterruptedException e) {}
+                    }
+                }
+
+                this.children = null;
+                if ( failure != null ) {
+                    if ( failure instanceof RuntimeException )
+                        throw (RuntimeException)failure;
+                    if ( failure instanceof Error )
+                        throw (Error)failure;
+                    throw new RuntimeException(failure);
+                }
+                return true;
+            }
+            finally {
+                busy.set(false);
+            }
+        }
+
+
+        /**
+           Stop the worker threads.  Groups using the pool after this just
+           update their children serially.  Shutting down the shared pool
+           means the next shared() starts a new one.
+        */
+        public void shutdown() {
+            synchronized(UpdatePool.class) {
+                if ( shared == this ) shared = null;
+            }
+            synchronized(this) {
+                stopped = true;
+                notifyAll();
+            }
+        }
+
+
+        /**
+           Claim chunks of children and update them until there are none left
+        */
+        protected void work() {
+            GameNode[] children = this.children;
+            boolean changed = false;
+            try {
+                while ( true ) {
+                    int start = next.getAndAdd(grain);
+                    if ( start >= count ) break;
+                    int end = start + grain;
+                    if ( end > count ) end = count;
+                    for(int i=start; i<end; ++i) {
+                        GameNode child = children[i];
+                        if ( child != null && child.updateIfAwake(millis) ) changed = true;
+                    }
+                }
+            } catch(Throwable t) {
+                if ( failure == null ) failure = t;
+                next.set(count); // stop the others
+            }
+            if ( changed ) updated = true;
+        }
+
+
+        protected class Worker extends Thread {
+            Worker(int num) {
+                super();
+                setName("GameUpdate-" + num);
+                setDaemon(true);
+            }
+
+            @Override
+            public void run() {
+                int seen = 0;
+                while ( true ) {
+                    synchronized(UpdatePool.this) {
+                        while ( generation == seen && !stopped ) {
+                            try { UpdatePool.this.wait(); }
+                            catch(InterruptedException e) {}
+                        }
+                        if ( generation == seen ) return; // stopped
+                        seen = generation;
+                    }
+
+                    work();
+
+                    if ( active.decrementAndGet() == 0 ) {
+                        synchronized(UpdatePool.this) {
+                            UpdatePool.this.notifyAll();
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+}
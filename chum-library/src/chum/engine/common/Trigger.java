@@ -14,8 +14,9 @@ import chum.engine.GameNode;
 public abstract class Trigger extends GameNode
     implements Runnable
 {
-    // The GameEvent type being waited on
-    public int eventType;
+    // The GameEvent type being waited on -- final, since the tree's
+    // dispatch only looks for it in the subtrees declared to handle it
+    public final int eventType;
     
     // Whether to remove itself from the tree after triggering 
     public boolean oneShot;
@@ -30,6 +31,7 @@ public abstract class Trigger extends GameNode
         super();
         this.eventType = eventType;
         this.oneShot = oneShot;
+        handlesEventsIn(Trigger.class,eventType);
     }
     
     
@@ -0,0 +1,63 @@
+package chum.engine.ecs;
+
+import chum.engine.GameNode;
+
+
+/**
+   Hosts an EntityStore in the tree:  each update runs the store's
+   EntitySystems, in the order they were added.  Thousands of entities
+   cost one node in the tree.
+
+   Draw the entities with an EntitySpriteNode on the render side of the
+   tree.
+*/
+public class EntityNode extends GameNode {
+
+    /** The entities */
+    public final EntityStore store;
+
+    /** The systems run on each update */
+    protected EntitySystem[] systems = new EntitySystem[4];
+    protected int numSystems;
+
+
+    public EntityNode() {
+        this(new EntityStore());
+    }
+
+
+    public EntityNode(EntityStore store) {
+        super();
+        this.store = store;
+    }
+
+
+    /**
+       Add a system to be run on each update, after the ones already added
+       @return this node
+    */
+    public EntityNode addSystem(EntitySystem system) {
+        if ( numSystems == systems.length ) {
+            EntitySystem[] newSystems = new EntitySystem[numSystems*2];
+            System.arraycopy(systems,0,newSystems,0,numSystems);
+            systems = newSystems;
+        }
+        systems[numSystems++] = system;
+        return this;
+    }
+
+
+    /** @return the number of systems */
+    public int numSystems() {
+        return numSystems;
+    }
+
+
+    @Override
+    public boolean updatePrefix(long millis) {
+        for(int i=0; i<numSystems; ++i)
+            systems[i].update(store,millis);
+        return store.count > 0;
+    }
+
+}
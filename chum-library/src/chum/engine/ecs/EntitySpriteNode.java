@@ -0,0 +1,189 @@
+package chum.engine.ecs;
+
+import chum.gl.RenderContext;
+import chum.gl.RenderNode;
+import chum.gl.SpriteBatch;
+import chum.gl.SpriteSheet;
+import chum.gl.render.MeshNode;
+
+
+/**
+   Draws the entities in an EntityStore as sprites, all in one batch.
+
+   Each render pass, a quad is written straight from the store's arrays
+   into a SpriteBatch mesh for each entity -- centered on its position,
+   rotated and scaled, showing its sprite image from the sheet -- and the
+   whole batch is drawn with a single call.  There are two batches, used
+   on alternate render phases, so the render thread can draw one while the
+   next frame fills the other.
+
+   Entities beyond maxSprites, or with a sprite index that isn't defined on
+   the sheet, aren't drawn.
+*/
+public class EntitySpriteNode extends RenderNode {
+
+    /** Floats per vertex in a SpriteBatch:  position (x,y,z) and texture (u,v) */
+    static final int VERTEX_FLOATS = 5;
+
+    /** Floats per sprite (4 vertices) */
+    static final int SPRITE_FLOATS = 4 * VERTEX_FLOATS;
+
+    /** The most sprites a batch can index with shorts */
+    public static final int MAX_SPRITES = 65536 / 4;
+
+    /** The entities to draw */
+    public EntityStore store;
+
+    /** The images for the entities' sprite indexes */
+    public SpriteSheet sheet;
+
+    /** The most entities drawn */
+    public final int maxSprites;
+
+    /** Number of entities drawn in the last render pass */
+    public int drawn;
+
+    /** The batch for each render phase, and the node that draws it */
+    protected final MeshNode[] batches = new MeshNode[2];
+
+    /** The batch added to the current render pass, if any */
+    protected MeshNode rendering;
+
+    /** The vertices being built */
+    protected final float[] verts;
+
+
+    /**
+       Create a node to draw up to maxSprites entities from the store
+     */
+    public EntitySpriteNode(EntityStore store, SpriteSheet sheet, int maxSprites) {
+        super();
+        if ( maxSprites > MAX_SPRITES )
+            throw new IllegalArgumentException("maxSprites can't be more than " + MAX_SPRITES);
+        this.store = store;
+        this.sheet = sheet;
+        this.maxSprites = maxSprites;
+        verts = new float[maxSprites * SPRITE_FLOATS];
+
+        // Two triangles per sprite -- the same for every frame
+        short[] indices = new short[maxSprites * 6];
+        for(int i=0; i<maxSprites; ++i) {
+            short v = (short)(i * 4);
+            int k = i * 6;
+            indices[k]   = v;
+            indices[k+1] = (short)(v + 1);
+            indices[k+2] = (short)(v + 2);
+            indices[k+3] = v;
+            indices[k+4] = (short)(v + 2);
+            indices[k+5] = (short)(v + 3);
+        }
+
+        for(int b=0; b<2; ++b) {
+            SpriteBatch batch = new SpriteBatch(sheet,maxSprites);
+            batch.setIndices(indices);
+            batches[b] = new MeshNode(batch);
+            batches[b].blend = true;
+            batches[b].setTexture(null); // bound by this node instead
+        }
+    }
+
+
+    @Override
+    public void onSurfaceCreated(RenderContext renderContext) {
+        super.onSurfaceCreated(renderContext);
+        if ( sheet != null ) sheet.load(renderContext);
+    }
+
+
+    @Override
+    public boolean renderPrefix(RenderContext renderContext) {
+        rendering = null;
+        int count = fill();
+        drawn = count;
+        if ( count == 0 ) return true;
+
+        MeshNode batch = batches[renderContext.phase ? 0 : 1];
+        batch.mesh.setVertices(verts,0,count * SPRITE_FLOATS);
+        batch.count = count * 6;
+        sheet.bind(renderContext);
+        batch.renderPrefix(renderContext);
+        rendering = batch;
+        return true;
+    }
+
+
+    @Override
+    public void renderPostfix(RenderContext renderContext) {
+        if ( rendering != null ) rendering.renderPostfix(renderContext);
+    }
+
+
+    /**
+       Write the quads for the entities into verts
+
+       @return the number of sprites written
+     */
+    protected int fill() {
+        final EntityStore store = this.store;
+        final SpriteSheet.ImageData[] images = sheet.data;
+        final float[] verts = this.verts;
+        final int n = Math.min(store.count,maxSprites);
+
+        int k = 0;
+        for(int i=0; i<n; ++i) {
+            int s = store.sprite[i];
+            if ( s < 0 || s >= images.length || images[s] == null ) continue;
+            SpriteSheet.ImageData image = images[s];
+
+            float scale = store.scale[i];
+            float hw = (image.right - image.left) * scale * 0.5f;
+            float hh = (image.bottom - image.top) * scale * 0.5f;
+            float x = store.x[i];
+            float y = store.y[i];
+
+            // Corner offsets, rotated:  (-hw,-hh) (hw,-hh) (hw,hh) (-hw,hh)
+            float ax, ay, bx, by;
+            float angle = store.angle[i];
+            if ( angle == 0 ) {
+                ax = hw; ay = 0;
+                bx = 0;  by = hh;
+            } else {
+                double r = Math.toRadians(angle);
+                float cos = (float)Math.cos(r);
+                float sin = (float)Math.sin(r);
+                ax = hw * cos; ay = hw * sin;
+                bx = -hh * sin; by = hh * cos;
+            }
+
+            // Lower left
+            verts[k++] = x - ax - bx;
+            verts[k++] = y - ay - by;
+            verts[k++] = 0;
+            verts[k++] = image.u1;
+            verts[k++] = image.v1;
+
+            // Lower right
+            verts[k++] = x + ax - bx;
+            verts[k++] = y + ay - by;
+            verts[k++] = 0;
+            verts[k++] = image.u2;
+            verts[k++] = image.v1;
+
+            // Upper right
+            verts[k++] = x + ax + bx;
+            verts[k++] = y + ay + by;
+            verts[k++] = 0;
+            verts[k++] = image.u2;
+            verts[k++] = image.v2;
+
+            // Upper left
+            verts[k++] = x - ax + bx;
+            verts[k++] = y - ay + by;
+            verts[k++] = 0;
+            verts[k++] = image.u1;
+            verts[k++] = image.v2;
+        }
+        return k / SPRITE_FLOATS;
+    }
+
+}
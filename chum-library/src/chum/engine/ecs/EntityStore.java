@@ -0,0 +1,303 @@
+package chum.engine.ecs;
+
+
+/**
+   Holds a large number of simple game objects (bullets, particles, etc)
+   as plain arrays of their components, rather than as a GameNode each.
+
+   The live entities are packed at the front of the arrays, from 0 to
+   count-1, so an EntitySystem can update all of them with a tight loop
+   over the arrays it cares about -- no per-entity object, virtual call or
+   child array.  Removing an entity moves the last one into its place, so
+   a loop that removes entities should run backwards.
+
+   Each entity also has an id that stays the same while it is alive (the
+   index doesn't, as others are removed).  Ids are reused once an entity
+   is destroyed.
+
+   The built-in components cover a moving, spinning sprite with a limited
+   lifetime.  Others can be added as Columns, which are grown and moved
+   along with the built-in ones.
+*/
+public class EntityStore {
+
+    /** Number of live entities, at indexes 0 to count-1 */
+    public int count;
+
+    /** Position */
+    public float[] x, y;
+
+    /** Velocity (units per second) */
+    public float[] vx, vy;
+
+    /** Rotation angle (degrees) about the z-axis */
+    public float[] angle;
+
+    /** Rotation speed (degrees per second) */
+    public float[] spin;
+
+    /** Scale factor -- 1 by default */
+    public float[] scale;
+
+    /** Time left to live (milliseconds) -- 0 means no limit.  See LifetimeSystem */
+    public float[] life;
+
+    /** The image to draw, as an index into a SpriteSheet */
+    public int[] sprite;
+
+    /** The id of the entity at each index */
+    public int[] ids;
+
+    /** The index of each id, or -1 if the id isn't in use */
+    protected int[] indexes;
+
+    /** Ids available for reuse */
+    protected int[] freeIds;
+    protected int numFree;
+
+    /** The next id that has never been used */
+    protected int nextId;
+
+    /** Additional components */
+    protected Column[] columns = new Column[4];
+    protected int numColumns;
+
+
+    /**
+       An additional component, kept in an array parallel to the built-in
+       ones
+    */
+    public interface Column {
+        /** Grow the array to hold the given number of entities */
+        void resize(int capacity);
+
+        /** Copy the value for one index to another */
+        void move(int from, int to);
+
+        /** Reset the value at an index for a new entity */
+        void clear(int index);
+    }
+
+
+    /** A component with a float value for each entity */
+    public static class FloatColumn implements Column {
+        public float[] values = new float[0];
+
+        public void resize(int capacity) {
+            float[] newValues = new float[capacity];
+            System.arraycopy(values,0,newValues,0,Math.min(values.length,capacity));
+            values = newValues;
+        }
+
+        public void move(int from, int to) {
+            values[to] = values[from];
+        }
+
+        public void clear(int index) {
+            values[index] = 0;
+        }
+    }
+
+
+    /** A component with an int value for each entity */
+    public static class IntColumn implements Column {
+        public int[] values = new int[0];
+
+        public void resize(int capacity) {
+            int[] newValues = new int[capacity];
+            System.arraycopy(values,0,newValues,0,Math.min(values.length,capacity));
+            values = newValues;
+        }
+
+        public void move(int from, int to) {
+            values[to] = values[from];
+        }
+
+        public void clear(int index) {
+            values[index] = 0;
+        }
+    }
+
+
+    public EntityStore() {
+        this(64);
+    }
+
+
+    /**
+       Create a store with room for the given number of entities.  It grows
+       as needed, but it is best to allocate enough up front, so it doesn't
+       have to during game play.
+    */
+    public EntityStore(int capacity) {
+        if ( capacity < 1 ) capacity = 1;
+        x = new float[capacity];
+        y = new float[capacity];
+        vx = new float[capacity];
+        vy = new float[capacity];
+        angle = new float[capacity];
+        spin = new float[capacity];
+        scale = new float[capacity];
+        life = new float[capacity];
+        sprite = new int[capacity];
+        ids = new int[capacity];
+        indexes = new int[capacity];
+        freeIds = new int[capacity];
+    }
+
+
+    /** @return the number of entities there is room for, without growing */
+    public int capacity() {
+        return x.length;
+    }
+
+
+    /**
+       Add a component, sized to the store
+       @return the column
+    */
+    public <C extends Column> C addColumn(C column) {
+        column.resize(capacity());
+        if ( numColumns == columns.length ) {
+            Column[] newColumns = new Column[numColumns*2];
+            System.arraycopy(columns,0,newColumns,0,numColumns);
+            columns = newColumns;
+        }
+        columns[numColumns++] = column;
+        return column;
+    }
+
+
+    /**
+       Create a new entity, with its components reset:  at the origin, not
+       moving or rotated, scale 1, no time limit, sprite 0.
+
+       @return its index -- which is count-1, until others are added or removed
+    */
+    public int create() {
+        if ( count == capacity() ) grow(count * 2);
+
+        int id = numFree > 0 ? freeIds[--numFree] : nextId++;
+        if ( id >= indexes.length ) {
+            int[] newIndexes = new int[indexes.length * 2];
+            System.arraycopy(indexes,0,newIndexes,0,indexes.length);
+            indexes = newIndexes;
+        }
+
+        int index = count++;
+        ids[index] = id;
+        indexes[id] = index;
+
+        x[index] = y[index] = 0;
+        vx[index] = vy[index] = 0;
+        angle[index] = spin[index] = 0;
+        scale[index] = 1f;
+        life[index] = 0;
+        sprite[index] = 0;
+        for(int c=0; c<numColumns; ++c) columns[c].clear(index);
+        return index;
+    }
+
+
+    /**
+       Create a new entity at a position, with a velocity and sprite
+       @return its index
+    */
+    public int create(float x, float y, float vx, float vy, int sprite) {
+        int index = create();
+        this.x[index] = x;
+        this.y[index] = y;
+        this.vx[index] = vx;
+        this.vy[index] = vy;
+        this.sprite[index] = sprite;
+        return index;
+    }
+
+
+    /**
+       Remove the entity at an index.  The last entity is moved into its
+       place.
+    */
+    public void remove(int index) {
+        if ( index < 0 || index >= count ) return;
+        indexes[ids[index]] = -1;
+        if ( numFree == freeIds.length ) {
+            int[] newFree = new int[freeIds.length * 2];
+            System.arraycopy(freeIds,0,newFree,0,numFree);
+            freeIds = newFree;
+        }
+        freeIds[numFree++] = ids[index];
+
+        int last = --count;
+        if ( index == last ) return;
+
+        x[index] = x[last];
+        y[index] = y[last];
+        vx[index] = vx[last];
+        vy[index] = vy[last];
+        angle[index] = angle[last];
+        spin[index] = spin[last];
+        scale[index] = scale[last];
+        life[index] = life[last];
+        sprite[index] = sprite[last];
+        for(int c=0; c<numColumns; ++c) columns[c].move(last,index);
+
+        ids[index] = ids[last];
+        indexes[ids[index]] = index;
+    }
+
+
+    /**
+       Remove the entity with an id, if it is alive
+    */
+    public void destroy(int id) {
+        remove(indexOf(id));
+    }
+
+
+    /** @return the index of the entity with an id, or -1 if it isn't alive */
+    public int indexOf(int id) {
+        if ( id < 0 || id >= nextId ) return -1;
+        return indexes[id];
+    }
+
+
+    /** Remove all the entities */
+    public void clear() {
+        while ( count > 0 ) remove(count-1);
+    }
+
+
+    /**
+       Make room for more entities
+    */
+    public void grow(int capacity) {
+        if ( capacity <= capacity() ) return;
+        x = grow(x,capacity);
+        y = grow(y,capacity);
+        vx = grow(vx,capacity);
+        vy = grow(vy,capacity);
+        angle = grow(angle,capacity);
+        spin = grow(spin,capacity);
+        scale = grow(scale,capacity);
+        life = grow(life,capacity);
+        sprite = grow(sprite,capacity);
+        ids = grow(ids,capacity);
+        for(int c=0; c<numColumns; ++c) columns[c].resize(capacity);
+    }
+
+
+    private float[] grow(float[] values, int capacity) {
+        float[] newValues = new float[capacity];
+        System.arraycopy(values,0,newValues,0,count);
+        return newValues;
+    }
+
+
+    private int[] grow(int[] values, int capacity) {
+        int[] newValues = new int[capacity];
+        System.arraycopy(values,0,newValues,0,count);
+        return newValues;
+    }
+
+}
@@ -0,0 +1,17 @@
+package chum.engine.ecs;
+
+
+/**
+   Updates all the entities in an EntityStore, once per frame, by looping
+   over the component arrays it needs.  Systems are run in order by the
+   EntityNode hosting the store.
+*/
+public interface EntitySystem {
+
+    /**
+       Update the entities for a frame
+       @param millis the time since the last update (milliseconds of game time)
+    */
+    void update(EntityStore store, long millis);
+
+}
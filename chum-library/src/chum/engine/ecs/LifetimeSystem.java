@@ -0,0 +1,28 @@
+package chum.engine.ecs;
+
+
+/**
+   Counts down the life of each entity that has one, and removes the
+   entities whose time is up
+*/
+public class LifetimeSystem implements EntitySystem {
+
+    /** Number of entities removed so far */
+    public int expired;
+
+
+    public void update(EntityStore store, long millis) {
+        final float[] life = store.life;
+
+        // Backwards, since removing moves the last entity into the gap
+        for(int i=store.count-1; i>=0; --i) {
+            if ( life[i] <= 0 ) continue;
+            life[i] -= millis;
+            if ( life[i] <= 0 ) {
+                store.remove(i);
+                expired++;
+            }
+        }
+    }
+
+}
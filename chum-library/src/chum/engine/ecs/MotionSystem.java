@@ -0,0 +1,26 @@
+package chum.engine.ecs;
+
+
+/**
+   Moves each entity by its velocity, and turns it by its spin
+*/
+public class MotionSystem implements EntitySystem {
+
+    public void update(EntityStore store, long millis) {
+        final float seconds = millis / 1000f;
+        final float[] x = store.x, y = store.y;
+        final float[] vx = store.vx, vy = store.vy;
+        final float[] angle = store.angle, spin = store.spin;
+
+        for(int i=0, n=store.count; i<n; ++i) {
+            x[i] += vx[i] * seconds;
+            y[i] += vy[i] * seconds;
+            if ( spin[i] != 0 ) {
+                float a = angle[i] + spin[i] * seconds;
+                if ( a >= 360f || a < 0 ) a %= 360f;
+                angle[i] = a;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,623 @@
+package chum.engine.spatial;
+
+import chum.f.Vec3;
+import chum.gl.Mesh;
+
+import java.util.Arrays;
+
+
+/**
+   A loose octree over a fixed volume of the world, for finding the 3D
+   objects in a box, within a radius, or along a ray (e.g. for proximity
+   or line-of-sight checks), without testing every object.
+
+   This is the 3D counterpart of LooseQuadtree:  the tree is complete down
+   to maxDepth and laid out level by level in flat arrays, each node's loose
+   bounds are its cell grown by half a cell on every side, and an object
+   goes in the deepest node whose cell holds the center of its bounds and
+   is at least as big as the object.  Objects are added with their
+   world-space bounds (e.g. from Mesh.Bounds), and get back a handle; when
+   one moves, it is only relinked if it lands in a different node.
+   Objects whose centers are outside the volume are kept at the root.
+
+   Queries fill a Cursor, which is reused from one query to the next, so
+   nothing is allocated once it is big enough.
+
+   Not thread-safe -- use an octree from one thread (normally the game
+   thread).
+*/
+public class LooseOctree<T> {
+
+    /** The volume covered:  minimum corner and size */
+    public final float x, y, z, width, height, depth;
+
+    /** The deepest level -- the root is level 0 */
+    public final int maxDepth;
+
+    /** The object for each handle (null if not in use) */
+    protected Object[] items;
+
+    /** The bounds of each object */
+    protected float[] minX, minY, minZ, maxX, maxY, maxZ;
+
+    /** The node each object is in, or -1 if not in use */
+    protected int[] node;
+
+    /** The links of each node's list of objects */
+    protected int[] next, prev;
+
+    /** Free handles */
+    protected int[] freeHandles;
+    protected int numFree;
+
+    /** One more than the highest handle given out */
+    protected int highHandle;
+
+    /** Number of objects in the tree */
+    protected int size;
+
+    /** The first object in each node */
+    protected final int[] heads;
+
+    /** The number of objects in each node and all the nodes under it */
+    protected final int[] counts;
+
+    /** The index of the first node in each level */
+    protected final int[] levelStart;
+
+    /** Kinds of query */
+    protected static final int BOX = 0, SPHERE = 1, RAY = 2;
+
+    /** The current query */
+    protected int qKind;
+    protected float qMinX, qMinY, qMinZ, qMaxX, qMaxY, qMaxZ;
+    protected float qx, qy, qz, qRadius2;
+    protected float qInvX, qInvY, qInvZ, qDistance;
+    protected Cursor<T> qCursor;
+
+
+    /**
+       Create an octree covering the given volume, with room for capacity
+       objects before growing.  Leaves are 1/2^maxDepth of the volume across.
+    */
+    public LooseOctree(float x, float y, float z, float width, float height, float depth,
+                       int maxDepth, int capacity) {
+        if ( width <= 0 || height <= 0 || depth <= 0 )
+            throw new IllegalArgumentException("the volume must not be empty");
+        if ( maxDepth < 0 || maxDepth > 6 )
+            throw new IllegalArgumentException("maxDepth must be from 0 to 6");
+        if ( capacity < 1 ) capacity = 1;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.width = width;
+        this.height = height;
+        this.depth = depth;
+        this.maxDepth = maxDepth;
+
+        levelStart = new int[maxDepth+2];
+        for(int l=0; l<=maxDepth; ++l)
+            levelStart[l+1] = levelStart[l] + (1 << (3*l));
+        int nodes = levelStart[maxDepth+1];
+        heads = new int[nodes];
+        counts = new int[nodes];
+        Arrays.fill(heads,-1);
+
+        items = new Object[capacity];
+        minX = new float[capacity];
+        minY = new float[capacity];
+        minZ = new float[capacity];
+        maxX = new float[capacity];
+        maxY = new float[capacity];
+        maxZ = new float[capacity];
+        node = new int[capacity];
+        next = new int[capacity];
+        prev = new int[capacity];
+        freeHandles = new int[capacity];
+    }
+
+
+    /**
+       Add an object with the given bounds
+       @return the object's handle
+    */
+    public int add(T item, float x1, float y1, float z1, float x2, float y2, float z2) {
+        int h;
+        if ( numFree > 0 ) h = freeHandles[--numFree];
+        else {
+            if ( highHandle == items.length ) grow(highHandle * 2);
+            h = highHandle++;
+        }
+        items[h] = item;
+        setBounds(h,x1,y1,z1,x2,y2,z2);
+        link(h,nodeFor(h));
+        size++;
+        return h;
+    }
+
+
+    /**
+       Add an object with the given bounds (e.g. a Mesh.Bounds, transformed
+       to world space)
+       @return the object's handle
+    */
+    public int add(T item, Mesh.Bounds bounds) {
+        return add(item,bounds.minimum,bounds.maximum);
+    }
+
+
+    /**
+       Add an object with the given bounds
+       @return the object's handle
+    */
+    public int add(T item, Vec3 minimum, Vec3 maximum) {
+        return add(item,minimum.x,minimum.y,minimum.z,maximum.x,maximum.y,maximum.z);
+    }
+
+
+    /**
+       Add an object bounded by a sphere
+       @return the object's handle
+    */
+    public int add(T item, Vec3 center, float radius) {
+        return add(item,center.x-radius,center.y-radius,center.z-radius,
+                   center.x+radius,center.y+radius,center.z+radius);
+    }
+
+
+    /**
+       Move an object to new bounds
+    */
+    public void move(int handle, float x1, float y1, float z1, float x2, float y2, float z2) {
+        checkHandle(handle);
+        setBounds(handle,x1,y1,z1,x2,y2,z2);
+        int n = nodeFor(handle);
+        if ( n != node[handle] ) {
+            unlink(handle);
+            link(handle,n);
+        }
+    }
+
+
+    public void move(int handle, Mesh.Bounds bounds) {
+        move(handle,bounds.minimum,bounds.maximum);
+    }
+
+
+    public void move(int handle, Vec3 minimum, Vec3 maximum) {
+        move(handle,minimum.x,minimum.y,minimum.z,maximum.x,maximum.y,maximum.z);
+    }
+
+
+    public void move(int handle, Vec3 center, float radius) {
+        move(handle,center.x-radius,center.y-radius,center.z-radius,
+             center.x+radius,center.y+radius,center.z+radius);
+    }
+
+
+    /**
+       Remove an object.  Its handle may be given to an object added later.
+    */
+    public void remove(int handle) {
+        checkHandle(handle);
+        unlink(handle);
+        items[handle] = null;
+        node[handle] = -1;
+        freeHandles[numFree++] = handle;
+        size--;
+    }
+
+
+    /** Remove all the objects */
+    public void clear() {
+        for(int h=0; h<highHandle; ++h) items[h] = null;
+        numFree = 0;
+        highHandle = 0;
+        size = 0;
+        Arrays.fill(heads,-1);
+        Arrays.fill(counts,0);
+    }
+
+
+    /** @return the object with the given handle, or null */
+    @SuppressWarnings("unchecked")
+    public T get(int handle) {
+        return ( handle >= 0 && handle < highHandle ) ? (T)items[handle] : null;
+    }
+
+
+    /** @return the number of objects */
+    public int size() {
+        return size;
+    }
+
+
+    /** @return the number of nodes in the tree */
+    public int numNodes() {
+        return heads.length;
+    }
+
+
+    /**
+       Find the objects whose bounds overlap the box
+       @return the number found
+    */
+    public int queryBox(float x1, float y1, float z1, float x2, float y2, float z2,
+                        Cursor<T> cursor) {
+        qKind = BOX;
+        qMinX = Math.min(x1,x2); qMaxX = Math.max(x1,x2);
+        qMinY = Math.min(y1,y2); qMaxY = Math.max(y1,y2);
+        qMinZ = Math.min(z1,z2); qMaxZ = Math.max(z1,z2);
+        return query(cursor);
+    }
+
+
+    /**
+       Find the objects whose bounds come within the radius of a point.
+       The cursor's distance() is the distance to the nearest point of each
+       object's bounds (0 if inside).
+       @return the number found
+    */
+    public int querySphere(float cx, float cy, float cz, float radius, Cursor<T> cursor) {
+        qKind = SPHERE;
+        qx = cx; qy = cy; qz = cz;
+        qRadius2 = radius * radius;
+        qMinX = cx - radius; qMaxX = cx + radius;
+        qMinY = cy - radius; qMaxY = cy + radius;
+        qMinZ = cz - radius; qMaxZ = cz + radius;
+        return query(cursor);
+    }
+
+
+    public int querySphere(Vec3 center, float radius, Cursor<T> cursor) {
+        return querySphere(center.x,center.y,center.z,radius,cursor);
+    }
+
+
+    /**
+       Find the objects whose bounds are hit by a ray, within maxDistance
+       (in units of the direction's length).  The cursor's distance() is
+       where the ray enters each object's bounds (0 if it starts inside) --
+       sortByDistance() puts the nearest first.
+       @return the number found
+    */
+    public int queryRay(float ox, float oy, float oz, float dx, float dy, float dz,
+                        float maxDistance, Cursor<T> cursor) {
+        qKind = RAY;
+        qx = ox; qy = oy; qz = oz;
+        qInvX = 1f / dx;
+        qInvY = 1f / dy;
+        qInvZ = 1f / dz;
+        qDistance = maxDistance;
+        return query(cursor);
+    }
+
+
+    public int queryRay(Vec3 origin, Vec3 direction, float maxDistance, Cursor<T> cursor) {
+        return queryRay(origin.x,origin.y,origin.z,direction.x,direction.y,direction.z,
+                        maxDistance,cursor);
+    }
+
+
+    protected int query(Cursor<T> cursor) {
+        cursor.clear();
+        qCursor = cursor;
+        try {
+            if ( size > 0 ) search(0,0,0,0);
+        } finally {
+            qCursor = null;
+        }
+        return cursor.count;
+    }
+
+
+    protected void search(int l, int cx, int cy, int cz) {
+        int n = 1 << l;
+        int c = levelStart[l] + (cz * n + cy) * n + cx;
+        if ( counts[c] == 0 ) return;
+
+        // The root holds the objects outside the volume, so is always searched
+        if ( l > 0 ) {
+            float cw = width / n, ch = height / n, cd = depth / n;
+            float lx = x + (cx - 0.5f) * cw;
+            float ly = y + (cy - 0.5f) * ch;
+            float lz = z + (cz - 0.5f) * cd;
+            if ( qKind == RAY ) {
+                if ( enter(lx,ly,lz,lx+2*cw,ly+2*ch,lz+2*cd) < 0 ) return;
+            } else if ( lx > qMaxX || lx + 2*cw < qMinX ||
+                        ly > qMaxY || ly + 2*ch < qMinY ||
+                        lz > qMaxZ || lz + 2*cd < qMinZ ) return;
+        }
+
+        for(int h=heads[c]; h >= 0 && !qCursor.full(); h=next[h]) visit(h);
+        if ( l == maxDepth ) return;
+
+        int kx = cx * 2, ky = cy * 2, kz = cz * 2;
+        for(int k=0; k<8 && !qCursor.full(); ++k)
+            search(l+1, kx + (k & 1), ky + ((k >> 1) & 1), kz + (k >> 2));
+    }
+
+
+    /** Add an object to the cursor, if it matches the current query */
+    protected void visit(int h) {
+        float distance = 0;
+        switch(qKind) {
+        case BOX:
+            if ( maxX[h] < qMinX || minX[h] > qMaxX ||
+                 maxY[h] < qMinY || minY[h] > qMaxY ||
+                 maxZ[h] < qMinZ || minZ[h] > qMaxZ ) return;
+            break;
+
+        case SPHERE:
+            float dx = qx < minX[h] ? minX[h] - qx : qx > maxX[h] ? qx - maxX[h] : 0;
+            float dy = qy < minY[h] ? minY[h] - qy : qy > maxY[h] ? qy - maxY[h] : 0;
+            float dz = qz < minZ[h] ? minZ[h] - qz : qz > maxZ[h] ? qz - maxZ[h] : 0;
+            float d2 = dx*dx + dy*dy + dz*dz;
+            if ( d2 > qRadius2 ) return;
+            distance = d2 > 0 ? (float)Math.sqrt(d2) : 0;
+            break;
+
+        case RAY:
+            distance = enter(minX[h],minY[h],minZ[h],maxX[h],maxY[h],maxZ[h]);
+            if ( distance < 0 ) return;
+            break;
+        }
+        qCursor.add(items[h],h,distance);
+    }
+
+
+    /**
+       Slab test of the current ray against a box
+       @return where the ray enters the box (0 if it starts inside), or -1
+       if it misses the box within the query distance
+    */
+    protected final float enter(float x1, float y1, float z1, float x2, float y2, float z2) {
+        float near = 0, far = qDistance;
+
+        float t1 = (x1 - qx) * qInvX, t2 = (x2 - qx) * qInvX;
+        if ( t1 > t2 ) { float t = t1; t1 = t2; t2 = t; }
+        if ( t1 > near ) near = t1;
+        if ( t2 < far ) far = t2;
+        if ( near > far ) return -1;
+
+        t1 = (y1 - qy) * qInvY; t2 = (y2 - qy) * qInvY;
+        if ( t1 > t2 ) { float t = t1; t1 = t2; t2 = t; }
+        if ( t1 > near ) near = t1;
+        if ( t2 < far ) far = t2;
+        if ( near > far ) return -1;
+
+        t1 = (z1 - qz) * qInvZ; t2 = (z2 - qz) * qInvZ;
+        if ( t1 > t2 ) { float t = t1; t1 = t2; t2 = t; }
+        if ( t1 > near ) near = t1;
+        if ( t2 < far ) far = t2;
+        if ( near > far ) return -1;
+
+        return near;
+    }
+
+
+    /** @return the node an object belongs in, given its current bounds */
+    protected int nodeFor(int h) {
+        float fx = ((minX[h] + maxX[h]) * 0.5f - x) / width;
+        float fy = ((minY[h] + maxY[h]) * 0.5f - y) / height;
+        float fz = ((minZ[h] + maxZ[h]) * 0.5f - z) / depth;
+        if ( !(fx >= 0 && fx < 1 && fy >= 0 && fy < 1 && fz >= 0 && fz < 1) ) return 0;
+
+        // The deepest level with cells at least as big as the object
+        float w = maxX[h] - minX[h], hgt = maxY[h] - minY[h], d = maxZ[h] - minZ[h];
+        int l = maxDepth;
+        while ( l > 0 && (w > width / (1 << l) || hgt > height / (1 << l) ||
+                          d > depth / (1 << l)) ) --l;
+
+        int n = 1 << l;
+        return levelStart[l] + ((int)(fz * n) * n + (int)(fy * n)) * n + (int)(fx * n);
+    }
+
+
+    protected void setBounds(int h, float x1, float y1, float z1, float x2, float y2, float z2) {
+        minX[h] = Math.min(x1,x2); maxX[h] = Math.max(x1,x2);
+        minY[h] = Math.min(y1,y2); maxY[h] = Math.max(y1,y2);
+        minZ[h] = Math.min(z1,z2); maxZ[h] = Math.max(z1,z2);
+    }
+
+
+    protected void checkHandle(int handle) {
+        if ( handle < 0 || handle >= highHandle || node[handle] < 0 )
+            throw new IllegalArgumentException("no object with handle " + handle);
+    }
+
+
+    protected void grow(int capacity) {
+        items = SpatialIndex.copy(items,capacity);
+        minX = SpatialIndex.copy(minX,capacity);
+        minY = SpatialIndex.copy(minY,capacity);
+        minZ = SpatialIndex.copy(minZ,capacity);
+        maxX = SpatialIndex.copy(maxX,capacity);
+        maxY = SpatialIndex.copy(maxY,capacity);
+        maxZ = SpatialIndex.copy(maxZ,capacity);
+        node = SpatialIndex.copy(node,capacity);
+        next = SpatialIndex.copy(next,capacity);
+        prev = SpatialIndex.copy(prev,capacity);
+        freeHandles = SpatialIndex.copy(freeHandles,capacity);
+    }
+
+
+    /** Add an object to the front of a node's list */
+    protected void link(int h, int c) {
+        int head = heads[c];
+        node[h] = c;
+        prev[h] = -1;
+        next[h] = head;
+        if ( head >= 0 ) prev[head] = h;
+        heads[c] = h;
+        count(c,1);
+    }
+
+
+    /** Take an object out of its node's list */
+    protected void unlink(int h) {
+        int c = node[h];
+        int p = prev[h], n = next[h];
+        if ( p >= 0 ) next[p] = n;
+        else heads[c] = n;
+        if ( n >= 0 ) prev[n] = p;
+        prev[h] = next[h] = -1;
+        count(c,-1);
+    }
+
+
+    /** Add to the count of a node and the nodes above it */
+    protected void count(int c, int delta) {
+        int l = 0;
+        while ( c >= levelStart[l+1] ) ++l;
+        int n = 1 << l;
+        int i = c - levelStart[l];
+        int cx = i % n, cy = (i / n) % n, cz = i / (n * n);
+        for(; l >= 0; --l, cx >>= 1, cy >>= 1, cz >>= 1) {
+            n = 1 << l;
+            counts[levelStart[l] + (cz * n + cy) * n + cx] += delta;
+        }
+    }
+
+
+
+    /**
+       The results of a query, to be reused from one query to the next.
+       Step through them with next(), or index them directly.  Only
+       allocates when it has to grow.
+    */
+    public static class Cursor<T> {
+
+        /** The matching objects */
+        protected Object[] found;
+
+        /** Their handles */
+        protected int[] handles;
+
+        /** Their distances, for sphere and ray queries */
+        protected float[] distances;
+
+        /** Number of matching objects */
+        public int count;
+
+        /** The most objects to collect, or 0 for no limit */
+        public int limit;
+
+        /** The current position for next() */
+        protected int position = -1;
+
+
+        public Cursor() {
+            this(16);
+        }
+
+
+        public Cursor(int capacity) {
+            found = new Object[capacity];
+            handles = new int[capacity];
+            distances = new float[capacity];
+        }
+
+
+        /** Forget the objects from the last query */
+        public Cursor<T> clear() {
+            for(int i=0; i<count; ++i) found[i] = null;
+            count = 0;
+            position = -1;
+            return this;
+        }
+
+
+        /** Go back to before the first object */
+        public Cursor<T> rewind() {
+            position = -1;
+            return this;
+        }
+
+
+        /** @return whether there is another object, moving to it if so */
+        public boolean next() {
+            if ( position + 1 >= count ) return false;
+            position++;
+            return true;
+        }
+
+
+        /** @return the current object */
+        public T item() {
+            return get(position);
+        }
+
+
+        /** @return the current object's handle */
+        public int handle() {
+            return handles[position];
+        }
+
+
+        /** @return the current object's distance */
+        public float distance() {
+            return distances[position];
+        }
+
+
+        @SuppressWarnings("unchecked")
+        public T get(int i) {
+            return (T)found[i];
+        }
+
+
+        public int getHandle(int i) {
+            return handles[i];
+        }
+
+
+        public float getDistance(int i) {
+            return distances[i];
+        }
+
+
+        /**
+           Order the objects nearest first (insertion sort -- queries
+           usually find only a few)
+        */
+        public Cursor<T> sortByDistance() {
+            for(int i=1; i<count; ++i) {
+                Object f = found[i];
+                int h = handles[i];
+                float d = distances[i];
+                int j = i - 1;
+                for(; j >= 0 && distances[j] > d; --j) {
+                    found[j+1] = found[j];
+                    handles[j+1] = handles[j];
+                    distances[j+1] = distances[j];
+                }
+                found[j+1] = f;
+                handles[j+1] = h;
+                distances[j+1] = d;
+            }
+            position = -1;
+            return this;
+        }
+
+
+        /** @return whether the limit has been reached */
+        protected final boolean full() {
+            return limit > 0 && count >= limit;
+        }
+
+
+        protected void add(Object item, int handle, float distance) {
+            if ( count == found.length ) {
+                found = SpatialIndex.copy(found,count*2);
+                handles = SpatialIndex.copy(handles,count*2);
+                distances = SpatialIndex.copy(distances,count*2);
+            }
+            found[count] = item;
+            handles[count] = handle;
+            distances[count] = distance;
+            count++;
+        }
+    }
+
+}
@@ -0,0 +1,165 @@
+package chum.engine.spatial;
+
+import java.util.Arrays;
+
+
+/**
+   A loose quadtree over a fixed area of the world.
+
+   The tree is complete down to maxDepth, and laid out level by level in
+   flat arrays, so there are no node objects and nothing is allocated as
+   items move.  Each node's "loose" bounds are its cell grown by half a
+   cell on every side:  an item goes in the deepest node whose cell holds
+   the center of its bounds and is at least as big as the item, so it is
+   always inside that node's loose bounds.  Moving an item is just
+   recomputing that node.
+
+   Items of any size mix well -- big ones live near the root, small ones
+   near the leaves.  Items whose centers are outside the area are kept at
+   the root, so they are still found (but are checked by every query).
+
+   Queries descend from the root, skipping the nodes whose loose bounds
+   miss the query and the subtrees with no items in them.
+*/
+public class LooseQuadtree<T> extends SpatialIndex<T> {
+
+    /** The area covered */
+    public final float x, y, width, height;
+
+    /** The deepest level -- the root is level 0 */
+    public final int maxDepth;
+
+    /** The first item in each node */
+    protected final int[] heads;
+
+    /** The number of items in each node and all the nodes under it */
+    protected final int[] counts;
+
+    /** The index of the first node in each level */
+    protected final int[] levelStart;
+
+
+    /**
+       Create a quadtree covering the given area, with room for capacity
+       items before growing.  Leaves are 1/2^maxDepth of the area across.
+    */
+    public LooseQuadtree(float x, float y, float width, float height,
+                         int maxDepth, int capacity) {
+        super(capacity);
+        if ( width <= 0 || height <= 0 )
+            throw new IllegalArgumentException("the area must not be empty");
+        if ( maxDepth < 0 || maxDepth > 10 )
+            throw new IllegalArgumentException("maxDepth must be from 0 to 10");
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+        this.maxDepth = maxDepth;
+
+        levelStart = new int[maxDepth+2];
+        for(int l=0; l<=maxDepth; ++l)
+            levelStart[l+1] = levelStart[l] + (1 << (2*l));
+        int nodes = levelStart[maxDepth+1];
+        heads = new int[nodes];
+        counts = new int[nodes];
+        Arrays.fill(heads,-1);
+    }
+
+
+    /** @return the number of nodes in the tree */
+    public int numNodes() {
+        return heads.length;
+    }
+
+
+    @Override
+    protected int cellFor(int h) {
+        float w = maxX[h] - minX[h];
+        float hgt = maxY[h] - minY[h];
+        float fx = ((minX[h] + maxX[h]) * 0.5f - x) / width;
+        float fy = ((minY[h] + maxY[h]) * 0.5f - y) / height;
+        if ( !(fx >= 0 && fx < 1 && fy >= 0 && fy < 1) ) return 0;
+
+        // The deepest level with cells at least as big as the item
+        int l = maxDepth;
+        while ( l > 0 && (w > width / (1 << l) || hgt > height / (1 << l)) ) --l;
+
+        int n = 1 << l;
+        return levelStart[l] + (int)(fy * n) * n + (int)(fx * n);
+    }
+
+
+    @Override
+    protected int getHead(int c) {
+        return heads[c];
+    }
+
+
+    @Override
+    protected void setHead(int c, int h) {
+        heads[c] = h;
+    }
+
+
+    @Override
+    protected void clearCells() {
+        Arrays.fill(heads,-1);
+        Arrays.fill(counts,0);
+    }
+
+
+    @Override
+    protected void link(int h, int c) {
+        super.link(h,c);
+        count(c,1);
+    }
+
+
+    @Override
+    protected void unlink(int h) {
+        count(cell[h],-1);
+        super.unlink(h);
+    }
+
+
+    /** Add to the count of a node and the nodes above it */
+    protected void count(int c, int delta) {
+        int l = 0;
+        while ( c >= levelStart[l+1] ) ++l;
+        int n = 1 << l;
+        int i = c - levelStart[l];
+        int cx = i % n, cy = i / n;
+        for(; l >= 0; --l, cx >>= 1, cy >>= 1)
+            counts[levelStart[l] + cy * (1 << l) + cx] += delta;
+    }
+
+
+    @Override
+    protected void search() {
+        search(0,0,0);
+    }
+
+
+    protected void search(int l, int cx, int cy) {
+        int n = 1 << l;
+        int c = levelStart[l] + cy * n + cx;
+        if ( counts[c] == 0 ) return;
+
+        // The root holds the items outside the area, so is always searched
+        if ( l > 0 ) {
+            float cw = width / n, ch = height / n;
+            float lx = x + (cx - 0.5f) * cw;
+            float ly = y + (cy - 0.5f) * ch;
+            if ( lx > qMaxX || lx + 2*cw < qMinX ||
+                 ly > qMaxY || ly + 2*ch < qMinY ) return;
+        }
+
+        visitCell(heads[c]);
+        if ( l == maxDepth ) return;
+
+        int kx = cx * 2, ky = cy * 2;
+        for(int k=0; k<4 && !qDone; ++k)
+            search(l+1, kx + (k & 1), ky + (k >> 1));
+    }
+
+}
@@ -0,0 +1,138 @@
+package chum.engine.spatial;
+
+import java.util.Arrays;
+
+
+/**
+   A uniform grid over unbounded space, with the grid cells hashed into a
+   fixed table of buckets -- so only the occupied part of the space costs
+   anything.
+
+   Each item goes in the cell holding the center of its bounds, so moving
+   one costs the same however big it is.  Queries look in the cells within
+   the query box grown by the largest item extents seen, so this works
+   best when the items are about the size of a cell or smaller.  A few much
+   larger items make every query look at more cells; put those in a
+   LooseQuadtree instead.
+
+   When a query covers more cells than there are buckets, every bucket is
+   searched once instead.
+*/
+public class SpatialHash<T> extends SpatialIndex<T> {
+
+    /** The size of a grid cell */
+    public final float cellSize;
+    protected final float invCellSize;
+
+    /** The first item in each bucket */
+    protected int[] heads;
+    protected int mask;
+
+    /** The grid cell of each item */
+    protected int[] gx, gy;
+
+    /** The largest half width / height of any item added */
+    protected float maxHalfWidth, maxHalfHeight;
+
+
+    /**
+       Create a spatial hash with the given grid cell size, and room for
+       capacity items before growing
+    */
+    public SpatialHash(float cellSize, int capacity) {
+        super(capacity);
+        if ( cellSize <= 0 )
+            throw new IllegalArgumentException("cellSize must be positive");
+        this.cellSize = cellSize;
+        this.invCellSize = 1f / cellSize;
+
+        int buckets = 16;
+        while ( buckets < capacity ) buckets <<= 1;
+        heads = new int[buckets];
+        mask = buckets - 1;
+        Arrays.fill(heads,-1);
+
+        gx = new int[this.items.length];
+        gy = new int[this.items.length];
+    }
+
+
+    protected final int grid(float v) {
+        return (int)Math.floor(v * invCellSize);
+    }
+
+
+    protected final int bucket(int x, int y) {
+        return ((x * 73856093) ^ (y * 19349663)) & mask;
+    }
+
+
+    @Override
+    protected int cellFor(int h) {
+        float hw = (maxX[h] - minX[h]) * 0.5f;
+        float hh = (maxY[h] - minY[h]) * 0.5f;
+        if ( hw > maxHalfWidth ) maxHalfWidth = hw;
+        if ( hh > maxHalfHeight ) maxHalfHeight = hh;
+
+        int x = grid(minX[h] + hw);
+        int y = grid(minY[h] + hh);
+        gx[h] = x;
+        gy[h] = y;
+        return bucket(x,y);
+    }
+
+
+    @Override
+    protected int getHead(int c) {
+        return heads[c];
+    }
+
+
+    @Override
+    protected void setHead(int c, int h) {
+        heads[c] = h;
+    }
+
+
+    @Override
+    protected void clearCells() {
+        Arrays.fill(heads,-1);
+        maxHalfWidth = maxHalfHeight = 0;
+    }
+
+
+    @Override
+    protected void grow(int capacity) {
+        super.grow(capacity);
+        gx = copy(gx,capacity);
+        gy = copy(gy,capacity);
+    }
+
+
+    @Override
+    protected void search() {
+        int x1 = grid(qMinX - maxHalfWidth);
+        int x2 = grid(qMaxX + maxHalfWidth);
+        int y1 = grid(qMinY - maxHalfHeight);
+        int y2 = grid(qMaxY + maxHalfHeight);
+
+        long cells = ((long)x2 - x1 + 1) * ((long)y2 - y1 + 1);
+        if ( cells > heads.length ) {
+            for(int b=0; b<heads.length && !qDone; ++b) visitCell(heads[b]);
+            return;
+        }
+
+        // Several cells can share a bucket, so only look at the items
+        // that are really in each cell
+        for(int y=y1; y<=y2 && !qDone; ++y) {
+            for(int x=x1; x<=x2 && !qDone; ++x) {
+                for(int h=heads[bucket(x,y)]; h >= 0 && !qDone; ) {
+                    int n = next[h];
+                    if ( gx[h] == x && gy[h] == y ) visitItem(h);
+                    h = n;
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,441 @@
+package chum.engine.spatial;
+
+
+/**
+   Base for the 2D spatial indexes:  answers "what is near here" without
+   looking at every item.
+
+   Each item is added with its bounding box, and gets back a handle (a small
+   int) used to move or remove it later.  The bounds are kept in parallel
+   arrays by handle, and the items in each cell of the index are kept in a
+   linked list threaded through those arrays -- so adding, moving and
+   removing don't allocate, except when the arrays have to grow.
+
+   Queries (point, box, radius) don't allocate either:  matching items are
+   passed to a Visitor, which can be a reused Results to collect them.  A
+   visitor may run queries of its own on the same index.
+
+   Subclasses decide how the space is divided up into cells, by
+   implementing cellFor() and search().
+
+   Not thread-safe -- use an index from one thread (normally the game
+   thread).
+*/
+public abstract class SpatialIndex<T> {
+
+    /** Receives the items matching a query */
+    public interface Visitor<T> {
+        /**
+           @param handle the item's handle in the index
+           @return false to end the query
+        */
+        boolean visit(T item, int handle);
+    }
+
+
+    /** The item for each handle (null if not in use) */
+    protected Object[] items;
+
+    /** The bounds of each item */
+    protected float[] minX, minY, maxX, maxY;
+
+    /** The cell each item is in, or -1 if not in use */
+    protected int[] cell;
+
+    /** The links of each cell's list of items */
+    protected int[] next, prev;
+
+    /** Free handles */
+    protected int[] freeHandles;
+    protected int numFree;
+
+    /** One more than the highest handle given out */
+    protected int highHandle;
+
+    /** Number of items in the index */
+    protected int size;
+
+    /**
+       The query running:  box, and the center and radius squared for
+       radius queries.  See query() for queries run by a visitor.
+    */
+    protected float qMinX, qMinY, qMaxX, qMaxY;
+    protected float qx, qy, qRadius2;
+    protected boolean qRound;
+    protected Visitor<T> qVisitor;
+    protected int qFound;
+
+    /** Set to end the current query early */
+    protected boolean qDone;
+
+
+    protected SpatialIndex(int capacity) {
+        if ( capacity < 1 ) capacity = 1;
+        items = new Object[capacity];
+        minX = new float[capacity];
+        minY = new float[capacity];
+        maxX = new float[capacity];
+        maxY = new float[capacity];
+        cell = new int[capacity];
+        next = new int[capacity];
+        prev = new int[capacity];
+        freeHandles = new int[capacity];
+    }
+
+
+    /**
+       Add an item with the given bounds
+       @return the item's handle
+    */
+    public int add(T item, float x1, float y1, float x2, float y2) {
+        int h;
+        if ( numFree > 0 ) h = freeHandles[--numFree];
+        else {
+            if ( highHandle == items.length ) grow(highHandle * 2);
+            h = highHandle++;
+        }
+        items[h] = item;
+        setBounds(h,x1,y1,x2,y2);
+        link(h,cellFor(h));
+        size++;
+        return h;
+    }
+
+
+    /**
+       Add an item centered at (x,y), extending halfWidth and halfHeight
+       each way
+       @return the item's handle
+    */
+    public int addCentered(T item, float x, float y, float halfWidth, float halfHeight) {
+        return add(item,x-halfWidth,y-halfHeight,x+halfWidth,y+halfHeight);
+    }
+
+
+    /**
+       Move an item to new bounds
+    */
+    public void move(int handle, float x1, float y1, float x2, float y2) {
+        checkHandle(handle);
+        setBounds(handle,x1,y1,x2,y2);
+        int c = cellFor(handle);
+        if ( c != cell[handle] ) {
+            unlink(handle);
+            link(handle,c);
+        }
+    }
+
+
+    /**
+       Move an item to be centered at (x,y), extending halfWidth and
+       halfHeight each way
+    */
+    public void moveCentered(int handle, float x, float y, float halfWidth, float halfHeight) {
+        move(handle,x-halfWidth,y-halfHeight,x+halfWidth,y+halfHeight);
+    }
+
+
+    /**
+       Remove an item.  Its handle may be given to an item added later.
+    */
+    public void remove(int handle) {
+        checkHandle(handle);
+        unlink(handle);
+        items[handle] = null;
+        cell[handle] = -1;
+        freeHandles[numFree++] = handle;
+        size--;
+    }
+
+
+    /** Remove all the items */
+    public void clear() {
+        for(int h=0; h<highHandle; ++h) items[h] = null;
+        numFree = 0;
+        highHandle = 0;
+        size = 0;
+        clearCells();
+    }
+
+
+    /** @return the item with the given handle, or null */
+    @SuppressWarnings("unchecked")
+    public T get(int handle) {
+        return ( handle >= 0 && handle < highHandle ) ? (T)items[handle] : null;
+    }
+
+
+    /** @return the number of items */
+    public int size() {
+        return size;
+    }
+
+
+    public float getMinX(int handle) { return minX[handle]; }
+    public float getMinY(int handle) { return minY[handle]; }
+    public float getMaxX(int handle) { return maxX[handle]; }
+    public float getMaxY(int handle) { return maxY[handle]; }
+
+
+    /**
+       Find the items whose bounds contain the point
+       @return the number of items visited
+    */
+    public int queryPoint(float x, float y, Visitor<T> visitor) {
+        return queryBox(x,y,x,y,visitor);
+    }
+
+
+    /**
+       Find the items whose bounds overlap the box
+       @return the number of items visited
+    */
+    public int queryBox(float x1, float y1, float x2, float y2, Visitor<T> visitor) {
+        return query(x1,y1,x2,y2,false,0,0,0,visitor);
+    }
+
+
+    /**
+       Find the items whose bounds come within the radius of the point
+       @return the number of items visited
+    */
+    public int queryRadius(float x, float y, float radius, Visitor<T> visitor) {
+        return query(x-radius,y-radius,x+radius,y+radius,true,x,y,radius*radius,visitor);
+    }
+
+
+    /**
+       Run a query.  The visitor may query again from inside this one, so
+       the state of any query already running is kept here, on the stack,
+       and put back afterwards.
+       @param round whether to only match within the radius of (x,y)
+    */
+    protected int query(float x1, float y1, float x2, float y2,
+                        boolean round, float x, float y, float radius2,
+                        Visitor<T> visitor) {
+        final float minX0 = qMinX, minY0 = qMinY, maxX0 = qMaxX, maxY0 = qMaxY;
+        final float x0 = qx, y0 = qy, radius20 = qRadius2;
+        final boolean round0 = qRound, done0 = qDone;
+        final Visitor<T> visitor0 = qVisitor;
+        final int found0 = qFound;
+
+        qMinX = Math.min(x1,x2);
+        qMinY = Math.min(y1,y2);
+        qMaxX = Math.max(x1,x2);
+        qMaxY = Math.max(y1,y2);
+        qRound = round;
+        qx = x;
+        qy = y;
+        qRadius2 = radius2;
+        qVisitor = visitor;
+        qFound = 0;
+        qDone = false;
+        int found;
+        try {
+            if ( size > 0 ) search();
+            found = qFound;
+        } finally {
+            qMinX = minX0;
+            qMinY = minY0;
+            qMaxX = maxX0;
+            qMaxY = maxY0;
+            qRound = round0;
+            qx = x0;
+            qy = y0;
+            qRadius2 = radius20;
+            qVisitor = visitor0;
+            qFound = found0;
+            qDone = done0;
+        }
+        return found;
+    }
+
+
+    /**
+       Visit the items in one cell that match the current query
+     */
+    protected void visitCell(int head) {
+        for(int h=head; h >= 0 && !qDone; ) {
+            int n = next[h];   // in case the visitor removes it
+            visitItem(h);
+            h = n;
+        }
+    }
+
+
+    /**
+       Visit one item, if it matches the current query
+     */
+    @SuppressWarnings("unchecked")
+    protected final void visitItem(int h) {
+        if ( matches(h) ) {
+            qFound++;
+            if ( !qVisitor.visit((T)items[h],h) ) qDone = true;
+        }
+    }
+
+
+    /** @return whether the item's bounds match the current query */
+    protected final boolean matches(int h) {
+        if ( maxX[h] < qMinX || minX[h] > qMaxX ||
+             maxY[h] < qMinY || minY[h] > qMaxY ) return false;
+        if ( !qRound ) return true;
+
+        // Distance from the center to the nearest point of the box
+        float dx = qx < minX[h] ? minX[h] - qx : qx > maxX[h] ? qx - maxX[h] : 0;
+        float dy = qy < minY[h] ? minY[h] - qy : qy > maxY[h] ? qy - maxY[h] : 0;
+        return dx*dx + dy*dy <= qRadius2;
+    }
+
+
+    protected void setBounds(int h, float x1, float y1, float x2, float y2) {
+        minX[h] = Math.min(x1,x2);
+        minY[h] = Math.min(y1,y2);
+        maxX[h] = Math.max(x1,x2);
+        maxY[h] = Math.max(y1,y2);
+    }
+
+
+    protected void checkHandle(int handle) {
+        if ( handle < 0 || handle >= highHandle || cell[handle] < 0 )
+            throw new IllegalArgumentException("no item with handle " + handle);
+    }
+
+
+    /**
+       Make room for more items.  Subclasses with per-item arrays of their
+       own grow them here too.
+    */
+    protected void grow(int capacity) {
+        items = copy(items,capacity);
+        minX = copy(minX,capacity);
+        minY = copy(minY,capacity);
+        maxX = copy(maxX,capacity);
+        maxY = copy(maxY,capacity);
+        cell = copy(cell,capacity);
+        next = copy(next,capacity);
+        prev = copy(prev,capacity);
+        freeHandles = copy(freeHandles,capacity);
+    }
+
+
+    /** Add an item to the front of a cell's list */
+    protected void link(int h, int c) {
+        int head = getHead(c);
+        cell[h] = c;
+        prev[h] = -1;
+        next[h] = head;
+        if ( head >= 0 ) prev[head] = h;
+        setHead(c,h);
+    }
+
+
+    /** Take an item out of its cell's list */
+    protected void unlink(int h) {
+        int c = cell[h];
+        int p = prev[h], n = next[h];
+        if ( p >= 0 ) next[p] = n;
+        else setHead(c,n);
+        if ( n >= 0 ) prev[n] = p;
+        prev[h] = next[h] = -1;
+    }
+
+
+    /** @return the cell an item belongs in, given its current bounds */
+    protected abstract int cellFor(int h);
+
+    /** @return the first item in a cell's list, or -1 */
+    protected abstract int getHead(int c);
+
+    /** Set the first item in a cell's list */
+    protected abstract void setHead(int c, int h);
+
+    /** Empty all the cells */
+    protected abstract void clearCells();
+
+    /**
+       Call visitCell() for each cell that could hold items matching the
+       current query box (qMinX, etc), until qDone is set
+    */
+    protected abstract void search();
+
+
+    static Object[] copy(Object[] a, int n) {
+        Object[] b = new Object[n];
+        System.arraycopy(a,0,b,0,Math.min(a.length,n));
+        return b;
+    }
+
+
+    static float[] copy(float[] a, int n) {
+        float[] b = new float[n];
+        System.arraycopy(a,0,b,0,Math.min(a.length,n));
+        return b;
+    }
+
+
+    static int[] copy(int[] a, int n) {
+        int[] b = new int[n];
+        System.arraycopy(a,0,b,0,Math.min(a.length,n));
+        return b;
+    }
+
+
+
+    /**
+       A Visitor that collects the matching items, to be reused from one
+       query to the next.  Only allocates when it has to grow.
+    */
+    public static class Results<T> implements Visitor<T> {
+
+        /** The matching items */
+        protected Object[] found;
+
+        /** Their handles */
+        public int[] handles;
+
+        /** Number of matching items */
+        public int count;
+
+        /** The most items to collect, or 0 for no limit */
+        public int limit;
+
+
+        public Results() {
+            this(16);
+        }
+
+
+        public Results(int capacity) {
+            found = new Object[capacity];
+            handles = new int[capacity];
+        }
+
+
+        /** Forget the items from the last query */
+        public Results<T> clear() {
+            for(int i=0; i<count; ++i) found[i] = null;
+            count = 0;
+            return this;
+        }
+
+
+        @SuppressWarnings("unchecked")
+        public T get(int i) {
+            return (T)found[i];
+        }
+
+
+        public boolean visit(T item, int handle) {
+            if ( count == found.length ) {
+                found = copy(found,count*2);
+                handles = copy(handles,count*2);
+            }
+            found[count] = item;
+            handles[count] = handle;
+            count++;
+            return limit == 0 || count < limit;
+        }
+    }
+
+}
@@ -0,0 +1,211 @@
+package chum.engine.spatial;
+
+import chum.engine.GameNode;
+import chum.engine.common.Movable;
+import chum.engine.common.Rotatable;
+import chum.engine.common.Scalable;
+import chum.f.Vec3;
+import chum.gl.SpriteSheet;
+
+
+/**
+   Keeps a SpatialIndex up to date with the positions of a set of Movables
+   (e.g. Sprites), so they can be found by where they are -- what is near a
+   point, what did the user touch -- without walking the tree.
+
+   Each update, every tracked item's bounds are worked out from its
+   position (getPosition()) and its extents:  either a sprite image, placed
+   the way a Sprite draws one (its lower left corner at the position), or a
+   fixed half width and height around a point offset from the position.
+   As with a Sprite, Scalable items are scaled and Rotatable items turned
+   about the position;  turned items get the box around any rotation.
+   Only the items that have changed are moved in the index.
+
+   Put the tracker after the nodes that move things in the tree, so the
+   index reflects the positions as of the end of the update.
+*/
+public class SpatialTracker<T extends Movable> extends GameNode {
+
+    /** The index of the tracked items */
+    public final SpatialIndex<T> index;
+
+    /** The image each item shows, if sized by an image */
+    protected SpriteSheet.ImageData[] images = new SpriteSheet.ImageData[16];
+
+    /** The fixed half width and height of each item, if not sized by an image */
+    protected float[] halfWidth = new float[16], halfHeight = new float[16];
+
+    /** The center of each item's bounds relative to its position, if not sized by an image */
+    protected float[] offsetX = new float[16], offsetY = new float[16];
+
+    /** The bounds last put in the index:  center and half extents */
+    protected float[] lastX = new float[16], lastY = new float[16];
+    protected float[] lastHalfW = new float[16], lastHalfH = new float[16];
+
+    /** Collects the result of pick() */
+    protected final SpatialIndex.Results<T> picked = new SpatialIndex.Results<T>(1);
+
+
+    public SpatialTracker(SpatialIndex<T> index) {
+        super();
+        this.index = index;
+        picked.limit = 1;
+    }
+
+
+    /**
+       Track an item that shows a sprite image, with the image's lower left
+       corner at the item's position
+       @return the item's handle in the index
+    */
+    public int track(T item, SpriteSheet.ImageData image) {
+        int h = add(item);
+        images[h] = image;
+        place(h,item);
+        return h;
+    }
+
+
+    /**
+       Track an item with fixed extents (before any scaling), centered on
+       its position
+       @return the item's handle in the index
+    */
+    public int track(T item, float halfWidth, float halfHeight) {
+        return track(item,0,0,halfWidth,halfHeight);
+    }
+
+
+    /**
+       Track an item with fixed extents (before any scaling or rotation),
+       centered at an offset from its position
+       @return the item's handle in the index
+    */
+    public int track(T item, float offsetX, float offsetY, float halfWidth, float halfHeight) {
+        int h = add(item);
+        this.offsetX[h] = offsetX;
+        this.offsetY[h] = offsetY;
+        this.halfWidth[h] = halfWidth;
+        this.halfHeight[h] = halfHeight;
+        place(h,item);
+        return h;
+    }
+
+
+    /** Add an item to the index, to be placed by place() */
+    protected int add(T item) {
+        int h = index.addCentered(item,0,0,0,0);
+        if ( h >= images.length ) grow(Math.max(h+1,images.length*2));
+        images[h] = null;
+        lastX[h] = Float.NaN;   // so it is always moved
+        return h;
+    }
+
+
+    /**
+       Stop tracking an item
+     */
+    public void untrack(int handle) {
+        index.remove(handle);
+        images[handle] = null;
+    }
+
+
+    /**
+       @return the first tracked item whose bounds contain the point, or null
+     */
+    public T pick(float x, float y) {
+        picked.clear();
+        index.queryPoint(x,y,picked);
+        T item = picked.count > 0 ? picked.get(0) : null;
+        picked.clear();
+        return item;
+    }
+
+
+    @Override
+    public boolean updatePrefix(long millis) {
+        refresh();
+        return false;
+    }
+
+
+    /**
+       Move each tracked item whose position or extents have changed
+     */
+    public void refresh() {
+        final SpatialIndex<T> index = this.index;
+        for(int h=0, n=index.highHandle; h<n; ++h) {
+            T item = index.get(h);
+            if ( item != null ) place(h,item);
+        }
+    }
+
+
+    protected void place(int h, T item) {
+        Vec3 position = item.getPosition();
+        float x = 0, y = 0;
+        if ( position != null ) {
+            x = position.x;
+            y = position.y;
+        }
+
+        // The half extents, and the center relative to the position
+        float hw, hh, ox, oy;
+        SpriteSheet.ImageData image = images[h];
+        if ( image != null ) {
+            hw = ox = (image.right - image.left) * 0.5f;
+            hh = oy = (image.bottom - image.top) * 0.5f;
+        } else {
+            hw = halfWidth[h];
+            hh = halfHeight[h];
+            ox = offsetX[h];
+            oy = offsetY[h];
+        }
+        if ( item instanceof Scalable ) {
+            float scale = ((Scalable)item).getScale();
+            ox *= scale;
+            oy *= scale;
+            scale = Math.abs(scale);
+            hw *= scale;
+            hh *= scale;
+        }
+        if ( item instanceof Rotatable ) {
+            float angle = ((Rotatable)item).getAngle() % 360f;
+            if ( angle != 0 ) {
+                double radians = Math.toRadians(angle);
+                float c = (float)Math.cos(radians), s = (float)Math.sin(radians);
+                float rx = ox * c - oy * s;
+                oy = ox * s + oy * c;
+                ox = rx;
+                hw = hh = (float)Math.sqrt(hw*hw + hh*hh);
+            }
+        }
+        x += ox;
+        y += oy;
+
+        if ( x == lastX[h] && y == lastY[h] && hw == lastHalfW[h] && hh == lastHalfH[h] )
+            return;
+        lastX[h] = x;
+        lastY[h] = y;
+        lastHalfW[h] = hw;
+        lastHalfH[h] = hh;
+        index.moveCentered(h,x,y,hw,hh);
+    }
+
+
+    protected void grow(int capacity) {
+        SpriteSheet.ImageData[] newImages = new SpriteSheet.ImageData[capacity];
+        System.arraycopy(images,0,newImages,0,images.length);
+        images = newImages;
+        halfWidth = SpatialIndex.copy(halfWidth,capacity);
+        halfHeight = SpatialIndex.copy(halfHeight,capacity);
+        offsetX = SpatialIndex.copy(offsetX,capacity);
+        offsetY = SpatialIndex.copy(offsetY,capacity);
+        lastX = SpatialIndex.copy(lastX,capacity);
+        lastY = SpatialIndex.copy(lastY,capacity);
+        lastHalfW = SpatialIndex.copy(lastHalfW,capacity);
+        lastHalfH = SpatialIndex.copy(lastHalfH,capacity);
+    }
+
+}
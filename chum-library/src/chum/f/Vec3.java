@@ -65,6 +65,14 @@ public class Vec3 implements java.io.Serializable {
     }
 
 
+    /** Linear interpolation from this vector (t=0) to o (t=1) */
+    public final void lerp (Vec3 o, float t, Vec3 dest) {
+        dest.x = x + (o.x - x) * t;
+        dest.y = y + (o.y - y) * t;
+        dest.z = z + (o.z - z) * t;
+    }
+
+
     public void scale (float scale, Vec3 dest) {
         dest.x = this.x * scale;
         dest.y = this.y * scale;
@@ -1,5 +1,7 @@
 package chum.gl;
 
+import chum.util.Pool;
+
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Paint;
@@ -7,8 +9,6 @@ import android.graphics.PorterDuff;
 import android.graphics.Rect;
 import android.graphics.Typeface;
 
-import java.util.HashMap;
-
 
 /**
    Font manages bitmap fonts for rendering text.
@@ -38,8 +38,15 @@ public class Font {
     /** The common characters */
     protected static final String commonChars = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz`~!@#$%^&*()-_=+[]\\{}|;':\",./<>?\n ";
 
-    /** The character metrics for less-common characters (extended unicode) */
-    protected HashMap<Character,Glyph> moreGlyphs;
+    /**
+       The character metrics for less-common characters (extended unicode),
+       in an open-addressed table keyed on the char, so lookups don't have
+       to box the char
+    */
+    protected Glyph[] moreGlyphs;
+
+    /** Number of glyphs in moreGlyphs */
+    protected int numMoreGlyphs;
        
 
     /** Create a new Font, empty font */
@@ -67,7 +74,8 @@ public class Font {
         this.renderContext = renderContext;
         texture = new Texture();
         commonGlyphs = new Glyph[commonChars.length()];
-        moreGlyphs = new HashMap<Character,Glyph>();
+        moreGlyphs = new Glyph[16];
+        numMoreGlyphs = 0;
     }
 
 
@@ -258,11 +266,41 @@ public class Font {
     */
     public void putGlyph(Glyph glyph) {
         int pos = glyph.ch - '0';
-        if ( pos >= 0 && pos <= commonGlyphs.length ) {
+        if ( pos >= 0 && pos < commonGlyphs.length ) {
             commonGlyphs[pos] = glyph;
         } else {
-            moreGlyphs.put(new Character(glyph.ch),glyph);
+            putMoreGlyph(glyph);
+        }
+    }
+
+
+    protected void putMoreGlyph(Glyph glyph) {
+        if ( (numMoreGlyphs+1) * 2 > moreGlyphs.length ) {
+            Glyph[] old = moreGlyphs;
+            moreGlyphs = new Glyph[old.length*2];
+            numMoreGlyphs = 0;
+            for(int i=0; i<old.length; ++i)
+                if ( old[i] != null ) putMoreGlyph(old[i]);
+        }
+
+        int mask = moreGlyphs.length - 1;
+        int i = glyph.ch & mask;
+        while ( moreGlyphs[i] != null && moreGlyphs[i].ch != glyph.ch )
+            i = (i+1) & mask;
+        if ( moreGlyphs[i] == null ) numMoreGlyphs++;
+        moreGlyphs[i] = glyph;
+    }
+
+
+    protected Glyph getMoreGlyph(char ch) {
+        int mask = moreGlyphs.length - 1;
+        int i = ch & mask;
+        Glyph glyph;
+        while ( (glyph = moreGlyphs[i]) != null ) {
+            if ( glyph.ch == ch ) return glyph;
+            i = (i+1) & mask;
         }
+        return null;
     }
 
 
@@ -274,12 +312,12 @@ public class Font {
     public Glyph getGlyph(char ch) {
         Glyph glyph = null;
         int pos = ch - '0';
-        if ( pos >= 0 && pos <= commonGlyphs.length ) {
+        if ( pos >= 0 && pos < commonGlyphs.length ) {
             // fast lookup for the common chars
             glyph = commonGlyphs[pos];
         } else {
             // slower hash lookup for other chars
-            glyph = moreGlyphs.get(new Character(ch));
+            glyph = getMoreGlyph(ch);
         }
 
         if ( glyph == null ) {
@@ -365,30 +403,24 @@ public class Font {
         }
 
 
-        private static Glyph first_avail;
-        private transient Glyph next_avail;
-        private static Object sync = new Object();
+        public static final Pool<Glyph> pool = new Pool<Glyph>("Font.Glyph") {
+                @Override
+                protected Glyph newInstance() {
+                    return new Glyph();
+                }
+            };
         private static int instance_count;
 
         public static int instanceCount() { return instance_count; }
 
 
         public static Glyph obtain() {
-            synchronized(sync) {
-                if ( first_avail == null )
-                    first_avail = new Glyph();
-                Glyph g = first_avail;
-                first_avail = g.next_avail;
-                return g;
-            }
+            return pool.obtain();
         }
 
 
         public void recycle() {
-            synchronized(sync) {
-                next_avail = first_avail;
-                first_avail = this;
-            }
+            pool.recycle(this);
         }
 
 
@@ -0,0 +1,217 @@
+package chum.gl;
+
+import chum.f.M4;
+import chum.f.Vec3;
+
+
+/**
+   The view frustum of a projection, for culling the nodes that can't be
+   seen while the render chain is being built.
+
+   The planes are kept in eye coordinates.  As the tree is traversed (in
+   the game thread -- the real GL matrices only exist in the render
+   thread), the nodes mirror their effect on the GL_MODELVIEW matrix here:
+   transforms multiply the current matrix, CameraNode loads its view, and
+   nodes that push and pop the GL matrix push and pop this one.  A node's
+   bounding sphere (see RenderNode.getBounds()) is taken through the
+   current matrix into eye coordinates and tested against the planes.
+
+   A ProjectionNode with culling turned on makes its frustum current in the
+   RenderContext for the nodes under it.
+*/
+public class Frustum {
+
+    /** The planes (a,b,c,d per plane), with ax+by+cz+d >= 0 inside */
+    protected final float[] planes = new float[24];
+
+    /** The stack of modelview matrices */
+    protected M4[] stack = new M4[16];
+    protected int depth;
+
+    /** The current modelview matrix */
+    protected M4 current;
+
+    /** The frustum that was current before this one was begun */
+    protected Frustum previous;
+
+    /** Reused for node bounds */
+    protected final Vec3 center = new Vec3();
+
+
+    public Frustum() {
+        for(int i=0; i<stack.length; ++i) stack[i] = new M4();
+        current = stack[0];
+    }
+
+
+    /**
+       Set the planes for a perspective projection, the same as
+       gluPerspective()
+
+       @param fov the vertical field of view, in degrees
+    */
+    public Frustum setPerspective(float fov, float aspect, float near, float far) {
+        float t = (float)Math.tan(Math.toRadians(fov) * 0.5);
+        float tx = t * aspect;
+        setPlane(0, 1,0,-tx, 0);     // left
+        setPlane(1, -1,0,-tx, 0);    // right
+        setPlane(2, 0,1,-t, 0);      // bottom
+        setPlane(3, 0,-1,-t, 0);     // top
+        setPlane(4, 0,0,-1, -near);  // near
+        setPlane(5, 0,0,1, far);     // far
+        return this;
+    }
+
+
+    /**
+       Set the planes for an orthographic projection, the same as glOrtho()
+    */
+    public Frustum setOrthographic(float left, float right, float bottom, float top,
+                                   float near, float far) {
+        setPlane(0, 1,0,0, -left);
+        setPlane(1, -1,0,0, right);
+        setPlane(2, 0,1,0, -bottom);
+        setPlane(3, 0,-1,0, top);
+        setPlane(4, 0,0,-1, -near);
+        setPlane(5, 0,0,1, far);
+        return this;
+    }
+
+
+    protected void setPlane(int i, float a, float b, float c, float d) {
+        float len = (float)Math.sqrt(a*a + b*b + c*c);
+        i *= 4;
+        planes[i]   = a / len;
+        planes[i+1] = b / len;
+        planes[i+2] = c / len;
+        planes[i+3] = d / len;
+    }
+
+
+    /**
+       Make this the current frustum for culling, starting from the
+       identity matrix
+     */
+    public void begin(RenderContext renderContext) {
+        previous = renderContext.frustum;
+        renderContext.frustum = this;
+        depth = 0;
+        current = stack[0];
+        current.setIdentity();
+    }
+
+
+    /**
+       Go back to the frustum that was current before begin()
+     */
+    public void end(RenderContext renderContext) {
+        renderContext.frustum = previous;
+        previous = null;
+    }
+
+
+    /** Save the current matrix, like glPushMatrix() */
+    public void push() {
+        if ( depth + 1 == stack.length ) {
+            M4[] newStack = new M4[stack.length * 2];
+            System.arraycopy(stack,0,newStack,0,stack.length);
+            for(int i=stack.length; i<newStack.length; ++i) newStack[i] = new M4();
+            stack = newStack;
+        }
+        stack[depth+1].set(current);
+        current = stack[++depth];
+    }
+
+
+    /** Restore the last saved matrix, like glPopMatrix() */
+    public void pop() {
+        if ( depth == 0 )
+            throw new IllegalStateException("frustum matrix stack underflow");
+        current = stack[--depth];
+    }
+
+
+    /** @return the current modelview matrix */
+    public M4 getMatrix() {
+        return current;
+    }
+
+
+    /**
+       Multiply a transform into the current matrix, like glMultMatrix()
+     */
+    public void multiply(M4 transform) {
+        final float[] c = current.m, t = transform.m;
+        for(int row=0; row<16; row+=4) {
+            float c0 = c[row], c1 = c[row+1], c2 = c[row+2], c3 = c[row+3];
+            c[row]   = c0*t[0] + c1*t[4] + c2*t[8]  + c3*t[12];
+            c[row+1] = c0*t[1] + c1*t[5] + c2*t[9]  + c3*t[13];
+            c[row+2] = c0*t[2] + c1*t[6] + c2*t[10] + c3*t[14];
+            c[row+3] = c0*t[3] + c1*t[7] + c2*t[11] + c3*t[15];
+        }
+    }
+
+
+    /**
+       Load a viewing transform as the current matrix, like
+       glLoadIdentity() followed by gluLookAt()
+     */
+    public void lookAt(Vec3 eye, Vec3 ref, Vec3 up) {
+        float fx = ref.x - eye.x, fy = ref.y - eye.y, fz = ref.z - eye.z;
+        float len = (float)Math.sqrt(fx*fx + fy*fy + fz*fz);
+        fx /= len; fy /= len; fz /= len;
+
+        // s = f x up, u = s x f
+        float sx = fy * up.z - fz * up.y;
+        float sy = fz * up.x - fx * up.z;
+        float sz = fx * up.y - fy * up.x;
+        len = (float)Math.sqrt(sx*sx + sy*sy + sz*sz);
+        sx /= len; sy /= len; sz /= len;
+        float ux = sy * fz - sz * fy;
+        float uy = sz * fx - sx * fz;
+        float uz = sx * fy - sy * fx;
+
+        final float[] m = current.m;
+        m[0] = sx;  m[1] = sy;  m[2] = sz;   m[3] = -(sx*eye.x + sy*eye.y + sz*eye.z);
+        m[4] = ux;  m[5] = uy;  m[6] = uz;   m[7] = -(ux*eye.x + uy*eye.y + uz*eye.z);
+        m[8] = -fx; m[9] = -fy; m[10] = -fz; m[11] = fx*eye.x + fy*eye.y + fz*eye.z;
+        m[12] = 0;  m[13] = 0;  m[14] = 0;   m[15] = 1;
+    }
+
+
+    /**
+       Test whether any part of a sphere, in the coordinates of the current
+       matrix, is inside the frustum
+     */
+    public boolean intersects(float x, float y, float z, float radius) {
+        final float[] m = current.m;
+        float ex = x * m[0] + y * m[1] + z * m[2] + m[3];
+        float ey = x * m[4] + y * m[5] + z * m[6] + m[7];
+        float ez = x * m[8] + y * m[9] + z * m[10] + m[11];
+
+        // The radius grows by the most the matrix scales along any axis
+        float s0 = m[0]*m[0] + m[4]*m[4] + m[8]*m[8];
+        float s1 = m[1]*m[1] + m[5]*m[5] + m[9]*m[9];
+        float s2 = m[2]*m[2] + m[6]*m[6] + m[10]*m[10];
+        float r = radius * (float)Math.sqrt(Math.max(s0,Math.max(s1,s2)));
+
+        final float[] p = planes;
+        for(int i=0; i<24; i+=4) {
+            if ( p[i]*ex + p[i+1]*ey + p[i+2]*ez + p[i+3] < -r ) return false;
+        }
+        return true;
+    }
+
+
+    /**
+       Test whether a node, with its children, could be seen -- by its
+       bounds in the coordinates of the current matrix.  Nodes with no
+       bounds can always be seen.
+     */
+    public boolean intersects(RenderNode node) {
+        float r = node.getBounds(center);
+        if ( r < 0 || r == RenderNode.UNBOUNDED ) return true;
+        return intersects(center.x,center.y,center.z,r);
+    }
+
+}
@@ -0,0 +1,19 @@
+package chum.gl;
+
+
+/**
+   A node that renders part way between its state at the end of the last
+   two updates of the tree, by RenderContext.alpha -- so movement looks
+   smooth with a fixed-step GameController at any frame rate.
+
+   The GameTree calls snapshot() on each Interpolated node in it at the end
+   of every update, once everything in the update has run -- so the
+   snapshot includes changes made by any node, and is taken even when the
+   node itself wasn't updated (e.g. it's asleep).
+*/
+public interface Interpolated {
+
+    /** Note the state at the end of an update of the tree */
+    public void snapshot();
+
+}
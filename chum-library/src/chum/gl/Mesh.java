@@ -10,6 +10,7 @@ import chum.fp.Vec3FP;
 import chum.gl.VertexAttributes.Usage;
 import chum.gl.render.primitive.RenderPrimitive;
 import chum.util.Log;
+import chum.util.Pool;
 
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
@@ -1127,33 +1128,37 @@ public class Mesh {
         public float radius;
 
 
+        /** Reused for reading the vertices in update() */
+        private final Vertex vert = new Vertex();
+
+        /** Reused in transform() */
+        private final Vec3 xmin = new Vec3();
+        private final Vec3 xmax = new Vec3();
+
+
         /** Create an empty instance */
         protected Bounds() {
         }
 
-        private Bounds next_avail;
-        private static Bounds first_avail;
-        private static Object sync = new Object();
+        /** The pool of available instances */
+        public static final Pool<Bounds> pool = new Pool<Bounds>("Mesh.Bounds") {
+            @Override
+            protected Bounds newInstance() {
+                return new Bounds();
+            }
+        };
 
 
         /** Obtain an instance from a pool */
         public static Bounds obtain() {
-            synchronized (sync) {
-                if (first_avail == null)
-                    first_avail = new Bounds();
-                Bounds b = first_avail;
-                first_avail = b.next_avail;
-                return b;
-            }
+            return pool.obtain();
         }
 
 
         /** Return an instance to the pool */
         public void recycle() {
-            synchronized (sync) {
-                next_avail = first_avail;
-                first_avail = this;
-            }
+            mesh = null;
+            pool.recycle(this);
         }
 
 
@@ -1180,14 +1185,17 @@ public class Mesh {
                 throw new IllegalStateException("No mesh to update bounds");
 
             // Only need the position info for each vertex
-            Vertex vert = new Vertex();
-            vert.prep(mesh.getVertexAttribute(Usage.Position));
+            VertexAttribute attr = mesh.getVertexAttribute(Usage.Position);
+            if (vert.position == null)
+                vert.prep(attr);
+            else
+                vert.positionAttr = attr;
 
             // Extract each vertex, update the min/max,
             // and add all together for the centerMass
             centerMass.set(0, 0, 0);
             minimum.set(Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE);
-            maximum.set(Float.MIN_VALUE, Float.MIN_VALUE, Float.MIN_VALUE);
+            maximum.set(-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE);
 
             for (int v = offset, vlast = offset + count; v < vlast; ++v) {
                 mesh.getVertex(v, vert);
@@ -1216,8 +1224,6 @@ public class Mesh {
          * Apply a transformation matrix to the bounds
          */
         public void transform(M4 matrix) {
-            Vec3 xmin = new Vec3();
-            Vec3 xmax = new Vec3();
             matrix.multiply(center,center);
             matrix.multiply(minimum,xmin);
             matrix.multiply(maximum,xmax);
@@ -70,6 +70,23 @@ public class RenderContext {
 
     /** The rendering phase -- alternates for each frame */
     public boolean phase;
+
+    /**
+       How far the current frame is between the previous and the latest
+       simulation step (0-1).  Always 1 unless GameController is running
+       with a fixed timestep.  Nodes that keep their previous state can
+       blend toward the latest state by this amount.
+    */
+    public float alpha = 1f;
+
+    /**
+       The frustum for culling the nodes being rendered, if any -- set by a
+       ProjectionNode with culling turned on, for the nodes under it
+    */
+    public Frustum frustum;
+
+    /** Number of nodes culled while building the current render chain */
+    public int culled;
     
     
     /**
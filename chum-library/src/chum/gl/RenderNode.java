@@ -1,32 +1,115 @@
 package chum.gl;
 
 import chum.engine.GameNode;
+import chum.engine.GameTree;
+import chum.f.M4;
+import chum.f.Vec3;
 
 
 /**
    This is intended as the base class for GameNodes which are visible in the scene, or
    otherwise contribute to the rendering of the scene.
-   
-   RenderNodes define the render() method to 
+
+   RenderNodes define the render() method to
+
+   Each RenderNode also has a bounding sphere around everything drawn by it
+   and its children (see getBounds()), so that when a Frustum is in use,
+   whole subtrees that are out of view can be skipped while building the
+   render chain.  Subclasses that draw something describe it with
+   contentBounds(), and subclasses that transform their children describe
+   it with getTransform().  Nodes that can't say what they draw are never
+   culled.
  */
 
 public class RenderNode extends GameNode {
 
     /** Whether the node is visible */
     public boolean visible = true;
-    
-    
+
+    /** Bounds radius for a node that draws nothing */
+    public static final float EMPTY = -1f;
+
+    /** Bounds radius for a node whose drawing isn't known -- never culled */
+    public static final float UNBOUNDED = Float.POSITIVE_INFINITY;
+
+    /** The center of the bounds, in the parent's coordinates */
+    protected final Vec3 boundsCenter = new Vec3();
+
+    /** The radius of the bounds (or EMPTY or UNBOUNDED) */
+    protected float boundsRadius;
+
+    /** Whether the bounds need to be computed again */
+    protected volatile boolean boundsDirty = true;
+
+    /** The transform used the last time the bounds were computed, if any */
+    protected M4 boundsTransform;
+
+    /** Whether entering this node pushed the frustum's matrix */
+    protected boolean viewPushed;
+
+    /** Reused for transforms in applyView() -- only used in the render-build thread */
+    protected static final M4 scratch = new M4();
+
+    /**
+       Reused for transforms in computeBounds() and checkTransform() -- kept
+       per thread, in case bounds are wanted from other threads (e.g. a
+       ParallelGroupNode's workers)
+     */
+    protected static final ThreadLocal<M4> updateScratch = new ThreadLocal<M4>() {
+            @Override
+            protected M4 initialValue() {
+                return new M4();
+            }
+        };
+
+
     @Override
     public void render(RenderContext renderContext) {
-        if ( !visible ) return;
-        
-        if ( !renderPrefix(renderContext) ) return;
-    
+        if ( !enterRender(renderContext) ) return;
+
         for(int i=0; i<num_children; ++i) {
             GameNode child = children[i];
             child.render(renderContext);
         }
-    
+
+        exitRender(renderContext);
+    }
+
+
+    /**
+       Start rendering this node:  unless it is hidden, or culled by the
+       current Frustum, calls renderPrefix(), then applies its transform (if
+       any) to the frustum for the children.  Used by both render() and the
+       GameTree's flattened traversal.
+       @return false if this node, and its children, should be skipped
+     */
+    public final boolean enterRender(RenderContext renderContext) {
+        if ( !visible ) return false;
+
+        Frustum frustum = renderContext.frustum;
+        if ( frustum != null && !frustum.intersects(this) ) {
+            renderContext.culled++;
+            return false;
+        }
+
+        if ( !renderPrefix(renderContext) ) return false;
+
+        // A projection may have just started a frustum of its own
+        frustum = renderContext.frustum;
+        viewPushed = frustum != null && applyView(frustum);
+        return true;
+    }
+
+
+    /**
+       Finish rendering this node, after its children:  undoes its
+       transform in the frustum and calls renderPostfix()
+     */
+    public final void exitRender(RenderContext renderContext) {
+        if ( viewPushed ) {
+            viewPushed = false;
+            renderContext.frustum.pop();
+        }
         renderPostfix(renderContext);
     }
 
@@ -51,4 +134,159 @@ public class RenderNode extends GameNode {
 
     }
 
+
+    /**
+       Apply this node's effect on the modelview matrix to the frustum, the
+       same way renderPrefix() does to the GL matrix.  By default, pushes
+       the matrix and multiplies in getTransform(), if there is one.
+       @return whether the matrix was pushed, to be popped after the children
+     */
+    protected boolean applyView(Frustum frustum) {
+        if ( !getTransform(scratch) ) return false;
+        frustum.push();
+        frustum.multiply(scratch);
+        return true;
+    }
+
+
+    /**
+       Get the transform this node applies to its children (from their
+       coordinates to its parent's).
+       @return false if there is none
+     */
+    protected boolean getTransform(M4 transform) {
+        return false;
+    }
+
+
+    /**
+       Get the bounding sphere around what this node draws itself, in the
+       coordinates of its children (i.e. before its own transform).
+       @return the radius, or EMPTY if it draws nothing, or UNBOUNDED if it
+       isn't known (the default)
+     */
+    protected float contentBounds(Vec3 center) {
+        return UNBOUNDED;
+    }
+
+
+    /**
+       Get the bounding sphere around everything drawn by this node and its
+       children, in its parent's coordinates.  Computed when needed, and
+       kept until invalidateBounds().
+       @return the radius, or EMPTY or UNBOUNDED
+     */
+    public final float getBounds(Vec3 center) {
+        if ( boundsDirty ) computeBounds();
+        center.set(boundsCenter);
+        return boundsRadius;
+    }
+
+
+    /**
+       Mark the bounds of this node, and of the nodes above it, to be
+       computed again -- e.g. after changing the vertices of a mesh.  Changes
+       to a node's transform are noticed on their own (before each render
+       pass, see checkTransform()), as are changes to the structure of the
+       tree.
+     */
+    public void invalidateBounds() {
+        for(GameNode node = this; node != null; node = node.parent) {
+            if ( node instanceof RenderNode ) ((RenderNode)node).boundsDirty = true;
+        }
+    }
+
+
+    protected void computeBounds() {
+        boundsDirty = false;
+        final Vec3 c = boundsCenter;
+        float r = contentBounds(c);
+
+        for(int i=0; i<num_children && r != UNBOUNDED; ++i) {
+            GameNode child = children[i];
+            if ( !(child instanceof RenderNode) ) {
+                if ( GameTree.renders(child) ) r = UNBOUNDED;
+                continue;
+            }
+
+            RenderNode node = (RenderNode)child;
+            if ( node.boundsDirty ) node.computeBounds();
+            float cr = node.boundsRadius;
+            if ( cr < 0 ) continue;
+            if ( cr == UNBOUNDED || r < 0 ) {
+                r = cr;
+                c.set(node.boundsCenter);
+                continue;
+            }
+
+            // The smallest sphere around both
+            Vec3 cc = node.boundsCenter;
+            float dx = cc.x - c.x, dy = cc.y - c.y, dz = cc.z - c.z;
+            float d = (float)Math.sqrt(dx*dx + dy*dy + dz*dz);
+            if ( d + cr <= r ) continue;
+            if ( d + r <= cr ) {
+                r = cr;
+                c.set(cc);
+                continue;
+            }
+            float nr = (d + r + cr) * 0.5f;
+            float t = (nr - r) / d;
+            c.x += dx * t;
+            c.y += dy * t;
+            c.z += dz * t;
+            r = nr;
+        }
+
+        final M4 transform = updateScratch.get();
+        if ( getTransform(transform) ) {
+            if ( boundsTransform == null ) boundsTransform = new M4();
+            boundsTransform.set(transform);
+            if ( r >= 0 && r != UNBOUNDED ) {
+                final float[] m = transform.m;
+                float x = c.x, y = c.y, z = c.z;
+                c.x = x * m[0] + y * m[1] + z * m[2] + m[3];
+                c.y = x * m[4] + y * m[5] + z * m[6] + m[7];
+                c.z = x * m[8] + y * m[9] + z * m[10] + m[11];
+                float s0 = m[0]*m[0] + m[4]*m[4] + m[8]*m[8];
+                float s1 = m[1]*m[1] + m[5]*m[5] + m[9]*m[9];
+                float s2 = m[2]*m[2] + m[6]*m[6] + m[10]*m[10];
+                r *= (float)Math.sqrt(Math.max(s0,Math.max(s1,s2)));
+            }
+        } else if ( boundsTransform != null ) {
+            boundsTransform.setIdentity();
+        }
+        boundsRadius = r;
+    }
+
+
+    /**
+       Notice if the transform has changed since the bounds were computed.
+       The GameTree calls this for each node with a transform before each
+       render pass, so any change is seen before culling -- whenever and
+       wherever it was made.
+     */
+    public void checkTransform() {
+        if ( boundsTransform != null && !boundsDirty ) {
+            final M4 transform = updateScratch.get();
+            if ( !getTransform(transform) ) transform.setIdentity();
+            final float[] a = transform.m, b = boundsTransform.m;
+            for(int i=0; i<16; ++i) {
+                if ( a[i] != b[i] ) {
+                    invalidateBounds();
+                    break;
+                }
+            }
+        }
+    }
+
+
+    /**
+       Changes to the children change the bounds
+     */
+    @Override
+    public void onStructureChanged() {
+        boundsDirty = true;
+        super.onStructureChanged();
+    }
+
 }
@@ -61,7 +61,9 @@ public class SpriteBatch extends Mesh {
 
 
     public void adjustOrigin(int offset, int count, Vec3 delta) {
-        Mesh.Vertex vertex = new Mesh.Vertex(this.attributes);
+        if (adjustVertex == null)
+            adjustVertex = new Mesh.Vertex(this.attributes);
+        Mesh.Vertex vertex = adjustVertex;
 
         //chum.util.Log.d("adjustOrigin: offset=%d count=%d delta=%s", offset, count, delta);
         for (int i = offset, i1 = offset + count; i < i1; ++i) {
@@ -74,6 +76,10 @@ public class SpriteBatch extends Mesh {
         }
     }
 
+    /** Reused by adjustOrigin() */
+    private Mesh.Vertex adjustVertex;
+    private final Vec3 adjustDelta = new Vec3();
+
     public static final int ADJUST_CENTER = 1;
     public static final int ADJUST_WIDTH = 2;
     public static final int ADJUST_HEIGHT = 3;
@@ -81,7 +87,7 @@ public class SpriteBatch extends Mesh {
 
     public void adjustOrigin(int offset, int count, int adjustment) {
         Mesh.Bounds bounds = Mesh.Bounds.obtain();
-        Vec3 delta = new Vec3();
+        Vec3 delta = adjustDelta;
 
         for (int i = offset, i1 = offset + count; i < i1; ++i) {
             int v0 = i * 4;
@@ -99,10 +105,12 @@ public class SpriteBatch extends Mesh {
                 delta.set(0, bounds.minimum.y - bounds.maximum.y, 0);
                 break;
             default:
+                bounds.recycle();
                 return;
             }
 
             adjustOrigin(i, 1, delta);
         }
+        bounds.recycle();
     }
 }
@@ -1,6 +1,7 @@
 package chum.gl.render;
 
 import chum.f.Vec3;
+import chum.gl.Frustum;
 import chum.gl.RenderContext;
 import chum.gl.RenderNode;
 import chum.gl.render.primitive.ModelViewTransform;
@@ -128,7 +129,16 @@ public class CameraNode extends RenderNode {
         }   
         return true;
     }
- 
+
+
+    /**
+       The view is loaded, rather than multiplied, so there's nothing to pop
+    */
+    @Override
+    protected boolean applyView(Frustum frustum) {
+        frustum.lookAt(eyePos,refPos,up);
+        return false;
+    }
 
 }
 
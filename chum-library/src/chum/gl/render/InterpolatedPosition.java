@@ -0,0 +1,58 @@
+package chum.gl.render;
+
+import chum.f.Vec3;
+
+
+/**
+   The position of an Interpolated node as of the end of the last two
+   updates of the tree, for rendering part way between them.  Used by
+   Sprite and TextNode.
+*/
+public class InterpolatedPosition {
+
+    /** The position at the end of the update before the last one */
+    public final Vec3 previous = new Vec3();
+
+    /** The position at the end of the last update */
+    public final Vec3 current = new Vec3();
+
+    /** Whether current has been set since the last reset() */
+    protected boolean snapped;
+
+
+    /**
+       Note the position at the end of an update.  The first one after a
+       reset() is rendered as is, without blending.
+     */
+    public void snapshot(Vec3 position) {
+        if ( position == null ) {
+            snapped = false;
+            return;
+        }
+        if ( snapped ) previous.set(current);
+        else previous.set(position);
+        current.set(position);
+        snapped = true;
+    }
+
+
+    /**
+       Forget the snapshots -- e.g. when interpolation is turned off, or
+       the node jumps somewhere it shouldn't be seen moving to
+     */
+    public void reset() {
+        snapped = false;
+    }
+
+
+    /**
+       Get the position to render at:  alpha of the way from the previous
+       snapshot to the current one, or the given position if there are no
+       snapshots yet
+     */
+    public void get(Vec3 position, float alpha, Vec3 dest) {
+        if ( snapped ) previous.lerp(current,alpha,dest);
+        else dest.set(position);
+    }
+
+}
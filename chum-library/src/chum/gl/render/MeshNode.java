@@ -1,6 +1,7 @@
 package chum.gl.render;
 
 import chum.engine.GameController;
+import chum.f.Vec3;
 import chum.gl.Mesh;
 import chum.gl.RenderContext;
 import chum.gl.RenderNode;
@@ -85,6 +86,7 @@ public class MeshNode extends RenderNode {
     public void setMesh(Mesh mesh, int type) {
         this.mesh = mesh;
         this.type = type;
+        invalidateBounds();
 
         if ( mesh == null )
             setTexture(null);
@@ -112,6 +114,23 @@ public class MeshNode extends RenderNode {
         }
     }
 
+
+    /**
+       The bounds of the whole mesh.  Call invalidateBounds() after changing
+       the vertices of the mesh.
+     */
+    @Override
+    protected float contentBounds(Vec3 center) {
+        if ( mesh == null || mesh.getNumVertices() == 0 ) return EMPTY;
+        if ( mesh.getVertexAttribute(Usage.Position) == null ) return EMPTY;
+
+        Mesh.Bounds bounds = Mesh.Bounds.obtain().update(mesh);
+        center.set(bounds.center);
+        float radius = bounds.radius * 0.5f;
+        bounds.recycle();
+        return radius;
+    }
+
     
     /** When the surface is created, ensure that the mesh is setup to render */
     @Override
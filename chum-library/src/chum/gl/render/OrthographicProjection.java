@@ -1,5 +1,6 @@
 package chum.gl.render;
 
+import chum.gl.Frustum;
 
 import chum.gl.render.primitive.ProjectionTransform;
 
@@ -72,4 +73,14 @@ public class OrthographicProjection extends ProjectionNode {
     protected void setProjection(ProjectionTransform projection) {
         projection.setOrthographic(left,right,bottom,top,true);
     }
+
+
+    /**
+       The frustum matches gluOrtho2D():  z from -1 to 1
+    */
+    @Override
+    protected boolean setFrustum(Frustum frustum) {
+        frustum.setOrthographic(left,right,bottom,top,-1f,1f);
+        return true;
+    }
 }
@@ -1,5 +1,6 @@
 package chum.gl.render;
 
+import chum.gl.Frustum;
 
 import chum.gl.render.primitive.ProjectionTransform;
 
@@ -50,4 +51,12 @@ public class PerspectiveProjection extends ProjectionNode {
         projection.setPerspective(fov,aspect,nearPlane,farPlane,true);
     }
 
+
+    @Override
+    protected boolean setFrustum(Frustum frustum) {
+        if ( aspect == 0f ) aspect = 1.0f * width/height;
+        frustum.setPerspective(fov,aspect,nearPlane,farPlane);
+        return true;
+    }
+
 }
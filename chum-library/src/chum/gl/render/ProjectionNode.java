@@ -1,6 +1,7 @@
 package chum.gl.render;
 
 
+import chum.gl.Frustum;
 import chum.gl.RenderContext;
 import chum.gl.RenderNode;
 import chum.gl.render.primitive.ProjectionTransform;
@@ -31,6 +32,17 @@ public abstract class ProjectionNode extends RenderNode {
     
     /** The rendering primitive for b phase */
     protected ProjectionTransform projectionB = new ProjectionTransform();
+
+    /**
+       Whether to cull the nodes under this one that are out of view, while
+       building the render chain.  Only nodes that know their bounds are
+       culled (see RenderNode.getBounds()), and their transforms have to be
+       done by nodes the Frustum knows about.
+    */
+    public boolean cull = false;
+
+    /** The view frustum, for culling */
+    protected final Frustum frustum = new Frustum();
     
 
     public ProjectionNode() {
@@ -77,8 +89,20 @@ public abstract class ProjectionNode extends RenderNode {
             setProjection(projection);
             renderContext.add(projection);
         }
+
+        if ( cull && width > 0 && height > 0 && setFrustum(frustum) )
+            frustum.begin(renderContext);
         return true;
     }
+
+
+    /**
+       Stop culling with this projection's frustum
+     */
+    @Override
+    public void renderPostfix(RenderContext renderContext) {
+        if ( renderContext.frustum == frustum ) frustum.end(renderContext);
+    }
  
 
     /**
@@ -89,4 +113,15 @@ public abstract class ProjectionNode extends RenderNode {
        maxtrix mode back to GL_MODELVIEW.
     */
     protected abstract void setProjection(ProjectionTransform projection);
+
+
+    /**
+       Set the planes of the frustum to match the projection.  By default
+       there's no frustum, so nothing is culled even if cull is set --
+       projections that can describe theirs override this.
+       @return whether the frustum was set
+    */
+    protected boolean setFrustum(Frustum frustum) {
+        return false;
+    }
 }
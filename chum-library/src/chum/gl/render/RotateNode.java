@@ -1,7 +1,9 @@
 package chum.gl.render;
 
 import chum.engine.common.Rotatable;
+import chum.f.M4;
 import chum.f.Vec3;
+import chum.f.Vec4;
 import chum.gl.RenderContext;
 import chum.gl.render.primitive.Rotate;
 
@@ -25,6 +27,9 @@ public class RotateNode extends TransformNode
     /** The b phase render node for translation */
     public Rotate rotateB = new Rotate();
 
+    /** The rotation as a quaternion, for getTransform() */
+    protected Vec4 quat = new Vec4();
+
 
     public RotateNode(float deg,Vec3 x,boolean push) {
         super(push);
@@ -53,6 +58,23 @@ public class RotateNode extends TransformNode
         }   
     }
 
+
+    @Override
+    protected boolean getTransform(M4 transform) {
+        float len = rotation.length();
+        if ( degrees == 0f || len == 0f ) return false;
+
+        // glRotatef() normalizes the axis
+        double theta = Math.toRadians(degrees) * 0.5;
+        float s = (float)Math.sin(theta) / len;
+        quat.x = rotation.x * s;
+        quat.y = rotation.y * s;
+        quat.z = rotation.z * s;
+        quat.w = (float)Math.cos(theta);
+        transform.rotate(quat);
+        return true;
+    }
+
     
     @Override
     public float getAngle() {
@@ -1,6 +1,7 @@
 package chum.gl.render;
 
-
+import chum.f.Vec3;
+import chum.gl.Frustum;
 import chum.gl.RenderContext;
 import chum.gl.RenderNode;
 import chum.gl.render.primitive.Matrix;
@@ -34,4 +35,17 @@ public class SaveMatrixNode extends RenderNode {
     public void renderPostfix(RenderContext renderContext) {
         renderContext.add(pop);
     }
+
+
+    @Override
+    protected float contentBounds(Vec3 center) {
+        return EMPTY;
+    }
+
+
+    @Override
+    protected boolean applyView(Frustum frustum) {
+        frustum.push();
+        return true;
+    }
 }
\ No newline at end of file
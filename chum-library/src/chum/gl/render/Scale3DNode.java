@@ -1,5 +1,6 @@
 package chum.gl.render;
 
+import chum.f.M4;
 import chum.gl.RenderContext;
 import chum.gl.render.primitive.Scale3D;
 
@@ -52,4 +53,11 @@ public class Scale3DNode extends TransformNode {
         renderContext.add(prim);
     }
 
+
+    @Override
+    protected boolean getTransform(M4 transform) {
+        transform.scale(x,y,z);
+        return true;
+    }
+
 }
\ No newline at end of file
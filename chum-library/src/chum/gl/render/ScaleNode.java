@@ -1,5 +1,6 @@
 package chum.gl.render;
 
+import chum.f.M4;
 import chum.gl.RenderContext;
 import chum.gl.render.primitive.Scale;
 
@@ -44,4 +45,12 @@ public class ScaleNode extends TransformNode {
         }
     }
 
+
+    @Override
+    protected boolean getTransform(M4 transform) {
+        if ( scale == 1f ) return false;
+        transform.scale(scale);
+        return true;
+    }
+
 }
\ No newline at end of file
@@ -4,7 +4,9 @@ import chum.engine.common.Animation;
 import chum.engine.common.Movable;
 import chum.engine.common.Rotatable;
 import chum.engine.common.Scalable;
+import chum.f.M4;
 import chum.f.Vec3;
+import chum.gl.Interpolated;
 import chum.gl.Mesh;
 import chum.gl.RenderContext;
 import chum.gl.SpriteBatch;
@@ -24,7 +26,7 @@ import javax.microedition.khronos.opengles.GL10;
  * (translate / rotate / scale), whereas the Sprite its
  */
 public class Sprite extends MeshNode
-    implements Scalable, Movable, Rotatable
+    implements Scalable, Movable, Rotatable, Interpolated
 {
 
     /** The SpriteBatch to be rendered */
@@ -42,6 +44,17 @@ public class Sprite extends MeshNode
     /** Optional translation before drawing */
     public Vec3 position;
 
+    /**
+       Whether to blend from the previous position to the current one when
+       rendering, by RenderContext.alpha.  Useful with a fixed-step
+       GameController, so movement looks smooth at any frame rate.
+       Rendering then lags the latest update by up to one step.
+    */
+    public boolean interpolate = false;
+
+    /** The position as of the end of the last two updates */
+    protected final InterpolatedPosition interpolated = new InterpolatedPosition();
+
     /** Optional scaling before drawing */
     public float scale = 1f;
 
@@ -128,6 +141,7 @@ public class Sprite extends MeshNode
         } else {
             batchPosition = null;
         }
+        invalidateBounds();
     }
 
 
@@ -196,6 +210,16 @@ public class Sprite extends MeshNode
     }
 
 
+    /**
+     * Note the position at the end of each update of the tree, for
+     * interpolating
+     */
+    public void snapshot() {
+        if (interpolate) interpolated.snapshot(position);
+        else interpolated.reset();
+    }
+
+
     /**
      * Prepares the render state for drawing the sprite mesh
      */
@@ -215,7 +239,10 @@ public class Sprite extends MeshNode
 
         if (position != null) {
             if (pushed == false) { renderContext.add(ppush); pushed = true; }
-            transform.position.set(position);
+            if (interpolate)
+                interpolated.get(position, renderContext.alpha, transform.position);
+            else
+                transform.position.set(position);
             transform.positioned = transformed = true;
         } else
             transform.positioned = false;
@@ -244,6 +271,57 @@ public class Sprite extends MeshNode
 
     
     public void renderUnder(RenderContext renderContext) {}
+
+
+    /**
+     * The same transform as renderPrefix() does, for culling.  When
+     * interpolating, this goes by the current position rather than where
+     * the sprite is drawn, which is at most one update behind.
+     */
+    @Override
+    protected boolean getTransform(M4 transform) {
+        if (batchPosition == null && position == null && angle == 0 && scale == 1f)
+            return false;
+
+        float c = scale, s = 0f;
+        if (angle != 0) {
+            double radians = Math.toRadians(angle);
+            c = (float)Math.cos(radians) * scale;
+            s = (float)Math.sin(radians) * scale;
+        }
+
+        final float[] m = transform.setIdentity().m;
+        m[0] = c;  m[1] = -s;
+        m[4] = s;  m[5] = c;
+        m[10] = scale;
+        if (batchPosition != null) {
+            m[3] += batchPosition.x;
+            m[7] += batchPosition.y;
+            m[11] += batchPosition.z;
+        }
+        if (position != null) {
+            m[3] += position.x;
+            m[7] += position.y;
+            m[11] += position.z;
+        }
+        return true;
+    }
+
+
+    /**
+     * The bounds of just the images shown from the batch
+     */
+    @Override
+    protected float contentBounds(Vec3 center) {
+        if (mesh == null || batchCount == 0) return EMPTY;
+
+        // 4 vertices per sprite
+        Mesh.Bounds bounds = Mesh.Bounds.obtain().update(mesh, batchOffset * 4, batchCount * 4);
+        center.set(bounds.center);
+        float radius = bounds.radius * 0.5f;
+        bounds.recycle();
+        return radius;
+    }
     
     
 
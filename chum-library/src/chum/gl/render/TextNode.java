@@ -8,6 +8,7 @@ import chum.engine.common.Scalable;
 import chum.f.M4;
 import chum.f.Vec3;
 import chum.gl.Color;
+import chum.gl.Interpolated;
 import chum.gl.Mesh;
 import chum.gl.RenderContext;
 import chum.gl.Text;
@@ -21,7 +22,7 @@ import javax.microedition.khronos.opengles.GL10;
    A TextNode renders a Text string.
 */
 public class TextNode extends MeshNode
-    implements Scalable, Movable, Rotatable, Colorable
+    implements Scalable, Movable, Rotatable, Colorable, Interpolated
 {
     
     /** The Text to be rendered */
@@ -29,6 +30,17 @@ public class TextNode extends MeshNode
 
     /** Optional translation before drawing */
     public Vec3 position;
+
+    /**
+       Whether to blend from the previous position to the current one when
+       rendering, by RenderContext.alpha.  Useful with a fixed-step
+       GameController, so movement looks smooth at any frame rate.
+       Rendering then lags the latest update by up to one step.
+    */
+    public boolean interpolate = false;
+
+    /** The position as of the end of the last two updates */
+    protected final InterpolatedPosition interpolated = new InterpolatedPosition();
     
     /** Optional scaling before drawing */
     public float scale = 1f;
@@ -195,6 +207,16 @@ public class TextNode extends MeshNode
     }
 
 
+    /**
+     * Note the position at the end of each update of the tree, for
+     * interpolating
+     */
+    public void snapshot() {
+        if (interpolate) interpolated.snapshot(position);
+        else interpolated.reset();
+    }
+
+
     /**
        Prepares the render state for drawing the text
     */
@@ -207,7 +229,10 @@ public class TextNode extends MeshNode
         
         if (position != null) {
             if (pushed == false) { renderContext.add(ppush); pushed = true; }
-            transform.position.set(position);
+            if (interpolate)
+                interpolated.get(position, renderContext.alpha, transform.position);
+            else
+                transform.position.set(position);
             transform.positioned = transformed = true;
         } else
             transform.positioned = false;
@@ -239,6 +264,16 @@ public class TextNode extends MeshNode
     }
 
 
+    /**
+       The text mesh is rebuilt as the text changes, and drawing it sets the
+       color for what follows, so text is never culled
+    */
+    @Override
+    protected float contentBounds(Vec3 center) {
+        return UNBOUNDED;
+    }
+
+
     /**
        Restore the previous drawing state after the text is drawn.
        If a translation or a scaling were a applied, restores the previous
@@ -1,5 +1,7 @@
 package chum.gl.render;
 
+import chum.f.Vec3;
+import chum.gl.Frustum;
 import chum.gl.RenderContext;
 import chum.gl.RenderNode;
 import chum.gl.render.primitive.Matrix;
@@ -54,4 +56,23 @@ public abstract class TransformNode extends RenderNode {
     }
     
     public abstract void renderTransform(RenderContext renderContext);
+
+
+    /**
+       Without the push, the transform carries on past this node to the
+       rest of the tree, so where this node's children are is no help in
+       culling it.
+    */
+    @Override
+    protected float contentBounds(Vec3 center) {
+        return push ? EMPTY : UNBOUNDED;
+    }
+
+
+    @Override
+    protected boolean applyView(Frustum frustum) {
+        if ( push ) frustum.push();
+        if ( getTransform(scratch) ) frustum.multiply(scratch);
+        return push;
+    }
 }
\ No newline at end of file
@@ -1,5 +1,6 @@
 package chum.gl.render;
 
+import chum.f.M4;
 import chum.f.Vec3;
 import chum.gl.RenderContext;
 import chum.gl.render.primitive.Translate;
@@ -42,4 +43,11 @@ public class TranslateNode extends TransformNode {
         renderContext.add(xlat);
     }
 
+
+    @Override
+    protected boolean getTransform(M4 transform) {
+        transform.translate(position);
+        return true;
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,269 @@
+package chum.input;
+
+import android.view.MotionEvent;
+
+
+/**
+   Recognizes gestures from touch samples, in the game thread -- the same
+   gestures android.view.GestureDetector finds in the UI thread, but
+   working on a batch of TouchSamples once a frame, and reporting to a
+   Listener as plain numbers.
+
+   Some differences from GestureDetector:  a tap is reported as soon as
+   the touch comes up (there's no waiting to see if it becomes a double
+   tap);  the second tap of a double tap is reported as onDoubleTap()
+   only;  and the scrolling in a batch is reported once, as the total
+   distance, rather than for each sample.
+
+   Long presses need the time to move on even when no samples come in,
+   so tick() should be called each frame as well.
+*/
+public class GestureRecognizer {
+
+    /** Told about the gestures, all in the game thread */
+    public interface Listener {
+        /** A touch went down */
+        void onDown(float x, float y);
+
+        /** A touch came up (after any tap, double tap or fling it made) */
+        void onUp(float x, float y);
+
+        /** A touch came up near where it went down, before it was a long press */
+        void onTap(float x, float y);
+
+        /** A second tap, soon after and near the first */
+        void onDoubleTap(float x, float y);
+
+        /** A touch stayed down, near where it went down, for longPressTimeout */
+        void onLongPress(float x, float y);
+
+        /** A touch moved, by (dx,dy) since the last onScroll(), to (x,y) */
+        void onScroll(float x, float y, float dx, float dy);
+
+        /** A touch came up while moving, at (vx,vy) pixels per second */
+        void onFling(float x, float y, float vx, float vy);
+    }
+
+
+    /** Where the gestures are reported */
+    public Listener listener;
+
+    /** How far (pixels) a touch can move and still be a tap or long press */
+    public float touchSlop = 16;
+
+    /** How far (pixels) apart the taps of a double tap can be */
+    public float doubleTapSlop = 100;
+
+    /** How long (millis) a touch is held to be a long press */
+    public long longPressTimeout = 500;
+
+    /** The most time (millis) between the taps of a double tap */
+    public long doubleTapTimeout = 300;
+
+    /** The slowest (pixels per second) a touch can come up at to be a fling */
+    public float minFlingVelocity = 50;
+
+    /** How far back (millis) the samples used for the velocity go */
+    public long velocityWindow = 100;
+
+
+    /** Whether a touch is down */
+    public boolean down;
+
+    /** Where and when the touch went down */
+    public float downX, downY;
+    public long downTime;
+
+    /** The latest position of the touch */
+    public float x, y;
+
+    /** Whether the touch has moved past the touchSlop */
+    public boolean scrolling;
+
+    /** Whether the touch became a long press */
+    public boolean longPressed;
+
+    /** The velocity of the touch when it last came up (pixels per second) */
+    public float velocityX, velocityY;
+
+    /** Scrolling not reported yet */
+    protected float scrollX, scrollY;
+
+    /** The last tap, for spotting a double tap */
+    protected boolean tapped;
+    protected long tapTime;
+    protected float tapX, tapY;
+
+    /** The recent samples, for the velocity */
+    protected static final int RECENT = 16;
+    protected final float[] recentX = new float[RECENT];
+    protected final float[] recentY = new float[RECENT];
+    protected final long[] recentTime = new long[RECENT];
+    protected int numRecent, nextRecent;
+
+
+    public GestureRecognizer() {
+    }
+
+
+    public GestureRecognizer(Listener listener) {
+        this.listener = listener;
+    }
+
+
+    /**
+       Go through the batch of samples taken from a TouchSamples (between
+       first and last).  Doesn't take or release the batch.
+     */
+    public void process(TouchSamples samples) {
+        for(long i=samples.first; i<samples.last; ++i) {
+            final int k = samples.slot(i);
+            sample(samples.action[k],samples.x[k],samples.y[k],samples.time[k]);
+        }
+        flushScroll();
+    }
+
+
+    /**
+       Notice the passing of time:  a touch held long enough becomes a
+       long press
+       @param now the time, in the same terms as the sample times
+     */
+    public void tick(long now) {
+        if ( down && !scrolling && !longPressed && now - downTime >= longPressTimeout ) {
+            longPressed = true;
+            if ( listener != null ) listener.onLongPress(x,y);
+        }
+    }
+
+
+    /** Handle one sample */
+    public void sample(int action, float sx, float sy, long t) {
+        switch(action) {
+        case MotionEvent.ACTION_DOWN:
+            if ( down ) up(x,y,t,false);
+            down = true;
+            downX = x = sx;
+            downY = y = sy;
+            downTime = t;
+            scrolling = false;
+            longPressed = false;
+            numRecent = 0;
+            recent(sx,sy,t);
+            if ( listener != null ) listener.onDown(sx,sy);
+            break;
+
+        case MotionEvent.ACTION_MOVE:
+            if ( down ) move(sx,sy,t);
+            break;
+
+        case MotionEvent.ACTION_UP:
+            if ( down ) {
+                move(sx,sy,t);
+                up(sx,sy,t,true);
+            }
+            break;
+
+        case MotionEvent.ACTION_CANCEL:
+            if ( down ) up(x,y,t,false);
+            break;
+        }
+    }
+
+
+    protected void move(float sx, float sy, long t) {
+        tick(t);
+        recent(sx,sy,t);
+        if ( !scrolling ) {
+            float dx = sx - downX, dy = sy - downY;
+            if ( longPressed || dx*dx + dy*dy <= touchSlop*touchSlop ) {
+                x = sx;
+                y = sy;
+                return;
+            }
+            // Scrolling starts from where the touch went down
+            scrolling = true;
+            scrollX += dx;
+            scrollY += dy;
+        } else {
+            scrollX += sx - x;
+            scrollY += sy - y;
+        }
+        x = sx;
+        y = sy;
+    }
+
+
+    /**
+       @param gestures whether the touch really came up, rather than being
+       cancelled -- only then does it make a tap or fling
+     */
+    protected void up(float sx, float sy, long t, boolean gestures) {
+        flushScroll();
+        down = false;
+        velocity();
+
+        if ( gestures && listener != null ) {
+            if ( scrolling ) {
+                if ( velocityX*velocityX + velocityY*velocityY >=
+                     minFlingVelocity*minFlingVelocity )
+                    listener.onFling(sx,sy,velocityX,velocityY);
+            } else if ( !longPressed && t - downTime < longPressTimeout ) {
+                float dx = sx - tapX, dy = sy - tapY;
+                if ( tapped && t - tapTime <= doubleTapTimeout &&
+                     dx*dx + dy*dy <= doubleTapSlop*doubleTapSlop ) {
+                    tapped = false;
+                    listener.onDoubleTap(sx,sy);
+                } else {
+                    tapped = true;
+                    tapTime = t;
+                    tapX = sx;
+                    tapY = sy;
+                    listener.onTap(sx,sy);
+                }
+            }
+        }
+        if ( listener != null ) listener.onUp(sx,sy);
+        scrolling = false;
+    }
+
+
+    /** Report the scrolling so far, if any */
+    protected void flushScroll() {
+        if ( scrollX == 0 && scrollY == 0 ) return;
+        float dx = scrollX, dy = scrollY;
+        scrollX = scrollY = 0;
+        if ( listener != null ) listener.onScroll(x,y,dx,dy);
+    }
+
+
+    protected void recent(float sx, float sy, long t) {
+        recentX[nextRecent] = sx;
+        recentY[nextRecent] = sy;
+        recentTime[nextRecent] = t;
+        nextRecent = (nextRecent + 1) % RECENT;
+        if ( numRecent < RECENT ) numRecent++;
+    }
+
+
+    /**
+       Work out the velocity from the oldest recent sample within the
+       velocityWindow to the newest
+     */
+    protected void velocity() {
+        velocityX = velocityY = 0;
+        if ( numRecent < 2 ) return;
+        int newest = (nextRecent + RECENT - 1) % RECENT;
+        int oldest = newest;
+        for(int n=1; n<numRecent; ++n) {
+            int k = (newest + RECENT - n) % RECENT;
+            if ( recentTime[newest] - recentTime[k] > velocityWindow ) break;
+            oldest = k;
+        }
+        long dt = recentTime[newest] - recentTime[oldest];
+        if ( dt <= 0 ) return;
+        velocityX = (recentX[newest] - recentX[oldest]) * 1000f / dt;
+        velocityY = (recentY[newest] - recentY[oldest]) * 1000f / dt;
+    }
+
+}
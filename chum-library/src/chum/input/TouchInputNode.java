@@ -14,14 +14,14 @@ import android.view.View;
 public class TouchInputNode extends InputNode
     implements View.OnTouchListener {
 
-    /** The delay to force in the UI thread between events. */
-    public int touchDelay = 8;
+    /** The coalesceKey of the last move posted, while more could be merged into it */
+    protected long moveKey;
 
 
 
     public TouchInputNode() {
         super();
-
+        handlesEventsIn(TouchInputNode.class,GameEvent.INPUT_TOUCH);
     }
 
 
@@ -43,24 +43,40 @@ public class TouchInputNode extends InputNode
        Called when a touch event is dispatched to the view.
        
        All touch events get queued into the normal GameEvent queue,
-       and will get dispatched back to this node via onGameEvent() 
+       and will get dispatched back to this node via onGameEvent().
+       Moves are merged into the last one if it is still waiting, so
+       however fast they come in there is at most one in the queue at a
+       time;  the ones it replaced are in its history.
     */
     public boolean onTouch(View v, MotionEvent event) {
     	// Have to queue a copy of the original event, since the
     	// original will get recycled after this method returns
     	MotionEvent copy = MotionEvent.obtain(event);
-    	postUp(GameEvent.obtain(GameEvent.INPUT_TOUCH,copy));
-
-        switch(event.getAction()) {
-        case MotionEvent.ACTION_MOVE:
-            throttle();
-            break;
+        GameEvent ev = GameEvent.obtain(GameEvent.INPUT_TOUCH,copy);
+
+        if ( event.getAction() == MotionEvent.ACTION_MOVE ) {
+            ev.coalesceKey = moveKey = moveKey(event);
+        } else if ( moveKey != 0 ) {
+            // Anything else has to stay after the moves before it
+            gameController.events.endCoalescing(moveKey);
+            moveKey = 0;
         }
+    	postUp(ev);
 
         return true;
     }
 
 
+    /**
+       The coalesceKey for a move:  moves of the same pointer are merged.
+       There is only the one pointer before multi-touch, so this is the
+       same for every move.
+     */
+    protected long moveKey(MotionEvent event) {
+        return (long)GameEvent.INPUT_TOUCH << 32;
+    }
+
+
     /**
        Do something with the touch event
     */
@@ -68,22 +84,22 @@ public class TouchInputNode extends InputNode
     	return false;
     }
 
-       
+
     /**
-       Throttle the frequency of touch events by sleeping the UI thread
-     */
-    protected void throttle() {
-        if ( touchDelay > 0 ) {
-            try { Thread.sleep(touchDelay); }
-            catch (java.lang.InterruptedException e) {}
-        }
+       Do something with the touch event, given the moves it replaced
+       while it was waiting to be dispatched (most recent first -- the
+       object of each is its MotionEvent).  By default, just calls
+       onTouch(event).
+    */
+    protected boolean onTouch(MotionEvent event, GameEvent history) {
+        return onTouch(event);
     }
 
 
     @Override
     public boolean onGameEvent(GameEvent event) {
     	if(event.type == GameEvent.INPUT_TOUCH) {
-    		return onTouch((MotionEvent)event.object);
+    		return onTouch((MotionEvent)event.object,event.history);
     	}
     	return super.onGameEvent(event);
     }
@@ -0,0 +1,133 @@
+package chum.input;
+
+import chum.engine.GameController;
+
+import android.view.MotionEvent;
+import android.view.View;
+
+
+/**
+   TouchSampleNode handles touch input from the game view without any
+   allocation or GameEvents.  The UI thread just writes each MotionEvent's
+   samples into a TouchSamples ring;  each update, the game thread takes
+   the samples that have come in as a batch, passes them to onSamples(),
+   and runs them through a GestureRecognizer, which reports the gestures
+   to this node's Listener methods.
+
+   Subclasses override onSamples() for the raw samples, and/or the
+   on*() gesture methods.
+*/
+public class TouchSampleNode extends InputNode
+    implements View.OnTouchListener, GestureRecognizer.Listener {
+
+    /** The samples written by the UI thread */
+    public final TouchSamples samples;
+
+    /** Finds the gestures in the samples -- reports to this node */
+    public final GestureRecognizer gestures;
+
+    /**
+       The time of the last sample taken (in the samples' time base, i.e.
+       MotionEvent uptime), and the game clock when it was taken -- so the
+       gestures can be ticked in the samples' time base, whatever the
+       game clock is (e.g. a ManualClock)
+     */
+    protected long lastSampleTime, lastSampleClock;
+
+
+    public TouchSampleNode() {
+        this(TouchSamples.DEFAULT_CAPACITY);
+    }
+
+
+    public TouchSampleNode(int capacity) {
+        super();
+        samples = new TouchSamples(capacity);
+        gestures = new GestureRecognizer(this);
+    }
+
+
+    /**
+       At setup time, registers this node as a listener for the view, so touch
+       events will get sent here (if there is a view -- e.g. not when
+       running headless)
+    */
+    @Override
+    public void onSetup(GameController gameController) {
+        super.onSetup(gameController);
+        if ( gameController.inputView != null )
+            gameController.inputView.setOnTouchListener(this);
+    }
+
+
+    /**
+       Called in the UI thread when a touch event is dispatched to the
+       view:  just writes its samples
+     */
+    public boolean onTouch(View v, MotionEvent event) {
+        samples.write(event);
+        wake();
+        return true;
+    }
+
+
+    /**
+       Take the samples that have come in since the last update, and
+       find the gestures in them
+     */
+    @Override
+    public boolean updatePrefix(long millis) {
+        boolean updated = super.updatePrefix(millis);
+        final long now = gameController.clock.uptimeMillis();
+        if ( samples.take() > 0 ) {
+            lastSampleTime = samples.time[samples.slot(samples.last-1)];
+            lastSampleClock = now;
+            onSamples(samples);
+            gestures.process(samples);
+            samples.release();
+            updated = true;
+        }
+        if ( gestures.down ) {
+            gestures.tick(lastSampleTime + (now - lastSampleClock));
+            updated = true;
+        }
+        // Samples written since the take() keep the node awake
+        if ( samples.size() > 0 ) updated = true;
+        return updated;
+    }
+
+
+    /**
+       The UI thread may have written samples (and called wake()) between
+       the update and going to sleep -- if so, stay awake for them
+     */
+    @Override
+    public void sleep() {
+        super.sleep();
+        if ( samples.size() > 0 ) wake();
+    }
+
+
+    /**
+       Do something with a batch of samples (from samples.first up to
+       samples.last), before the gestures are found in them
+     */
+    protected void onSamples(TouchSamples samples) {
+    }
+
+
+    public void onDown(float x, float y) {}
+
+    public void onUp(float x, float y) {}
+
+    public void onTap(float x, float y) {}
+
+    public void onDoubleTap(float x, float y) {}
+
+    public void onLongPress(float x, float y) {}
+
+    public void onScroll(float x, float y, float dx, float dy) {}
+
+    public void onFling(float x, float y, float vx, float vy) {}
+
+}
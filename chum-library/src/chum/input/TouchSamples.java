@@ -0,0 +1,190 @@
+package chum.input;
+
+import android.view.MotionEvent;
+
+
+/**
+   A ring of touch samples, written by the UI thread as MotionEvents come
+   in and read by the game thread once a frame.  The samples are kept in
+   preallocated arrays of primitives, so a touch costs no allocation:  no
+   copy of the MotionEvent, and no GameEvent.
+
+   There is one writer and one reader.  The writer fills in the slots for
+   an event's samples (its historical ones first, then the current one)
+   and then publishes them all at once by advancing the count written.
+   The reader takes everything published so far as a batch (take()),
+   reads it straight out of the arrays, and hands the slots back
+   (release()):
+
+   <pre>
+   int n = samples.take();
+   for(long i=samples.first; i&lt;samples.last; ++i) {
+       int k = samples.slot(i);
+       ... samples.x[k], samples.y[k] ...
+   }
+   samples.release();
+   </pre>
+
+   If the reader falls so far behind that an event's samples don't fit,
+   its historical samples are dropped first, then the event itself, and
+   the number dropped is counted.
+*/
+public class TouchSamples {
+
+    /** Default number of samples in the ring */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    /** The pointer id of each sample */
+    public final int[] id;
+
+    /** The action of each sample (MotionEvent.ACTION_*) -- historical samples are moves */
+    public final int[] action;
+
+    /** The position of each sample */
+    public final float[] x, y;
+
+    /** The pressure of each sample */
+    public final float[] pressure;
+
+    /** The time of each sample (uptime millis, like MotionEvent.getEventTime()) */
+    public final long[] time;
+
+    /** capacity - 1, for wrapping sample numbers into the arrays */
+    final int mask;
+
+    /** Number of samples published -- only written by the writer */
+    private volatile long written;
+
+    /** Number of samples handed back -- only written by the reader */
+    private volatile long released;
+
+    /** The batch taken by the reader:  sample numbers from first up to (not including) last */
+    public long first, last;
+
+    /** Number of samples dropped because the ring was full */
+    public volatile int dropped;
+
+
+    public TouchSamples() {
+        this(DEFAULT_CAPACITY);
+    }
+
+
+    /**
+       @param capacity number of samples in the ring, rounded up to a power of two
+     */
+    public TouchSamples(int capacity) {
+        if ( capacity < 2 )
+            throw new IllegalArgumentException("capacity must be at least 2");
+        int size = 2;
+        while ( size < capacity ) size <<= 1;
+        mask = size - 1;
+        id = new int[size];
+        action = new int[size];
+        x = new float[size];
+        y = new float[size];
+        pressure = new float[size];
+        time = new long[size];
+    }
+
+
+    /**
+       Write the samples from a MotionEvent.  Only called from the writer
+       thread (normally the UI thread, from View.OnTouchListener.onTouch()).
+       @return false if any of them were dropped
+     */
+    public boolean write(MotionEvent event) {
+        final int history = event.getHistorySize();
+        final long w = written;
+        final long room = mask + 1 - (w - released);
+        if ( room < 1 ) {
+            dropped += history + 1;
+            return false;
+        }
+
+        long n = w;
+        int skip = history + 1 > room ? (int)(history + 1 - room) : 0;
+        for(int h=skip; h<history; ++h) {
+            put(n++,0,MotionEvent.ACTION_MOVE,
+                event.getHistoricalX(h),event.getHistoricalY(h),
+                event.getHistoricalPressure(h),event.getHistoricalEventTime(h));
+        }
+        put(n++,0,event.getAction(),event.getX(),event.getY(),
+            event.getPressure(),event.getEventTime());
+        written = n;
+
+        if ( skip > 0 ) {
+            dropped += skip;
+            return false;
+        }
+        return true;
+    }
+
+
+    /**
+       Write a single sample.  Only called from the writer thread.
+       @return false if it was dropped
+     */
+    public boolean write(int pointer, int act, float px, float py, float pp, long t) {
+        final long w = written;
+        if ( w - released > mask ) {
+            dropped++;
+            return false;
+        }
+        put(w,pointer,act,px,py,pp,t);
+        written = w + 1;
+        return true;
+    }
+
+
+    private void put(long n, int pointer, int act, float px, float py, float pp, long t) {
+        final int k = (int)n & mask;
+        id[k] = pointer;
+        action[k] = act;
+        x[k] = px;
+        y[k] = py;
+        pressure[k] = pp;
+        time[k] = t;
+    }
+
+
+    /**
+       Take everything published so far as a batch, from first up to
+       last.  Only called from the reader thread.
+       @return the number of samples in the batch
+     */
+    public int take() {
+        first = released;
+        last = written;
+        return (int)(last - first);
+    }
+
+
+    /** @return the index into the arrays for a sample number */
+    public final int slot(long n) {
+        return (int)n & mask;
+    }
+
+
+    /**
+       Hand the slots of the batch back to the writer.  Only called from
+       the reader thread.
+     */
+    public void release() {
+        released = last;
+        first = last;
+    }
+
+
+    /** @return the number of samples written and not yet released */
+    public int size() {
+        return (int)(written - released);
+    }
+
+
+    /** @return the number of samples the ring holds */
+    public int capacity() {
+        return mask + 1;
+    }
+
+}
@@ -0,0 +1,111 @@
+package chum.util;
+
+
+/**
+   A histogram of positive long values (e.g. durations in nanoseconds) in a
+   fixed amount of memory.  Values are counted in logarithmic buckets:  each
+   power of two is split into 8 buckets, so any value is known to within
+   12.5%, whatever its size.
+
+   All the methods are synchronized, so values can be recorded in one thread
+   (e.g. the render thread) and read in another.  Recording takes no
+   allocation, and just an uncontended lock most of the time.
+*/
+public class Histogram {
+
+    static final int SUB_BITS = 3;
+    static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    /** Enough buckets for any positive long */
+    static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    protected final long[] counts = new long[BUCKETS];
+
+    /** Number of values recorded */
+    protected long count;
+
+    /** The largest value recorded */
+    protected long max;
+
+
+    /** @return the bucket for a value */
+    static int bucket(long value) {
+        if ( value < SUB_BUCKETS ) return value < 0 ? 0 : (int)value;
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int)(value >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exp - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+
+    /** @return the largest value that goes in a bucket */
+    static long highest(int bucket) {
+        if ( bucket < SUB_BUCKETS ) return bucket;
+        int exp = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        long low = (SUB_BUCKETS + sub) << (exp - SUB_BITS);
+        return low + (1L << (exp - SUB_BITS)) - 1;
+    }
+
+
+    public synchronized void record(long value) {
+        counts[bucket(value)]++;
+        count++;
+        if ( value > max ) max = value;
+    }
+
+
+    /** @return the number of values recorded */
+    public synchronized long count() {
+        return count;
+    }
+
+
+    /** @return the largest value recorded */
+    public synchronized long max() {
+        return max;
+    }
+
+
+    /**
+       @return the value at a percentile (0-100) of the values recorded --
+       actually the top of the bucket it falls in, but never more than the
+       largest value.  0 if nothing has been recorded.
+     */
+    public synchronized long percentile(double percent) {
+        if ( count == 0 ) return 0;
+        long rank = (long)Math.ceil(percent / 100.0 * count);
+        if ( rank < 1 ) rank = 1;
+
+        long seen = 0;
+        for(int i=0; i<BUCKETS; ++i) {
+            seen += counts[i];
+            if ( seen >= rank ) return Math.min(highest(i),max);
+        }
+        return max;
+    }
+
+
+    public synchronized void reset() {
+        for(int i=0; i<BUCKETS; ++i) counts[i] = 0;
+        count = 0;
+        max = 0;
+    }
+
+
+    /**
+       Move everything recorded into another histogram (which is reset
+       first), leaving this one empty -- so one interval's values can be
+       examined while the next interval's are being recorded.
+     */
+    public void moveTo(Histogram other) {
+        synchronized(this) {
+            synchronized(other) {
+                System.arraycopy(counts,0,other.counts,0,BUCKETS);
+                other.count = count;
+                other.max = max;
+            }
+            reset();
+        }
+    }
+
+}
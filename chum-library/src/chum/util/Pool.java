@@ -0,0 +1,271 @@
+package chum.util;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+   A pool of reusable instances, for obtain() / recycle() on classes that
+   are created often during game play (GameEvent, GameSequence, etc), so
+   fewer objects have to be allocated and garbage collected.
+
+   Subclasses implement newInstance() to create an instance when the pool
+   is empty.  Resetting the fields of an obtained instance is left up to the
+   pooled class.
+
+   Each thread keeps a small cache of its own, so obtain() / recycle()
+   don't usually need to take a lock.  When a thread's cache is full, half
+   of it is moved to a shared stack, and when it is empty, it is refilled
+   from the shared stack -- so instances obtained in one thread (e.g. events
+   from the UI thread) and recycled in another (the game thread) still find
+   their way back.
+
+   The shared stack can be given a capacity, beyond which recycled instances
+   are just dropped for the garbage collector.  Each pool also counts the
+   instances in use (and the most that have been in use at once), the
+   instances created, and the misses -- obtains that had to create a new
+   instance because the pool was empty.
+
+   Every pool is registered when it is created, so they can all be filled
+   ahead of time with prefillAll() (see GameController.preallocateEventPools)
+   and their stats logged with logStats().
+*/
+public abstract class Pool<T> {
+
+    /** The name of the pool, for stats */
+    public final String name;
+
+    /** The number of instances for prefill() to make available */
+    public int prefill;
+
+    /** The most instances to keep in the shared stack, or 0 for no limit */
+    public int capacity;
+
+    /** The most instances to keep in each thread's cache */
+    public final int cacheSize;
+
+    /** The shared stack of available instances */
+    protected Object[] shared = new Object[16];
+    protected int sharedCount;
+
+    protected final ThreadLocal<Cache> caches = new ThreadLocal<Cache>() {
+            @Override
+            protected Cache initialValue() {
+                return new Cache(cacheSize);
+            }
+        };
+
+    protected final AtomicInteger inUse = new AtomicInteger();
+    protected final AtomicInteger highWater = new AtomicInteger();
+    protected final AtomicInteger created = new AtomicInteger();
+    protected final AtomicInteger misses = new AtomicInteger();
+    protected final AtomicInteger dropped = new AtomicInteger();
+
+    private static final ArrayList<Pool<?>> pools = new ArrayList<Pool<?>>();
+
+
+    /** A thread's own stack of available instances */
+    protected static class Cache {
+        final Object[] items;
+        int count;
+
+        Cache(int size) {
+            items = new Object[size];
+        }
+    }
+
+
+    public Pool(String name) {
+        this(name,0,0);
+    }
+
+
+    public Pool(String name, int prefill) {
+        this(name,prefill,0);
+    }
+
+
+    public Pool(String name, int prefill, int capacity) {
+        this(name,prefill,capacity,16);
+    }
+
+
+    public Pool(String name, int prefill, int capacity, int cacheSize) {
+        this.name = name;
+        this.prefill = prefill;
+        this.capacity = capacity;
+        this.cacheSize = cacheSize;
+        synchronized(pools) {
+            pools.add(this);
+        }
+    }
+
+
+    /** Create a new instance, when the pool is empty */
+    protected abstract T newInstance();
+
+
+    /**
+       Get an instance from the pool, or a new one if the pool is empty
+    */
+    @SuppressWarnings("unchecked")
+    public T obtain() {
+        Cache cache = caches.get();
+        if ( cache.count == 0 ) refill(cache);
+
+        T t;
+        if ( cache.count > 0 ) {
+            t = (T)cache.items[--cache.count];
+            cache.items[cache.count] = null;
+        } else {
+            misses.incrementAndGet();
+            created.incrementAndGet();
+            t = newInstance();
+        }
+
+        int used = inUse.incrementAndGet();
+        int high;
+        while ( used > (high = highWater.get()) &&
+                !highWater.compareAndSet(high,used) );
+        return t;
+    }
+
+
+    /**
+       Return an instance to the pool so it can be reused later
+    */
+    public void recycle(T t) {
+        inUse.decrementAndGet();
+        Cache cache = caches.get();
+        if ( cache.count == cache.items.length ) spill(cache);
+        if ( cache.count < cache.items.length )
+            cache.items[cache.count++] = t;
+        else
+            dropped.incrementAndGet();
+    }
+
+
+    /** Move up to half a cache's worth from the shared stack */
+    protected void refill(Cache cache) {
+        synchronized(this) {
+            int n = Math.min(sharedCount,(cache.items.length+1)/2);
+            for(int i=0; i<n; ++i) {
+                cache.items[cache.count++] = shared[--sharedCount];
+                shared[sharedCount] = null;
+            }
+        }
+    }
+
+
+    /** Move half of a full cache to the shared stack */
+    protected void spill(Cache cache) {
+        synchronized(this) {
+            int n = (cache.items.length+1)/2;
+            for(int i=0; i<n; ++i) {
+                Object t = cache.items[--cache.count];
+                cache.items[cache.count] = null;
+                if ( capacity > 0 && sharedCount >= capacity ) {
+                    dropped.incrementAndGet();
+                    continue;
+                }
+                if ( sharedCount == shared.length ) {
+                    Object[] newShared = new Object[shared.length*2];
+                    System.arraycopy(shared,0,newShared,0,sharedCount);
+                    shared = newShared;
+                }
+                shared[sharedCount++] = t;
+            }
+        }
+    }
+
+
+    /**
+       Fill the shared stack up to the prefill size
+    */
+    public void prefill() {
+        prefill(prefill);
+    }
+
+
+    /**
+       Create instances as needed so at least num are available in the
+       shared stack (up to the capacity)
+    */
+    public synchronized void prefill(int num) {
+        if ( capacity > 0 && num > capacity ) num = capacity;
+        if ( num > shared.length ) {
+            Object[] newShared = new Object[num];
+            System.arraycopy(shared,0,newShared,0,sharedCount);
+            shared = newShared;
+        }
+        while ( sharedCount < num ) {
+            created.incrementAndGet();
+            shared[sharedCount++] = newInstance();
+        }
+    }
+
+
+    /** @return the number of instances in the shared stack */
+    public synchronized int available() {
+        return sharedCount;
+    }
+
+    /** @return the number of instances obtained and not yet recycled */
+    public int inUse() {
+        return inUse.get();
+    }
+
+    /** @return the most instances that have been in use at once */
+    public int highWater() {
+        return highWater.get();
+    }
+
+    /** @return the number of instances created, including prefill */
+    public int created() {
+        return created.get();
+    }
+
+    /** @return the number of obtains that had to create an instance */
+    public int misses() {
+        return misses.get();
+    }
+
+    /** @return the number of recycled instances dropped, over capacity */
+    public int dropped() {
+        return dropped.get();
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d in use (high %d), %d created, %d misses, %d dropped",
+                             name, inUse(), highWater(), created(), misses(), dropped());
+    }
+
+
+    /**
+       Prefill every pool created so far
+    */
+    public static void prefillAll() {
+        for(Pool<?> pool : all())
+            pool.prefill();
+    }
+
+
+    /**
+       Log the stats for every pool created so far
+    */
+    public static void logStats() {
+        for(Pool<?> pool : all())
+            Log.d("Pool %s",pool);
+    }
+
+
+    /** @return a copy of the list of pools created so far */
+    public static ArrayList<Pool<?>> all() {
+        synchronized(pools) {
+            return new ArrayList<Pool<?>>(pools);
+        }
+    }
+
+}
@@ -0,0 +1,196 @@
+package chum.engine;
+
+import chum.engine.common.Animation;
+import chum.engine.common.Movable;
+import chum.f.Vec3;
+import chum.gl.Font;
+import chum.gl.Mesh;
+import chum.gl.RenderContext;
+import chum.gl.RenderNode;
+import chum.gl.SpriteBatch;
+import chum.gl.render.primitive.RenderPrimitive;
+
+import javax.microedition.khronos.opengles.GL10;
+
+import junit.framework.TestCase;
+
+
+/**
+ */
+public class AllocationCheckTests extends TestCase {
+
+    protected void setUp() {
+
+    }
+
+
+    /** Moves around, and draws itself each frame */
+    static class Mover extends RenderNode implements Movable {
+        Vec3 position = new Vec3();
+        Vec3 velocity = new Vec3(1,2,0);
+        Vec3 drawn = new Vec3();
+
+        RenderPrimitive draw = new RenderPrimitive() {
+                @Override
+                public void render(RenderContext renderContext, GL10 gl) {
+                    drawn.set(position);
+                }
+            };
+
+        public void setPosition(Vec3 position) { this.position.set(position); }
+        public Vec3 getPosition() { return position; }
+
+        @Override
+        public boolean updatePrefix(long millis) {
+            position.add(velocity,position);
+            return true;
+        }
+
+        @Override
+        public boolean renderPrefix(RenderContext renderContext) {
+            renderContext.add(draw);
+            return true;
+        }
+    }
+
+
+    /**
+       Keeps pooled things going:  posts an event each frame, and starts a
+       new sequence and animation whenever the last ones have finished
+     */
+    static class Spawner extends GameNode {
+        Mover target;
+        GameSequence seq;
+        Animation.Position anim;
+        int events;
+        int ended;
+        Vec3 start = new Vec3(0,0,0);
+        Vec3 end = new Vec3(10,10,0);
+
+        @Override
+        public boolean updatePrefix(long millis) {
+            postDown(GameEvent.obtain(1,events));
+            if ( seq == null || seq.parent == null ) {
+                seq = GameSequence.obtain();
+                seq.duration = 48;
+                addNode(seq);
+            }
+            if ( anim == null || anim.parent == null ) {
+                anim = Animation.Position.obtain();
+                anim.movable = target;
+                anim.duration = 80;
+                anim.setPosition(start,end);
+                addNode(anim);
+            }
+            return true;
+        }
+
+        @Override
+        public boolean onGameEvent(GameEvent event) {
+            if ( event.type == 1 ) {
+                events++;
+                return true;
+            }
+            if ( event.type == GameEvent.SEQUENCE_END ) {
+                ended++;
+                return true;
+            }
+            return false;
+        }
+    }
+
+
+    /** Allocates on purpose */
+    static class Leaky extends GameNode {
+        int[] kept;
+
+        @Override
+        public boolean updatePrefix(long millis) {
+            kept = new int[16];
+            return true;
+        }
+    }
+
+
+    protected GameNode referenceScene(Spawner spawner) {
+        GameNode root = new GameNode();
+        for(int i=0; i<200; ++i) root.addNode(new Mover());
+        spawner.target = (Mover)root.children[0];
+        root.addNode(spawner);
+        return root;
+    }
+
+
+    /**
+       A scene with moving, drawn nodes, events, sequences and animations
+       shouldn't allocate anything once it is going
+     */
+    public void test_referenceSceneDoesNotAllocate() {
+        Spawner spawner = new Spawner();
+        HeadlessGameController gc = Headless.setupWith(referenceScene(spawner));
+        AllocationCheck check = new AllocationCheck(gc);
+        check.toleratedFrames = 2;
+
+        check.run(200,500);
+        assertTrue(check.report(),check.passed());
+        assertTrue(spawner.events >= 699);
+        assertTrue(spawner.ended > 100);
+    }
+
+
+    public void test_reportsAllocatingNode() {
+        GameNode root = referenceScene(new Spawner());
+        Leaky leaky = new Leaky();
+        leaky.setName("leaky");
+        root.addNode(leaky);
+        HeadlessGameController gc = Headless.setupWith(root);
+        AllocationCheck check = new AllocationCheck(gc);
+
+        assertTrue(check.run(200,50) > 0);
+        assertFalse(check.passed());
+        assertEquals(50,check.allocatingFrames);
+        assertTrue(check.report(),
+                   check.report().contains("update chum.engine.AllocationCheckTests$Leaky 'leaky'"));
+        assertNull(gc.tree.probe);
+    }
+
+
+    /**
+       Helpers that used to allocate on every call
+     */
+    public void test_helpersDoNotAllocate() {
+        Font font = new Font(null);
+        font.putGlyph(Font.Glyph.obtain().set(' ',0,0,0,8,8,0,0,0,0));
+        font.putGlyph(Font.Glyph.obtain().set('\u00e9',0,0,0,8,8,0,0,0,0));
+        SpriteBatch batch = new SpriteBatch(null,4);
+        Mesh.Bounds bounds = Mesh.Bounds.obtain();
+
+        AllocationCheck.Meter meter = AllocationCheck.DEBUG_METER;
+        meter.start();
+        try {
+            long[] bytes = new long[2];
+            for(int pass=0; pass<5; ++pass) {
+                long before = meter.allocated();
+                for(int i=0; i<100; ++i) {
+                    font.getGlyph('\u00e9');
+                    font.getGlyph('\u00e8');
+                }
+                long afterFont = meter.allocated();
+                for(int i=0; i<100; ++i) {
+                    bounds.update(batch);
+                    batch.adjustOrigin(0,4,SpriteBatch.ADJUST_CENTER);
+                }
+                long afterMesh = meter.allocated();
+
+                // Only the last pass counts, once everything is warmed up
+                bytes[0] = afterFont - before;
+                bytes[1] = afterMesh - afterFont;
+            }
+            assertEquals(0,bytes[0]);
+            assertEquals(0,bytes[1]);
+        } finally {
+            meter.stop();
+        }
+    }
+
+}
@@ -0,0 +1,79 @@
+package chum.engine;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+
+/**
+ */
+public class DelayedEventQueueTests extends TestCase {
+
+    protected void setUp() {
+
+    }
+
+
+    /** Records the ival of each event it gets, in order */
+    static class RecordingNode extends GameNode {
+        StringBuilder log = new StringBuilder();
+
+        @Override
+        public boolean onGameEvent(GameEvent event) {
+            log.append(event.ival).append(',');
+            return true;
+        }
+    }
+
+
+    public void test_postedInDueOrder() {
+        GameController gc = new GameController(null);
+        RecordingNode node = new RecordingNode();
+        node.onSetup(gc);
+        DelayedEventQueue queue = gc.delayedEvents;
+
+        queue.post(node,GameEvent.obtain(0,3),true,300);
+        queue.post(node,GameEvent.obtain(0,1),true,100);
+        queue.post(node,GameEvent.obtain(0,2),true,100);
+        queue.post(node,GameEvent.obtain(0,4),false,400);
+        assertEquals(100,queue.nextDue());
+
+        assertEquals(0,queue.postDue(99));
+        assertEquals(2,queue.postDue(100));
+        gc.events.dispatchAll();
+        assertEquals("1,2,",node.log.toString());
+
+        assertEquals(2,queue.postDue(1000));
+        gc.events.dispatchAll();
+        assertEquals("1,2,3,4,",node.log.toString());
+        assertEquals(0,queue.size());
+    }
+
+
+    public void test_randomDueTimes() {
+        GameController gc = new GameController(null);
+        RecordingNode node = new RecordingNode();
+        node.onSetup(gc);
+        DelayedEventQueue queue = gc.delayedEvents;
+        Random random = new Random(7);
+
+        long[] dueTimes = new long[500];
+        for(int i=0; i<dueTimes.length; ++i) {
+            dueTimes[i] = random.nextInt(10000);
+            queue.post(node,GameEvent.obtain(0,i),true,dueTimes[i]);
+        }
+
+        long lastDue = -1;
+        for(long now=0; now<=10000; now+=37) {
+            while ( queue.size() > 0 && queue.nextDue() <= now ) {
+                long next = queue.nextDue();
+                assertTrue(next >= lastDue);
+                lastDue = next;
+                queue.postDue(next);
+            }
+        }
+        assertEquals(0,queue.size());
+        assertEquals(dueTimes.length,gc.events.dispatchAll());
+    }
+
+}
@@ -0,0 +1,81 @@
+package chum.engine;
+
+import chum.util.Log;
+
+import junit.framework.TestCase;
+
+
+/**
+   Timings for the event queue.  These only log their results, so they
+   run from chum.tests.AllBenchmarks rather than the unit suite.
+ */
+public class EventQueueBenchmarks extends TestCase {
+
+    /**
+       Compare post() latency of the lock-free queue against the previous
+       synchronized linked-list queue, with several producer threads
+       posting while the game thread dispatches.
+     */
+    public void test_postContention() throws InterruptedException {
+        int producers = 4;
+        int perProducer = 20000;
+
+        // warm up both
+        EventQueueTests.runContention(new LockedEventQueue(),producers,perProducer);
+        EventQueueTests.runContention(new GameController.EventQueue(),producers,perProducer);
+
+        long[] locked = EventQueueTests.runContention(new LockedEventQueue(),producers,perProducer);
+        long[] lockFree = EventQueueTests.runContention(new GameController.EventQueue(),producers,perProducer);
+
+        Log.d("EventQueue post latency, %d producers x %d events:",producers,perProducer);
+        Log.d("  synchronized list: mean=%dns max=%dns",
+              locked[0] / (producers*perProducer), locked[1]);
+        Log.d("  lock-free ring:    mean=%dns max=%dns",
+              lockFree[0] / (producers*perProducer), lockFree[1]);
+    }
+
+
+    /**
+       The original synchronized linked-list queue, kept as the baseline
+       for the contention benchmark
+     */
+    static class LockedEventQueue extends GameController.EventQueue {
+        GameEvent first;
+        GameEvent last;
+
+        @Override
+        public void post(GameEvent event) {
+            synchronized(this) {
+                if ( last == null ) {
+                    first = last = event;
+                } else {
+                    last.nextQueued = event;
+                    last = event;
+                }
+                event.nextQueued = null;
+            }
+        }
+
+        @Override
+        public int dispatchAll() {
+            GameEvent dispatching;
+
+            synchronized(this) {
+                dispatching = first;
+                first = last = null;
+            }
+
+            int count = 0;
+            while ( dispatching != null ) {
+                dispatchEvent(dispatching);
+                GameEvent dispatched = dispatching;
+                dispatching = dispatching.nextQueued;
+                dispatched.recycle();
+                count++;
+            }
+
+            return count;
+        }
+    }
+
+}
@@ -0,0 +1,416 @@
+package chum.engine;
+
+import junit.framework.TestCase;
+
+
+/**
+ */
+public class EventQueueTests extends TestCase {
+
+    protected void setUp() {
+
+    }
+
+
+    /** Node that just counts the events it gets */
+    static class CountingNode extends GameNode {
+        int count;
+        int lastIval = -1;
+        boolean ordered = true;
+
+        @Override
+        public boolean onGameEvent(GameEvent event) {
+            if ( event.ival < lastIval ) ordered = false;
+            lastIval = event.ival;
+            count++;
+            return true;
+        }
+    }
+
+
+    static GameEvent event(GameNode origin,int ival) {
+        GameEvent ev = GameEvent.obtain(0,ival);
+        ev.origin = origin;
+        ev.up = true;
+        return ev;
+    }
+
+
+    public void test_postAndDispatch() {
+        GameController.EventQueue queue = new GameController.EventQueue(8);
+        CountingNode node = new CountingNode();
+
+        for ( int i=0; i<5; ++i ) queue.post(event(node,i));
+        assertEquals(5,queue.size());
+        assertEquals(5,queue.dispatchAll());
+        assertEquals(5,node.count);
+        assertTrue(node.ordered);
+        assertEquals(0,queue.dispatchAll());
+    }
+
+
+    public void test_overflowKeepsOrder() {
+        GameController.EventQueue queue = new GameController.EventQueue(4);
+        CountingNode node = new CountingNode();
+
+        for ( int i=0; i<10; ++i ) queue.post(event(node,i));
+        assertEquals(6,queue.overflowed);
+        assertEquals(10,queue.dispatchAll());
+        assertEquals(10,node.count);
+        assertTrue(node.ordered);
+
+        // Ring is usable again once the overflow is drained
+        for ( int i=10; i<14; ++i ) queue.post(event(node,i));
+        assertEquals(6,queue.overflowed);
+        assertEquals(4,queue.dispatchAll());
+        assertTrue(node.ordered);
+    }
+
+
+    public void test_postDuringDispatchWaitsForNextCall() {
+        final GameController.EventQueue queue = new GameController.EventQueue(4);
+        final CountingNode other = new CountingNode();
+        GameNode reposter = new GameNode() {
+                @Override
+                public boolean onGameEvent(GameEvent event) {
+                    queue.post(event(other,event.ival));
+                    return true;
+                }
+            };
+
+        for ( int i=0; i<8; ++i ) queue.post(event(reposter,i));
+        assertEquals(8,queue.dispatchAll());
+        assertEquals(0,other.count);
+        assertEquals(8,queue.dispatchAll());
+        assertEquals(8,other.count);
+    }
+
+
+    protected GameEvent keyed(GameNode origin,int ival,long key) {
+        GameEvent ev = event(origin,ival);
+        ev.coalesceKey = key;
+        return ev;
+    }
+
+
+    /** Node that notes the payload and history of each event */
+    static class HistoryNode extends GameNode {
+        StringBuilder seen = new StringBuilder();
+
+        @Override
+        public boolean onGameEvent(GameEvent event) {
+            seen.append(event.ival);
+            if ( event.history != null ) {
+                seen.append('[');
+                for(GameEvent h = event.history; h != null; h = h.history)
+                    seen.append(h.ival);
+                seen.append(']');
+            }
+            seen.append(' ');
+            return true;
+        }
+    }
+
+
+    public void test_coalesce() {
+        GameController.EventQueue queue = new GameController.EventQueue(8);
+        HistoryNode node = new HistoryNode();
+
+        queue.post(event(node,0));
+        queue.post(keyed(node,1,5));
+        queue.post(keyed(node,2,5));
+        queue.post(keyed(node,7,6));
+        queue.post(keyed(node,3,5));
+        queue.post(event(node,8));
+        assertEquals(4,queue.size());
+        assertEquals(2,queue.coalesced);
+        assertEquals(4,queue.dispatchAll());
+        assertEquals("0 3[21] 7 8 ",node.seen.toString());
+
+        // Once dispatched, the next one is queued on its own
+        node.seen.setLength(0);
+        queue.post(keyed(node,4,5));
+        queue.post(keyed(node,5,5));
+        assertEquals(1,queue.dispatchAll());
+        assertEquals("5[4] ",node.seen.toString());
+    }
+
+
+    public void test_endCoalescing() {
+        GameController.EventQueue queue = new GameController.EventQueue(8);
+        HistoryNode node = new HistoryNode();
+
+        queue.post(keyed(node,1,5));
+        queue.post(keyed(node,2,5));
+        queue.endCoalescing(5);
+        queue.post(event(node,3));
+        queue.post(keyed(node,4,5));
+        queue.post(keyed(node,5,5));
+        assertEquals(3,queue.dispatchAll());
+        assertEquals("2[1] 3 5[4] ",node.seen.toString());
+    }
+
+
+    public void test_historyIsBounded() {
+        GameController.EventQueue queue = new GameController.EventQueue(8);
+        queue.maxHistory = 3;
+        HistoryNode node = new HistoryNode();
+
+        for(int i=0; i<10; ++i) queue.post(keyed(node,i,5));
+        assertEquals(1,queue.dispatchAll());
+        assertEquals("9[876] ",node.seen.toString());
+
+        queue.maxHistory = 0;
+        node.seen.setLength(0);
+        for(int i=0; i<10; ++i) queue.post(keyed(node,i,5));
+        assertEquals(1,queue.dispatchAll());
+        assertEquals("9 ",node.seen.toString());
+    }
+
+
+    /** Merging also works for events that went to the overflow list */
+    public void test_coalesceInOverflow() {
+        GameController.EventQueue queue = new GameController.EventQueue(2);
+        HistoryNode node = new HistoryNode();
+
+        queue.post(event(node,0));
+        queue.post(event(node,1));
+        queue.post(keyed(node,2,5));
+        queue.post(keyed(node,3,5));
+        queue.post(event(node,4));
+        assertEquals(4,queue.dispatchAll());
+        assertEquals("0 1 3[2] 4 ",node.seen.toString());
+    }
+
+
+    /**
+       A producer posting keyed events while the consumer drains:  every
+       event is dispatched, or is in the history of one that is, exactly
+       once and in order
+     */
+    public void test_concurrentCoalescing() throws InterruptedException {
+        final GameController.EventQueue queue = new GameController.EventQueue(16);
+        queue.maxHistory = 1000000;
+        final int count = 50000;
+        final int[] expect = new int[1];
+        final boolean[] ordered = { true };
+        GameNode node = new GameNode() {
+                @Override
+                public boolean onGameEvent(GameEvent event) {
+                    int n = event.historySize;
+                    int[] values = new int[n];
+                    GameEvent h = event.history;
+                    for(int i=n-1; i>=0; --i, h = h.history) values[i] = h.ival;
+                    for(int i=0; i<n; ++i)
+                        if ( values[i] != expect[0]++ ) ordered[0] = false;
+                    if ( event.ival != expect[0]++ ) ordered[0] = false;
+                    return true;
+                }
+            };
+
+        final GameEvent[] events = new GameEvent[count];
+        for(int i=0; i<count; ++i) events[i] = keyed(node,i,9);
+        Thread producer = new Thread() {
+                @Override
+                public void run() {
+                    for(int i=0; i<count; ++i) queue.post(events[i]);
+                }
+            };
+        producer.start();
+        int dispatched = 0;
+        while ( expect[0] < count ) {
+            dispatched += queue.dispatchAll();
+            Thread.yield();
+        }
+        producer.join();
+
+        assertTrue(ordered[0]);
+        assertEquals(count,expect[0]);
+        assertEquals(count,dispatched + queue.coalesced);
+    }
+
+
+    /** Node that notes the events it gets, as "priority:ival" */
+    static class RecordingNode extends GameNode {
+        StringBuilder seen = new StringBuilder();
+
+        @Override
+        public boolean onGameEvent(GameEvent event) {
+            seen.append(event.priority).append(':').append(event.ival).append(' ');
+            return true;
+        }
+    }
+
+
+    protected GameEvent event(GameNode origin,int ival,int priority) {
+        GameEvent ev = event(origin,ival);
+        ev.priority = priority;
+        return ev;
+    }
+
+
+    public void test_priorityOrder() {
+        GameController.EventQueue queue = new GameController.EventQueue(8);
+        RecordingNode node = new RecordingNode();
+
+        queue.post(event(node,1,GameEvent.PRIORITY_BULK));
+        queue.post(event(node,2,GameEvent.PRIORITY_FLOW));
+        queue.post(event(node,3,GameEvent.PRIORITY_INPUT));
+        queue.post(event(node,4,GameEvent.PRIORITY_BULK));
+        queue.post(event(node,5,GameEvent.PRIORITY_FLOW));
+        assertEquals(1,queue.size(GameEvent.PRIORITY_INPUT));
+        assertEquals(5,queue.dispatchAll());
+        assertEquals("1:3 2:2 2:5 3:1 3:4 ",node.seen.toString());
+
+        // By type, when not set
+        GameEvent touch = GameEvent.obtain(GameEvent.INPUT_TOUCH);
+        touch.origin = node;
+        touch.up = true;
+        queue.post(event(node,6));
+        queue.post(touch);
+        assertEquals(1,queue.size(GameEvent.PRIORITY_INPUT));
+        assertEquals(1,queue.size(GameEvent.PRIORITY_FLOW));
+    }
+
+
+    public void test_budgetCarriesOver() {
+        GameController.EventQueue queue = new GameController.EventQueue(16);
+        RecordingNode node = new RecordingNode();
+
+        for ( int i=0; i<3; ++i ) queue.post(event(node,i,GameEvent.PRIORITY_INPUT));
+        for ( int i=10; i<14; ++i ) queue.post(event(node,i,GameEvent.PRIORITY_FLOW));
+        for ( int i=20; i<24; ++i ) queue.post(event(node,i,GameEvent.PRIORITY_BULK));
+
+        // Input is all dispatched even though it uses up the budget;  the
+        // other classes each get one
+        assertEquals(5,queue.dispatch(2,0));
+        assertEquals("1:0 1:1 1:2 2:10 3:20 ",node.seen.toString());
+        assertEquals(0,queue.carriedOver[0]);
+        assertEquals(3,queue.carriedOver[1]);
+        assertEquals(3,queue.carriedOver[2]);
+        assertEquals(6,queue.carried);
+        assertEquals(11,queue.maxDepth);
+
+        // The rest follow in order, flow before bulk, as the budget allows
+        node.seen.setLength(0);
+        queue.post(event(node,3,GameEvent.PRIORITY_INPUT));
+        assertEquals(5,queue.dispatch(5,0));
+        assertEquals("1:3 2:11 2:12 2:13 3:21 ",node.seen.toString());
+        assertEquals(0,queue.carriedOver[1]);
+        assertEquals(2,queue.carriedOver[2]);
+
+        node.seen.setLength(0);
+        assertEquals(2,queue.dispatch(5,0));
+        assertEquals("3:22 3:23 ",node.seen.toString());
+        assertEquals(0,queue.carriedOver[2]);
+        assertEquals(0,queue.size());
+        assertEquals(8,queue.carried);
+    }
+
+
+    public void test_timeBudget() {
+        GameController.EventQueue queue = new GameController.EventQueue(16);
+        final GameController.ManualClock clock = new GameController.ManualClock();
+        queue.clock = clock;
+        GameNode slow = new GameNode() {
+                @Override
+                public boolean onGameEvent(GameEvent event) {
+                    clock.advance(5);
+                    return true;
+                }
+            };
+
+        // 5ms each, so the third one runs past a 12ms budget
+        for ( int i=0; i<10; ++i ) queue.post(event(slow,i,GameEvent.PRIORITY_BULK));
+        assertEquals(3,queue.dispatch(0,12000000L));
+        assertEquals(7,queue.carriedOver[2]);
+        assertEquals(7,queue.dispatchAll());
+        assertEquals(50,clock.now);
+    }
+
+
+    public void test_budgetWithOverflow() {
+        GameController.EventQueue queue = new GameController.EventQueue(4);
+        CountingNode node = new CountingNode();
+
+        for ( int i=0; i<10; ++i ) queue.post(event(node,i));
+        assertEquals(6,queue.overflowed);
+        assertEquals(3,queue.dispatch(3,0));
+        assertEquals(7,queue.carriedOver[1]);
+        assertEquals(3,queue.dispatch(3,0));
+        assertEquals(4,queue.carriedOver[1]);
+
+        // Posted after the overflow was taken, so still after it
+        queue.post(event(node,10));
+        assertEquals(5,queue.dispatchAll());
+        assertEquals(11,node.count);
+        assertTrue(node.ordered);
+    }
+
+
+    /**
+       Several producers posting while the consumer drains; every event
+       has to be dispatched exactly once, and in order per producer
+     */
+    public void test_concurrentProducers() throws InterruptedException {
+        GameController.EventQueue queue = new GameController.EventQueue(64);
+        runContention(queue,4,5000);
+    }
+
+
+    /**
+       @return { total post nanos, max single post nanos }
+     */
+    static long[] runContention(final GameController.EventQueue queue,
+                                int producers, final int perProducer)
+        throws InterruptedException
+    {
+        final CountingNode[] nodes = new CountingNode[producers];
+        final long[] total = new long[producers];
+        final long[] max = new long[producers];
+        Thread[] threads = new Thread[producers];
+
+        for ( int p=0; p<producers; ++p ) {
+            final int id = p;
+            nodes[p] = new CountingNode();
+
+            // obtain all the events up front, so only post() is timed
+            final GameEvent[] events = new GameEvent[perProducer];
+            for ( int i=0; i<perProducer; ++i ) events[i] = event(nodes[p],i);
+
+            threads[p] = new Thread() {
+                    @Override
+                    public void run() {
+                        for ( int i=0; i<perProducer; ++i ) {
+                            long start = System.nanoTime();
+                            queue.post(events[i]);
+                            long elapsed = System.nanoTime() - start;
+                            total[id] += elapsed;
+                            if ( elapsed > max[id] ) max[id] = elapsed;
+                        }
+                    }
+                };
+        }
+
+        for ( int p=0; p<producers; ++p ) threads[p].start();
+
+        // This thread plays the part of the game thread
+        int expected = producers * perProducer;
+        int dispatched = 0;
+        while ( dispatched < expected ) {
+            dispatched += queue.dispatchAll();
+            Thread.yield();
+        }
+
+        long[] result = new long[2];
+        for ( int p=0; p<producers; ++p ) {
+            threads[p].join();
+            assertEquals(perProducer,nodes[p].count);
+            assertTrue(nodes[p].ordered);
+            result[0] += total[p];
+            if ( max[p] > result[1] ) result[1] = max[p];
+        }
+        return result;
+    }
+
+}
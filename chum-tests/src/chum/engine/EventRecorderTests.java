@@ -0,0 +1,228 @@
+package chum.engine;
+
+import android.view.MotionEvent;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+
+/**
+ */
+public class EventRecorderTests extends TestCase {
+
+    static final int PING = 1;
+    static final int LATER = 2;
+
+    protected void setUp() {
+
+    }
+
+
+    /**
+       Depends on the random numbers, the game time, and the touch input,
+       and posts events of its own.  Everything it sees goes into a hash.
+     */
+    static class Player extends GameNode {
+        long hash = 17;
+        int touches;
+        int pings;
+        int merged;
+
+        void mix(long value) {
+            hash = hash * 31 + value;
+        }
+
+        @Override
+        public boolean updatePrefix(long millis) {
+            mix(millis);
+            mix(GameController.random.nextInt(1000));
+            if ( GameController.random.nextInt(4) == 0 )
+                postUp(GameEvent.obtain(PING,GameController.random.nextInt()));
+            if ( GameController.random.nextInt(10) == 0 )
+                postUpDelayed(GameEvent.obtain(LATER,0),GameController.random.nextInt(100));
+            return true;
+        }
+
+        @Override
+        public boolean onGameEvent(GameEvent event) {
+            if ( event.type == PING || event.type == LATER ) {
+                pings++;
+                mix(event.ival);
+                mix(gameController.totalElapsed);
+                return true;
+            }
+            if ( event.type == GameEvent.INPUT_TOUCH ) {
+                MotionEvent motion = (MotionEvent)event.object;
+                touches++;
+                mix(motion.getAction());
+                mix((long)(motion.getX() * 100));
+                mix((long)(motion.getY() * 100));
+                mix(motion.getEventTime());
+                mix(gameController.totalElapsed);
+                mix(pings);
+                for(GameEvent h = event.history; h != null; h = h.history) {
+                    MotionEvent old = (MotionEvent)h.object;
+                    merged++;
+                    mix((long)(old.getX() * 100));
+                    mix(old.getEventTime());
+                }
+                return true;
+            }
+            return false;
+        }
+    }
+
+
+    protected Player player(GameTree tree) {
+        GameNode root = new GameNode();
+        root.addNode(new GameNode());
+        Player player = new Player();
+        root.addNode(player);
+        tree.addNode(root);
+        return player;
+    }
+
+
+    protected void touch(Player player, int action, float x, float y, long time) {
+        touch(player,action,x,y,time,0);
+    }
+
+
+    protected void touch(Player player, int action, float x, float y, long time, long key) {
+        MotionEvent motion = MotionEvent.obtain(1000,1000+time,action,x,y,1,1,0,1,1,0,0);
+        GameEvent event = GameEvent.obtain(GameEvent.INPUT_TOUCH,motion);
+        event.coalesceKey = key;
+        player.postUp(event);
+    }
+
+
+    /**
+       Record a session with uneven frame times, and touches coming in
+       between frames and from another thread
+     */
+    protected byte[] record(Player player, HeadlessGameController gc, long seed) throws IOException {
+        return record(player,gc,seed,false);
+    }
+
+
+    /**
+       Record a session, optionally with bursts of moves that are merged
+       in the queue before they are dispatched
+     */
+    protected byte[] record(Player player, HeadlessGameController gc, long seed,
+                            boolean bursts) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        EventRecorder recorder = new EventRecorder(bytes);
+        recorder.start(gc,seed);
+        gc.setup();
+
+        Random timing = new Random();
+        for(int i=0; i<300; ++i) {
+            gc.frameMillis = 5 + timing.nextInt(40);
+            if ( timing.nextInt(5) == 0 )
+                touch(player,MotionEvent.ACTION_MOVE,timing.nextFloat()*320,timing.nextFloat()*480,i);
+            if ( i % 50 == 0 ) touchFromThread(player,i);
+            if ( bursts && timing.nextInt(4) == 0 ) {
+                int moves = 2 + timing.nextInt(4);
+                for(int m=0; m<moves; ++m)
+                    touch(player,MotionEvent.ACTION_MOVE,
+                          timing.nextFloat()*320,timing.nextFloat()*480,i*10+m,7);
+                gc.events.endCoalescing(7);
+            }
+            gc.step(1);
+        }
+        recorder.stop();
+
+        assertEquals(300,recorder.frames);
+        assertTrue(recorder.events > 20);
+        return bytes.toByteArray();
+    }
+
+
+    protected void touchFromThread(final Player player, final int time) {
+        Thread thread = new Thread() {
+                public void run() {
+                    touch(player,MotionEvent.ACTION_DOWN,1,2,time);
+                }
+            };
+        thread.start();
+        try { thread.join(); }
+        catch(InterruptedException e) {}
+    }
+
+
+    protected void checkReplay(byte[] recording, Player recorded, long seed) throws IOException {
+        GameTree tree = new GameTree();
+        Player player = player(tree);
+        HeadlessGameController gc = Headless.setup(tree);
+
+        EventReplayer replayer = new EventReplayer(new ByteArrayInputStream(recording));
+        assertEquals(seed,replayer.seed);
+        assertEquals(300,replayer.run(gc));
+
+        assertEquals(0,replayer.mismatches);
+        assertEquals(recorded.touches,player.touches);
+        assertEquals(recorded.touches,replayer.events);
+        assertEquals(recorded.pings,player.pings);
+        assertEquals(recorded.merged,player.merged);
+        assertEquals(recorded.hash,player.hash);
+    }
+
+
+    public void test_replayMatchesRecording() throws IOException {
+        GameTree tree = new GameTree();
+        Player player = player(tree);
+        byte[] recording = record(player,Headless.controller(tree),1234);
+
+        // Replaying the same recording twice gives the same run
+        checkReplay(recording,player,1234);
+        checkReplay(recording,player,1234);
+    }
+
+
+    public void test_replayFixedStep() throws IOException {
+        GameTree tree = new GameTree();
+        Player player = player(tree);
+        HeadlessGameController gc = Headless.controller(tree);
+        gc.fixedStep = 10;
+        byte[] recording = record(player,gc,99);
+
+        // The replaying controller doesn't need the same settings
+        checkReplay(recording,player,99);
+    }
+
+
+    public void test_replayCoalescedMoves() throws IOException {
+        GameTree tree = new GameTree();
+        Player player = player(tree);
+        byte[] recording = record(player,Headless.controller(tree),4321,true);
+
+        // The handler sees the moves that were merged away, on replay too
+        assertTrue(player.merged > 20);
+        checkReplay(recording,player,4321);
+    }
+
+
+    public void test_recordingIsCompact() throws IOException {
+        GameTree tree = new GameTree();
+        Player player = player(tree);
+        byte[] recording = record(player,Headless.controller(tree),5);
+
+        // A few bytes per frame, plus the touches
+        assertTrue(recording.length < 300 * 16 + player.touches * 64);
+    }
+
+
+    public void test_rejectsOtherData() {
+        try {
+            new EventReplayer(new ByteArrayInputStream(new byte[] { 1, 2, 3, 4, 5 }));
+            fail("Expected an IOException");
+        } catch(IOException e) {
+        }
+    }
+
+}
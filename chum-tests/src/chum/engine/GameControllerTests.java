@@ -0,0 +1,138 @@
+package chum.engine;
+
+import chum.f.Vec3;
+import chum.gl.Interpolated;
+import chum.gl.MockGL10;
+import chum.gl.MockRenderContext;
+import chum.gl.render.InterpolatedPosition;
+
+import android.os.SystemClock;
+
+import junit.framework.TestCase;
+
+
+/**
+ */
+public class GameControllerTests extends TestCase {
+
+    protected GameController gc;
+
+    protected void setUp() {
+        gc = new GameController(null);
+        gc.tree = new GameTree();
+        gc.renderContext = new MockRenderContext(null,new MockGL10());
+    }
+
+
+    /** Node that records the step sizes it is updated with */
+    static class StepNode extends GameNode {
+        int steps;
+        long total;
+
+        @Override
+        public boolean updatePrefix(long millis) {
+            steps++;
+            total += millis;
+            return false;
+        }
+    }
+
+
+    /** Node rendered between its last two positions */
+    static class Blended extends GameNode implements Interpolated {
+        Vec3 position = new Vec3();
+        InterpolatedPosition interpolated = new InterpolatedPosition();
+
+        public void snapshot() {
+            interpolated.snapshot(position);
+        }
+    }
+
+
+    /** Moves a node along x by 1 per millisecond */
+    static class Mover extends GameNode {
+        Blended node;
+
+        Mover(Blended node) { this.node = node; }
+
+        @Override
+        public boolean updatePrefix(long millis) {
+            node.position.x += millis;
+            return true;
+        }
+    }
+
+
+    /** Pretend the last frame started the given number of millis ago */
+    protected void elapse(long millis) {
+        gc.currentFrameStart = SystemClock.uptimeMillis() - millis;
+    }
+
+
+    public void test_fixedStepRunsWholeSteps() {
+        StepNode node = new StepNode();
+        gc.tree.addNode(node);
+        gc.fixedStep = 10;
+
+        gc.resetFrame();
+        elapse(35);
+        gc.updateFixed();
+
+        assertEquals(3,gc.frameSteps);
+        assertEquals(3,node.steps);
+        assertEquals(30,node.total);
+        assertEquals(30,gc.totalElapsed);
+        assertTrue(gc.accumulator >= 5 && gc.accumulator < 10);
+        assertEquals(gc.accumulator / 10f,gc.renderContext.alpha,0.0001f);
+    }
+
+
+    public void test_fixedStepDropsTimeBeyondMaxSteps() {
+        StepNode node = new StepNode();
+        gc.tree.addNode(node);
+        gc.fixedStep = 10;
+        gc.maxStepsPerFrame = 4;
+
+        gc.resetFrame();
+        elapse(1000);
+        gc.updateFixed();
+
+        assertEquals(4,node.steps);
+        assertEquals(40,gc.totalElapsed);
+        assertTrue(gc.accumulator < 10);
+        assertTrue(gc.droppedTime >= 950);
+        assertEquals(0,gc.droppedTime % 10);
+    }
+
+
+    /**
+       The positions blended between are the ones at the end of each step,
+       including changes made by nodes updated after the interpolated one
+     */
+    public void test_interpolatesBetweenSteps() {
+        Blended node = new Blended();
+        gc.tree.addNode(node);
+        gc.tree.addNode(new Mover(node));
+        gc.fixedStep = 10;
+
+        gc.resetFrame();
+        elapse(35);
+        gc.updateFixed();
+
+        assertEquals(30f,node.interpolated.current.x);
+        assertEquals(20f,node.interpolated.previous.x);
+        Vec3 at = new Vec3();
+        node.interpolated.get(node.position,gc.renderContext.alpha,at);
+        assertEquals(20f + 10f * gc.renderContext.alpha,at.x,0.0001f);
+    }
+
+
+    public void test_variableStepRendersAtLatest() {
+        gc.renderContext.alpha = 0.3f;
+        gc.resetFrame();
+        elapse(20);
+        gc.update();
+        assertEquals(1f,gc.renderContext.alpha);
+    }
+
+}
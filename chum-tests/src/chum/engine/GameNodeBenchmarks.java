@@ -0,0 +1,88 @@
+package chum.engine;
+
+import chum.util.Log;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+
+/**
+   Timings for GameNode's child lists and name lookups.  These only log their results,
+   so they run from chum.tests.AllBenchmarks rather than the unit suite.
+ */
+public class GameNodeBenchmarks extends TestCase {
+
+    /**
+       Removing and adding back a tenth of 5000 children each frame, one at
+       a time, in bulk, unordered, and through the journal
+     */
+    public void test_childChurn() {
+        int count = 5000, churn = 500, frames = 50;
+        String[] names = { "one at a time", "bulk", "unordered", "journal" };
+        long[] nanos = new long[names.length];
+        for(int way=0; way<names.length; ++way) {
+            GameController gc = new GameController(null);
+            GameTree tree = new GameTree();
+            GameNode root = new GameNode();
+            root.unordered = way == 2;
+            tree.addNode(root);
+            GameNode[] nodes = new GameNode[count];
+            for(int i=0; i<count; ++i) root.addNode(nodes[i] = new GameNode());
+            tree.doSetup(gc);
+            gc.journal.deferring = way == 3;
+
+            Random random = new Random(3);
+            GameNode[] picked = new GameNode[churn];
+            long start = System.nanoTime();
+            for(int f=0; f<frames; ++f) {
+                for(int i=0; i<churn; ++i) picked[i] = root.children[random.nextInt(count-churn)];
+                java.util.HashSet<GameNode> unique = new java.util.HashSet<GameNode>();
+                int n = 0;
+                for(int i=0; i<churn; ++i) if ( unique.add(picked[i]) ) picked[n++] = picked[i];
+
+                if ( way == 1 ) {
+                    root.removeNodes(java.util.Arrays.copyOf(picked,n));
+                    root.addNodes(java.util.Arrays.copyOf(picked,n));
+                } else {
+                    for(int i=0; i<n; ++i) root.removeNode(picked[i]);
+                    for(int i=0; i<n; ++i) root.addNode(picked[i]);
+                }
+                if ( way == 3 ) gc.journal.apply();
+                assertEquals(count,root.num_children);
+            }
+            nanos[way] = System.nanoTime() - start;
+        }
+
+        Log.d("Child churn, %d of %d per frame (us/frame): %s=%d %s=%d %s=%d %s=%d", churn, count,
+              names[0], nanos[0] / (frames * 1000), names[1], nanos[1] / (frames * 1000),
+              names[2], nanos[2] / (frames * 1000), names[3], nanos[3] / (frames * 1000));
+    }
+
+
+    /**
+       Compare the original recursive search against the name index, on a
+       tree of 10k nodes
+     */
+    public void test_findNode() {
+        Random random = new Random(5678);
+        String[] names = new String[500];
+        for(int i=0; i<names.length; ++i) names[i] = "node" + i;
+        GameNode[] nodes = GameNodeTests.randomTree(random,10000,names);
+
+        int lookups = 2000;
+        long start = System.nanoTime();
+        for(int i=0; i<lookups; ++i)
+            GameNodeTests.treeSearch(nodes[(i*7919) % nodes.length],names[i % names.length],null);
+        long searchNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for(int i=0; i<lookups; ++i)
+            nodes[(i*7919) % nodes.length].findNode(names[i % names.length]);
+        long indexNanos = System.nanoTime() - start;
+
+        Log.d("findNode, 10000 nodes: tree search=%dns index=%dns per lookup",
+              searchNanos / lookups, indexNanos / lookups);
+    }
+
+}
@@ -1,5 +1,7 @@
 package chum.engine;
 
+import java.util.Random;
+
 import junit.framework.TestCase;
 
 
@@ -65,4 +67,504 @@ public class GameNodeTests extends TestCase {
         assertEquals(d,c2.findNode("c.d"));
     }
 
+
+
+    public void test_deferredStructureChanges() {
+        final StringBuilder log = new StringBuilder();
+        class LogNode extends GameNode {
+            LogNode(String name) { setName(name); }
+            @Override
+            public void onAdded(GameNode parent) { log.append("+").append(name); }
+            @Override
+            public void onRemoved(GameNode parent) { log.append("-").append(name); }
+        }
+
+        GameController gc = new GameController(null);
+        GameTree tree = new GameTree();
+        GameNode a = new LogNode("a");
+        GameNode b = new LogNode("b");
+        tree.addNode(a);
+        tree.addNode(b);
+        tree.doSetup(gc);
+        log.setLength(0);
+
+        gc.journal.deferring = true;
+        GameNode c = new LogNode("c");
+        a.addNode(c);
+        tree.insertNode(new LogNode("d"),0);
+        tree.removeNode(b);
+
+        // Nothing changes until the journal is applied
+        assertEquals(0,a.num_children);
+        assertEquals(2,tree.num_children);
+        assertEquals("",log.toString());
+        assertEquals(3,gc.journal.size());
+
+        assertEquals(3,gc.journal.apply());
+        assertEquals("+c+d-b",log.toString());
+        assertEquals(c,a.children[0]);
+        assertEquals("d",tree.children[0].name);
+        assertEquals(a,tree.children[1]);
+        assertEquals(2,tree.num_children);
+        assertEquals(gc,c.gameController);
+
+        // Splicing is deferred as a whole
+        GameNode e = new LogNode("e");
+        a.spliceIn(e);
+        assertEquals(c,a.children[0]);
+        gc.journal.apply();
+        assertEquals(e,a.children[0]);
+        assertEquals(c,e.children[0]);
+    }
+
+
+    /** Each child knows its position in its parent */
+    static void checkIndexes(GameNode parent) {
+        for(int i=0; i<parent.num_children; ++i) {
+            assertSame(parent,parent.children[i].parent);
+            assertEquals(i,parent.children[i].childIndex);
+        }
+        for(int i=parent.num_children; i<parent.children.length; ++i)
+            assertNull(parent.children[i]);
+    }
+
+
+    public void test_childIndex() {
+        GameNode root = new GameNode();
+        GameNode a = new GameNode(), b = new GameNode(), c = new GameNode(), d = new GameNode();
+        root.addNode(a);
+        root.addNode(b);
+        root.insertNode(c,0);
+        root.insertNode(d,2);
+        checkIndexes(root);
+        assertEquals(2,d.childIndex);
+        assertEquals(3,b.childIndex);
+
+        root.removeNode(c);
+        checkIndexes(root);
+        assertEquals(-1,c.childIndex);
+        assertEquals(1,root.indexOf(d));
+        assertEquals(-1,root.indexOf(c));
+
+        root.replaceNode(d,c);
+        checkIndexes(root);
+        assertEquals(1,c.childIndex);
+
+        // Moving a node to another parent
+        GameNode other = new GameNode();
+        other.addNode(a);
+        checkIndexes(root);
+        checkIndexes(other);
+        assertSame(c,root.children[0]);
+    }
+
+
+    public void test_unorderedRemove() {
+        GameNode root = new GameNode();
+        root.unordered = true;
+        GameNode[] nodes = new GameNode[5];
+        for(int i=0; i<nodes.length; ++i) root.addNode(nodes[i] = new GameNode());
+
+        // The last child takes the place of the removed one
+        root.removeNode(nodes[1]);
+        assertSame(nodes[4],root.children[1]);
+        assertEquals(4,root.num_children);
+        checkIndexes(root);
+
+        root.removeNodes(nodes[0],nodes[4],nodes[3]);
+        assertEquals(1,root.num_children);
+        assertSame(nodes[2],root.children[0]);
+        checkIndexes(root);
+    }
+
+
+    public void test_bulkAddRemove() {
+        final StringBuilder log = new StringBuilder();
+        class LogNode extends GameNode {
+            LogNode(String name) { setName(name); }
+            @Override
+            public void onSetup(GameController gc) { super.onSetup(gc); log.append("s").append(name); }
+            @Override
+            public void onAdded(GameNode parent) { log.append("+").append(name); }
+            @Override
+            public void onRemoved(GameNode parent) { log.append("-").append(name); }
+        }
+
+        GameController gc = new GameController(null);
+        GameTree tree = new GameTree();
+        GameNode x = new LogNode("x");
+        tree.addNode(x);
+        tree.doSetup(gc);
+        log.setLength(0);
+
+        GameNode a = new LogNode("a"), b = new LogNode("b"), c = new LogNode("c");
+        GameNode d = new LogNode("d");
+        b.addNode(d);
+        log.setLength(0);
+        tree.addNodes(a,b,c,a);
+        // Each node is set up and added once, as addNode() would, even if listed twice
+        assertEquals("sa+asbsd+bsc+c",log.toString());
+        assertEquals(4,tree.num_children);
+        assertSame(c,tree.children[3]);
+        checkIndexes(tree);
+        assertSame(d,tree.findNode("d"));
+
+        log.setLength(0);
+        tree.removeNodes(a,c,x);
+        assertEquals("-a-c-x",log.toString());
+        assertEquals(1,tree.num_children);
+        assertSame(b,tree.children[0]);
+        checkIndexes(tree);
+        assertNull(tree.findNode("a"));
+
+        // Deferred, they go through the journal like the single ones
+        gc.journal.deferring = true;
+        tree.addNodes(a,c);
+        tree.removeNodes(b);
+        assertEquals(3,gc.journal.size());
+        gc.journal.apply();
+        assertEquals(2,tree.num_children);
+        assertSame(a,tree.children[0]);
+        checkIndexes(tree);
+    }
+
+
+    /**
+       Removals applied from the journal leave holes that are squeezed out
+       at the end, keeping the order
+    */
+    public void test_deferredRemovalsCompacted() {
+        GameController gc = new GameController(null);
+        GameTree tree = new GameTree();
+        GameNode parent = new GameNode();
+        tree.addNode(parent);
+        GameNode[] nodes = new GameNode[10];
+        for(int i=0; i<nodes.length; ++i) parent.addNode(nodes[i] = new GameNode());
+        tree.doSetup(gc);
+
+        gc.journal.deferring = true;
+        for(int i=0; i<nodes.length; i+=2) parent.removeNode(nodes[i]);
+        GameNode added = new GameNode();
+        parent.insertNode(added,1);
+        parent.removeNode(nodes[9]);
+        gc.journal.apply();
+
+        assertEquals(5,parent.num_children);
+        assertSame(nodes[1],parent.children[0]);
+        assertSame(added,parent.children[1]);
+        assertSame(nodes[3],parent.children[2]);
+        assertSame(nodes[5],parent.children[3]);
+        assertSame(nodes[7],parent.children[4]);
+        assertEquals(0,parent.holes);
+        checkIndexes(parent);
+    }
+
+
+    /** Checks that its old parent has no holes when it is told it was removed */
+    static class CheckedNode extends GameNode {
+        int removed;
+
+        @Override
+        public void onRemoved(GameNode oldParent) {
+            removed++;
+            assertEquals(0,oldParent.holes);
+            checkIndexes(oldParent);
+        }
+    }
+
+
+    /**
+       The journal and removeNodes() squeeze out the holes before any
+       onRemoved() runs
+    */
+    public void test_removalCallbacksSeeNoHoles() {
+        GameController gc = new GameController(null);
+        GameTree tree = new GameTree();
+        GameNode parent = new GameNode();
+        tree.addNode(parent);
+        CheckedNode[] nodes = new CheckedNode[10];
+        for(int i=0; i<nodes.length; ++i) parent.addNode(nodes[i] = new CheckedNode());
+        tree.doSetup(gc);
+
+        parent.removeNodes(nodes[0],nodes[3],nodes[4]);
+        assertEquals(7,parent.num_children);
+
+        gc.journal.deferring = true;
+        parent.removeNode(nodes[1]);
+        parent.removeNode(nodes[5]);
+        parent.removeNode(nodes[1]); // twice
+        parent.insertNode(new GameNode(),0);
+        parent.removeNode(nodes[9]);
+        gc.journal.apply();
+
+        assertEquals(5,parent.num_children);
+        for(int i=0; i<nodes.length; ++i)
+            assertEquals(i==0 || i==1 || i==3 || i==4 || i==5 || i==9 ? 1 : 0,nodes[i].removed);
+        checkIndexes(parent);
+    }
+
+
+    /** Removes itself when updated */
+    static class Expiring extends GameNode {
+        int updates;
+        boolean expire;
+
+        @Override
+        public boolean updatePrefix(long millis) {
+            updates++;
+            if ( expire ) remove();
+            return true;
+        }
+    }
+
+
+    /**
+       Children that remove themselves while being updated leave holes, so
+       none of the others are skipped, and the holes are squeezed out once
+       the children are done -- with the tree's flattened update and with
+       GameNode.update()
+    */
+    public void test_removalDuringUpdate() {
+        for(int way=0; way<2; ++way) {
+            GameTree tree = new GameTree();
+            tree.flatten = way == 0;
+            GameNode parent = new GameNode();
+            tree.addNode(parent);
+            Expiring[] nodes = new Expiring[100];
+            for(int i=0; i<nodes.length; ++i) {
+                parent.addNode(nodes[i] = new Expiring());
+                nodes[i].expire = i % 3 != 1;
+            }
+            tree.doSetup(new GameController(null));
+
+            tree.update(10);
+            for(int i=0; i<nodes.length; ++i) assertEquals(1,nodes[i].updates);
+            assertEquals(33,parent.num_children);
+            assertEquals(0,parent.holes);
+            assertEquals(0,parent.iterating);
+            checkIndexes(parent);
+
+            tree.update(10);
+            for(int i=0; i<nodes.length; ++i) assertEquals(i % 3 == 1 ? 2 : 1,nodes[i].updates);
+        }
+    }
+
+
+    /**
+       Random adds, inserts and removes (one at a time and in bulk) keep
+       the same children as a list
+    */
+    public void test_mutationsMatchList() {
+        Random random = new Random(11);
+        for(int pass=0; pass<2; ++pass) {
+            boolean unordered = pass == 1;
+            GameNode root = new GameNode();
+            root.unordered = unordered;
+            java.util.ArrayList<GameNode> list = new java.util.ArrayList<GameNode>();
+            for(int step=0; step<2000; ++step) {
+                int op = random.nextInt(5);
+                if ( op <= 1 || list.size() < 2 ) {
+                    GameNode n = new GameNode();
+                    int position = random.nextInt(list.size()+1);
+                    root.insertNode(n,position);
+                    list.add(position,n);
+                } else if ( op == 2 ) {
+                    GameNode[] add = { new GameNode(), new GameNode(), new GameNode() };
+                    root.addNodes(add);
+                    for(GameNode n : add) list.add(n);
+                } else if ( op == 3 ) {
+                    GameNode n = list.get(random.nextInt(list.size()));
+                    root.removeNode(n);
+                    removeFrom(list,n,unordered);
+                } else {
+                    GameNode a = list.get(random.nextInt(list.size()));
+                    GameNode b = list.get(random.nextInt(list.size()));
+                    if ( a == b ) continue;
+                    root.removeNodes(a,b);
+                    removeFrom(list,a,unordered);
+                    removeFrom(list,b,unordered);
+                }
+
+                assertEquals(list.size(),root.num_children);
+                for(int i=0; i<list.size(); ++i)
+                    assertSame(list.get(i),root.children[i]);
+            }
+            checkIndexes(root);
+        }
+    }
+
+
+    static void removeFrom(java.util.ArrayList<GameNode> list, GameNode n, boolean unordered) {
+        int i = list.indexOf(n);
+        if ( unordered ) {
+            GameNode last = list.remove(list.size()-1);
+            if ( last != n ) list.set(i,last);
+        } else {
+            list.remove(i);
+        }
+    }
+
+
+    public void test_findNodeAfterStructureChanges() {
+        GameNode root = new GameNode().setName("root");
+        GameNode a = new GameNode().setName("a");
+        GameNode b = new GameNode().setName("b");
+        GameNode c = new GameNode().setName("c");
+        root.addNode(a);
+        root.addNode(b);
+        a.addNode(c);
+
+        // Renamed
+        c.setName("x");
+        assertNull(root.findNode("c"));
+        assertEquals(c,root.findNode("x"));
+        assertEquals(c,root.findNode("a.x"));
+
+        // Moved to another branch
+        b.addNode(c);
+        assertNull(root.findNode("a.x"));
+        assertEquals(c,root.findNode("b.x"));
+
+        // Removed subtree keeps its own names, and they come back when re-added
+        root.removeNode(b);
+        assertNull(root.findNode("x"));
+        assertEquals(c,b.findNode("x"));
+        assertEquals(b,c.findNode("b"));
+        root.addNode(b);
+        assertEquals(c,a.findNode("b.x"));
+
+        // Named before being added
+        GameNode d = new GameNode().setName("d");
+        d.addNode(new GameNode().setName("e"));
+        c.addNode(d);
+        assertEquals(d.children[0],root.findNode("x.d.e"));
+        assertEquals(d.children[0],a.findNode("e"));
+    }
+
+
+    /** The original findNode() search, for comparison */
+    static GameNode treeSearch(GameNode node, String name, GameNode skipNode) {
+        if ( node == skipNode ) return null;
+        if ( name.equals(node.name) ) return node;
+
+        String[] parts = name.split("\\.",2);
+        for( int i=0; i<node.num_children; ++i ) {
+            GameNode child = node.children[i];
+            if ( child == skipNode ) continue;
+            GameNode found = treeSearchDown(child,parts[0]);
+            if ( found != null ) {
+                if ( parts.length > 1 ) return treeSearchDown(found,parts[1]);
+                else return found;
+            }
+        }
+        if ( node.parent != null ) {
+            GameNode found = treeSearch(node.parent,parts[0],node);
+            if ( found != null ) {
+                if ( parts.length > 1 ) return treeSearchDown(found,parts[1]);
+                else return found;
+            }
+        }
+        return null;
+    }
+
+
+    static GameNode treeSearchDown(GameNode node, String name) {
+        if ( name.equals(node.name) ) return node;
+        String[] parts = name.split("\\.",2);
+        for( int i=0; i<node.num_children; ++i ) {
+            GameNode found = treeSearchDown(node.children[i],parts[0]);
+            if ( found != null ) {
+                if ( parts.length > 1 ) return treeSearchDown(found,parts[1]);
+                else return found;
+            }
+        }
+        return null;
+    }
+
+
+    static GameNode[] randomTree(Random random, int count, String[] names) {
+        GameNode[] nodes = new GameNode[count];
+        nodes[0] = new GameNode();
+        for(int i=1; i<count; ++i) {
+            nodes[i] = new GameNode();
+            if ( random.nextInt(3) > 0 )
+                nodes[i].setName(names[random.nextInt(names.length)]);
+            nodes[random.nextInt(i)].addNode(nodes[i]);
+        }
+        return nodes;
+    }
+
+
+    public void test_findNodeMatchesTreeSearch() {
+        Random random = new Random(1234);
+        String[] names = { "a", "b", "c", "d" };
+        String[] lookups = { "a", "b", "c", "d", "e", "a.b", "b.a", "c.c", "a.b.c", "d.a.a" };
+
+        GameNode[] nodes = randomTree(random,200,names);
+        for(int pass=0; pass<3; ++pass) {
+            for(int i=0; i<nodes.length; ++i)
+                for(int j=0; j<lookups.length; ++j)
+                    assertSame(lookups[j] + " from " + i,
+                               treeSearch(nodes[i],lookups[j],null),
+                               nodes[i].findNode(lookups[j]));
+
+            // Shuffle some subtrees around, and rename some nodes
+            for(int k=0; k<20; ++k) {
+                GameNode n = nodes[1+random.nextInt(nodes.length-1)];
+                GameNode p = nodes[random.nextInt(nodes.length)];
+                GameNode up = p;
+                while ( up != null && up != n ) up = up.parent;
+                if ( up == null ) p.addNode(n);
+                nodes[1+random.nextInt(nodes.length-1)].setName(names[random.nextInt(names.length)]);
+            }
+        }
+    }
+
+
+    /**
+       Many nodes with the same name, spread over groups at several
+       depths -- the nearest one is still the one the tree search finds,
+       including among ties and after children are swapped around
+     */
+    public void test_findNodeManySameName() {
+        Random random = new Random(77);
+        GameNode root = new GameNode();
+        GameNode[] groups = new GameNode[30];
+        for(int g=0; g<groups.length; ++g) {
+            groups[g] = new GameNode();
+            groups[g].unordered = g % 2 == 0;
+            GameNode parent = g == 0 ? root : groups[random.nextInt(g)];
+            parent.addNode(groups[g]);
+            for(int i=0; i<40; ++i) {
+                GameNode enemy = new GameNode();
+                enemy.setName("enemy");
+                groups[g].addNode(enemy);
+                if ( random.nextInt(4) == 0 ) {
+                    GameNode part = new GameNode();
+                    part.setName(random.nextBoolean() ? "enemy" : "part");
+                    enemy.addNode(part);
+                }
+            }
+        }
+
+        for(int pass=0; pass<2; ++pass) {
+            for(int g=0; g<groups.length; ++g) {
+                GameNode group = groups[g];
+                GameNode[] from = { group, group.children[0],
+                                    group.children[group.num_children-1],
+                                    group.children[random.nextInt(group.num_children)] };
+                for(int f=0; f<from.length; ++f) {
+                    assertSame(treeSearch(from[f],"enemy",null),from[f].findNode("enemy"));
+                    assertSame(treeSearch(from[f],"enemy.part",null),from[f].findNode("enemy.part"));
+                }
+            }
+
+            // Remove some from each group (swapping the last one in, for
+            // the unordered groups)
+            for(int g=0; g<groups.length; ++g)
+                for(int k=0; k<5; ++k)
+                    groups[g].removeNode(groups[g].children[random.nextInt(groups[g].num_children)]);
+        }
+    }
+
 }
@@ -0,0 +1,38 @@
+package chum.engine;
+
+import chum.util.Log;
+
+import junit.framework.TestCase;
+
+
+/**
+   Timings for GameSequence.  These only log their results, so they run
+   from chum.tests.AllBenchmarks rather than the unit suite.
+ */
+public class GameSequenceBenchmarks extends TestCase {
+
+    /**
+       Per-frame cost of 10k sequences waiting for their end time,
+       polled vs. sleeping on the timer wheel
+     */
+    public void test_waitingSequences() {
+        int count = 10000;
+        int frames = 200;
+        long[] nanos = new long[2];
+        for(int pass=0; pass<2; ++pass) {
+            GameNode holder = new GameNode();
+            for(int i=0; i<count; ++i)
+                holder.addNode(GameSequenceTests.sequence(null,100000 + i,pass == 1));
+            HeadlessGameController gc = Headless.setupWith(holder);
+            gc.step(2);
+
+            long start = System.nanoTime();
+            gc.step(frames);
+            nanos[pass] = System.nanoTime() - start;
+        }
+
+        Log.d("%d waiting sequences: polled=%dns timers=%dns per frame",
+              count, nanos[0] / frames, nanos[1] / frames);
+    }
+
+}
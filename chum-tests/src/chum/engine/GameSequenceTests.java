@@ -0,0 +1,203 @@
+package chum.engine;
+
+import junit.framework.TestCase;
+
+
+/**
+ */
+public class GameSequenceTests extends TestCase {
+
+    protected StringBuilder log;
+    protected HeadlessGameController gc;
+    protected GameNode recorder;
+
+    protected void setUp() {
+        log = new StringBuilder();
+        recorder = new GameNode() {
+                @Override
+                public boolean onGameEvent(GameEvent event) {
+                    if ( event.origin instanceof GameSequence ) {
+                        record((GameSequence)event.origin,event.type);
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        GameTree tree = new GameTree();
+        tree.addNode(recorder);
+        gc = Headless.setup(tree);
+    }
+
+
+    protected void record(GameSequence seq, int type) {
+        String what = type == GameEvent.SEQUENCE_START ? "start" :
+            type == GameEvent.SEQUENCE_END ? "end" : "step";
+        log.append(seq.name).append(' ').append(what)
+            .append('@').append(gc.totalElapsed).append(';');
+    }
+
+
+    static GameSequence sequence(String name, long duration, boolean useTimers) {
+        GameSequence seq = GameSequence.obtain();
+        seq.setName(name);
+        seq.duration = duration;
+        seq.useTimers = useTimers;
+        return seq;
+    }
+
+
+    protected String run(boolean useTimers) {
+        GameSequence.Series series = GameSequence.Series.obtain();
+        series.setName("series");
+        series.oneShot = false;
+        series.addNode(sequence("a",100,useTimers));
+        series.addNode(sequence("b",50,useTimers));
+        GameSequence.Parallel par = GameSequence.Parallel.obtain();
+        par.setName("par");
+        par.addNode(sequence("c",30,useTimers));
+        par.addNode(sequence("d",200,useTimers));
+        series.addNode(par);
+        recorder.addNode(sequence("e",500,useTimers));
+        recorder.addNode(series);
+
+        gc.step(60);
+        return log.toString();
+    }
+
+
+    public void test_timersMatchPolling() {
+        String polled = run(false);
+        log.setLength(0);
+        setUp();
+        String timed = run(true);
+        assertEquals(polled,timed);
+        assertTrue(timed.contains("e end@528"));
+    }
+
+
+    public void test_waitingSequenceSleeps() {
+        GameSequence seq = sequence("a",1000,true);
+        GameSequence polled = sequence("b",1000,false);
+        seq.oneShot = polled.oneShot = false;
+        recorder.addNode(seq);
+        recorder.addNode(polled);
+        gc.step(2);
+        assertTrue(seq.started);
+        assertTrue(seq.sleeping);
+        assertFalse(polled.sleeping);
+        assertEquals(1,gc.timers.size());
+
+        gc.step(62);
+        assertTrue(seq.ended);
+        assertEquals(polled.elapsedTime,seq.elapsedTime);
+    }
+
+
+    public void test_listenerInsteadOfEvents() {
+        final StringBuilder heard = new StringBuilder();
+        GameSequence.Listener listener = new GameSequence.Listener() {
+                public void onSequenceStart(GameSequence seq) { heard.append("+").append(seq.name); }
+                public void onSequenceStep(GameSequence seq) { heard.append("*").append(seq.name); }
+                public void onSequenceEnd(GameSequence seq) { heard.append("-").append(seq.name); }
+            };
+
+        GameSequence.Series series = GameSequence.Series.obtain();
+        GameSequence a = sequence("a",50,true);
+        GameSequence b = sequence("b",50,true);
+        a.listener = b.listener = listener;
+        series.addNode(a);
+        series.addNode(b);
+        recorder.addNode(series);
+
+        gc.step(20);
+        // The series still hears about the ends, to start the next one
+        assertEquals("+a-a+b-b",heard.toString());
+        assertFalse(log.toString().contains("a "));
+    }
+
+
+    /**
+       Adding several children at once treats each the way addNode() does:
+       the series holds them and runs them in turn, and a node listed
+       twice is only added (and set up) once
+     */
+    public void test_seriesAddNodes() {
+        final StringBuilder heard = new StringBuilder();
+        GameSequence.Listener listener = new GameSequence.Listener() {
+                public void onSequenceStart(GameSequence seq) { heard.append("+").append(seq.name); }
+                public void onSequenceStep(GameSequence seq) {}
+                public void onSequenceEnd(GameSequence seq) { heard.append("-").append(seq.name); }
+            };
+        final int[] setups = new int[1], adds = new int[1];
+        GameNode plain = new GameNode() {
+                @Override
+                public void onSetup(GameController gameController) {
+                    super.onSetup(gameController);
+                    setups[0]++;
+                }
+
+                @Override
+                public void onAdded(GameNode parent) {
+                    super.onAdded(parent);
+                    adds[0]++;
+                }
+            };
+
+        GameSequence.Series series = GameSequence.Series.obtain();
+        series.oneShot = false;
+        recorder.addNode(series);
+        GameSequence a = sequence("a",50,true);
+        GameSequence b = sequence("b",50,true);
+        a.listener = b.listener = listener;
+        series.addNodes(a,b,a,plain);
+
+        assertEquals(3,series.num_children);
+        assertFalse(a.oneShot);
+        assertEquals(1,setups[0]);
+        assertEquals(1,adds[0]);
+
+        gc.step(20);
+        assertEquals("+a-a+b-b",heard.toString());
+    }
+
+
+    /**
+       With structure changes deferred, a one-shot sequence that has ended
+       stays out of the pool until it's actually out of the tree -- so a
+       sequence obtained in the same frame can't be the same one, and
+       isn't taken out by the pending removal
+     */
+    public void test_recycledOnlyWhenRemoved() {
+        gc.journal.deferring = true;
+        final GameSequence done = sequence("done",30,false);
+        final GameSequence[] fresh = new GameSequence[1];
+        GameNode obtainer = new GameNode() {
+                boolean sawEnd;
+
+                @Override
+                public boolean updatePrefix(long millis) {
+                    // The frame after it ended is when it removes itself
+                    if ( !sawEnd ) {
+                        sawEnd = done.ended;
+                    } else if ( fresh[0] == null ) {
+                        fresh[0] = sequence("fresh",1000,false);
+                        recorder.addNode(fresh[0]);
+                    }
+                    return true;
+                }
+            };
+        recorder.addNode(done);
+        recorder.addNode(obtainer);
+
+        for(int i=0; i<10 && fresh[0] == null; ++i)
+            gc.step(1);
+        assertNotNull(fresh[0]);
+        assertNotSame(done,fresh[0]);
+
+        gc.step(2);
+        assertNull(done.parent);
+        assertSame(recorder,fresh[0].parent);
+        assertEquals("fresh",fresh[0].name);
+    }
+
+}
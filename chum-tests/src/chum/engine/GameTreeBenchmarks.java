@@ -0,0 +1,41 @@
+package chum.engine;
+
+import chum.engine.GameTreeTests.WorkNode;
+import chum.util.Log;
+
+import junit.framework.TestCase;
+
+
+/**
+   Timings for GameTree.  These only log their results, so they run from
+   chum.tests.AllBenchmarks rather than the unit suite.
+ */
+public class GameTreeBenchmarks extends TestCase {
+
+    /**
+       Per-frame update cost of a large idle scene, awake vs. asleep
+     */
+    public void test_idleScene() {
+        GameTree tree = new GameTree();
+        GameNode scene = new GameNode();
+        for(int i=0; i<10000; ++i) scene.addNode(new WorkNode());
+        tree.addNode(scene);
+
+        int frames = 200;
+        for(int f=0; f<frames; ++f) tree.update(16);
+        long start = System.nanoTime();
+        for(int f=0; f<frames; ++f) tree.update(16);
+        long awakeNanos = System.nanoTime() - start;
+
+        scene.sleepAfter = 1;
+        tree.update(16);
+        assertTrue(scene.sleeping);
+        start = System.nanoTime();
+        for(int f=0; f<frames; ++f) tree.update(16);
+        long asleepNanos = System.nanoTime() - start;
+
+        Log.d("Idle scene of 10000 nodes: awake=%dns asleep=%dns per frame",
+              awakeNanos / frames, asleepNanos / frames);
+    }
+
+}
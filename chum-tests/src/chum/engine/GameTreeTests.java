@@ -0,0 +1,208 @@
+package chum.engine;
+
+import chum.gl.MockGL10;
+import chum.gl.MockRenderContext;
+import chum.gl.RenderContext;
+import chum.gl.RenderNode;
+
+import junit.framework.TestCase;
+
+
+/**
+ */
+public class GameTreeTests extends TestCase {
+
+    protected StringBuilder log;
+
+    protected void setUp() {
+        log = new StringBuilder();
+    }
+
+
+    /** Logic node that records its prefix / postfix calls */
+    class LogNode extends GameNode {
+        LogNode(String name) { setName(name); }
+
+        @Override
+        public boolean updatePrefix(long millis) {
+            log.append("+").append(name);
+            return false;
+        }
+
+        @Override
+        public boolean updatePostfix(long millis) {
+            log.append("-").append(name);
+            return false;
+        }
+    }
+
+
+    /** Render node that records its prefix / postfix calls */
+    class LogRenderNode extends RenderNode {
+        boolean descend = true;
+
+        LogRenderNode(String name) { setName(name); }
+
+        @Override
+        public boolean renderPrefix(RenderContext renderContext) {
+            log.append("<").append(name);
+            return descend;
+        }
+
+        @Override
+        public void renderPostfix(RenderContext renderContext) {
+            log.append(">").append(name);
+        }
+    }
+
+
+    protected GameTree buildTree() {
+        GameTree tree = new GameTree();
+        GameNode a = new LogNode("a");
+        a.addNode(new LogNode("b"));
+        a.addNode(new GameNode() {
+                @Override
+                public boolean update(long millis) {
+                    log.append("*c");
+                    return true;
+                }
+            }.addNode(new LogNode("skipped")));
+        tree.addNode(a);
+
+        LogRenderNode r = new LogRenderNode("r");
+        LogRenderNode s = new LogRenderNode("s");
+        s.descend = false;
+        s.addNode(new LogRenderNode("hidden"));
+        r.addNode(s);
+        r.addNode(new LogRenderNode("t"));
+        tree.addNode(r);
+        return tree;
+    }
+
+
+    protected String updateLog(GameTree tree) {
+        log.setLength(0);
+        tree.update(16);
+        return log.toString();
+    }
+
+
+    protected String renderLog(GameTree tree) {
+        log.setLength(0);
+        tree.render(new MockRenderContext(null,new MockGL10()));
+        return log.toString();
+    }
+
+
+    public void test_flattenedMatchesRecursive() {
+        GameTree tree = buildTree();
+        tree.flatten = false;
+        String recursiveUpdate = updateLog(tree);
+        String recursiveRender = renderLog(tree);
+
+        tree.flatten = true;
+        assertEquals("+a+b-b*c-a",recursiveUpdate);
+        assertEquals(recursiveUpdate,updateLog(tree));
+        assertEquals("<r<s<t>t>r",recursiveRender);
+        assertEquals(recursiveRender,renderLog(tree));
+    }
+
+
+    public void test_orderRebuiltOnStructureChange() {
+        GameTree tree = buildTree();
+        GameNode a = tree.findNode("a");
+        GameNode b = tree.findNode("b");
+
+        updateLog(tree);
+        assertFalse(tree.orderDirty);
+
+        b.addNode(new LogNode("d"));
+        assertTrue(tree.orderDirty);
+        assertEquals("+a+b+d-d-b*c-a",updateLog(tree));
+
+        a.removeNode(b);
+        assertEquals("+a*c-a",updateLog(tree));
+
+        a.replaceNode(a.children[0],new LogNode("e"));
+        assertEquals("+a+e-e-a",updateLog(tree));
+    }
+
+
+    /**
+       A node that only overrides updateChildren() gets its own update()
+       called, rather than having its children traversed in the flat order
+     */
+    public void test_updateChildrenOverrideCalled() {
+        GameTree tree = new GameTree();
+        GameNode group = new LogNode("g") {
+                @Override
+                protected boolean updateChildren(long millis) {
+                    log.append("[");
+                    boolean updated = super.updateChildren(millis);
+                    log.append("]");
+                    return updated;
+                }
+            };
+        group.addNode(new LogNode("x"));
+        tree.addNode(group);
+        assertEquals(GameTree.CALL,GameTree.updateKind(group.getClass()));
+        assertEquals("+g[+x-x]-g",updateLog(tree));
+    }
+
+
+    /** Node that reports a change only while it has work to do */
+    static class WorkNode extends GameNode {
+        int work;
+        int updates;
+
+        @Override
+        public boolean updatePrefix(long millis) {
+            updates++;
+            if ( work == 0 ) return false;
+            work--;
+            return true;
+        }
+
+        @Override
+        public boolean onGameEvent(GameEvent event) {
+            work++;
+            return true;
+        }
+    }
+
+
+    public void test_idleSubtreeSleeps() {
+        for(int pass=0; pass<2; ++pass) {
+            GameTree tree = new GameTree();
+            tree.flatten = pass == 0;
+            GameNode group = new GameNode();
+            group.sleepAfter = 3;
+            WorkNode a = new WorkNode();
+            WorkNode b = new WorkNode();
+            group.addNode(a);
+            group.addNode(b);
+            tree.addNode(group);
+
+            a.work = 2;
+            for(int i=0; i<10; ++i) tree.update(16);
+
+            // 2 busy frames, then 3 idle ones before going to sleep
+            assertTrue(group.sleeping);
+            assertEquals(5,a.updates);
+            assertEquals(5,b.updates);
+
+            // An event handled below it wakes it up
+            b.dispatchEventDown(GameEvent.obtain(1),true);
+            assertFalse(group.sleeping);
+            for(int i=0; i<10; ++i) tree.update(16);
+            assertTrue(group.sleeping);
+            assertEquals(9,b.updates);
+
+            // So does an explicit wake()
+            a.wake();
+            tree.update(16);
+            assertEquals(10,a.updates);
+        }
+    }
+
+}
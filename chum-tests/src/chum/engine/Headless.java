@@ -0,0 +1,37 @@
+package chum.engine;
+
+import chum.gl.MockGL10;
+
+
+/**
+   Shared fixture for tests that drive a GameTree through a
+   HeadlessGameController on a MockGL10 surface.
+*/
+public final class Headless {
+
+    /** Surface size every headless test runs at */
+    public static final int WIDTH = 320, HEIGHT = 480;
+
+
+    private Headless() {}
+
+
+    /** A controller for the tree, not yet set up */
+    public static HeadlessGameController controller(GameTree tree) {
+        return new HeadlessGameController(tree,new MockGL10(),WIDTH,HEIGHT);
+    }
+
+
+    /** A set-up controller for the tree */
+    public static HeadlessGameController setup(GameTree tree) {
+        return controller(tree).setup();
+    }
+
+
+    /** A set-up controller for a new tree holding just the node */
+    public static HeadlessGameController setupWith(GameNode node) {
+        GameTree tree = new GameTree();
+        tree.addNode(node);
+        return setup(tree);
+    }
+}
@@ -0,0 +1,33 @@
+package chum.engine;
+
+import chum.engine.HeadlessGameControllerTests.CountingNode;
+import chum.util.Log;
+
+import junit.framework.TestCase;
+
+
+/**
+   Timings for HeadlessGameController.  These only log their results,
+   so they run from chum.tests.AllBenchmarks rather than the unit suite.
+ */
+public class HeadlessGameControllerBenchmarks extends TestCase {
+
+    /**
+       Frames per second for a tree of 1000 nodes, run headless
+     */
+    public void test_headlessFrames() {
+        GameNode root = new GameNode();
+        for(int i=0; i<1000; ++i) root.addNode(new CountingNode());
+        HeadlessGameController gc = Headless.setupWith(root);
+
+        gc.step(200); // warm up
+        int frames = 2000;
+        long start = System.nanoTime();
+        gc.step(frames);
+        long nanos = System.nanoTime() - start;
+
+        Log.d("Headless, 1000 nodes: %d frames/sec",
+              (long)frames * 1000000000L / nanos);
+    }
+
+}
@@ -0,0 +1,127 @@
+package chum.engine;
+
+import chum.gl.RenderContext;
+import chum.gl.RenderNode;
+import chum.gl.render.primitive.RenderPrimitive;
+
+import javax.microedition.khronos.opengles.GL10;
+
+import junit.framework.TestCase;
+
+
+/**
+ */
+public class HeadlessGameControllerTests extends TestCase {
+
+    protected void setUp() {
+
+    }
+
+
+    /** Counts updates, events, and frames actually drawn */
+    static class CountingNode extends RenderNode {
+        int updates;
+        int events;
+        int drawn;
+        long elapsed;
+
+        RenderPrimitive draw = new RenderPrimitive() {
+                @Override
+                public void render(RenderContext renderContext, GL10 gl) {
+                    drawn++;
+                }
+            };
+
+        @Override
+        public boolean updatePrefix(long millis) {
+            updates++;
+            elapsed += millis;
+            return true;
+        }
+
+        @Override
+        public boolean onGameEvent(GameEvent event) {
+            if ( event.type == GameEvent.GAME_INIT ) return false;
+            events++;
+            return true;
+        }
+
+        @Override
+        public boolean renderPrefix(RenderContext renderContext) {
+            renderContext.add(draw);
+            return true;
+        }
+    }
+
+
+    public void test_stepUpdatesAndRenders() {
+        CountingNode node = new CountingNode();
+        HeadlessGameController gc = Headless.setupWith(node);
+
+        gc.step(100);
+        assertEquals(100,gc.framesRun);
+        assertEquals(100,node.updates);
+        assertEquals(100,node.drawn);
+        assertEquals(100 * gc.frameMillis,node.elapsed);
+        assertEquals(100 * gc.frameMillis,gc.totalElapsed);
+    }
+
+
+    public void test_delayedEventsFollowTheClock() {
+        CountingNode node = new CountingNode();
+        HeadlessGameController gc = Headless.setupWith(node);
+
+        node.postDownDelayed(GameEvent.obtain(1),100);
+        assertEquals(1,gc.delayedEvents.size());
+
+        gc.step(5);   // 80ms
+        assertEquals(0,node.events);
+        gc.step(2);   // 112ms -- posted at the start of frame 7, dispatched in it
+        assertEquals(1,node.events);
+        assertEquals(0,gc.delayedEvents.size());
+    }
+
+
+    public void test_fixedStepHeadless() {
+        CountingNode node = new CountingNode();
+        HeadlessGameController gc = Headless.setupWith(node);
+        gc.fixedStep = 10;
+        gc.frameMillis = 25;
+
+        gc.step(4);   // 100ms = 10 steps
+        assertEquals(10,node.updates);
+        assertEquals(4,node.drawn);
+    }
+
+
+    public void test_threadedRun() throws InterruptedException {
+        CountingNode node = new CountingNode();
+        HeadlessGameController gc = Headless.setupWith(node);
+        gc.targetInterval = 0;
+
+        gc.start();
+        Thread.sleep(50);
+        gc.stop();
+        assertTrue(gc.framesRun > 0);
+        assertEquals(gc.framesRun,node.updates);
+    }
+
+
+    public void test_restart() throws InterruptedException {
+        CountingNode node = new CountingNode();
+        HeadlessGameController gc = Headless.setupWith(node);
+        gc.targetInterval = 0;
+
+        gc.start();
+        Thread.sleep(20);
+        gc.stop();
+        long first = gc.framesRun;
+
+        gc.start();
+        Thread.sleep(20);
+        gc.stop();
+        assertTrue(gc.framesRun > first);
+        assertEquals(gc.framesRun,node.updates);
+    }
+
+}
@@ -0,0 +1,37 @@
+package chum.engine;
+
+import chum.engine.ProfilerTests.Busy;
+import chum.util.Log;
+
+import junit.framework.TestCase;
+
+
+/**
+   Timings for the Profiler.  These only log their results, so they run
+   from chum.tests.AllBenchmarks rather than the unit suite.
+ */
+public class ProfilerBenchmarks extends TestCase {
+
+    /**
+       Frame cost of 1000 nodes, without and with the profiler
+     */
+    public void test_overhead() {
+        long[] nanos = new long[2];
+        for(int pass=0; pass<2; ++pass) {
+            GameNode root = new GameNode();
+            for(int i=0; i<1000; ++i) root.addNode(new Busy());
+            HeadlessGameController gc = Headless.setupWith(root);
+            Profiler profiler = new Profiler();
+            if ( pass == 1 ) profiler.start(gc.tree);
+
+            gc.step(200);
+            long start = System.nanoTime();
+            gc.step(1000);
+            nanos[pass] = System.nanoTime() - start;
+        }
+
+        Log.d("Profiler, 1000 nodes: %d us/frame off, %d us/frame on",
+              nanos[0] / 1000000, nanos[1] / 1000000);
+    }
+
+}
@@ -0,0 +1,158 @@
+package chum.engine;
+
+import chum.gl.RenderContext;
+import chum.gl.RenderNode;
+import chum.gl.render.primitive.RenderPrimitive;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import javax.microedition.khronos.opengles.GL10;
+
+import junit.framework.TestCase;
+
+
+/**
+ */
+public class ProfilerTests extends TestCase {
+
+    protected void setUp() {
+
+    }
+
+
+    static class Draw extends RenderPrimitive {
+        @Override
+        public void render(RenderContext renderContext, GL10 gl) {
+        }
+    }
+
+
+    static class Group extends RenderNode {
+        @Override
+        public boolean renderPrefix(RenderContext renderContext) {
+            return true;
+        }
+    }
+
+
+    /** Draws something, and posts an event each frame */
+    static class Busy extends RenderNode {
+        Draw draw = new Draw();
+
+        @Override
+        public boolean updatePrefix(long millis) {
+            postUp(GameEvent.obtain(1));
+            return true;
+        }
+
+        @Override
+        public boolean renderPrefix(RenderContext renderContext) {
+            renderContext.add(draw);
+            return true;
+        }
+    }
+
+
+    protected String trace(Profiler profiler) throws IOException {
+        StringWriter out = new StringWriter();
+        profiler.writeTrace(out);
+        return out.toString();
+    }
+
+
+    public void test_spansForEachPass() throws IOException {
+        Group parent = new Group();
+        parent.setName("parent");
+        Busy child = new Busy();
+        child.setName("child");
+        parent.addNode(child);
+        HeadlessGameController gc = Headless.setupWith(parent);
+        gc.step(1);
+
+        Profiler profiler = new Profiler();
+        profiler.start(gc.tree);
+        gc.step(2);
+        profiler.stop();
+        gc.step(2);
+
+        // 2 frames:  parent + child update and render, event, draw
+        assertEquals(12,profiler.size());
+
+        String trace = trace(profiler);
+        assertTrue(trace.startsWith("{\"traceEvents\":["));
+        assertTrue(trace.contains("\"name\":\"chum.engine.ProfilerTests$Group 'parent'\",\"cat\":\"update\""));
+        assertTrue(trace.contains("\"name\":\"chum.engine.ProfilerTests$Busy 'child'\",\"cat\":\"render\""));
+        assertTrue(trace.contains("\"name\":\"chum.engine.ProfilerTests$Busy 'child'\",\"cat\":\"event\""));
+        assertTrue(trace.contains("\"name\":\"chum.engine.ProfilerTests$Draw\",\"cat\":\"draw\",\"ph\":\"X\""));
+        assertTrue(trace.contains("\"tid\":2"));
+    }
+
+
+    public void test_childSpansNestInParent() {
+        GameNode parent = new GameNode();
+        GameNode child = new GameNode();
+        parent.addNode(child);
+        HeadlessGameController gc = Headless.setupWith(parent);
+        gc.step(1); // GAME_INIT
+
+        Profiler profiler = new Profiler();
+        profiler.start(gc.tree);
+        gc.step(1);
+        profiler.stop();
+
+        // Spans are recorded as they end, so the child comes first
+        Profiler.Ring ring = profiler.game;
+        assertEquals(2,ring.size());
+        assertSame(child,ring.sites[0]);
+        assertSame(parent,ring.sites[1]);
+        assertTrue(ring.starts[1] <= ring.starts[0]);
+        assertTrue(ring.ends[0] <= ring.ends[1]);
+    }
+
+
+    /** The trace's times start at the earliest span, the outermost one */
+    public void test_traceStartsAtEarliestSpan() throws IOException {
+        GameNode parent = new GameNode();
+        parent.addNode(new GameNode());
+        HeadlessGameController gc = Headless.setupWith(parent);
+        gc.step(1); // GAME_INIT
+
+        Profiler profiler = new Profiler();
+        profiler.start(gc.tree);
+        gc.step(3);
+        profiler.stop();
+
+        String trace = trace(profiler);
+        double earliest = Double.MAX_VALUE;
+        int at = 0;
+        while ( (at = trace.indexOf("\"ts\":",at)) >= 0 ) {
+            at += 5;
+            int comma = trace.indexOf(',',at);
+            earliest = Math.min(earliest,Double.parseDouble(trace.substring(at,comma)));
+        }
+        assertEquals(0.0,earliest,0.0);
+    }
+
+
+    public void test_ringKeepsNewest() {
+        GameNode root = new GameNode();
+        for(int i=0; i<10; ++i) root.addNode(new GameNode());
+        HeadlessGameController gc = Headless.setupWith(root);
+        gc.step(1); // GAME_INIT
+
+        Profiler profiler = new Profiler(16);
+        profiler.start(gc.tree);
+        gc.step(5);
+        profiler.stop();
+
+        Profiler.Ring ring = profiler.game;
+        assertEquals(16,ring.size());
+        assertEquals(55,ring.count);
+        // The newest span is the root, at the end of the last frame
+        assertSame(root,ring.sites[ring.index(15)]);
+        for(int i=1; i<16; ++i)
+            assertTrue(ring.ends[ring.index(i-1)] <= ring.ends[ring.index(i)]);
+    }
+
+}
@@ -0,0 +1,219 @@
+package chum.engine;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.TestCase;
+
+
+/**
+ */
+public class TimerWheelTests extends TestCase {
+
+    protected ArrayList<String> fired;
+
+    protected void setUp() {
+        fired = new ArrayList<String>();
+    }
+
+
+    class TestTimer extends TimerWheel.Timer {
+        String name;
+        long firedAt = -1;
+
+        TestTimer(String name) { this.name = name; }
+
+        @Override
+        public void onTimer(long now) {
+            firedAt = now;
+            fired.add(name);
+        }
+    }
+
+
+    public void test_firesWhenDue() {
+        TimerWheel wheel = new TimerWheel();
+        TestTimer a = new TestTimer("a");
+        TestTimer b = new TestTimer("b");
+        TestTimer c = new TestTimer("c");
+        wheel.schedule(a,10);
+        wheel.schedule(b,5000);
+        wheel.schedule(c,100000000L);
+        assertEquals(3,wheel.size());
+
+        wheel.advance(9);
+        assertEquals(0,fired.size());
+        wheel.advance(16);
+        assertEquals(10,a.firedAt);
+        assertEquals(2,wheel.size());
+
+        wheel.advance(4999);
+        assertEquals(-1,b.firedAt);
+        wheel.advance(6000);
+        assertEquals(5000,b.firedAt);
+
+        wheel.advance(99999999L);
+        assertEquals(-1,c.firedAt);
+        wheel.advance(100000016L);
+        assertEquals(100000000L,c.firedAt);
+        assertEquals(0,wheel.size());
+    }
+
+
+    public void test_cancelAndReschedule() {
+        TimerWheel wheel = new TimerWheel();
+        TestTimer a = new TestTimer("a");
+        TestTimer b = new TestTimer("b");
+        wheel.schedule(a,100);
+        wheel.schedule(b,100);
+        a.cancel();
+        assertFalse(a.isScheduled());
+        wheel.schedule(b,300);
+
+        wheel.advance(200);
+        assertEquals(0,fired.size());
+        wheel.advance(300);
+        assertEquals(1,fired.size());
+        assertEquals(300,b.firedAt);
+    }
+
+
+    /**
+       Timers fire without the wheel's lock held, so onTimer() can wait on
+       another thread that is using the wheel
+     */
+    public void test_firesOutsideLock() throws InterruptedException {
+        // (Not "wheel", which the timers' own field would hide)
+        final TimerWheel timers = new TimerWheel();
+        final TestTimer other = new TestTimer("other");
+        final boolean[] scheduled = new boolean[1];
+        TestTimer a = new TestTimer("a") {
+                @Override
+                public void onTimer(long now) {
+                    super.onTimer(now);
+                    Thread thread = new Thread() {
+                            public void run() {
+                                timers.schedule(other,timers.now() + 5);
+                                scheduled[0] = true;
+                            }
+                        };
+                    thread.start();
+                    try { thread.join(2000); }
+                    catch(InterruptedException e) {}
+                }
+            };
+        timers.schedule(a,10);
+        timers.schedule(new TestTimer("b"),10);
+
+        timers.advance(10);
+        assertTrue(scheduled[0]);
+        assertEquals(2,fired.size());
+        assertEquals(1,timers.size());
+        timers.advance(15);
+        assertEquals(15,other.firedAt);
+    }
+
+
+    /**
+       A timer cancelled by one that fires before it, in the same slot,
+       doesn't fire;  one scheduled from onTimer() for a time already
+       reached fires in the same advance()
+     */
+    public void test_changesWhileFiring() {
+        final TimerWheel timers = new TimerWheel();
+        final TestTimer b = new TestTimer("b");
+        final TestTimer c = new TestTimer("c");
+        TestTimer a = new TestTimer("a") {
+                @Override
+                public void onTimer(long now) {
+                    super.onTimer(now);
+                    b.cancel();
+                    timers.schedule(c,now);
+                }
+            };
+        timers.schedule(b,10);
+        timers.schedule(a,10);   // in front of b in the slot
+
+        timers.advance(20);
+        assertEquals(-1,b.firedAt);
+        assertEquals(10,c.firedAt);
+        assertEquals(0,timers.size());
+    }
+
+
+    /**
+       Random timers, advanced by random amounts, compared against the
+       expected firing times
+     */
+    public void test_randomTimers() {
+        Random random = new Random(42);
+        TimerWheel wheel = new TimerWheel();
+        TestTimer[] timers = new TestTimer[2000];
+        long now = 0;
+        for(int i=0; i<timers.length; ++i) {
+            timers[i] = new TestTimer("t"+i);
+            long delay = random.nextInt(4) == 0 ? random.nextInt(1000000) : random.nextInt(500);
+            wheel.schedule(timers[i],now + delay);
+            if ( random.nextInt(10) == 0 ) {
+                now += random.nextInt(100);
+                wheel.advance(now);
+                for(int j=0; j<=i; ++j)
+                    assertEquals(timers[j].due <= now, timers[j].firedAt >= 0);
+            }
+        }
+
+        while ( wheel.size() > 0 ) {
+            now += 1 + random.nextInt(5000);
+            wheel.advance(now);
+        }
+        for(int i=0; i<timers.length; ++i) {
+            // Fired exactly at the due time, as far as the wheel is concerned
+            assertEquals(timers[i].due,timers[i].firedAt);
+        }
+    }
+
+
+    /**
+       Several threads scheduling, rescheduling and cancelling at once (as
+       nodes under a ParallelGroupNode do):  the wheel's lists and count
+       stay consistent, and every timer left scheduled fires
+     */
+    public void test_concurrentSchedule() throws InterruptedException {
+        final TimerWheel wheel = new TimerWheel();
+        final int threads = 4, each = 50000;
+        final TestTimer[][] timers = new TestTimer[threads][each];
+        final CountDownLatch go = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for(int n=0; n<threads; ++n) {
+            final int w = n;
+            workers[n] = new Thread() {
+                    @Override
+                    public void run() {
+                        try { go.await(); }
+                        catch(InterruptedException e) {}
+                        Random random = new Random(w);
+                        for(int i=0; i<each; ++i) {
+                            TestTimer t = timers[w][i] = new TestTimer("t");
+                            wheel.schedule(t,1 + random.nextInt(100000));
+                            if ( i % 3 == 0 ) wheel.schedule(t,1 + random.nextInt(100000));
+                            if ( i % 5 == 0 ) t.cancel();
+                        }
+                    }
+                };
+            workers[n].start();
+        }
+        go.countDown();
+        for(int n=0; n<threads; ++n) workers[n].join();
+
+        int expected = threads * (each - (each+4)/5);
+        assertEquals(expected,wheel.size());
+        wheel.advance(100001);
+        assertEquals(expected,fired.size());
+        assertEquals(0,wheel.size());
+        for(int n=0; n<threads; ++n)
+            for(int i=0; i<each; ++i)
+                assertEquals(i % 5 != 0,timers[n][i].firedAt >= 0);
+    }
+
+}
@@ -0,0 +1,99 @@
+package chum.engine;
+
+import chum.engine.TraversalTests.Node;
+import chum.util.Log;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+
+/**
+   Timings for the tree traversal.  These only log their results, so
+   they run from chum.tests.AllBenchmarks rather than the unit suite.
+ */
+public class TraversalBenchmarks extends TestCase {
+
+    /** Builds the trees, out of nodes that don't record what they see */
+    protected TraversalTests trees;
+
+    protected void setUp() {
+        trees = new TraversalTests();
+        trees.recording = false;
+    }
+
+
+    /**
+       Visiting and dispatching through wide and deep trees, with the
+       Traversal and recursively
+     */
+    public void test_traversalVsRecursive() {
+        final int runs = 200;
+        Random random = new Random(1);
+        ArrayList<Node> nodes = new ArrayList<Node>();
+        GameNode wide = trees.randomTree(random,nodes,5000);
+        GameNode deep = TraversalTests.chain(2000)[0];
+
+        GameNode.Visitor nothing = new GameNode.Visitor() {
+                public void run(GameNode node) {}
+            };
+        GameEvent event = GameEvent.obtain(1);
+        long[] nanos = new long[4];
+        for(int pass=0; pass<2; ++pass) {   // the first pass warms up
+            for(int t=0; t<2; ++t) {
+                GameNode root = t == 0 ? wide : deep;
+                long start = System.nanoTime();
+                for(int i=0; i<runs; ++i) {
+                    root.visit(nothing,false);
+                    event.lastUp = null;
+                    root.dispatchEventDown(event,true);
+                }
+                long mid = System.nanoTime();
+                for(int i=0; i<runs; ++i) {
+                    TraversalTests.visitRecursive(root,nothing,false);
+                    event.lastUp = null;
+                    TraversalTests.dispatchDownRecursive(root,event,true);
+                }
+                nanos[t*2] = mid - start;
+                nanos[t*2+1] = System.nanoTime() - mid;
+            }
+        }
+        Log.d("Visit + dispatch (us): 5000 wide %d traversal / %d recursive, 2000 deep %d traversal / %d recursive",
+              nanos[0] / (runs * 1000), nanos[1] / (runs * 1000),
+              nanos[2] / (runs * 1000), nanos[3] / (runs * 1000));
+    }
+
+
+    /**
+       Dispatching to one interested node in a wide tree, with and without
+       the other nodes declaring what they handle
+     */
+    public void test_interest() {
+        final int runs = 500;
+        Random random = new Random(2);
+        ArrayList<Node> nodes = new ArrayList<Node>();
+        GameNode root = trees.randomTree(random,nodes,5000);
+        Node target = nodes.get(nodes.size()-1);
+        target.consumes = 1;
+        GameEvent event = GameEvent.obtain(1);
+
+        long[] nanos = new long[2];
+        for(int pass=0; pass<3; ++pass) {   // the first pass warms up
+            int t = pass == 2 ? 1 : 0;
+            if ( t == 1 ) {
+                for(Node n : nodes) n.handlesEvents(2);
+                target.handlesEvents(1);
+            }
+            long start = System.nanoTime();
+            for(int i=0; i<runs; ++i) {
+                event.lastUp = null;
+                assertTrue(root.dispatchEventDown(event,true));
+            }
+            nanos[t] = System.nanoTime() - start;
+        }
+        Log.d("Dispatch to 1 of 5000 nodes (us): %d every node offered, %d with interests",
+              nanos[0] / (runs * 1000), nanos[1] / (runs * 1000));
+    }
+
+}
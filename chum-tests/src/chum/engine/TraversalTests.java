@@ -0,0 +1,500 @@
+package chum.engine;
+
+import chum.engine.common.Trigger;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+
+/**
+ */
+public class TraversalTests extends TestCase {
+
+    /** The nodes that got each event, in order */
+    ArrayList<GameNode> seen = new ArrayList<GameNode>();
+    boolean recording = true;
+
+    protected void setUp() {
+        seen.clear();
+    }
+
+
+    /** Records the events it gets, and consumes the ones of its type */
+    class Node extends GameNode {
+        int consumes = -1;
+
+        Node(String name) {
+            setName(name);
+        }
+
+        @Override
+        public boolean onGameEvent(GameEvent event) {
+            if ( recording ) seen.add(this);
+            return event.type == consumes;
+        }
+    }
+
+
+    /** Names of the visited nodes, in order */
+    static class Names implements GameNode.Visitor {
+        StringBuilder names = new StringBuilder();
+        public void run(GameNode node) {
+            names.append(node.name).append(' ');
+        }
+        public String toString() {
+            return names.toString().trim();
+        }
+    }
+
+
+    protected GameNode sampleTree() {
+        GameNode a = new Node("a");
+        GameNode b = new Node("b");
+        GameNode c = new Node("c");
+        a.addNode(b.addNode(new Node("d")).addNode(new Node("e")));
+        a.addNode(c.addNode(new Node("f")));
+        return a;
+    }
+
+
+    public void test_visitOrder() {
+        GameNode a = sampleTree();
+
+        Names names = new Names();
+        a.visit(names,false);
+        assertEquals("a b d e c f",names.toString());
+
+        names = new Names();
+        a.visit(names,true);
+        assertEquals("d e b f c a",names.toString());
+
+        names = new Names();
+        a.findNode("b").visit(names,false);
+        assertEquals("b d e",names.toString());
+        assertEquals(0,Traversal.get().top);
+    }
+
+
+    public void test_visitOverride() {
+        final GameNode extra = new Node("x");
+        GameNode a = new Node("a");
+        GameNode b = new Node("b") {
+                @Override
+                public void visit(GameNode.Visitor visitor, boolean depthFirst) {
+                    super.visit(visitor,depthFirst);
+                    extra.visit(visitor,depthFirst);
+                }
+            };
+        a.addNode(b.addNode(new Node("c")));
+        a.addNode(new Node("d"));
+
+        Names names = new Names();
+        a.visit(names,false);
+        assertEquals("a b c x d",names.toString());
+    }
+
+
+    public void test_walk() {
+        GameNode a = sampleTree();
+        final StringBuilder trace = new StringBuilder();
+        Traversal.get().walk(a,new Traversal.Walker() {
+                public boolean enter(GameNode node) {
+                    trace.append('<').append(node.name);
+                    return !node.name.equals("b");
+                }
+                public void exit(GameNode node) {
+                    trace.append('>');
+                }
+            },false);
+        assertEquals("<a<b><c<f>>>",trace.toString());
+    }
+
+
+    public void test_dispatch() {
+        GameNode a = sampleTree();
+        Node e = (Node)a.findNode("e");
+        Node f = (Node)a.findNode("f");
+
+        // Down, pre-order, until consumed
+        GameEvent event = GameEvent.obtain(1);
+        event.lastUp = null;
+        f.consumes = 1;
+        assertTrue(a.dispatchEventDown(event,true));
+        assertEquals("a b d e c f",names(seen));
+
+        // Up from e:  e, then b and its other children, then a and its
+        // other children
+        seen.clear();
+        event.origin = e;
+        event.lastUp = null;
+        assertTrue(e.dispatchEventUp(event));
+        assertEquals("e b d a c f",names(seen));
+
+        seen.clear();
+        event.type = 2;
+        event.lastUp = null;
+        assertFalse(e.dispatchEventUp(event));
+        assertEquals("e b d a c f",names(seen));
+        assertEquals(0,Traversal.get().top);
+    }
+
+
+    static String names(ArrayList<GameNode> nodes) {
+        StringBuilder s = new StringBuilder();
+        for(GameNode n : nodes) s.append(n.name).append(' ');
+        return s.toString().trim();
+    }
+
+
+    /**
+       A handler that dispatches another event from inside a dispatch
+     */
+    public void test_nestedDispatch() {
+        GameNode a = sampleTree();
+        final Node f = (Node)a.findNode("f");
+        f.consumes = 2;
+        final boolean[] inner = new boolean[1];
+        Node d = new Node("d2") {
+                @Override
+                public boolean onGameEvent(GameEvent event) {
+                    if ( event.type == 1 ) {
+                        GameEvent other = GameEvent.obtain(2);
+                        other.lastUp = null;
+                        inner[0] = getRoot().dispatchEventDown(other,false);
+                    }
+                    return super.onGameEvent(event);
+                }
+            };
+        a.findNode("b").addNode(d);
+        seen.clear();
+
+        GameEvent event = GameEvent.obtain(1);
+        event.lastUp = null;
+        assertFalse(a.dispatchEventDown(event,true));
+        assertTrue(inner[0]);
+        // The outer dispatch carries on where it was
+        assertEquals("a b d e b d e d2 c f d2 c f",names(seen));
+        assertEquals(0,Traversal.get().top);
+    }
+
+
+    public void test_exceptionUnwinds() {
+        GameNode a = sampleTree();
+        try {
+            a.visit(new GameNode.Visitor() {
+                    public void run(GameNode node) {
+                        if ( node.name.equals("e") ) throw new IllegalStateException();
+                    }
+                },false);
+            fail("should have thrown");
+        } catch(IllegalStateException e) {}
+        assertEquals(0,Traversal.get().top);
+    }
+
+
+    /**
+       The same nodes get the events, in the same order, as dispatching
+       them recursively
+     */
+    public void test_matchesRecursive() {
+        Random random = new Random(5);
+        for(int round=0; round<20; ++round) {
+            ArrayList<Node> nodes = new ArrayList<Node>();
+            Node root = randomTree(random,nodes,200);
+
+            for(int k=0; k<50; ++k) {
+                Node from = nodes.get(random.nextInt(nodes.size()));
+                for(int i=0; i<nodes.size(); ++i)
+                    nodes.get(i).consumes = random.nextInt(8) == 0 ? 1 : -1;
+
+                GameEvent event = GameEvent.obtain(1);
+                event.origin = from;
+                event.lastUp = null;
+                boolean up = random.nextBoolean();
+
+                seen.clear();
+                boolean consumed = up ? dispatchUpRecursive(from,event)
+                    : dispatchDownRecursive(from,event,true);
+                String expected = names(seen);
+
+                seen.clear();
+                event.lastUp = null;
+                assertEquals(consumed,up ? from.dispatchEventUp(event) : from.dispatchEventDown(event,true));
+                assertEquals(expected,names(seen));
+            }
+
+            for(int k=0; k<2; ++k) {
+                boolean depthFirst = k == 1;
+                Names expected = new Names();
+                visitRecursive(root,expected,depthFirst);
+                Names names = new Names();
+                root.visit(names,depthFirst);
+                assertEquals(expected.toString(),names.toString());
+            }
+        }
+    }
+
+
+    Node randomTree(Random random, ArrayList<Node> nodes, int size) {
+        Node root = new Node("n0");
+        nodes.add(root);
+        for(int i=1; i<size; ++i) {
+            Node n = new Node("n"+i);
+            nodes.get(random.nextInt(nodes.size())).addNode(n);
+            nodes.add(n);
+        }
+        return root;
+    }
+
+
+    /** The recursive GameNode.visit() */
+    static void visitRecursive(GameNode node, GameNode.Visitor visitor, boolean depthFirst) {
+        if ( depthFirst ) {
+            for( int i=0; i<node.num_children; ++i )
+                visitRecursive(node.children[i],visitor,true);
+            visitor.run(node);
+        } else {
+            visitor.run(node);
+            for( int i=0; i<node.num_children; ++i )
+                visitRecursive(node.children[i],visitor,false);
+        }
+    }
+
+
+    /** Give a node the event, if it handles the type -- without skipping any subtrees */
+    static boolean offer(GameNode node, GameEvent event) {
+        if ( (node.getEventInterest() & GameEvent.interestBit(event.type)) == 0 ) return false;
+        return node.onGameEvent(event);
+    }
+
+
+    /** The recursive GameNode.dispatchEventUp() */
+    static boolean dispatchUpRecursive(GameNode node, GameEvent event) {
+        if ( offer(node,event) ) return true;
+        if ( node != event.origin )
+            if ( dispatchDownRecursive(node,event,false) ) return true;
+        if ( node.parent == null ) return false;
+        event.lastUp = node;
+        return dispatchUpRecursive(node.parent,event);
+    }
+
+
+    /** The recursive GameNode.dispatchEventDown() */
+    static boolean dispatchDownRecursive(GameNode node, GameEvent event, boolean doLocal) {
+        if ( doLocal && offer(node,event) ) return true;
+        for(int i=0; i<node.num_children; ++i) {
+            GameNode child = node.children[i];
+            if ( child != event.lastUp )
+                if ( dispatchDownRecursive(child,event,true) ) return true;
+        }
+        return false;
+    }
+
+
+    public void test_interestPrunes() {
+        GameNode root = new GameNode();
+        GameNode quiet = new GameNode();
+        GameNode loud = new GameNode();
+        root.addNode(quiet);
+        root.addNode(loud);
+        for(int i=0; i<5; ++i) quiet.addNode(new Node("q"+i).handlesEvents(2));
+        Node t = new Node("t");
+        t.handlesEvents(1,3);
+        loud.addNode(new GameNode().addNode(t));
+        Node any = new Node("any");
+        loud.addNode(any);
+
+        GameEvent event = GameEvent.obtain(1);
+        event.lastUp = null;
+        assertFalse(root.dispatchEventDown(event,true));
+        assertEquals("t any",names(seen));
+
+        long bit = GameEvent.interestBit(1);
+        assertEquals(0,Traversal.get().interest(quiet) & bit);
+        assertTrue((Traversal.get().interest(loud) & bit) != 0);
+
+        // Plain nodes handle nothing
+        assertEquals(0,new GameNode().getEventInterest());
+        assertEquals(GameNode.ALL_EVENTS,any.getEventInterest());
+        assertEquals(GameNode.ALL_EVENTS,new GameNode().handlesAllEvents().getEventInterest());
+    }
+
+
+    public void test_interestFollowsChanges() {
+        GameNode root = new GameNode();
+        GameNode branch = new GameNode();
+        GameNode leaf = new GameNode();
+        root.addNode(branch.addNode(leaf));
+        long bit = GameEvent.interestBit(7);
+        assertEquals(0,Traversal.get().interest(root) & bit);
+
+        Node late = new Node("late");
+        late.handlesEvents(7);
+        leaf.addNode(late);
+        assertTrue((Traversal.get().interest(root) & bit) != 0);
+        GameEvent event = GameEvent.obtain(7);
+        event.lastUp = null;
+        root.dispatchEventDown(event,true);
+        assertEquals("late",names(seen));
+
+        // Changing what a node handles
+        seen.clear();
+        late.handlesEvents(8);
+        event.lastUp = null;
+        root.dispatchEventDown(event,true);
+        assertEquals("",names(seen));
+        late.handlesEvents(7);
+
+        leaf.removeNode(late);
+        assertEquals(0,Traversal.get().interest(root) & bit);
+
+        // Moved in from somewhere else, with a subtree of its own
+        GameNode other = new GameNode();
+        other.addNode(late);
+        assertTrue((Traversal.get().interest(other) & bit) != 0);
+        branch.addNode(other);
+        assertTrue((Traversal.get().interest(root) & bit) != 0);
+    }
+
+
+    static abstract class CountingTrigger extends Trigger {
+        CountingTrigger(int type) { super(type,false); }
+    }
+
+
+    public void test_handlesEventsIn() {
+        Trigger plain = new CountingTrigger(4) {
+                public void run() {}
+            };
+        assertEquals(GameEvent.interestBit(4),plain.getEventInterest());
+
+        // A subclass with its own onGameEvent() might handle anything
+        Trigger own = new CountingTrigger(4) {
+                public void run() {}
+                @Override
+                public boolean onGameEvent(GameEvent event) {
+                    return super.onGameEvent(event);
+                }
+            };
+        assertEquals(GameNode.ALL_EVENTS,own.getEventInterest());
+    }
+
+
+    /**
+       With random interests, the same nodes get the events as when no
+       subtrees are skipped
+     */
+    public void test_interestMatchesUnpruned() {
+        Random random = new Random(9);
+        for(int round=0; round<20; ++round) {
+            ArrayList<Node> nodes = new ArrayList<Node>();
+            randomTree(random,nodes,300);
+            for(Node n : nodes) {
+                int r = random.nextInt(10);
+                if ( r < 6 ) n.handlesEvents();
+                else if ( r < 9 ) n.handlesEvents(1 + random.nextInt(4));
+            }
+
+            for(int k=0; k<50; ++k) {
+                Node from = nodes.get(random.nextInt(nodes.size()));
+                for(int i=0; i<nodes.size(); ++i)
+                    nodes.get(i).consumes = random.nextInt(6) == 0 ? 1 + random.nextInt(4) : -1;
+
+                GameEvent event = GameEvent.obtain(1 + random.nextInt(4));
+                event.origin = from;
+                event.lastUp = null;
+                boolean up = random.nextBoolean();
+
+                seen.clear();
+                boolean consumed = up ? dispatchUpRecursive(from,event)
+                    : dispatchDownRecursive(from,event,true);
+                String expected = names(seen);
+
+                seen.clear();
+                event.lastUp = null;
+                assertEquals(consumed,up ? from.dispatchEventUp(event) : from.dispatchEventDown(event,true));
+                assertEquals(expected,names(seen));
+            }
+        }
+    }
+
+
+    /**
+       A chain of nodes built bottom up, so adding each one is cheap
+     */
+    static GameNode[] chain(int depth) {
+        GameNode[] nodes = new GameNode[depth];
+        for(int i=depth-1; i>=0; --i) {
+            nodes[i] = new GameNode();
+            if ( i < depth-1 ) nodes[i].addNode(nodes[i+1]);
+        }
+        return nodes;
+    }
+
+
+    /**
+       A tree much deeper than a small thread stack could recurse through
+     */
+    public void test_deepTree() throws Exception {
+        final Throwable[] failure = new Throwable[1];
+        final int[] counts = new int[3];
+        Runnable run = new Runnable() {
+                public void run() {
+                    try {
+                        GameNode[] nodes = chain(50000);
+                        GameNode leaf = nodes[nodes.length-1];
+                        GameNode.Visitor counter = new GameNode.Visitor() {
+                                public void run(GameNode node) {
+                                    counts[0]++;
+                                }
+                            };
+                        nodes[0].visit(counter,false);
+                        nodes[0].visit(counter,true);
+
+                        GameEvent event = GameEvent.obtain(1);
+                        event.origin = leaf;
+                        event.lastUp = null;
+                        leaf.dispatchEventUp(event);
+                        event.lastUp = null;
+                        nodes[0].dispatchEventDown(event,true);
+
+                        GameTree tree = new GameTree();
+                        tree.addNode(nodes[0]);
+                        tree.update(10);
+                        counts[1] = tree.orderLength;
+                        counts[2] = Traversal.get().highWater;
+
+                        // Changes at the bottom are passed all the way up
+                        GameNode named = new GameNode();
+                        named.setName("bottom");
+                        leaf.addNode(named);
+                        assertSame(named,tree.findNode("bottom"));
+                        assertTrue(tree.orderDirty);
+                        tree.update(10);
+                        leaf.removeNode(named);
+                        assertNull(tree.findNode("bottom"));
+                        assertTrue(tree.orderDirty);
+
+                        // Taking the whole chain out moves its names along with it
+                        leaf.addNode(named);
+                        tree.removeNode(nodes[0]);
+                        assertNull(tree.findNode("bottom"));
+                        assertSame(named,nodes[0].findNode("bottom"));
+                    } catch(Throwable t) {
+                        failure[0] = t;
+                    }
+                }
+            };
+        Thread thread = new Thread(null,run,"small stack",64 * 1024);
+        thread.start();
+        thread.join();
+        if ( failure[0] != null ) throw new AssertionError(failure[0]);
+
+        assertEquals(100000,counts[0]);
+        assertEquals(100000,counts[1]);
+        assertEquals(50000,counts[2]);
+    }
+
+}
@@ -0,0 +1,85 @@
+package chum.engine.common;
+
+import chum.engine.GameTree;
+import chum.engine.Headless;
+import chum.engine.HeadlessGameController;
+import chum.gl.RenderContext;
+import chum.gl.RenderNode;
+import chum.gl.render.primitive.RenderPrimitive;
+
+import javax.microedition.khronos.opengles.GL10;
+
+import junit.framework.TestCase;
+
+
+/**
+ */
+public class FPSNodeTests extends TestCase {
+
+    protected void setUp() {
+
+    }
+
+
+    /** Takes a while to update, and draws something */
+    static class SlowNode extends RenderNode {
+        RenderPrimitive draw = new RenderPrimitive() {
+                @Override
+                public void render(RenderContext renderContext, GL10 gl) {
+                }
+            };
+
+        @Override
+        public boolean updatePrefix(long millis) {
+            long until = System.nanoTime() + 200000;
+            while ( System.nanoTime() < until ) {}
+            return true;
+        }
+
+        @Override
+        public boolean renderPrefix(RenderContext renderContext) {
+            renderContext.add(draw);
+            return true;
+        }
+    }
+
+
+    public void test_percentilesEachInterval() {
+        final FPSNode.Percentiles[] seen = new FPSNode.Percentiles[3];
+        final int[] calls = new int[1];
+        FPSNode fpsNode = new FPSNode(new FPSNode.Callback() {
+                public void run(FPSNode node, int fps) {
+                    calls[0]++;
+                    seen[0] = node.updateTimes;
+                    seen[1] = node.buildTimes;
+                    seen[2] = node.drawTimes;
+                }
+            });
+        fpsNode.interval = 20 * 16;
+
+        GameTree tree = new GameTree();
+        tree.addNode(new SlowNode());
+        tree.addNode(fpsNode);
+        HeadlessGameController gc = Headless.setup(tree);
+        assertEquals(16,gc.frameMillis);
+
+        assertNotNull(gc.updateTimes);
+        assertNotNull(gc.buildTimes);
+        assertNotNull(gc.drawTimes);
+
+        gc.step(50);
+        assertTrue(calls[0] >= 2);
+        FPSNode.Percentiles update = seen[0];
+        assertTrue(update.count >= 19);
+        assertTrue(update.p50 >= 200000);
+        assertTrue(update.p50 <= update.p90);
+        assertTrue(update.p90 <= update.p99);
+        assertTrue(update.p99 <= update.max);
+        assertEquals(update.count,seen[1].count);
+        assertEquals(update.count,seen[2].count);
+
+        // What was taken for the interval is cleared from the controller
+        assertTrue(gc.updateTimes.count() < update.count + 20);
+    }
+
+}
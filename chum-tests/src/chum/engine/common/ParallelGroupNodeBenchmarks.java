@@ -0,0 +1,43 @@
+package chum.engine.common;
+
+import chum.engine.GameNode;
+import chum.util.Log;
+
+import junit.framework.TestCase;
+
+
+/**
+   Timings for ParallelGroupNode.  These only log their results, so they run
+   from chum.tests.AllBenchmarks rather than the unit suite.
+ */
+public class ParallelGroupNodeBenchmarks extends TestCase {
+
+    /**
+       Compare ParallelGroupNode against a plain GameNode on a synthetic
+       tree of 10k nodes
+     */
+    public void test_parallelVsSerial() {
+        int nodes = 10000;
+        int frames = 50;
+
+        GameNode serial = ParallelGroupNodeTests.buildGroup(new GameNode(),nodes);
+        ParallelGroupNode parallel = new ParallelGroupNode();
+        ParallelGroupNodeTests.buildGroup(parallel,nodes);
+
+        // warm up
+        for(int f=0; f<frames; ++f) { serial.update(16); parallel.update(16); }
+
+        long start = System.nanoTime();
+        for(int f=0; f<frames; ++f) serial.update(16);
+        long serialNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for(int f=0; f<frames; ++f) parallel.update(16);
+        long parallelNanos = System.nanoTime() - start;
+
+        Log.d("%d nodes, %d cores: serial=%dus/frame parallel=%dus/frame",
+              nodes, Runtime.getRuntime().availableProcessors(),
+              serialNanos / frames / 1000, parallelNanos / frames / 1000);
+    }
+
+}
@@ -0,0 +1,124 @@
+package chum.engine.common;
+
+import chum.engine.GameNode;
+
+import junit.framework.TestCase;
+
+
+/**
+ */
+public class ParallelGroupNodeTests extends TestCase {
+
+    /** The pool made by the test, if any */
+    protected ParallelGroupNode.UpdatePool pool;
+
+
+    protected void setUp() {
+
+    }
+
+
+    protected void tearDown() throws Exception {
+        if ( pool != null ) pool.shutdown();
+        pool = null;
+        super.tearDown();
+    }
+
+
+    /** Synthetic node that does a bit of arithmetic each update */
+    static class BusyNode extends GameNode {
+        float x = 1f, v = 0.5f;
+        int updates;
+
+        @Override
+        public boolean updatePrefix(long millis) {
+            for(int i=0; i<50; ++i) {
+                v = v * 0.999f + (float)Math.sin(x) * 0.001f;
+                x += v * millis;
+            }
+            updates++;
+            return true;
+        }
+    }
+
+
+    static GameNode buildGroup(GameNode group, int count) {
+        for(int i=0; i<count; ++i) group.addNode(new BusyNode());
+        return group;
+    }
+
+
+    public void test_allChildrenUpdatedOnce() {
+        ParallelGroupNode group = new ParallelGroupNode();
+        group.pool = pool = new ParallelGroupNode.UpdatePool(3);
+        buildGroup(group,1000);
+
+        assertTrue(group.update(16));
+        assertTrue(group.update(16));
+        for(int i=0; i<group.num_children; ++i)
+            assertEquals(2,((BusyNode)group.children[i]).updates);
+    }
+
+
+    public void test_nestedGroupRunsSerially() {
+        ParallelGroupNode outer = new ParallelGroupNode();
+        outer.pool = pool = new ParallelGroupNode.UpdatePool(2);
+        for(int i=0; i<8; ++i) {
+            ParallelGroupNode inner = new ParallelGroupNode();
+            inner.pool = outer.pool;
+            outer.addNode(buildGroup(inner,10));
+        }
+
+        outer.update(16);
+        for(int i=0; i<outer.num_children; ++i) {
+            GameNode inner = outer.children[i];
+            for(int j=0; j<inner.num_children; ++j)
+                assertEquals(1,((BusyNode)inner.children[j]).updates);
+        }
+    }
+
+
+    public void test_exceptionPropagates() {
+        ParallelGroupNode group = new ParallelGroupNode();
+        group.pool = pool = new ParallelGroupNode.UpdatePool(2);
+        buildGroup(group,100);
+        group.addNode(new GameNode() {
+                @Override
+                public boolean updatePrefix(long millis) {
+                    throw new IllegalStateException("boom");
+                }
+            });
+
+        try {
+            group.update(16);
+            fail("exception should be rethrown in the calling thread");
+        } catch(IllegalStateException e) {
+            assertEquals("boom",e.getMessage());
+        }
+
+        // The pool is still usable afterward
+        group.removeNode(group.children[group.num_children-1]);
+        assertTrue(group.update(16));
+    }
+
+
+    public void test_shutdown() throws InterruptedException {
+        ParallelGroupNode group = new ParallelGroupNode();
+        group.pool = pool = new ParallelGroupNode.UpdatePool(2);
+        buildGroup(group,100);
+        assertTrue(group.update(16));
+
+        pool.shutdown();
+        for(int i=0; i<pool.workers.length; ++i) {
+            pool.workers[i].join(5000);
+            assertFalse(pool.workers[i].isAlive());
+        }
+
+        // Still updates, just serially
+        assertFalse(pool.update(group,16));
+        assertTrue(group.update(16));
+        for(int i=0; i<group.num_children; ++i)
+            assertEquals(2,((BusyNode)group.children[i]).updates);
+    }
+
+}
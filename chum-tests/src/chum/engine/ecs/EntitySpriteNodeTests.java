@@ -0,0 +1,112 @@
+package chum.engine.ecs;
+
+import chum.gl.MockGLTestCase;
+import chum.gl.SpriteSheet;
+import chum.gl.Texture;
+import chum.gl.render.primitive.RenderPrimitive;
+
+import android.graphics.Bitmap;
+
+import java.nio.FloatBuffer;
+
+
+/**
+ */
+public class EntitySpriteNodeTests extends MockGLTestCase {
+
+    protected EntityStore store;
+    protected SpriteSheet sheet;
+
+    protected void setUp() {
+        super.setUp();
+        store = new EntityStore(8);
+        sheet = new SpriteSheet(2);
+        sheet.setProvider(new Texture.StaticProvider(Bitmap.createBitmap(64,64,Bitmap.Config.ARGB_8888)));
+        sheet.width = sheet.height = 64;
+        sheet.define(0,0,0,16,16);
+        sheet.define(1,16,0,48,32);
+    }
+
+
+    /** Run the render chain built so far */
+    protected void draw() {
+        for(RenderPrimitive p = mockContext.renderHead; p != null; p = p.nextNode)
+            p.render(mockContext,mockGL);
+        mockContext.renderHead = mockContext.renderTail = null;
+    }
+
+
+    public void test_drawsAllInOneCall() {
+        store.create(100,50,0,0,0);
+        store.create(10,10,0,0,1);
+        store.create(0,0,0,0,7); // not on the sheet
+        EntitySpriteNode node = new EntitySpriteNode(store,sheet,8);
+        node.onSurfaceCreated(mockContext);
+        draw();
+        mockGL.clear();
+
+        assertTrue(node.renderPrefix(mockContext));
+        node.renderPostfix(mockContext);
+        assertEquals(2,node.drawn);
+        draw();
+        assertTrue(mockGL.commands.indexOf("glBindTexture") >= 0);
+        assertTrue(mockGL.commands.indexOf("glBindTexture") < mockGL.commands.indexOf("glDrawElements"));
+        int draws = 0;
+        for(int i=0; i<mockGL.numCommands(); ++i)
+            if ( mockGL.get(i).equals("glDrawElements") ) draws++;
+        assertEquals(1,draws);
+
+        // First sprite:  16x16, centered on 100,50
+        FloatBuffer verts = node.batches[mockContext.phase ? 0 : 1].mesh.verticesFloat;
+        assertEquals(2 * 20,verts.limit());
+        assertEquals(92f,verts.get(0));
+        assertEquals(42f,verts.get(1));
+        assertEquals(108f,verts.get(10));
+        assertEquals(58f,verts.get(11));
+        assertEquals(sheet.data[0].u1,verts.get(3));
+        assertEquals(sheet.data[0].v2,verts.get(14));
+
+        // Second sprite:  32x32 at 10,10
+        assertEquals(-6f,verts.get(20));
+        assertEquals(26f,verts.get(31));
+    }
+
+
+    public void test_rotatesAndScales() {
+        int e = store.create(0,0,0,0,0);
+        store.angle[e] = 90;
+        store.scale[e] = 2;
+        EntitySpriteNode node = new EntitySpriteNode(store,sheet,8);
+        node.renderPrefix(mockContext);
+
+        // 32x32 after scaling, so the lower left corner (-16,-16) turns to (16,-16)
+        FloatBuffer verts = node.batches[mockContext.phase ? 0 : 1].mesh.verticesFloat;
+        assertEquals(16f,verts.get(0),0.001f);
+        assertEquals(-16f,verts.get(1),0.001f);
+    }
+
+
+    public void test_alternatesBatches() {
+        store.create(0,0,0,0,0);
+        EntitySpriteNode node = new EntitySpriteNode(store,sheet,8);
+
+        node.renderPrefix(mockContext);
+        mockContext.phase = !mockContext.phase;
+        store.x[0] = 50;
+        node.renderPrefix(mockContext);
+
+        // The batch from the last phase isn't touched
+        assertEquals(-8f,node.batches[mockContext.phase ? 1 : 0].mesh.verticesFloat.get(0));
+        assertEquals(42f,node.batches[mockContext.phase ? 0 : 1].mesh.verticesFloat.get(0));
+    }
+
+
+    public void test_nothingToDraw() {
+        EntitySpriteNode node = new EntitySpriteNode(store,sheet,8);
+        assertTrue(node.renderPrefix(mockContext));
+        node.renderPostfix(mockContext);
+        assertEquals(0,node.drawn);
+        assertNull(mockContext.renderHead);
+    }
+
+}
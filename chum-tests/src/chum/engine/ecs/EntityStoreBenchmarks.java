@@ -0,0 +1,48 @@
+package chum.engine.ecs;
+
+import chum.engine.GameNode;
+import chum.engine.GameTree;
+import chum.engine.Headless;
+import chum.engine.HeadlessGameController;
+import chum.engine.ecs.EntityStoreTests.Mover;
+import chum.util.Log;
+
+import junit.framework.TestCase;
+
+
+/**
+   Timings for the entity store.  These only log their results, so
+   they run from chum.tests.AllBenchmarks rather than the unit suite.
+ */
+public class EntityStoreBenchmarks extends TestCase {
+
+    /**
+       Frame cost of moving 5000 things as entities, and as nodes
+     */
+    public void test_versusNodes() {
+        final int count = 5000;
+
+        EntityNode entities = new EntityNode(new EntityStore(count));
+        entities.addSystem(new MotionSystem());
+        for(int i=0; i<count; ++i) entities.store.create(i,i,1,2,0);
+
+        GameNode nodes = new GameNode();
+        for(int i=0; i<count; ++i) nodes.addNode(new Mover());
+
+        long[] nanos = new long[2];
+        GameNode[] roots = { entities, nodes };
+        for(int pass=0; pass<2; ++pass) {
+            GameTree tree = new GameTree();
+            tree.addNode(roots[pass]);
+            HeadlessGameController gc = Headless.setup(tree);
+            gc.step(100);
+            long start = System.nanoTime();
+            gc.step(500);
+            nanos[pass] = System.nanoTime() - start;
+        }
+
+        Log.d("%d moving things: %d us/frame as entities, %d us/frame as nodes",
+              count, nanos[0] / 500000, nanos[1] / 500000);
+    }
+
+}
@@ -0,0 +1,174 @@
+package chum.engine.ecs;
+
+import chum.engine.AllocationCheck;
+import chum.engine.GameNode;
+import chum.engine.GameTree;
+import chum.engine.Headless;
+import chum.engine.HeadlessGameController;
+import chum.gl.SpriteSheet;
+import chum.gl.Texture;
+
+import android.graphics.Bitmap;
+
+import junit.framework.TestCase;
+
+
+/**
+ */
+public class EntityStoreTests extends TestCase {
+
+    protected void setUp() {
+
+    }
+
+
+    public void test_createAndRemove() {
+        EntityStore store = new EntityStore(4);
+        int a = store.create(1,2,3,4,5);
+        int b = store.create(10,20,0,0,1);
+        int c = store.create(100,200,0,0,2);
+        assertEquals(3,store.count);
+        assertEquals(0,a);
+        assertEquals(2,c);
+        assertEquals(1f,store.scale[b]);
+        int idA = store.ids[a];
+        int idC = store.ids[c];
+
+        // The last entity moves into the gap, keeping its id
+        store.remove(a);
+        assertEquals(2,store.count);
+        assertEquals(100f,store.x[0]);
+        assertEquals(2,store.sprite[0]);
+        assertEquals(0,store.indexOf(idC));
+        assertEquals(-1,store.indexOf(idA));
+
+        // The id is reused
+        int d = store.create();
+        assertEquals(idA,store.ids[d]);
+        assertEquals(0f,store.x[d]);
+        assertEquals(1f,store.scale[d]);
+
+        store.destroy(idC);
+        assertEquals(2,store.count);
+        assertEquals(-1,store.indexOf(idC));
+        store.destroy(idC);
+        assertEquals(2,store.count);
+    }
+
+
+    public void test_grows() {
+        EntityStore store = new EntityStore(2);
+        EntityStore.FloatColumn heat = store.addColumn(new EntityStore.FloatColumn());
+        for(int i=0; i<100; ++i) {
+            int e = store.create(i,0,0,0,0);
+            heat.values[e] = i * 2;
+        }
+        assertEquals(100,store.count);
+        assertTrue(store.capacity() >= 100);
+        assertTrue(heat.values.length >= 100);
+        for(int i=0; i<100; ++i) {
+            assertEquals((float)i,store.x[i]);
+            assertEquals(i,store.indexOf(store.ids[i]));
+        }
+
+        // Extra columns move along with the rest
+        store.remove(10);
+        assertEquals(99f,store.x[10]);
+        assertEquals(198f,heat.values[10]);
+
+        store.clear();
+        assertEquals(0,store.count);
+    }
+
+
+    public void test_systems() {
+        EntityNode node = new EntityNode(new EntityStore(8));
+        LifetimeSystem lifetime = new LifetimeSystem();
+        node.addSystem(new MotionSystem()).addSystem(lifetime);
+        EntityStore store = node.store;
+
+        int moving = store.create(0,0,100,-50,0);
+        store.spin[moving] = 90;
+        int brief = store.create(5,5,0,0,0);
+        store.life[brief] = 150;
+
+        assertTrue(node.updatePrefix(100));
+        assertEquals(2,store.count);
+        assertEquals(10f,store.x[0],0.001f);
+        assertEquals(-5f,store.y[0],0.001f);
+        assertEquals(9f,store.angle[0],0.001f);
+        assertEquals(50f,store.life[1],0.001f);
+
+        assertTrue(node.updatePrefix(100));
+        assertEquals(1,store.count);
+        assertEquals(1,lifetime.expired);
+        assertEquals(20f,store.x[0],0.001f);
+
+        store.clear();
+        assertFalse(node.updatePrefix(100));
+    }
+
+
+    /** Keeps a steady stream of short-lived entities going */
+    static class Spawner implements EntitySystem {
+        int spawned;
+
+        public void update(EntityStore store, long millis) {
+            for(int i=0; i<10; ++i) {
+                int e = store.create(160,240,spawned % 200 - 100,spawned % 150,spawned % 2);
+                store.life[e] = 500 + spawned % 300;
+                store.spin[e] = 45;
+                spawned++;
+            }
+        }
+    }
+
+
+    protected SpriteSheet sheet() {
+        SpriteSheet sheet = new SpriteSheet(2);
+        sheet.setProvider(new Texture.StaticProvider(Bitmap.createBitmap(64,64,Bitmap.Config.ARGB_8888)));
+        sheet.width = sheet.height = 64;
+        sheet.define(0,0,0,16,16);
+        sheet.define(1,16,0,48,32);
+        return sheet;
+    }
+
+
+    /**
+       A steady state of hundreds of entities coming and going, moving
+       and being drawn, shouldn't allocate
+     */
+    public void test_framesDoNotAllocate() {
+        EntityNode entities = new EntityNode(new EntityStore(1024));
+        entities.addSystem(new Spawner())
+            .addSystem(new MotionSystem())
+            .addSystem(new LifetimeSystem());
+        EntitySpriteNode sprites = new EntitySpriteNode(entities.store,sheet(),1024);
+
+        GameTree tree = new GameTree();
+        tree.addNode(entities);
+        tree.addNode(sprites);
+        HeadlessGameController gc = Headless.setup(tree);
+
+        AllocationCheck check = new AllocationCheck(gc);
+        check.toleratedFrames = 2;
+        check.run(2000,300);
+        assertTrue(check.report(),check.passed());
+        assertTrue(entities.store.count > 200);
+        assertEquals(entities.store.count,sprites.drawn);
+    }
+
+
+    static class Mover extends GameNode {
+        float x, y, vx = 1, vy = 2;
+
+        @Override
+        public boolean updatePrefix(long millis) {
+            float seconds = millis / 1000f;
+            x += vx * seconds;
+            y += vy * seconds;
+            return true;
+        }
+    }
+
+}
@@ -0,0 +1,187 @@
+package chum.engine.spatial;
+
+import chum.f.Vec3;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+
+/**
+ */
+public class LooseOctreeTests extends TestCase {
+
+    LooseOctree<String> tree;
+    LooseOctree.Cursor<String> cursor;
+
+    protected void setUp() {
+        tree = new LooseOctree<String>(-50,-50,-50,100,100,100,4,2);
+        cursor = new LooseOctree.Cursor<String>(1);
+    }
+
+
+    public void test_boxAndSphere() {
+        int a = tree.add("a",0,0,0,1,1,1);
+        tree.add("b",new Vec3(10,10,10),2);
+        tree.add("big",-40,-40,-40,40,40,40);
+        tree.add("far",new Vec3(500,0,0),1);
+        assertEquals(4,tree.size());
+
+        assertEquals(2,tree.queryBox(0.5f,0.5f,0.5f,0.5f,0.5f,0.5f,cursor));
+        assertEquals(1,tree.queryBox(499,-1,-1,501,1,1,cursor));
+        assertEquals("far",cursor.get(0));
+
+        // Distance to the nearest corner of "a" (1,1,1) from (3,1,1) is 2
+        assertEquals(2,tree.querySphere(3,1,1,2.5f,cursor));
+        int n = 0;
+        while ( cursor.next() ) {
+            if ( cursor.item().equals("a") ) {
+                assertEquals(a,cursor.handle());
+                assertEquals(2f,cursor.distance(),0.0001f);
+            } else {
+                assertEquals("big",cursor.item());
+                assertEquals(0f,cursor.distance());
+            }
+            n++;
+        }
+        assertEquals(2,n);
+
+        // The corner of "big" is sqrt(75) away
+        assertEquals(1,tree.querySphere(45,45,45,8.7f,cursor));
+        assertEquals(0,tree.querySphere(45,45,45,8.6f,cursor));
+    }
+
+
+    public void test_ray() {
+        tree.add("near",5,-1,-1,6,1,1);
+        tree.add("nearer",2,-1,-1,3,1,1);
+        tree.add("off",2,5,5,3,6,6);
+        int behind = tree.add("behind",-3,-1,-1,-2,1,1);
+
+        assertEquals(2,tree.queryRay(0,0,0,1,0,0,100,cursor));
+        cursor.sortByDistance();
+        assertEquals("nearer",cursor.get(0));
+        assertEquals(2f,cursor.getDistance(0),0.0001f);
+        assertEquals("near",cursor.get(1));
+        assertEquals(5f,cursor.getDistance(1),0.0001f);
+
+        // Not far enough
+        assertEquals(1,tree.queryRay(new Vec3(0,0,0),new Vec3(1,0,0),4,cursor));
+        assertEquals("nearer",cursor.get(0));
+
+        // Starting inside
+        assertEquals(1,tree.queryRay(-2.5f,0,0,0,0,-1,100,cursor));
+        assertEquals("behind",cursor.get(0));
+        assertEquals(0f,cursor.getDistance(0));
+
+        // Diagonal
+        assertEquals(1,tree.queryRay(0,0,0,1,2,2,100,cursor));
+        assertEquals("off",cursor.get(0));
+
+        // Moved out of the way
+        tree.move(behind,new Vec3(0,30,0),1);
+        assertEquals(0,tree.queryRay(0,0,0,-1,0,0,100,cursor));
+        assertEquals(1,tree.queryRay(0,0,0,0,1,0,100,cursor));
+
+        tree.clear();
+        assertEquals(0,tree.queryRay(0,0,0,1,0,0,100,cursor));
+    }
+
+
+    public void test_removeAndLimit() {
+        int a = tree.add("a",0,0,0,1,1,1);
+        int b = tree.add("b",0,0,0,1,1,1);
+        tree.add("c",0,0,0,1,1,1);
+        tree.remove(b);
+        assertNull(tree.get(b));
+        assertEquals(2,tree.queryBox(-1,-1,-1,2,2,2,cursor));
+
+        cursor.limit = 1;
+        assertEquals(1,tree.queryBox(-1,-1,-1,2,2,2,cursor));
+        cursor.limit = 0;
+
+        assertEquals(b,tree.add("d",0,0,0,1,1,1));
+        tree.remove(a);
+        try {
+            tree.remove(a);
+            fail("removed twice");
+        } catch(IllegalArgumentException e) {}
+    }
+
+
+    /**
+       Random boxes of mixed sizes, moving about:  finds the same objects
+       as checking them all
+     */
+    public void test_matchesBruteForce() {
+        Random random = new Random(3);
+        int n = 400;
+        float[][] b = new float[n][6];
+        LooseOctree<Integer> octree = new LooseOctree<Integer>(0,0,0,1000,1000,1000,5,16);
+        for(int i=0; i<n; ++i) {
+            place(random,b[i]);
+            assertEquals(i,octree.add(i,b[i][0],b[i][1],b[i][2],b[i][3],b[i][4],b[i][5]));
+        }
+
+        LooseOctree.Cursor<Integer> results = new LooseOctree.Cursor<Integer>();
+        for(int round=0; round<100; ++round) {
+            for(int k=0; k<40; ++k) {
+                int i = random.nextInt(n);
+                place(random,b[i]);
+                octree.move(i,b[i][0],b[i][1],b[i][2],b[i][3],b[i][4],b[i][5]);
+            }
+
+            float qx = random.nextFloat() * 1200 - 100;
+            float qy = random.nextFloat() * 1200 - 100;
+            float qz = random.nextFloat() * 1200 - 100;
+            float r = random.nextFloat() * 150;
+            float dx = random.nextFloat() * 2 - 1;
+            float dy = random.nextFloat() * 2 - 1;
+            float dz = random.nextFloat() * 2 - 1;
+            int box = 0, sphere = 0, ray = 0;
+            for(int i=0; i<n; ++i) {
+                float[] c = b[i];
+                if ( c[3] >= qx-r && c[0] <= qx+r && c[4] >= qy-r && c[1] <= qy+r &&
+                     c[5] >= qz-r && c[2] <= qz+r ) box++;
+                float ex = Math.max(0,Math.max(c[0]-qx,qx-c[3]));
+                float ey = Math.max(0,Math.max(c[1]-qy,qy-c[4]));
+                float ez = Math.max(0,Math.max(c[2]-qz,qz-c[5]));
+                if ( ex*ex + ey*ey + ez*ez <= r*r ) sphere++;
+                if ( rayHits(qx,qy,qz,dx,dy,dz,1000,c) ) ray++;
+            }
+
+            assertEquals(box,octree.queryBox(qx-r,qy-r,qz-r,qx+r,qy+r,qz+r,results));
+            assertEquals(sphere,octree.querySphere(qx,qy,qz,r,results));
+            assertEquals(ray,octree.queryRay(qx,qy,qz,dx,dy,dz,1000,results));
+        }
+    }
+
+
+    static void place(Random random, float[] b) {
+        // Mostly small, some big, a few outside the volume
+        float size = random.nextInt(10) == 0 ? random.nextFloat() * 300 : random.nextFloat() * 20;
+        for(int i=0; i<3; ++i) {
+            b[i] = random.nextFloat() * 1100 - 50;
+            b[i+3] = b[i] + size * random.nextFloat();
+        }
+    }
+
+
+    /** Whether the ray passes through the box within max */
+    static boolean rayHits(float ox, float oy, float oz, float dx, float dy, float dz,
+                           float max, float[] b) {
+        float near = 0, far = max;
+        float[] o = { ox, oy, oz }, d = { dx, dy, dz };
+        for(int i=0; i<3; ++i) {
+            if ( d[i] == 0 ) {
+                if ( o[i] < b[i] || o[i] > b[i+3] ) return false;
+                continue;
+            }
+            float t1 = (b[i] - o[i]) / d[i], t2 = (b[i+3] - o[i]) / d[i];
+            near = Math.max(near,Math.min(t1,t2));
+            far = Math.min(far,Math.max(t1,t2));
+        }
+        return near <= far;
+    }
+
+}
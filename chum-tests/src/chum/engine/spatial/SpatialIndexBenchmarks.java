@@ -0,0 +1,72 @@
+package chum.engine.spatial;
+
+import chum.engine.GameNode;
+import chum.engine.GameTree;
+import chum.engine.Headless;
+import chum.engine.HeadlessGameController;
+import chum.engine.spatial.SpatialIndexTests.Looker;
+import chum.engine.spatial.SpatialIndexTests.Thing;
+import chum.f.Vec3;
+import chum.util.Log;
+
+import junit.framework.TestCase;
+
+
+/**
+   Timings for the spatial indexes.  These only log their results, so
+   they run from chum.tests.AllBenchmarks rather than the unit suite.
+ */
+public class SpatialIndexBenchmarks extends TestCase {
+
+    /**
+       Frame cost of tracking 10k moving sprites and querying around them,
+       in each index, and by checking every sprite
+     */
+    public void test_movingSprites() {
+        final int count = 10000;
+        final int frames = 200;
+
+        @SuppressWarnings("unchecked")
+        SpatialIndex<Thing>[] indexes = new SpatialIndex[] {
+            new SpatialHash<Thing>(16,count),
+            new LooseQuadtree<Thing>(0,0,1000,1000,7,count),
+        };
+        long[] nanos = new long[indexes.length];
+        int[] found = new int[indexes.length];
+        for(int i=0; i<indexes.length; ++i) {
+            Looker looker = new Looker(indexes[i]);
+            HeadlessGameController gc = Headless.setup(SpatialIndexTests.movingThings(indexes[i],count,looker));
+            gc.step(50);
+            looker.found = 0;
+            long start = System.nanoTime();
+            gc.step(frames);
+            nanos[i] = System.nanoTime() - start;
+            found[i] = looker.found;
+        }
+        assertEquals(found[0],found[1]);
+
+        // The same queries, checking every sprite
+        GameTree tree = SpatialIndexTests.movingThings(new SpatialHash<Thing>(16,count),count,new Looker(null) {
+                @Override
+                public boolean updatePrefix(long millis) {
+                    GameNode things = parent.children[0];
+                    for(int q=0; q<20; ++q) {
+                        for(int i=0; i<things.num_children; ++i) {
+                            Vec3 p = ((Thing)things.children[i]).position;
+                            if ( Math.abs(p.x - q * 50) < 44 && Math.abs(p.y - 500) < 44 ) found++;
+                        }
+                    }
+                    return false;
+                }
+            });
+        HeadlessGameController gc = Headless.setup(tree);
+        gc.step(50);
+        long start = System.nanoTime();
+        gc.step(frames);
+        long brute = System.nanoTime() - start;
+
+        Log.d("%d moving sprites: %d us/frame with SpatialHash, %d us/frame with LooseQuadtree, %d us/frame checking all",
+              count, nanos[0] / (frames * 1000), nanos[1] / (frames * 1000), brute / (frames * 1000));
+    }
+
+}
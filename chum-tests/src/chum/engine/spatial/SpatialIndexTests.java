@@ -0,0 +1,330 @@
+package chum.engine.spatial;
+
+import chum.engine.AllocationCheck;
+import chum.engine.GameNode;
+import chum.engine.GameTree;
+import chum.engine.Headless;
+import chum.engine.HeadlessGameController;
+import chum.engine.common.Movable;
+import chum.engine.common.Rotatable;
+import chum.engine.common.Scalable;
+import chum.f.Vec3;
+import chum.gl.SpriteSheet;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+
+/**
+ */
+public class SpatialIndexTests extends TestCase {
+
+    protected void setUp() {
+
+    }
+
+
+    public void test_hashQueries() {
+        checkQueries(new SpatialHash<String>(10,4));
+    }
+
+
+    public void test_quadtreeQueries() {
+        checkQueries(new LooseQuadtree<String>(0,0,100,100,4,4));
+    }
+
+
+    protected void checkQueries(SpatialIndex<String> index) {
+        int a = index.add("a",0,0,5,5);
+        int b = index.addCentered("b",50,50,2,2);
+        int big = index.add("big",10,10,90,90);
+        int far = index.addCentered("far",-500,1000,1,1);
+        assertEquals(4,index.size());
+
+        SpatialIndex.Results<String> results = new SpatialIndex.Results<String>(1);
+        assertEquals(1,index.queryPoint(1,1,results));
+        assertEquals("a",results.get(0));
+        assertEquals(a,results.handles[0]);
+
+        assertEquals(2,index.queryPoint(50,50,results.clear()));
+        assertTrue(contains(results,"b"));
+        assertTrue(contains(results,"big"));
+
+        assertEquals(2,index.queryBox(-10,-10,11,60,results.clear()));
+        assertEquals(1,index.queryBox(-501,999,-499,1001,results.clear()));
+        assertEquals("far",results.get(0));
+
+        // Radius queries go by the nearest point of each box -- the corner of "a"
+        assertEquals(0,index.queryRadius(7,-2,1,results.clear()));
+        assertEquals(1,index.queryRadius(6.5f,6.5f,2.2f,results.clear()));
+        assertEquals(0,index.queryRadius(6.9f,6.9f,2.5f,results.clear()));
+
+        // Moving across cells
+        index.moveCentered(b,-500,1000,1,1);
+        assertEquals(1,index.queryPoint(50,50,results.clear()));
+        assertEquals(2,index.queryPoint(-500,1000,results.clear()));
+
+        index.remove(far);
+        index.remove(big);
+        assertEquals(2,index.size());
+        assertEquals(1,index.queryPoint(-500,1000,results.clear()));
+        assertEquals("b",results.get(0));
+        assertNull(index.get(far));
+
+        // A handle is reused
+        assertEquals(big,index.add("again",0,0,1,1));
+
+        // Stopping early
+        results.clear().limit = 1;
+        assertEquals(1,index.queryBox(-1000,-1000,1000,1000,results));
+
+        index.clear();
+        assertEquals(0,index.size());
+        assertEquals(0,index.queryBox(-1000,-1000,1000,1000,results.clear()));
+    }
+
+
+    static boolean contains(SpatialIndex.Results<String> results, String s) {
+        for(int i=0; i<results.count; ++i)
+            if ( s.equals(results.get(i)) ) return true;
+        return false;
+    }
+
+
+    public void test_queriesFromVisitors() {
+        checkNestedQueries(new SpatialHash<Integer>(10,4));
+        checkNestedQueries(new LooseQuadtree<Integer>(0,0,100,100,4,4));
+    }
+
+
+    /**
+       Each item found looks for a neighbour while the outer query is
+       running, and ends that inner query early
+     */
+    protected void checkNestedQueries(final SpatialIndex<Integer> index) {
+        for(int i=0; i<10; ++i) index.addCentered(i,i * 10 + 5,50,1,1);
+
+        final SpatialIndex.Results<Integer> near = new SpatialIndex.Results<Integer>();
+        near.limit = 1;
+        final SpatialIndex.Results<Integer> all = new SpatialIndex.Results<Integer>();
+        int found = index.queryRadius(50,50,60,new SpatialIndex.Visitor<Integer>() {
+                public boolean visit(Integer item, int handle) {
+                    all.visit(item,handle);
+                    assertEquals(1,index.queryRadius(item * 10 + 5,50,10,near.clear()));
+                    return true;
+                }
+            });
+        assertEquals(10,found);
+        assertEquals(10,all.count);
+    }
+
+
+    /**
+       Random items of mixed sizes, moving about:  each index finds the
+       same items as checking them all
+     */
+    public void test_matchesBruteForce() {
+        Random random = new Random(7);
+        int n = 500;
+        float[] x1 = new float[n], y1 = new float[n], x2 = new float[n], y2 = new float[n];
+
+        @SuppressWarnings("unchecked")
+        SpatialIndex<Integer>[] indexes = new SpatialIndex[] {
+            new SpatialHash<Integer>(16,64),
+            new LooseQuadtree<Integer>(0,0,1000,1000,6,64),
+        };
+        for(int i=0; i<n; ++i) {
+            place(random,i,x1,y1,x2,y2);
+            for(SpatialIndex<Integer> index : indexes)
+                assertEquals(i,index.add(i,x1[i],y1[i],x2[i],y2[i]));
+        }
+
+        SpatialIndex.Results<Integer> results = new SpatialIndex.Results<Integer>();
+        for(int round=0; round<50; ++round) {
+            for(int k=0; k<50; ++k) {
+                int i = random.nextInt(n);
+                place(random,i,x1,y1,x2,y2);
+                for(SpatialIndex<Integer> index : indexes)
+                    index.move(i,x1[i],y1[i],x2[i],y2[i]);
+            }
+
+            float qx = random.nextFloat() * 1200 - 100;
+            float qy = random.nextFloat() * 1200 - 100;
+            float r = random.nextFloat() * 100;
+            int expected = 0, expectedRound = 0;
+            for(int i=0; i<n; ++i) {
+                if ( x2[i] >= qx-r && x1[i] <= qx+r && y2[i] >= qy-r && y1[i] <= qy+r ) expected++;
+                float dx = Math.max(0,Math.max(x1[i]-qx,qx-x2[i]));
+                float dy = Math.max(0,Math.max(y1[i]-qy,qy-y2[i]));
+                if ( dx*dx + dy*dy <= r*r ) expectedRound++;
+            }
+
+            for(SpatialIndex<Integer> index : indexes) {
+                assertEquals(expected,index.queryBox(qx-r,qy-r,qx+r,qy+r,results.clear()));
+                assertEquals(expectedRound,index.queryRadius(qx,qy,r,results.clear()));
+            }
+        }
+    }
+
+
+    static void place(Random random, int i, float[] x1, float[] y1, float[] x2, float[] y2) {
+        // Mostly small, some big, a few outside the quadtree's area
+        float size = random.nextInt(10) == 0 ? random.nextFloat() * 300 : random.nextFloat() * 12;
+        x1[i] = random.nextFloat() * 1100 - 50;
+        y1[i] = random.nextFloat() * 1100 - 50;
+        x2[i] = x1[i] + size;
+        y2[i] = y1[i] + size * random.nextFloat();
+    }
+
+
+    public void test_tracker() {
+        SpriteSheet sheet = new SpriteSheet(1);
+        sheet.width = sheet.height = 64;
+        sheet.define(0,0,0,20,10);
+
+        SpatialTracker<Thing> tracker = new SpatialTracker<Thing>(new SpatialHash<Thing>(32,16));
+        Thing sprite = new Thing(100,100);
+        Thing marker = new Thing(0,0);
+        Thing flag = new Thing(50,50);
+        tracker.track(sprite,sheet.data[0]);
+        tracker.track(marker,2,2);
+        tracker.track(flag,0,10,1,10);
+
+        // The image's lower left corner is at the sprite's position
+        assertSame(sprite,tracker.pick(119,109));
+        assertNull(tracker.pick(99,105));
+        assertNull(tracker.pick(110,111));
+        assertSame(marker,tracker.pick(-1,1));
+        assertSame(flag,tracker.pick(50,69));
+        assertNull(tracker.pick(50,45));
+
+        // Picks up the new positions on update
+        sprite.position.set(new Vec3(200,0,0));
+        tracker.updatePrefix(10);
+        assertNull(tracker.pick(110,105));
+        assertNull(tracker.pick(191,0));
+        assertSame(sprite,tracker.pick(219,9));
+    }
+
+
+    /** A Thing that can be scaled and turned */
+    static class Turning extends Thing implements Scalable, Rotatable {
+        float scale = 1f, angle;
+        Vec3 axis = new Vec3(0,0,1);
+
+        Turning(float x, float y) {
+            super(x,y);
+        }
+
+        public float getScale() { return scale; }
+        public void setScale(float scale) { this.scale = scale; }
+        public float getAngle() { return angle; }
+        public void setAngle(float angle) { this.angle = angle; }
+        public Vec3 getAxis() { return axis; }
+        public void setAxis(Vec3 axis) { this.axis = axis; }
+    }
+
+
+    public void test_trackerScalesAndTurnsAboutPosition() {
+        SpatialTracker<Thing> tracker = new SpatialTracker<Thing>(new SpatialHash<Thing>(32,16));
+        Turning thing = new Turning(100,100);
+        tracker.track(thing,10,0,2,2);
+        assertSame(thing,tracker.pick(110,100));
+
+        thing.scale = 2f;
+        tracker.updatePrefix(10);
+        assertNull(tracker.pick(110,100));
+        assertSame(thing,tracker.pick(120,100));
+
+        // A quarter turn puts it above the position
+        thing.angle = 90;
+        tracker.updatePrefix(10);
+        assertNull(tracker.pick(120,100));
+        assertSame(thing,tracker.pick(100,120));
+    }
+
+
+    /** A Movable that moves itself */
+    static class Thing extends GameNode implements Movable {
+        Vec3 position;
+        float vx, vy;
+
+        Thing(float x, float y) {
+            position = new Vec3(x,y,0);
+        }
+
+        public Vec3 getPosition() {
+            return position;
+        }
+
+        public void setPosition(Vec3 position) {
+            this.position.set(position);
+        }
+
+        @Override
+        public boolean updatePrefix(long millis) {
+            float seconds = millis / 1000f;
+            position.x += vx * seconds;
+            position.y += vy * seconds;
+            if ( position.x < 0 || position.x > 1000 ) vx = -vx;
+            if ( position.y < 0 || position.y > 1000 ) vy = -vy;
+            return true;
+        }
+    }
+
+
+    /** Looks around a point each frame */
+    static class Looker extends GameNode {
+        final SpatialIndex<Thing> index;
+        final SpatialIndex.Results<Thing> results = new SpatialIndex.Results<Thing>(256);
+        int found;
+
+        Looker(SpatialIndex<Thing> index) {
+            this.index = index;
+        }
+
+        @Override
+        public boolean updatePrefix(long millis) {
+            for(int i=0; i<10; ++i) {
+                found += index.queryRadius(i * 100,500,40,results.clear());
+                found += index.queryPoint(500,i * 100,results.clear());
+            }
+            return false;
+        }
+    }
+
+
+    static GameTree movingThings(SpatialIndex<Thing> index, int count, Looker looker) {
+        Random random = new Random(1);
+        GameNode things = new GameNode();
+        SpatialTracker<Thing> tracker = new SpatialTracker<Thing>(index);
+        for(int i=0; i<count; ++i) {
+            Thing thing = new Thing(random.nextFloat() * 1000,random.nextFloat() * 1000);
+            thing.vx = random.nextFloat() * 200 - 100;
+            thing.vy = random.nextFloat() * 200 - 100;
+            things.addNode(thing);
+            tracker.track(thing,4,4);
+        }
+
+        GameTree tree = new GameTree();
+        tree.addNode(things);
+        tree.addNode(tracker);
+        tree.addNode(looker);
+        return tree;
+    }
+
+
+    public void test_framesDoNotAllocate() {
+        SpatialHash<Thing> hash = new SpatialHash<Thing>(16,1000);
+        Looker looker = new Looker(hash);
+        HeadlessGameController gc = Headless.setup(movingThings(hash,1000,looker));
+
+        AllocationCheck check = new AllocationCheck(gc);
+        check.toleratedFrames = 2;
+        check.run(2000,300);
+        assertTrue(check.report(),check.passed());
+        assertTrue(looker.found > 0);
+    }
+
+}
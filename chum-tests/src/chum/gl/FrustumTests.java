@@ -0,0 +1,303 @@
+package chum.gl;
+
+import chum.engine.GameNode;
+import chum.engine.GameTree;
+import chum.engine.Headless;
+import chum.engine.HeadlessGameController;
+import chum.f.M4;
+import chum.f.Vec3;
+import chum.gl.render.CameraNode;
+import chum.gl.render.MeshNode;
+import chum.gl.render.PerspectiveProjection;
+import chum.gl.render.ProjectionNode;
+import chum.gl.render.SaveMatrixNode;
+import chum.gl.render.ScaleNode;
+import chum.gl.render.Standard2DNode;
+import chum.gl.render.TranslateNode;
+import chum.gl.render.primitive.ProjectionTransform;
+
+import junit.framework.TestCase;
+
+
+/**
+ */
+public class FrustumTests extends TestCase {
+
+    protected void setUp() {
+
+    }
+
+
+    public void test_perspective() {
+        Frustum frustum = new Frustum().setPerspective(90,1,1,100);
+
+        assertTrue(frustum.intersects(0,0,-10,1));
+        assertFalse(frustum.intersects(0,0,5,1));       // behind
+        assertFalse(frustum.intersects(0,0,-0.5f,0.1f)); // before the near plane
+        assertFalse(frustum.intersects(0,0,-200,1));    // past the far plane
+        assertFalse(frustum.intersects(20,0,-10,1));    // 90 degrees:  x <= -z
+        assertTrue(frustum.intersects(10.5f,0,-10,1));
+        assertFalse(frustum.intersects(0,-12,-10,1));
+    }
+
+
+    public void test_orthographic() {
+        Frustum frustum = new Frustum().setOrthographic(0,320,0,480,-1,1);
+
+        assertTrue(frustum.intersects(160,240,0,1));
+        assertFalse(frustum.intersects(-5,10,0,4));
+        assertTrue(frustum.intersects(-5,10,0,6));
+        assertFalse(frustum.intersects(100,490,0,5));
+        assertFalse(frustum.intersects(100,100,10,5));
+    }
+
+
+    public void test_matrixStack() {
+        Frustum frustum = new Frustum().setOrthographic(0,320,0,480,-1,1);
+        RenderContext rc = new MockRenderContext(null,new MockGL10());
+        frustum.begin(rc);
+        assertSame(frustum,rc.frustum);
+
+        M4 m = new M4();
+        frustum.push();
+        frustum.multiply(m.translate(new Vec3(-1000,0,0)));
+        assertFalse(frustum.intersects(160,240,0,1));
+        assertTrue(frustum.intersects(1160,240,0,1));
+
+        // Scaling grows the radius too
+        frustum.push();
+        frustum.multiply(m.scale(10));
+        assertTrue(frustum.intersects(110,24,0,1));
+        assertTrue(frustum.intersects(99,24,0,1.1f));
+        assertFalse(frustum.intersects(99,24,0,0.9f));
+        frustum.pop();
+
+        frustum.pop();
+        assertTrue(frustum.intersects(160,240,0,1));
+        try {
+            frustum.pop();
+            fail("popped past the start");
+        } catch(IllegalStateException e) {}
+
+        frustum.end(rc);
+        assertNull(rc.frustum);
+    }
+
+
+    public void test_camera() {
+        Frustum frustum = new Frustum().setPerspective(60,1,1,100);
+
+        // Looking down the x axis from the origin
+        frustum.lookAt(new Vec3(0,0,0),new Vec3(1,0,0),new Vec3(Vec3.Y_AXIS));
+        assertTrue(frustum.intersects(10,0,0,1));
+        assertFalse(frustum.intersects(-10,0,0,1));
+        assertFalse(frustum.intersects(0,0,-10,1));
+    }
+
+
+    /** A node that draws a known sphere, and counts the times it's drawn */
+    static class Blob extends RenderNode {
+        float x, y, radius;
+        int rendered;
+
+        Blob(float x, float y, float radius) {
+            this.x = x;
+            this.y = y;
+            this.radius = radius;
+        }
+
+        @Override
+        protected float contentBounds(Vec3 center) {
+            center.set(x,y,0);
+            return radius;
+        }
+
+        @Override
+        public boolean renderPrefix(RenderContext renderContext) {
+            rendered++;
+            return true;
+        }
+    }
+
+
+    protected HeadlessGameController run(GameTree tree) {
+        HeadlessGameController gc = Headless.setup(tree);
+        gc.step(2);
+        return gc;
+    }
+
+
+    public void test_cullsIn2D() {
+        Standard2DNode projection = new Standard2DNode();
+        projection.cull = true;
+
+        Blob onScreen = new Blob(100,100,10);
+        Blob offScreen = new Blob(-100,100,10);
+        Blob movedOn = new Blob(-100,100,10);
+        TranslateNode moved = new TranslateNode(new Vec3(150,0,0));
+        moved.addNode(movedOn);
+
+        // A group goes by the bounds of everything in it
+        SaveMatrixNode group = new SaveMatrixNode();
+        Blob inGroup = new Blob(1000,1000,5);
+        Blob inGroup2 = new Blob(1000,1010,5);
+        group.addNode(inGroup);
+        group.addNode(inGroup2);
+
+        projection.addNode(onScreen);
+        projection.addNode(offScreen);
+        projection.addNode(moved);
+        projection.addNode(group);
+
+        GameTree tree = new GameTree();
+        tree.addNode(projection);
+        HeadlessGameController gc = run(tree);
+
+        assertEquals(2,onScreen.rendered);
+        assertEquals(0,offScreen.rendered);
+        assertEquals(2,movedOn.rendered);
+        assertEquals(0,inGroup.rendered);
+        assertEquals(0,inGroup2.rendered);
+        assertEquals(2,gc.culledNodes);
+
+        // Noticed when the transform changes
+        moved.position.x = -200;
+        gc.step(1);
+        assertEquals(2,movedOn.rendered);
+        assertEquals(3,gc.culledNodes);
+
+        // Noticed when the bounds of what's drawn change -- then the
+        // group is entered, and the node still out of view is culled
+        inGroup2.x = 200;
+        inGroup2.y = 200;
+        inGroup2.invalidateBounds();
+        gc.step(1);
+        assertEquals(0,inGroup.rendered);
+        assertEquals(1,inGroup2.rendered);
+        assertEquals(3,gc.culledNodes);
+
+        // Without culling, everything is built into the render chain
+        projection.cull = false;
+        gc.step(1);
+        assertEquals(1,offScreen.rendered);
+        assertEquals(0,gc.culledNodes);
+    }
+
+
+    /**
+       A change to a transform is noticed before culling even if the node
+       isn't updated (it's asleep), or is changed by a node updated after it
+     */
+    public void test_transformChangedElsewhere() {
+        Standard2DNode projection = new Standard2DNode();
+        projection.cull = true;
+        Blob blob = new Blob(-100,100,10);
+        final TranslateNode moved = new TranslateNode(new Vec3(0,0,0));
+        moved.addNode(blob);
+        projection.addNode(moved);
+
+        final float[] moveTo = { Float.NaN };
+        GameNode mover = new GameNode() {
+                @Override
+                public boolean updatePrefix(long millis) {
+                    if ( moveTo[0] == moveTo[0] ) moved.position.x = moveTo[0];
+                    return false;
+                }
+            };
+
+        GameTree tree = new GameTree();
+        tree.addNode(projection);
+        tree.addNode(mover);
+        HeadlessGameController gc = run(tree);
+        assertEquals(0,blob.rendered);
+
+        moved.sleep();
+        moved.position.x = 150;
+        gc.step(1);
+        assertEquals(1,blob.rendered);
+
+        moved.wake();
+        moveTo[0] = -200;
+        gc.step(1);
+        assertEquals(1,blob.rendered);
+        moveTo[0] = 200;
+        gc.step(1);
+        assertEquals(2,blob.rendered);
+    }
+
+
+    /** A projection that doesn't describe its frustum isn't culled */
+    public void test_projectionWithoutFrustum() {
+        ProjectionNode projection = new ProjectionNode() {
+                @Override
+                protected void setProjection(ProjectionTransform projection) {}
+            };
+        projection.cull = true;
+        Blob offScreen = new Blob(-1000,-1000,1);
+        projection.addNode(offScreen);
+
+        GameTree tree = new GameTree();
+        tree.addNode(projection);
+        HeadlessGameController gc = run(tree);
+        assertEquals(2,offScreen.rendered);
+        assertEquals(0,gc.culledNodes);
+    }
+
+
+    public void test_cullsIn3D() {
+        PerspectiveProjection projection = new PerspectiveProjection();
+        projection.setPerspective(90,1,1,100);
+        projection.cull = true;
+        CameraNode camera = new CameraNode(new Vec3(0,0,10),new Vec3(Vec3.ORIGIN));
+        projection.addNode(camera);
+
+        Blob ahead = new Blob(0,0,1);
+        Blob aside = new Blob(50,0,1);
+        ScaleNode scaled = new ScaleNode(0.1f);
+        Blob shrunk = new Blob(50,0,1);
+        scaled.addNode(shrunk);
+        camera.addNode(ahead);
+        camera.addNode(aside);
+        camera.addNode(scaled);
+
+        GameTree tree = new GameTree();
+        tree.addNode(projection);
+        HeadlessGameController gc = run(tree);
+
+        assertEquals(2,ahead.rendered);
+        assertEquals(0,aside.rendered);
+        assertEquals(2,shrunk.rendered);
+        assertEquals(1,gc.culledNodes);
+    }
+
+
+    public void test_meshBounds() {
+        Mesh quad = new Mesh(true, true, false, 4, 4,
+                             new VertexAttribute(VertexAttributes.Usage.Position));
+        quad.setVertices(new float[] {
+                -30f, -20f, 0f,
+                -10f, -20f, 0f,
+                -10f, -10f, 0f,
+                -30f, -10f, 0f,
+            });
+        quad.setIndices(new short[] { 0, 1, 2, 3 });
+
+        MeshNode node = new MeshNode(quad);
+        Vec3 center = new Vec3();
+        float radius = node.getBounds(center);
+        assertEquals(-20f,center.x,0.0001f);
+        assertEquals(-15f,center.y,0.0001f);
+        assertEquals((float)Math.sqrt(10*10 + 5*5),radius,0.0001f);
+
+        TranslateNode moved = new TranslateNode(new Vec3(100,0,0));
+        moved.addNode(node);
+        radius = moved.getBounds(center);
+        assertEquals(80f,center.x,0.0001f);
+
+        // Nothing to draw
+        node.setMesh(null,0);
+        assertEquals(RenderNode.EMPTY,node.getBounds(center));
+        assertEquals(RenderNode.EMPTY,moved.getBounds(center));
+    }
+
+}
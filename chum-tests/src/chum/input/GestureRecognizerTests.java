@@ -0,0 +1,125 @@
+package chum.input;
+
+import android.view.MotionEvent;
+
+import junit.framework.TestCase;
+
+
+/**
+ */
+public class GestureRecognizerTests extends TestCase {
+
+    GestureRecognizer recognizer;
+    StringBuilder seen;
+    float lastVX;
+
+    protected void setUp() {
+        seen = new StringBuilder();
+        recognizer = new GestureRecognizer(new GestureRecognizer.Listener() {
+                public void onDown(float x, float y) { seen.append("down "); }
+                public void onUp(float x, float y) { seen.append("up "); }
+                public void onTap(float x, float y) { seen.append("tap "); }
+                public void onDoubleTap(float x, float y) { seen.append("double "); }
+                public void onLongPress(float x, float y) { seen.append("long "); }
+                public void onScroll(float x, float y, float dx, float dy) {
+                    seen.append("scroll ").append((int)dx).append(',').append((int)dy).append(' ');
+                }
+                public void onFling(float x, float y, float vx, float vy) {
+                    seen.append("fling ");
+                    lastVX = vx;
+                }
+            });
+    }
+
+
+    protected void touch(int action, float x, float y, long t) {
+        recognizer.sample(action,x,y,t);
+    }
+
+
+    public void test_tap() {
+        touch(MotionEvent.ACTION_DOWN,10,10,0);
+        touch(MotionEvent.ACTION_MOVE,14,12,30);
+        touch(MotionEvent.ACTION_UP,14,12,60);
+        assertEquals("down tap up ",seen.toString());
+        assertFalse(recognizer.down);
+    }
+
+
+    public void test_doubleTap() {
+        touch(MotionEvent.ACTION_DOWN,10,10,0);
+        touch(MotionEvent.ACTION_UP,10,10,50);
+        touch(MotionEvent.ACTION_DOWN,12,10,150);
+        touch(MotionEvent.ACTION_UP,12,10,200);
+        assertEquals("down tap up down double up ",seen.toString());
+
+        // Too late for a double tap
+        seen.setLength(0);
+        touch(MotionEvent.ACTION_DOWN,10,10,1000);
+        touch(MotionEvent.ACTION_UP,10,10,1050);
+        touch(MotionEvent.ACTION_DOWN,10,10,1500);
+        touch(MotionEvent.ACTION_UP,10,10,1550);
+        assertEquals("down tap up down tap up ",seen.toString());
+    }
+
+
+    public void test_longPress() {
+        touch(MotionEvent.ACTION_DOWN,10,10,0);
+        recognizer.tick(400);
+        assertEquals("down ",seen.toString());
+        recognizer.tick(500);
+        recognizer.tick(600);
+        assertEquals("down long ",seen.toString());
+
+        // No tap after a long press, and small moves don't scroll
+        touch(MotionEvent.ACTION_MOVE,15,10,700);
+        touch(MotionEvent.ACTION_UP,15,10,800);
+        assertEquals("down long up ",seen.toString());
+    }
+
+
+    public void test_scrollAndFling() {
+        TouchSamples samples = new TouchSamples();
+        samples.write(0,MotionEvent.ACTION_DOWN,0,0,1,0);
+        samples.write(0,MotionEvent.ACTION_MOVE,10,0,1,10);
+        samples.write(0,MotionEvent.ACTION_MOVE,30,5,1,20);
+        samples.write(0,MotionEvent.ACTION_MOVE,50,5,1,30);
+        samples.take();
+        recognizer.process(samples);
+        samples.release();
+        // The whole batch is one scroll, from where the touch went down
+        assertEquals("down scroll 50,5 ",seen.toString());
+        assertTrue(recognizer.scrolling);
+
+        seen.setLength(0);
+        recognizer.velocityWindow = 30;
+        samples.write(0,MotionEvent.ACTION_MOVE,70,5,1,40);
+        samples.write(0,MotionEvent.ACTION_UP,90,5,1,50);
+        samples.take();
+        recognizer.process(samples);
+        samples.release();
+        assertEquals("scroll 40,0 fling up ",seen.toString());
+        // 60 pixels in the last 30 ms
+        assertEquals(2000f,lastVX,0.01f);
+    }
+
+
+    public void test_slowUpIsNotFling() {
+        touch(MotionEvent.ACTION_DOWN,0,0,0);
+        touch(MotionEvent.ACTION_MOVE,40,0,100);
+        touch(MotionEvent.ACTION_MOVE,41,0,200);
+        touch(MotionEvent.ACTION_UP,41,0,300);
+        assertEquals("down scroll 41,0 up ",seen.toString());
+    }
+
+
+    public void test_cancel() {
+        touch(MotionEvent.ACTION_DOWN,0,0,0);
+        touch(MotionEvent.ACTION_CANCEL,0,0,10);
+        assertEquals("down up ",seen.toString());
+        assertFalse(recognizer.down);
+        recognizer.tick(1000);
+        assertEquals("down up ",seen.toString());
+    }
+
+}
@@ -0,0 +1,223 @@
+package chum.input;
+
+import chum.engine.GameTree;
+import chum.engine.Headless;
+import chum.engine.HeadlessGameController;
+
+import android.view.MotionEvent;
+
+import junit.framework.TestCase;
+
+
+/**
+ */
+public class TouchSamplesTests extends TestCase {
+
+    protected void setUp() {
+
+    }
+
+
+    public void test_writeAndTake() {
+        TouchSamples samples = new TouchSamples(8);
+        assertEquals(0,samples.take());
+
+        samples.write(MotionEvent.obtain(100,100,MotionEvent.ACTION_DOWN,10,20,0));
+        samples.write(MotionEvent.obtain(100,116,MotionEvent.ACTION_MOVE,12,24,0));
+        assertEquals(2,samples.size());
+
+        assertEquals(2,samples.take());
+        int k = samples.slot(samples.first);
+        assertEquals(MotionEvent.ACTION_DOWN,samples.action[k]);
+        assertEquals(10f,samples.x[k]);
+        assertEquals(100,samples.time[k]);
+        k = samples.slot(samples.first+1);
+        assertEquals(MotionEvent.ACTION_MOVE,samples.action[k]);
+        assertEquals(24f,samples.y[k]);
+        assertEquals(116,samples.time[k]);
+        samples.release();
+
+        assertEquals(0,samples.size());
+        assertEquals(0,samples.take());
+    }
+
+
+    public void test_fullRingDrops() {
+        TouchSamples samples = new TouchSamples(4);
+        for(int i=0; i<6; ++i)
+            assertEquals(i < 4,samples.write(0,MotionEvent.ACTION_MOVE,i,0,1,i));
+        assertEquals(2,samples.dropped);
+
+        assertEquals(4,samples.take());
+        samples.release();
+
+        // Wraps around once the slots are handed back
+        assertTrue(samples.write(0,MotionEvent.ACTION_UP,9,0,1,9));
+        assertEquals(1,samples.take());
+        assertEquals(9f,samples.x[samples.slot(samples.first)]);
+    }
+
+
+    /**
+       One thread writing while another takes batches:  every sample
+       arrives, in order
+     */
+    public void test_concurrentWriter() throws InterruptedException {
+        final TouchSamples samples = new TouchSamples(64);
+        final int count = 200000;
+        Thread writer = new Thread() {
+                @Override
+                public void run() {
+                    for(int i=0; i<count; ) {
+                        if ( samples.size() < samples.capacity() &&
+                             samples.write(i % 3,MotionEvent.ACTION_MOVE,i,-i,1,i) ) i++;
+                        else Thread.yield();
+                    }
+                }
+            };
+        writer.start();
+
+        int next = 0;
+        boolean ordered = true;
+        while ( next < count ) {
+            samples.take();
+            for(long n=samples.first; n<samples.last; ++n) {
+                int k = samples.slot(n);
+                if ( samples.x[k] != next || samples.y[k] != -next ||
+                     samples.time[k] != next || samples.id[k] != next % 3 ) ordered = false;
+                next++;
+            }
+            samples.release();
+            Thread.yield();
+        }
+        writer.join();
+        assertTrue(ordered);
+        assertEquals(0,samples.dropped);
+    }
+
+
+    /** Notes the gestures it's told about */
+    static class Gestures extends TouchSampleNode {
+        StringBuilder seen = new StringBuilder();
+        int batches;
+
+        @Override
+        protected void onSamples(TouchSamples samples) {
+            batches++;
+        }
+
+        @Override
+        public void onTap(float x, float y) {
+            seen.append("tap ");
+        }
+
+        @Override
+        public void onLongPress(float x, float y) {
+            seen.append("long ");
+        }
+
+        @Override
+        public void onScroll(float x, float y, float dx, float dy) {
+            seen.append("scroll ").append((int)dx).append(' ');
+        }
+    }
+
+
+    /**
+       The node takes the samples once a frame, in the game thread, and
+       long presses happen as the clock moves on
+     */
+    public void test_node() {
+        Gestures node = new Gestures();
+        GameTree tree = new GameTree();
+        tree.addNode(node);
+        HeadlessGameController gc = Headless.setup(tree);
+        long now = gc.clock.uptimeMillis();
+
+        node.onTouch(null,MotionEvent.obtain(now,now,MotionEvent.ACTION_DOWN,10,10,0));
+        node.onTouch(null,MotionEvent.obtain(now,now+5,MotionEvent.ACTION_UP,11,10,0));
+        gc.step(1);
+        assertEquals("tap ",node.seen.toString());
+        assertEquals(1,node.batches);
+
+        // Three moves in one frame are one scroll
+        node.seen.setLength(0);
+        now = gc.clock.uptimeMillis();
+        node.onTouch(null,MotionEvent.obtain(now,now,MotionEvent.ACTION_DOWN,10,10,0));
+        node.onTouch(null,MotionEvent.obtain(now,now+5,MotionEvent.ACTION_MOVE,40,10,0));
+        node.onTouch(null,MotionEvent.obtain(now,now+10,MotionEvent.ACTION_MOVE,50,10,0));
+        node.onTouch(null,MotionEvent.obtain(now,now+15,MotionEvent.ACTION_MOVE,60,10,0));
+        gc.step(1);
+        assertEquals("scroll 50 ",node.seen.toString());
+        node.onTouch(null,MotionEvent.obtain(now,now+200,MotionEvent.ACTION_UP,60,10,0));
+        gc.step(1);
+
+        // Held down, with no more samples coming in
+        node.seen.setLength(0);
+        now = gc.clock.uptimeMillis();
+        node.onTouch(null,MotionEvent.obtain(now,now,MotionEvent.ACTION_DOWN,10,10,0));
+        gc.step(1);
+        assertEquals("",node.seen.toString());
+        gc.step((int)(node.gestures.longPressTimeout / gc.targetInterval) + 1);
+        assertEquals("long ",node.seen.toString());
+    }
+
+
+    /**
+       Long presses are timed in the samples' own time base, even when
+       it's nothing like the game clock (real MotionEvents under a
+       ManualClock)
+     */
+    public void test_sampleTimeBase() {
+        Gestures node = new Gestures();
+        GameTree tree = new GameTree();
+        tree.addNode(node);
+        HeadlessGameController gc = Headless.setup(tree);
+        long uptime = 5000000L;
+
+        node.onTouch(null,MotionEvent.obtain(uptime,uptime,MotionEvent.ACTION_DOWN,10,10,0));
+        gc.step(1);
+        assertEquals("",node.seen.toString());
+        gc.step((int)(node.gestures.longPressTimeout / gc.targetInterval) - 2);
+        assertEquals("",node.seen.toString());
+        gc.step(3);
+        assertEquals("long ",node.seen.toString());
+    }
+
+
+    /**
+       Samples written after the node took its batch, but before it went
+       to sleep, aren't left waiting for the next touch
+     */
+    public void test_noLostWakeup() {
+        final boolean[] inject = new boolean[1];
+        Gestures node = new Gestures() {
+                @Override
+                public boolean updatePrefix(long millis) {
+                    boolean updated = super.updatePrefix(millis);
+                    if ( inject[0] ) {
+                        // As if from the UI thread, just before the node sleeps
+                        inject[0] = false;
+                        long now = gameController.clock.uptimeMillis();
+                        onTouch(null,MotionEvent.obtain(now,now,MotionEvent.ACTION_DOWN,10,10,0));
+                        onTouch(null,MotionEvent.obtain(now,now+5,MotionEvent.ACTION_UP,10,10,0));
+                    }
+                    return updated;
+                }
+            };
+        node.sleepAfter = 1;
+        GameTree tree = new GameTree();
+        tree.addNode(node);
+        HeadlessGameController gc = Headless.setup(tree);
+        gc.step(2);
+        assertTrue(node.sleeping);
+
+        node.wake();
+        inject[0] = true;
+        gc.step(1);
+        assertFalse(node.sleeping);
+        gc.step(1);
+        assertEquals("tap ",node.seen.toString());
+    }
+
+}
@@ -0,0 +1,37 @@
+package chum.tests;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import android.test.suitebuilder.TestMethod;
+import android.test.suitebuilder.TestSuiteBuilder;
+import com.android.internal.util.Predicate;
+
+
+/**
+ * A suite of the benchmarks, which only log their timings -- the
+ * classes named *Benchmarks.  Run it on its own with
+ * "adb shell am instrument -w -e class chum.tests.AllBenchmarks
+ *  chum.tests/android.test.InstrumentationTestRunner"
+ */
+public class AllBenchmarks extends TestSuite {
+
+    static final Predicate<TestMethod> BENCHMARK = new Predicate<TestMethod>() {
+            public boolean apply(TestMethod method) {
+                return method.getEnclosingClassname().endsWith("Benchmarks");
+            }
+        };
+
+    static final Predicate<TestMethod> NOT_BENCHMARK = new Predicate<TestMethod>() {
+            public boolean apply(TestMethod method) {
+                return !BENCHMARK.apply(method);
+            }
+        };
+
+
+    public static Test suite() {
+        TestSuiteBuilder builder = new TestSuiteBuilder(AllBenchmarks.class);
+        builder.includePackages("chum.engine");
+        builder.addRequirements(BENCHMARK);
+        return builder.build();
+    }
+}
@@ -7,6 +7,7 @@ import android.test.suitebuilder.TestSuiteBuilder;
 
 /**
  * A test suite containing all tests for my application.
+ * The timings in the *Benchmarks classes are left to AllBenchmarks.
  */
 public class AllTests extends TestSuite {
     public static Test suite() {
@@ -16,6 +17,7 @@ public class AllTests extends TestSuite {
                                 "chum.engine",
                                 "chum.examples",
                                 "chum.util");
+        builder.addRequirements(AllBenchmarks.NOT_BENCHMARK);
         return builder.build();
     }
 }
@@ -0,0 +1,90 @@
+package chum.util;
+
+import junit.framework.TestCase;
+
+
+/**
+ */
+public class HistogramTests extends TestCase {
+
+    protected void setUp() {
+
+    }
+
+
+    public void test_bucketsCoverEveryValue() {
+        // Each value falls in a bucket whose range includes it, and the
+        // buckets are in order
+        long[] values = { 0, 1, 7, 8, 9, 15, 16, 17, 100, 1000, 16666667,
+                          1L << 40, Long.MAX_VALUE };
+        int last = -1;
+        for(long v : values) {
+            int b = Histogram.bucket(v);
+            assertTrue(b >= last);
+            assertTrue(b < Histogram.BUCKETS);
+            assertTrue(Histogram.highest(b) >= v);
+            if ( b > 0 ) assertTrue(Histogram.highest(b-1) < v);
+            last = b;
+        }
+    }
+
+
+    public void test_bucketsAreWithinAnEighth() {
+        for(int b=Histogram.SUB_BUCKETS; b<Histogram.BUCKETS-1; ++b) {
+            long low = Histogram.highest(b-1) + 1;
+            long high = Histogram.highest(b);
+            assertTrue(high - low <= low / 8);
+        }
+    }
+
+
+    public void test_percentiles() {
+        Histogram h = new Histogram();
+        assertEquals(0,h.percentile(50));
+
+        // 1..1000 microseconds
+        for(int i=1; i<=1000; ++i) h.record(i * 1000L);
+        assertEquals(1000,h.count());
+        assertEquals(1000000,h.max());
+        assertNear(500000,h.percentile(50));
+        assertNear(900000,h.percentile(90));
+        assertNear(990000,h.percentile(99));
+        assertEquals(1000000,h.percentile(100));
+        assertNear(1000,h.percentile(0));
+    }
+
+
+    /** The value reported is the top of its bucket, so at most 1/8 high */
+    protected void assertNear(long expected, long actual) {
+        assertTrue(actual + " vs " + expected,
+                   actual >= expected && actual <= expected + expected / 8);
+    }
+
+
+    public void test_oneSlowValueShowsInTheTail() {
+        Histogram h = new Histogram();
+        for(int i=0; i<99; ++i) h.record(2000000);
+        h.record(50000000);
+        assertNear(2000000,h.percentile(50));
+        assertNear(2000000,h.percentile(99));
+        assertEquals(50000000,h.max());
+    }
+
+
+    public void test_moveTo() {
+        Histogram h = new Histogram();
+        Histogram other = new Histogram();
+        other.record(5);
+        h.record(100);
+        h.record(200);
+
+        h.moveTo(other);
+        assertEquals(0,h.count());
+        assertEquals(0,h.max());
+        assertEquals(0,h.percentile(50));
+        assertEquals(2,other.count());
+        assertEquals(200,other.max());
+        assertNear(100,other.percentile(50));
+    }
+
+}
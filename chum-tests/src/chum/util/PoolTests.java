@@ -0,0 +1,121 @@
+package chum.util;
+
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+
+/**
+ */
+public class PoolTests extends TestCase {
+
+    protected void setUp() {
+
+    }
+
+
+    static class Thing {
+    }
+
+
+    static class ThingPool extends Pool<Thing> {
+        ThingPool(int prefill, int capacity) {
+            super("Thing",prefill,capacity,4);
+        }
+
+        @Override
+        protected Thing newInstance() {
+            return new Thing();
+        }
+    }
+
+
+    public void test_reusesRecycled() {
+        ThingPool pool = new ThingPool(0,0);
+        Thing a = pool.obtain();
+        assertEquals(1,pool.misses());
+        pool.recycle(a);
+        assertSame(a,pool.obtain());
+        assertEquals(1,pool.created());
+        assertEquals(1,pool.misses());
+        assertEquals(1,pool.inUse());
+    }
+
+
+    public void test_countsHighWater() {
+        ThingPool pool = new ThingPool(0,0);
+        ArrayList<Thing> things = new ArrayList<Thing>();
+        for(int i=0; i<20; ++i) things.add(pool.obtain());
+        for(Thing t : things) pool.recycle(t);
+        assertEquals(0,pool.inUse());
+        assertEquals(20,pool.highWater());
+
+        // The recycled ones are spread between the cache and shared stack,
+        // but all get reused
+        things.clear();
+        for(int i=0; i<20; ++i) things.add(pool.obtain());
+        assertEquals(20,pool.created());
+        assertEquals(20,pool.misses());
+    }
+
+
+    public void test_prefill() {
+        ThingPool pool = new ThingPool(10,0);
+        pool.prefill();
+        assertEquals(10,pool.available());
+        assertEquals(10,pool.created());
+        pool.prefill();
+        assertEquals(10,pool.created());
+
+        for(int i=0; i<10; ++i) pool.obtain();
+        assertEquals(0,pool.misses());
+        pool.obtain();
+        assertEquals(1,pool.misses());
+    }
+
+
+    public void test_capacity() {
+        ThingPool pool = new ThingPool(0,4);
+        ArrayList<Thing> things = new ArrayList<Thing>();
+        for(int i=0; i<20; ++i) things.add(pool.obtain());
+        for(Thing t : things) pool.recycle(t);
+
+        // 4 in the thread's cache, and up to 4 in the shared stack
+        assertEquals(4,pool.available());
+        assertEquals(12,pool.dropped());
+    }
+
+
+    /**
+       Objects obtained in one thread and recycled in another still get
+       back to the first
+     */
+    public void test_acrossThreads() throws InterruptedException {
+        final ThingPool pool = new ThingPool(0,0);
+        final ArrayList<Thing> things = new ArrayList<Thing>();
+        for(int i=0; i<10; ++i) things.add(pool.obtain());
+
+        Thread other = new Thread() {
+                public void run() {
+                    for(Thing t : things) pool.recycle(t);
+                }
+            };
+        other.start();
+        other.join();
+
+        assertTrue(pool.available() > 0);
+        int created = pool.created();
+        int available = pool.available();
+        for(int i=0; i<available; ++i) pool.obtain();
+        assertEquals(created,pool.created());
+    }
+
+
+    public void test_registered() {
+        ThingPool pool = new ThingPool(3,0);
+        assertTrue(Pool.all().contains(pool));
+        Pool.prefillAll();
+        assertEquals(3,pool.available());
+    }
+
+}